@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database;
+
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.RandomOperationGenerator;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.Node;
+
+/** Workloads that are shared by several benchmarks. */
+public final class BenchmarkData {
+
+  private BenchmarkData() {}
+
+  /**
+   * Returns a node with the given number of children, each holding the random server state of a
+   * {@link RandomOperationGenerator}. The same arguments always return the same tree.
+   */
+  public static Node randomTree(int children, long seed) {
+    Node node = EmptyNode.Empty();
+    for (int i = 0; i < children; i++) {
+      RandomOperationGenerator generator = new RandomOperationGenerator(seed + i);
+      node = node.updateImmediateChild(
+          ChildKey.fromString("child" + i), generator.getCurrentServerNode(Path.getEmptyPath()));
+    }
+    return node;
+  }
+}
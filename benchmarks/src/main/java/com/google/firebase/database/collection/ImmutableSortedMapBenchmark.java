@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.collection;
+
+import com.google.firebase.database.snapshot.ChildKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures building and iterating {@link ImmutableSortedMap}s keyed by child keys, which is how the
+ * children of every node are stored. Sizes on both sides of
+ * {@link ImmutableSortedMap.Builder#ARRAY_TO_RB_TREE_SIZE_THRESHOLD} are covered.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ImmutableSortedMapBenchmark {
+
+  @Param({"10", "100", "10000"})
+  public int size;
+
+  private final Comparator<ChildKey> comparator = StandardComparator.getComparator(ChildKey.class);
+  private List<ChildKey> keys;
+  private ImmutableSortedMap<ChildKey, Integer> map;
+
+  @Setup
+  public void setUp() {
+    keys = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      keys.add(ChildKey.fromString(i % 2 == 0 ? String.valueOf(i) : "key" + i));
+    }
+    Collections.shuffle(keys, new Random(1));
+    map = insertAll();
+  }
+
+  private ImmutableSortedMap<ChildKey, Integer> insertAll() {
+    ImmutableSortedMap<ChildKey, Integer> result = ImmutableSortedMap.Builder.emptyMap(comparator);
+    for (int i = 0; i < keys.size(); i++) {
+      result = result.insert(keys.get(i), i);
+    }
+    return result;
+  }
+
+  @Benchmark
+  public ImmutableSortedMap<ChildKey, Integer> insert() {
+    return insertAll();
+  }
+
+  @Benchmark
+  public ImmutableSortedMap<ChildKey, Integer> insertExisting() {
+    return map.insert(keys.get(size / 2), -1);
+  }
+
+  @Benchmark
+  public ImmutableSortedMap<ChildKey, Integer> remove() {
+    return map.remove(keys.get(size / 2));
+  }
+
+  @Benchmark
+  public void iterate(Blackhole blackhole) {
+    Iterator<Map.Entry<ChildKey, Integer>> iterator = map.iterator();
+    while (iterator.hasNext()) {
+      blackhole.consume(iterator.next());
+    }
+  }
+
+  @Benchmark
+  public void reverseIterate(Blackhole blackhole) {
+    Iterator<Map.Entry<ChildKey, Integer>> iterator = map.reverseIterator();
+    while (iterator.hasNext()) {
+      blackhole.consume(iterator.next());
+    }
+  }
+
+  @Benchmark
+  public Integer get() {
+    return map.get(keys.get(size / 2));
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.core;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.TestOnlyImplFirebaseTrampolines;
+import com.google.firebase.database.TestHelpers;
+import com.google.firebase.database.connection.ListenHashProvider;
+import com.google.firebase.database.core.operation.Merge;
+import com.google.firebase.database.core.operation.Operation;
+import com.google.firebase.database.core.operation.Overwrite;
+import com.google.firebase.database.core.persistence.NoopPersistenceManager;
+import com.google.firebase.database.core.view.Event;
+import com.google.firebase.database.core.view.QuerySpec;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.testing.ServiceAccount;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast a {@link SyncTree} with an active listener at the root applies server updates.
+ * The updates are taken from a {@link RandomOperationGenerator}, and are applied in the order they
+ * were generated, so that the tree keeps growing and changing the way it would with real traffic.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SyncTreeBenchmark {
+
+  private static final int OPERATIONS = 1000;
+
+  @Param({"1", "42"})
+  public long seed;
+
+  private FirebaseApp app;
+  private SyncTree syncTree;
+  private List<Overwrite> overwrites;
+  private List<Merge> merges;
+  private List<Map<Path, Node>> mergeChildren;
+  private int nextOverwrite;
+  private int nextMerge;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() throws IOException {
+    app = FirebaseApp.initializeApp(
+        new FirebaseOptions.Builder()
+            .setCredentials(GoogleCredentials.fromStream(ServiceAccount.EDITOR.asStream()))
+            .setDatabaseUrl("https://admin-java-sdk.firebaseio.com")
+            .build(),
+        "sync-tree-benchmark");
+
+    RandomOperationGenerator generator = new RandomOperationGenerator(seed);
+    overwrites = new ArrayList<>();
+    merges = new ArrayList<>();
+    mergeChildren = new ArrayList<>();
+    while (overwrites.size() < OPERATIONS || merges.size() < OPERATIONS) {
+      Operation operation = generator.nextOperation();
+      if (!operation.getSource().isFromServer() || operation.getSource().isTagged()) {
+        continue;
+      }
+      if (operation instanceof Overwrite && overwrites.size() < OPERATIONS) {
+        overwrites.add((Overwrite) operation);
+      } else if (operation instanceof Merge && merges.size() < OPERATIONS) {
+        Merge merge = (Merge) operation;
+        Map<Path, Node> children = new HashMap<>();
+        for (Map.Entry<Path, Node> entry : merge.getChildren()) {
+          children.put(entry.getKey(), entry.getValue());
+        }
+        merges.add(merge);
+        mergeChildren.add(children);
+      }
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void setUpIteration() {
+    DatabaseConfig config = TestHelpers.newFrozenTestConfig(app);
+    syncTree = new SyncTree(config, new NoopPersistenceManager(), new SyncTree.ListenProvider() {
+      @Override
+      public void startListening(
+          QuerySpec query,
+          Tag tag,
+          ListenHashProvider hash,
+          SyncTree.CompletionListener onListenComplete) {
+      }
+
+      @Override
+      public void stopListening(QuerySpec query, Tag tag) {
+      }
+    });
+    syncTree.keepSynced(QuerySpec.defaultQueryAtPath(Path.getEmptyPath()), true);
+    nextOverwrite = 0;
+    nextMerge = 0;
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownTrial() {
+    TestOnlyImplFirebaseTrampolines.clearInstancesForTest();
+  }
+
+  @Benchmark
+  public List<? extends Event> applyServerOverwrite() {
+    Overwrite overwrite = overwrites.get(nextOverwrite);
+    nextOverwrite = (nextOverwrite + 1) % overwrites.size();
+    return syncTree.applyServerOverwrite(overwrite.getPath(), overwrite.getSnapshot());
+  }
+
+  @Benchmark
+  public List<? extends Event> applyServerMerge() {
+    int index = nextMerge;
+    nextMerge = (nextMerge + 1) % merges.size();
+    return syncTree.applyServerMerge(merges.get(index).getPath(), mergeChildren.get(index));
+  }
+}
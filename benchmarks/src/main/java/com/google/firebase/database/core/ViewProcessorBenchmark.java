@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.core;
+
+import com.google.firebase.database.core.operation.Operation;
+import com.google.firebase.database.core.view.CacheNode;
+import com.google.firebase.database.core.view.QueryParams;
+import com.google.firebase.database.core.view.QuerySpec;
+import com.google.firebase.database.core.view.ViewCache;
+import com.google.firebase.database.core.view.ViewProcessor;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.IndexedNode;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link ViewProcessor#applyOperation} over the same randomized scenarios that
+ * RandomViewProcessorTest runs. User writes have to be in the generator's write tree by the time
+ * the processor sees them, so operations are generated as the scenario runs. The
+ * {@code generateOnly} benchmark replays the same scenario without the view processor; subtract
+ * its score to get the time spent applying operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ViewProcessorBenchmark {
+
+  private static final int OPERATIONS_PER_SCENARIO = 300;
+
+  @Param({"1", "42", "1234"})
+  public long seed;
+
+  @Benchmark
+  public ViewCache applyOperation() {
+    RandomOperationGenerator generator = new RandomOperationGenerator(seed);
+    QueryParams params = generator.nextRandomParams();
+    generator.listen(new QuerySpec(Path.getEmptyPath(), params));
+    ViewProcessor processor = new ViewProcessor(params.getNodeFilter());
+    CacheNode emptyCacheNode =
+        new CacheNode(IndexedNode.from(EmptyNode.Empty(), params.getIndex()), false, false);
+    ViewCache viewCache = new ViewCache(emptyCacheNode, emptyCacheNode);
+    WriteTreeRef writeTreeRef = new WriteTreeRef(Path.getEmptyPath(), generator.getWriteTree());
+    for (int i = 0; i < OPERATIONS_PER_SCENARIO; i++) {
+      Operation operation = generator.nextOperation();
+      viewCache = processor.applyOperation(viewCache, operation, writeTreeRef, null).viewCache;
+    }
+    return viewCache;
+  }
+
+  @Benchmark
+  public void generateOnly(Blackhole blackhole) {
+    RandomOperationGenerator generator = new RandomOperationGenerator(seed);
+    QueryParams params = generator.nextRandomParams();
+    generator.listen(new QuerySpec(Path.getEmptyPath(), params));
+    for (int i = 0; i < OPERATIONS_PER_SCENARIO; i++) {
+      blackhole.consume(generator.nextOperation());
+    }
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.core;
+
+import com.google.firebase.database.core.operation.Merge;
+import com.google.firebase.database.core.operation.Operation;
+import com.google.firebase.database.core.operation.Overwrite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a {@link WriteTree} that holds many pending user writes. Each benchmark keeps the
+ * number of pending writes constant: a new write is added for every write that is acknowledged,
+ * the way a client that writes faster than the server acknowledges would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class WriteTreeBenchmark {
+
+  private static final int DISTINCT_WRITES = 1000;
+
+  @Param({"10", "100", "1000"})
+  public int pendingWrites;
+
+  private List<Operation> writes;
+  private WriteTree writeTree;
+  private long oldestWriteId;
+  private long nextWriteId;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() {
+    RandomOperationGenerator generator = new RandomOperationGenerator(1);
+    writes = new ArrayList<>();
+    while (writes.size() < DISTINCT_WRITES) {
+      Operation operation = generator.nextOperation();
+      if (operation.getSource().isFromUser()
+          && (operation instanceof Overwrite || operation instanceof Merge)) {
+        writes.add(operation);
+      }
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void setUpIteration() {
+    writeTree = new WriteTree();
+    oldestWriteId = 0;
+    nextWriteId = 0;
+    for (int i = 0; i < pendingWrites; i++) {
+      addNextWrite();
+    }
+  }
+
+  private void addNextWrite() {
+    Operation operation = writes.get((int) (nextWriteId % writes.size()));
+    if (operation instanceof Overwrite) {
+      writeTree.addOverwrite(
+          operation.getPath(), ((Overwrite) operation).getSnapshot(), nextWriteId, true);
+    } else {
+      writeTree.addMerge(operation.getPath(), ((Merge) operation).getChildren(), nextWriteId);
+    }
+    nextWriteId++;
+  }
+
+  @Benchmark
+  public boolean addAndAckOldest() {
+    addNextWrite();
+    return writeTree.removeWrite(oldestWriteId++);
+  }
+
+  @Benchmark
+  public boolean addAndRevertNewest() {
+    addNextWrite();
+    return writeTree.removeWrite(nextWriteId - 1);
+  }
+
+  @Benchmark
+  public UserWriteRecord getWrite() {
+    return writeTree.getWrite(oldestWriteId + pendingWrites / 2);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.snapshot;
+
+import com.google.firebase.database.BenchmarkData;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures converting between nodes and the plain Java values that are sent to and received from
+ * the server, and hashing nodes for listens.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class NodeBenchmark {
+
+  @Param({"1", "10", "100"})
+  public int children;
+
+  private Node node;
+  private Object value;
+
+  @Setup
+  public void setUp() {
+    node = BenchmarkData.randomTree(children, 1);
+    value = node.getValue(true);
+  }
+
+  @Benchmark
+  public Node nodeFromJson() {
+    return NodeUtilities.NodeFromJSON(value);
+  }
+
+  @Benchmark
+  public Object getValue() {
+    return node.getValue(true);
+  }
+
+  @Benchmark
+  public String getHash() {
+    // Nodes cache their hash, so hash a fresh copy every time. Subtract the nodeFromJson score to
+    // get the time spent hashing.
+    return NodeUtilities.NodeFromJSON(value).getHash();
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.utilities.encoding;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CustomClassMapper} converting POJOs to and from plain Java types, as done by
+ * setValue() and DataSnapshot.getValue(Class).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CustomClassMapperBenchmark {
+
+  private static final int MESSAGES = 20;
+
+  private ChatRoom chatRoom;
+  private Object plainChatRoom;
+
+  @Setup
+  public void setUp() {
+    chatRoom = new ChatRoom();
+    chatRoom.name = "benchmarks";
+    chatRoom.members = new HashMap<>();
+    chatRoom.messages = new ArrayList<>();
+    for (int i = 0; i < MESSAGES; i++) {
+      Message message = new Message();
+      message.setAuthor("user" + (i % 5));
+      message.setText("Message number " + i);
+      message.setTimestamp(1500000000000L + i);
+      message.setRead(i % 2 == 0);
+      chatRoom.messages.add(message);
+      chatRoom.members.put("user" + (i % 5), true);
+    }
+    plainChatRoom = CustomClassMapper.convertToPlainJavaTypes(chatRoom);
+  }
+
+  @Benchmark
+  public Object serialize() {
+    return CustomClassMapper.convertToPlainJavaTypes(chatRoom);
+  }
+
+  @Benchmark
+  public ChatRoom deserialize() {
+    return CustomClassMapper.convertToCustomClass(plainChatRoom, ChatRoom.class);
+  }
+
+  public static class ChatRoom {
+
+    public String name;
+    public Map<String, Boolean> members;
+    public List<Message> messages;
+  }
+
+  public static class Message {
+
+    private String author;
+    private String text;
+    private long timestamp;
+    private boolean read;
+
+    public String getAuthor() {
+      return author;
+    }
+
+    public void setAuthor(String author) {
+      this.author = author;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    public void setText(String text) {
+      this.text = text;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+      this.timestamp = timestamp;
+    }
+
+    public boolean isRead() {
+      return read;
+    }
+
+    public void setRead(boolean read) {
+      this.read = read;
+    }
+  }
+}
@@ -31,15 +31,25 @@ import com.google.common.base.Strings;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.ImplFirebaseTrampolines;
 import com.google.firebase.auth.UserRecord.CreateRequest;
+import com.google.firebase.auth.UserRecord.ImportRequest;
 import com.google.firebase.auth.UserRecord.UpdateRequest;
 import com.google.firebase.auth.internal.FirebaseTokenFactory;
 import com.google.firebase.auth.internal.FirebaseTokenVerifier;
 import com.google.firebase.internal.FirebaseService;
+import com.google.firebase.internal.Nullable;
 import com.google.firebase.internal.TaskToApiFuture;
 import com.google.firebase.tasks.Task;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -52,6 +62,9 @@ import java.util.concurrent.atomic.AtomicBoolean;
  */
 public class FirebaseAuth {
 
+  /** Maximum number of requests a bulk user operation keeps in flight. */
+  private static final int MAX_CONCURRENT_BATCH_REQUESTS = 4;
+
   private final GooglePublicKeysManager googlePublicKeysManager;
   private final Clock clock;
 
@@ -59,10 +72,17 @@ public class FirebaseAuth {
   private final GoogleCredentials credentials;
   private final String projectId;
   private final JsonFactory jsonFactory;
+  private final Executor executor;
+  // Bulk operations wait for their batches on the app executor, so the batches need threads of
+  // their own to not deadlock when that executor is bounded.
+  private final ThreadPoolExecutor batchExecutor;
   private final FirebaseUserManager userManager;
   private final AtomicBoolean destroyed;
   private final Object lock;
 
+  private int verifiedTokenCacheSize;
+  private volatile FirebaseTokenVerifier tokenVerifier;
+
   private FirebaseAuth(FirebaseApp firebaseApp) {
     this(firebaseApp, FirebaseTokenVerifier.DEFAULT_KEY_MANAGER, Clock.SYSTEM);
   }
@@ -80,8 +100,26 @@ public class FirebaseAuth {
     this.credentials = ImplFirebaseTrampolines.getCredentials(firebaseApp);
     this.projectId = ImplFirebaseTrampolines.getProjectId(firebaseApp);
     this.jsonFactory = firebaseApp.getOptions().getJsonFactory();
+    this.executor = new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        call(Executors.callable(command));
+      }
+    };
+    // Threads are only created by the first bulk operation, so the thread factory is looked up then
+    this.batchExecutor = new ThreadPoolExecutor(
+        MAX_CONCURRENT_BATCH_REQUESTS, MAX_CONCURRENT_BATCH_REQUESTS, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return ImplFirebaseTrampolines.getThreadFactory(FirebaseAuth.this.firebaseApp)
+                .newThread(runnable);
+          }
+        });
+    this.batchExecutor.allowCoreThreadTimeOut(true);
     this.userManager = new FirebaseUserManager(jsonFactory,
-        firebaseApp.getOptions().getHttpTransport(), this.credentials);
+        firebaseApp.getOptions().getHttpTransport(), this.credentials, this.batchExecutor,
+        MAX_CONCURRENT_BATCH_REQUESTS);
     this.destroyed = new AtomicBoolean(false);
     this.lock = new Object();
   }
@@ -204,12 +242,7 @@ public class FirebaseAuth {
     return call(new Callable<FirebaseToken>() {
       @Override
       public FirebaseToken call() throws Exception {
-        FirebaseTokenVerifier firebaseTokenVerifier =
-            new FirebaseTokenVerifier.Builder()
-                .setProjectId(projectId)
-                .setPublicKeysManager(googlePublicKeysManager)
-                .setClock(clock)
-                .build();
+        FirebaseTokenVerifier firebaseTokenVerifier = getTokenVerifier();
         FirebaseToken firebaseToken = FirebaseToken.parse(jsonFactory, token);
 
         // This will throw a FirebaseAuthException with details on how the token is invalid.
@@ -244,6 +277,44 @@ public class FirebaseAuth {
     return new TaskToApiFuture<>(verifyIdToken(token));
   }
 
+  /**
+   * Sets the maximum number of verified ID tokens to remember. The signature of a remembered token
+   * isn't verified again when the same token is passed to {@link #verifyIdTokenAsync(String)}; all
+   * other checks, including its expiry, still apply. Remembered tokens are dropped once they
+   * expire. Defaults to 0, which disables the cache.
+   *
+   * @param maxSize The maximum number of tokens to remember.
+   * @throws IllegalArgumentException If maxSize is negative.
+   */
+  public void setVerifiedTokenCacheSize(int maxSize) {
+    checkNotDestroyed();
+    checkArgument(maxSize >= 0, "maxSize must not be negative");
+    synchronized (lock) {
+      verifiedTokenCacheSize = maxSize;
+      tokenVerifier = null;
+    }
+  }
+
+  private FirebaseTokenVerifier getTokenVerifier() {
+    FirebaseTokenVerifier verifier = tokenVerifier;
+    if (verifier == null) {
+      synchronized (lock) {
+        verifier = tokenVerifier;
+        if (verifier == null) {
+          verifier = new FirebaseTokenVerifier.Builder()
+              .setProjectId(projectId)
+              .setPublicKeysManager(googlePublicKeysManager)
+              .setClock(clock)
+              .setKeyRefreshExecutor(executor)
+              .setVerifiedTokenCacheSize(verifiedTokenCacheSize)
+              .build();
+          tokenVerifier = verifier;
+        }
+      }
+    }
+    return verifier;
+  }
+
   /**
    * Similar to {@link #getUserAsync(String)}, but returns a {@link Task}.
    *
@@ -451,6 +522,8 @@ public class FirebaseAuth {
     synchronized (lock) {
       destroyed.set(true);
     }
+    // Batches that were already scheduled still run, so that their callers don't wait forever
+    batchExecutor.shutdown();
   }
 
   /**
@@ -466,6 +539,98 @@ public class FirebaseAuth {
     return new TaskToApiFuture<>(deleteUser(uid));
   }
 
+  /**
+   * Gets the user data corresponding to the specified user IDs. The IDs are looked up in batches,
+   * with a bounded number of requests in flight at a time, so that large numbers of users can be
+   * retrieved without a separate round trip per user.
+   *
+   * @param uids A collection of user ID strings.
+   * @return An {@code ApiFuture} which will complete successfully with the {@link UserRecord}
+   *     instances of the users that exist, in no particular order. User IDs that do not correspond
+   *     to a user are skipped. If an error occurs while retrieving user data, the future throws a
+   *     {@link FirebaseAuthException}.
+   * @throws IllegalArgumentException If the collection is null, or contains a null or empty user
+   *     ID string.
+   */
+  public ApiFuture<List<UserRecord>> getUsersAsync(final Collection<String> uids) {
+    checkNotDestroyed();
+    checkArgument(uids != null, "uids must not be null");
+    for (String uid : uids) {
+      checkArgument(!Strings.isNullOrEmpty(uid), "uids must not contain null or empty strings");
+    }
+    return new TaskToApiFuture<>(call(new Callable<List<UserRecord>>() {
+      @Override
+      public List<UserRecord> call() throws Exception {
+        return userManager.getUsers(uids);
+      }
+    }));
+  }
+
+  /**
+   * Imports the specified user accounts in bulk. The accounts are uploaded in batches, with a
+   * bounded number of requests in flight at a time. Each account is imported independently, so
+   * the result reports the accounts that failed to import, if any.
+   *
+   * @param users A non-null list of {@link ImportRequest} instances.
+   * @return An {@code ApiFuture} which will complete successfully with a {@link UserImportResult}
+   *     instance. If a batch of users could not be sent, the future throws a
+   *     {@link FirebaseAuthException}, and batches after the failed one are not sent.
+   * @throws IllegalArgumentException If the list is null or contains null elements.
+   */
+  public ApiFuture<UserImportResult> importUsersAsync(final List<ImportRequest> users) {
+    checkNotDestroyed();
+    checkArgument(users != null, "users must not be null");
+    for (ImportRequest user : users) {
+      checkArgument(user != null, "users must not contain null elements");
+    }
+    return new TaskToApiFuture<>(call(new Callable<UserImportResult>() {
+      @Override
+      public UserImportResult call() throws Exception {
+        return userManager.importUsers(users);
+      }
+    }));
+  }
+
+  /**
+   * Gets a page of user accounts, with up to 1000 users per page. See
+   * {@link #listUsersAsync(String, int)}.
+   *
+   * @param pageToken A token returned by {@link ListUsersPage#getNextPageToken()}, or null to
+   *     start from the first user.
+   * @return An {@code ApiFuture} which will complete successfully with a {@link ListUsersPage}
+   *     instance. If an error occurs while retrieving user data, the future throws a
+   *     {@link FirebaseAuthException}.
+   */
+  public ApiFuture<ListUsersPage> listUsersAsync(@Nullable String pageToken) {
+    return listUsersAsync(pageToken, FirebaseUserManager.MAX_LIST_USERS_RESULTS);
+  }
+
+  /**
+   * Gets a page of user accounts. Use {@link ListUsersPage#iterateAll()} on the returned page to
+   * stream through all the users, fetching one page ahead at a time.
+   *
+   * @param pageToken A token returned by {@link ListUsersPage#getNextPageToken()}, or null to
+   *     start from the first user.
+   * @param maxResults Maximum number of users per page, between 1 and 1000.
+   * @return An {@code ApiFuture} which will complete successfully with a {@link ListUsersPage}
+   *     instance. If an error occurs while retrieving user data, the future throws a
+   *     {@link FirebaseAuthException}.
+   * @throws IllegalArgumentException If the page token is empty, or maxResults is out of range.
+   */
+  public ApiFuture<ListUsersPage> listUsersAsync(
+      @Nullable final String pageToken, final int maxResults) {
+    checkNotDestroyed();
+    checkArgument(pageToken == null || !pageToken.isEmpty(), "pageToken must not be empty");
+    checkArgument(maxResults > 0 && maxResults <= FirebaseUserManager.MAX_LIST_USERS_RESULTS,
+        "maxResults must be between 1 and " + FirebaseUserManager.MAX_LIST_USERS_RESULTS);
+    return new TaskToApiFuture<>(call(new Callable<ListUsersPage>() {
+      @Override
+      public ListUsersPage call() throws Exception {
+        return userManager.listUsers(pageToken, maxResults);
+      }
+    }));
+  }
+
   private <T> Task<T> call(Callable<T> command) {
     return ImplFirebaseTrampolines.submitCallable(firebaseApp, command);
   }
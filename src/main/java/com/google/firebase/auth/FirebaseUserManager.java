@@ -35,18 +35,39 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.firebase.auth.UserRecord.CreateRequest;
+import com.google.firebase.auth.UserRecord.ImportRequest;
 import com.google.firebase.auth.UserRecord.UpdateRequest;
+import com.google.firebase.auth.internal.DownloadAccountResponse;
 import com.google.firebase.auth.internal.GetAccountInfoResponse;
+import com.google.firebase.auth.internal.UploadAccountResponse;
 
 import com.google.firebase.internal.SdkUtils;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * FirebaseUserManager provides methods for interacting with the Google Identity Toolkit via its
  * REST API. This class does not hold any mutable state, and is thread safe.
  *
+ * <p>Bulk operations are split into batches of the size the backend accepts. Batches run on the
+ * batch executor, with at most a fixed number of requests in flight at a time. Once that many
+ * requests are pending, the calling thread waits for one of them to complete before sending the
+ * next batch. Since the calling thread blocks, the batch executor must not be the executor that
+ * the bulk operations themselves run on.
+ *
  * @see <a href="https://developers.google.com/identity/toolkit/web/reference/relyingparty">
  *   Google Identity Toolkit</a>
  */
@@ -56,14 +77,22 @@ class FirebaseUserManager {
   static final String USER_CREATE_ERROR = "USER_CREATE_ERROR";
   static final String USER_UPDATE_ERROR = "USER_UPDATE_ERROR";
   static final String USER_DELETE_ERROR = "USER_DELETE_ERROR";
+  static final String USER_IMPORT_ERROR = "USER_IMPORT_ERROR";
+  static final String LIST_USERS_ERROR = "LIST_USERS_ERROR";
   static final String INTERNAL_ERROR = "INTERNAL_ERROR";
 
   private static final String ID_TOOLKIT_URL =
       "https://www.googleapis.com/identitytoolkit/v3/relyingparty/";
   private static final String CLIENT_VERSION_HEADER = "X-Client-Version";
 
+  static final int MAX_GET_ACCOUNTS_BATCH_SIZE = 100;
+  static final int MAX_IMPORT_USERS_BATCH_SIZE = 1000;
+  static final int MAX_LIST_USERS_RESULTS = 1000;
+
   private final JsonFactory jsonFactory;
   private final HttpRequestFactory requestFactory;
+  private final Executor batchExecutor;
+  private final int maxConcurrentRequests;
   private final String clientVersion = "Java/Admin/" + SdkUtils.getVersion();
 
   private HttpResponseInterceptor interceptor;
@@ -76,8 +105,25 @@ class FirebaseUserManager {
    */
   FirebaseUserManager(JsonFactory jsonFactory, HttpTransport transport,
       GoogleCredentials credentials) {
+    this(jsonFactory, transport, credentials, MoreExecutors.directExecutor(), 1);
+  }
+
+  /**
+   * Creates a new FirebaseUserManager instance that runs the batches of bulk operations on the
+   * given executor.
+   *
+   * @param jsonFactory JsonFactory instance used to transform Java objects into JSON and back.
+   * @param transport HttpTransport used to make REST API calls.
+   * @param batchExecutor Executor used to send the requests of bulk operations.
+   * @param maxConcurrentRequests Maximum number of requests a bulk operation keeps in flight.
+   */
+  FirebaseUserManager(JsonFactory jsonFactory, HttpTransport transport,
+      GoogleCredentials credentials, Executor batchExecutor, int maxConcurrentRequests) {
+    checkArgument(maxConcurrentRequests > 0, "maxConcurrentRequests must be positive");
     this.jsonFactory = checkNotNull(jsonFactory, "jsonFactory must not be null");
     this.requestFactory = transport.createRequestFactory(new HttpCredentialsAdapter(credentials));
+    this.batchExecutor = checkNotNull(batchExecutor, "batchExecutor must not be null");
+    this.maxConcurrentRequests = maxConcurrentRequests;
   }
 
   @VisibleForTesting
@@ -187,6 +233,190 @@ class FirebaseUserManager {
     }
   }
 
+  List<UserRecord> getUsers(Collection<String> uids) throws FirebaseAuthException {
+    List<Callable<List<UserRecord>>> batches = new ArrayList<>();
+    for (final List<String> batch : Iterables.partition(uids, MAX_GET_ACCOUNTS_BATCH_SIZE)) {
+      batches.add(new Callable<List<UserRecord>>() {
+        @Override
+        public List<UserRecord> call() throws FirebaseAuthException {
+          return getUsersBatch(batch);
+        }
+      });
+    }
+    List<UserRecord> users = new ArrayList<>();
+    for (List<UserRecord> batchUsers : runBatches(batches)) {
+      users.addAll(batchUsers);
+    }
+    return users;
+  }
+
+  private List<UserRecord> getUsersBatch(List<String> uids) throws FirebaseAuthException {
+    final Map<String, Object> payload = ImmutableMap.<String, Object>of(
+        "localId", ImmutableList.copyOf(uids));
+    GetAccountInfoResponse response;
+    try {
+      response = post("getAccountInfo", payload, GetAccountInfoResponse.class);
+    } catch (IOException e) {
+      throw new FirebaseAuthException(INTERNAL_ERROR,
+          "IO error while retrieving " + uids.size() + " users", e);
+    }
+
+    List<UserRecord> users = new ArrayList<>();
+    if (response != null && response.getUsers() != null) {
+      for (GetAccountInfoResponse.User user : response.getUsers()) {
+        users.add(new UserRecord(user));
+      }
+    }
+    return users;
+  }
+
+  UserImportResult importUsers(List<ImportRequest> requests) throws FirebaseAuthException {
+    List<Callable<List<UserImportResult.ErrorInfo>>> batches = new ArrayList<>();
+    int offset = 0;
+    for (final List<ImportRequest> batch
+        : Iterables.partition(requests, MAX_IMPORT_USERS_BATCH_SIZE)) {
+      final int batchOffset = offset;
+      batches.add(new Callable<List<UserImportResult.ErrorInfo>>() {
+        @Override
+        public List<UserImportResult.ErrorInfo> call() throws FirebaseAuthException {
+          return importUsersBatch(batch, batchOffset);
+        }
+      });
+      offset += batch.size();
+    }
+    List<UserImportResult.ErrorInfo> errors = new ArrayList<>();
+    for (List<UserImportResult.ErrorInfo> batchErrors : runBatches(batches)) {
+      errors.addAll(batchErrors);
+    }
+    return new UserImportResult(requests.size(), errors);
+  }
+
+  private List<UserImportResult.ErrorInfo> importUsersBatch(
+      List<ImportRequest> requests, int offset) throws FirebaseAuthException {
+    ImmutableList.Builder<Map<String, Object>> users = ImmutableList.builder();
+    for (ImportRequest request : requests) {
+      users.add(request.getProperties());
+    }
+    final Map<String, Object> payload = ImmutableMap.<String, Object>of("users", users.build());
+    UploadAccountResponse response;
+    try {
+      response = post("uploadAccount", payload, UploadAccountResponse.class);
+    } catch (IOException e) {
+      throw new FirebaseAuthException(USER_IMPORT_ERROR,
+          "IO error while importing " + requests.size() + " users", e);
+    }
+    if (response == null) {
+      throw new FirebaseAuthException(USER_IMPORT_ERROR,
+          "Failed to import " + requests.size() + " users");
+    }
+
+    List<UserImportResult.ErrorInfo> errors = new ArrayList<>();
+    if (response.getErrors() != null) {
+      for (UploadAccountResponse.Error error : response.getErrors()) {
+        errors.add(new UserImportResult.ErrorInfo(offset + error.getIndex(), error.getMessage()));
+      }
+    }
+    return errors;
+  }
+
+  ListUsersPage listUsers(String pageToken, int maxResults) throws FirebaseAuthException {
+    ImmutableMap.Builder<String, Object> payload = ImmutableMap.<String, Object>builder()
+        .put("maxResults", maxResults);
+    if (pageToken != null) {
+      payload.put("nextPageToken", pageToken);
+    }
+    DownloadAccountResponse response;
+    try {
+      response = post("downloadAccount", payload.build(), DownloadAccountResponse.class);
+    } catch (IOException e) {
+      throw new FirebaseAuthException(LIST_USERS_ERROR,
+          "IO error while listing users", e);
+    }
+    if (response == null) {
+      throw new FirebaseAuthException(LIST_USERS_ERROR, "Failed to list users");
+    }
+
+    ImmutableList.Builder<UserRecord> users = ImmutableList.builder();
+    if (response.getUsers() != null) {
+      for (GetAccountInfoResponse.User user : response.getUsers()) {
+        users.add(new UserRecord(user));
+      }
+    }
+    return new ListUsersPage(users.build(), response.getNextPageToken(), maxResults, this);
+  }
+
+  /**
+   * Starts a task on the batch executor, and returns a future for its result.
+   */
+  <T> Future<T> submit(Callable<T> task) {
+    FutureTask<T> future = new FutureTask<>(task);
+    batchExecutor.execute(future);
+    return future;
+  }
+
+  /**
+   * Runs the given batches, keeping at most {@code maxConcurrentRequests} of them in flight, and
+   * returns their results in order. Stops sending batches once one of them fails, and rethrows
+   * the first error.
+   */
+  private <T> List<T> runBatches(List<Callable<T>> batches) throws FirebaseAuthException {
+    final Semaphore permits = new Semaphore(maxConcurrentRequests);
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    List<Future<T>> futures = new ArrayList<>(batches.size());
+    try {
+      for (final Callable<T> batch : batches) {
+        permits.acquire();
+        if (failed.get()) {
+          permits.release();
+          break;
+        }
+        FutureTask<T> future = new FutureTask<>(new Callable<T>() {
+          @Override
+          public T call() throws Exception {
+            try {
+              return batch.call();
+            } catch (Exception e) {
+              failed.set(true);
+              throw e;
+            } finally {
+              permits.release();
+            }
+          }
+        });
+        try {
+          batchExecutor.execute(future);
+        } catch (RuntimeException e) {
+          permits.release();
+          cancelAll(futures);
+          throw new FirebaseAuthException(INTERNAL_ERROR, "Failed to schedule batch", e);
+        }
+        futures.add(future);
+      }
+
+      List<T> results = new ArrayList<>(futures.size());
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+      return results;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancelAll(futures);
+      throw new FirebaseAuthException(INTERNAL_ERROR, "Interrupted while running batches", e);
+    } catch (ExecutionException e) {
+      cancelAll(futures);
+      if (e.getCause() instanceof FirebaseAuthException) {
+        throw (FirebaseAuthException) e.getCause();
+      }
+      throw new FirebaseAuthException(INTERNAL_ERROR, "Error while running batches", e.getCause());
+    }
+  }
+
+  private static void cancelAll(List<? extends Future<?>> futures) {
+    for (Future<?> future : futures) {
+      future.cancel(true);
+    }
+  }
+
   private <T> T post(String path, Object content, Class<T> clazz) throws IOException {
     checkArgument(!Strings.isNullOrEmpty(path), "path must not be null or empty");
     checkNotNull(content, "content must not be null");
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.auth;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.firebase.internal.Nullable;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A page of user accounts downloaded from Firebase Auth. Use {@link #getNextPage()} to fetch the
+ * following pages one at a time, or {@link #iterateAll()} to stream through all the users starting
+ * from this page. Instances of this class are immutable and thread safe.
+ */
+public class ListUsersPage {
+
+  private final List<UserRecord> users;
+  private final String nextPageToken;
+  private final int maxResults;
+  private final FirebaseUserManager userManager;
+
+  ListUsersPage(List<UserRecord> users, @Nullable String nextPageToken, int maxResults,
+      FirebaseUserManager userManager) {
+    this.users = ImmutableList.copyOf(checkNotNull(users, "users must not be null"));
+    this.nextPageToken = nextPageToken;
+    this.maxResults = maxResults;
+    this.userManager = checkNotNull(userManager, "userManager must not be null");
+  }
+
+  /**
+   * Returns the users in this page.
+   *
+   * @return a non-null, possibly empty list of {@link UserRecord} instances.
+   */
+  public List<UserRecord> getValues() {
+    return users;
+  }
+
+  /**
+   * Returns the token that can be passed to {@link FirebaseAuth#listUsersAsync(String, int)} to
+   * fetch the following page.
+   *
+   * @return a page token string, or null if this is the last page.
+   */
+  @Nullable
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+
+  /**
+   * Returns whether there are more users after this page.
+   *
+   * @return true if this is not the last page.
+   */
+  public boolean hasNextPage() {
+    return nextPageToken != null && !nextPageToken.isEmpty();
+  }
+
+  /**
+   * Fetches the following page. Blocks on a web request.
+   *
+   * @return the next {@link ListUsersPage}, or null if this is the last page.
+   * @throws FirebaseAuthException If an error occurs while fetching the page.
+   */
+  @Nullable
+  public ListUsersPage getNextPage() throws FirebaseAuthException {
+    if (!hasNextPage()) {
+      return null;
+    }
+    return userManager.listUsers(nextPageToken, maxResults);
+  }
+
+  /**
+   * Returns an {@code Iterable} over the users in this page and all the following pages. Pages are
+   * fetched as the iteration reaches them. While the users of one page are being consumed, the
+   * next page is fetched in the background, so that at most one page is buffered ahead of the
+   * caller.
+   *
+   * <p>Iterating blocks on web requests. If a page fails to load, the iterator throws an unchecked
+   * exception whose cause is the {@link FirebaseAuthException}.
+   *
+   * @return a non-null {@code Iterable} of {@link UserRecord} instances.
+   */
+  public Iterable<UserRecord> iterateAll() {
+    return new Iterable<UserRecord>() {
+      @Override
+      public Iterator<UserRecord> iterator() {
+        return new UserIterator(ListUsersPage.this);
+      }
+    };
+  }
+
+  private static class UserIterator implements Iterator<UserRecord> {
+
+    private ListUsersPage page;
+    private Future<ListUsersPage> nextPage;
+    private int index;
+
+    UserIterator(ListUsersPage page) {
+      this.page = page;
+      prefetchNextPage();
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (index >= page.users.size()) {
+        if (!page.hasNextPage()) {
+          return false;
+        }
+        page = awaitNextPage();
+        index = 0;
+        prefetchNextPage();
+      }
+      return true;
+    }
+
+    @Override
+    public UserRecord next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return page.users.get(index++);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+
+    private void prefetchNextPage() {
+      if (page.hasNextPage()) {
+        final ListUsersPage current = page;
+        nextPage = current.userManager.submit(new Callable<ListUsersPage>() {
+          @Override
+          public ListUsersPage call() throws FirebaseAuthException {
+            return current.getNextPage();
+          }
+        });
+      } else {
+        nextPage = null;
+      }
+    }
+
+    private ListUsersPage awaitNextPage() {
+      try {
+        return nextPage.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted while fetching users", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Failed to fetch users", e.getCause());
+      }
+    }
+  }
+}
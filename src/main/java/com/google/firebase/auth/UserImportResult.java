@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.auth;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Represents the outcome of a bulk user import. Accounts are imported independently of each other,
+ * so some accounts may fail to import while the rest succeed. Instances of this class are
+ * immutable and thread safe.
+ */
+public class UserImportResult {
+
+  private final int totalCount;
+  private final List<ErrorInfo> errors;
+
+  UserImportResult(int totalCount, List<ErrorInfo> errors) {
+    checkNotNull(errors, "errors must not be null");
+    checkArgument(totalCount >= errors.size(), "more errors than imported users");
+    this.totalCount = totalCount;
+    this.errors = ImmutableList.copyOf(errors);
+  }
+
+  /**
+   * Returns the number of users that were imported successfully.
+   *
+   * @return a non-negative integer.
+   */
+  public int getSuccessCount() {
+    return totalCount - errors.size();
+  }
+
+  /**
+   * Returns the number of users that failed to import.
+   *
+   * @return a non-negative integer.
+   */
+  public int getFailureCount() {
+    return errors.size();
+  }
+
+  /**
+   * Returns the errors reported for the users that failed to import, in the order of their
+   * indices.
+   *
+   * @return a non-null, possibly empty list of {@link ErrorInfo} instances.
+   */
+  public List<ErrorInfo> getErrors() {
+    return errors;
+  }
+
+  /**
+   * Describes why a single user failed to import.
+   */
+  public static class ErrorInfo {
+
+    private final int index;
+    private final String reason;
+
+    ErrorInfo(int index, String reason) {
+      this.index = index;
+      this.reason = reason;
+    }
+
+    /**
+     * Returns the index of the failed user in the list passed to
+     * {@link FirebaseAuth#importUsersAsync(List)}.
+     *
+     * @return a non-negative integer.
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Returns the error message reported by the backend for the failed user.
+     *
+     * @return an error message string, or null if the backend did not provide one.
+     */
+    public String getReason() {
+      return reason;
+    }
+  }
+}
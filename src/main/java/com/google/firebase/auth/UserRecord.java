@@ -452,4 +452,104 @@ public class UserRecord implements UserInfo {
     }
   }
 
+  /**
+   * A specification class for importing existing user accounts in bulk. Unlike
+   * {@link CreateRequest}, the user ID is required, since imported accounts keep the IDs they
+   * had in the system they are migrated from.
+   */
+  public static class ImportRequest {
+
+    private final Map<String,Object> properties = new HashMap<>();
+
+    /**
+     * Creates a new {@link ImportRequest} for the user identified by the specified user ID. A list
+     * of these should be passed to {@link FirebaseAuth#importUsersAsync(List)} to register the
+     * users persistently.
+     *
+     * @param uid a non-null, non-empty user ID that is not longer than 128 characters.
+     * @throws IllegalArgumentException If the user ID is null, empty or too long.
+     */
+    public ImportRequest(String uid) {
+      checkArgument(!Strings.isNullOrEmpty(uid), "uid cannot be null or empty");
+      checkArgument(uid.length() <= 128, "UID cannot be longer than 128 characters");
+      properties.put("localId", uid);
+    }
+
+    String getUid() {
+      return (String) properties.get("localId");
+    }
+
+    /**
+     * Sets the email address of the imported user.
+     *
+     * @param email a non-null, non-empty email address string.
+     */
+    public ImportRequest setEmail(String email) {
+      checkEmail(email);
+      properties.put("email", email);
+      return this;
+    }
+
+    /**
+     * Sets the phone number of the imported user.
+     *
+     * @param phone a non-null, non-empty phone number string.
+     */
+    public ImportRequest setPhoneNumber(String phone) {
+      checkPhoneNumber(phone);
+      properties.put("phoneNumber", phone);
+      return this;
+    }
+
+    /**
+     * Sets whether the email address of the imported user has been verified or not.
+     *
+     * @param emailVerified a boolean indicating the email verification status.
+     */
+    public ImportRequest setEmailVerified(boolean emailVerified) {
+      properties.put("emailVerified", emailVerified);
+      return this;
+    }
+
+    /**
+     * Sets the display name of the imported user.
+     *
+     * @param displayName a non-null display name string.
+     */
+    public ImportRequest setDisplayName(String displayName) {
+      checkNotNull(displayName, "displayName cannot be null");
+      properties.put("displayName", displayName);
+      return this;
+    }
+
+    /**
+     * Sets the photo URL of the imported user.
+     *
+     * @param photoUrl a non-null, non-empty URL string.
+     */
+    public ImportRequest setPhotoUrl(String photoUrl) {
+      checkArgument(!Strings.isNullOrEmpty(photoUrl), "photoUrl cannot be null or empty");
+      try {
+        new URL(photoUrl);
+      } catch (MalformedURLException e) {
+        throw new IllegalArgumentException("malformed photoUrl string", e);
+      }
+      properties.put("photoUrl", photoUrl);
+      return this;
+    }
+
+    /**
+     * Sets whether the imported user account should be disabled or not.
+     *
+     * @param disabled a boolean indicating whether the account should be disabled.
+     */
+    public ImportRequest setDisabled(boolean disabled) {
+      properties.put("disabled", disabled);
+      return this;
+    }
+
+    Map<String, Object> getProperties() {
+      return ImmutableMap.copyOf(properties);
+    }
+  }
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.auth.internal;
+
+import com.google.api.client.util.Key;
+import java.util.List;
+
+/**
+ * JSON data binding for downloadAccountResponse messages sent by Google identity toolkit service.
+ */
+public final class DownloadAccountResponse {
+
+  @Key("kind")
+  private String kind;
+
+  @Key("users")
+  private List<GetAccountInfoResponse.User> users;
+
+  @Key("nextPageToken")
+  private String nextPageToken;
+
+  public String getKind() {
+    return kind;
+  }
+
+  public List<GetAccountInfoResponse.User> getUsers() {
+    return users;
+  }
+
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+}
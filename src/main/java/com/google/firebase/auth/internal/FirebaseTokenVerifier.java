@@ -35,12 +35,13 @@ import java.security.GeneralSecurityException;
 import java.security.PublicKey;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.Executor;
 
 /**
  * Verifies that a JWT returned by Firebase is valid for use in the this project.
  *
  * <p>This class should be kept as a Singleton within the server in order to maximize caching of the
- * public signing keys.
+ * public signing keys. Instances are thread safe.
  */
 public final class FirebaseTokenVerifier extends IdTokenVerifier {
 
@@ -67,15 +68,20 @@ public final class FirebaseTokenVerifier extends IdTokenVerifier {
       " See https://firebase.google.com/docs/auth/admin/verify-id-tokens for details on how to "
           + "retrieve an ID token.";
   private static final String ALGORITHM = "RS256";
-  private String projectId;
-  private GooglePublicKeysManager publicKeysManager;
+  private final String projectId;
+  private final PublicKeysCache publicKeys;
+  private final VerifiedTokenCache verifiedTokens;
 
   protected FirebaseTokenVerifier(Builder builder) {
     super(builder);
     Preconditions.checkArgument(builder.projectId != null, "projectId must be set");
+    Preconditions.checkArgument(builder.verifiedTokenCacheSize >= 0,
+        "verifiedTokenCacheSize must not be negative");
 
     this.projectId = builder.projectId;
-    this.publicKeysManager = builder.publicKeysManager;
+    this.publicKeys = new PublicKeysCache(builder.publicKeysManager, builder.keyRefreshExecutor);
+    this.verifiedTokens = builder.verifiedTokenCacheSize > 0
+        ? new VerifiedTokenCache(builder.verifiedTokenCacheSize, getClock()) : null;
   }
 
   /**
@@ -165,18 +171,23 @@ public final class FirebaseTokenVerifier extends IdTokenVerifier {
   }
 
   /**
-   * Verifies the cryptographic signature on the FirebaseToken. Can block on a web request to fetch
-   * the keys if they have expired.
+   * Verifies the cryptographic signature on the FirebaseToken, using the public key identified by
+   * its "kid" header. Can block on a web request to fetch the keys if they have expired.
    *
    * <p>TODO: Wrap these blocking steps in a Task.
    */
   private boolean verifySignature(IdToken token) throws GeneralSecurityException, IOException {
-    for (PublicKey key : publicKeysManager.getPublicKeys()) {
-      if (token.verifySignature(key)) {
-        return true;
-      }
+    if (verifiedTokens != null && verifiedTokens.contains(token)) {
+      return true;
+    }
+    PublicKey key = publicKeys.getPublicKey(token.getHeader().getKeyId());
+    if (key == null || !token.verifySignature(key)) {
+      return false;
+    }
+    if (verifiedTokens != null) {
+      verifiedTokens.add(token);
     }
-    return false;
+    return true;
   }
 
   public String getProjectId() {
@@ -192,6 +203,10 @@ public final class FirebaseTokenVerifier extends IdTokenVerifier {
 
     GooglePublicKeysManager publicKeysManager = DEFAULT_KEY_MANAGER;
 
+    Executor keyRefreshExecutor;
+
+    int verifiedTokenCacheSize;
+
     public String getProjectId() {
       return projectId;
     }
@@ -220,6 +235,24 @@ public final class FirebaseTokenVerifier extends IdTokenVerifier {
       return this;
     }
 
+    /**
+     * Sets the executor on which public keys are refreshed ahead of their expiry. Without one, keys
+     * are refreshed on the thread that verifies a token once they are about to expire.
+     */
+    public Builder setKeyRefreshExecutor(Executor keyRefreshExecutor) {
+      this.keyRefreshExecutor = keyRefreshExecutor;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of verified tokens to remember, so that their signatures don't have
+     * to be verified again. Defaults to 0, which disables the cache.
+     */
+    public Builder setVerifiedTokenCacheSize(int verifiedTokenCacheSize) {
+      this.verifiedTokenCacheSize = verifiedTokenCacheSize;
+      return this;
+    }
+
     @Override
     public FirebaseTokenVerifier build() {
       return new FirebaseTokenVerifier(this);
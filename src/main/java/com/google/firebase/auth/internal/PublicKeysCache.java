@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.auth.internal;
+
+import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.client.util.Clock;
+import com.google.api.client.util.SecurityUtils;
+import com.google.api.client.util.StringUtils;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the public keys Firebase ID tokens are signed with, indexed by their key ID. Keys are
+ * fetched from the same URL, with the same transport and clock, as the GooglePublicKeysManager
+ * this cache is created from, and are kept for as long as the Cache-Control header of the response
+ * allows.
+ *
+ * <p>If an executor is provided, keys that are about to expire are refreshed in the background
+ * while the current keys keep being served. Callers only block on a fetch if no keys have been
+ * loaded yet, or if the keys have fully expired.
+ *
+ * <p>Keys may be rotated before the current ones expire. A key ID that isn't among the current keys
+ * therefore fetches them again, at most once a minute, so that tokens with unknown key IDs can't
+ * cause a request each.
+ */
+final class PublicKeysCache {
+
+  /** Refresh keys this long before they expire, matching GooglePublicKeysManager. */
+  private static final long REFRESH_SKEW_MILLIS = 300000;
+  /** Minimum time between two fetches caused by tokens signed with unknown keys. */
+  private static final long UNKNOWN_KEY_REFRESH_INTERVAL_MILLIS = 60000;
+  private static final Pattern MAX_AGE_PATTERN = Pattern.compile("\\s*max-age\\s*=\\s*(\\d+)\\s*");
+
+  private static final Logger logger = LoggerFactory.getLogger(PublicKeysCache.class);
+
+  private final GooglePublicKeysManager source;
+  private final Clock clock;
+  private final Executor refreshExecutor;
+  private final AtomicBoolean refreshing = new AtomicBoolean(false);
+  private final Object lock = new Object();
+
+  private volatile Keys keys = new Keys(ImmutableMap.<String, PublicKey>of(), 0L, 0L);
+
+  PublicKeysCache(GooglePublicKeysManager source, Executor refreshExecutor) {
+    this.source = source;
+    this.clock = source.getClock();
+    this.refreshExecutor = refreshExecutor;
+  }
+
+  /**
+   * Returns the key with the given ID, or null if there is no such key. Can block on a web request
+   * to fetch the keys if they have expired, or if none of them has the given ID.
+   */
+  PublicKey getPublicKey(String keyId) throws GeneralSecurityException, IOException {
+    Keys current = getKeys();
+    PublicKey key = current.byKeyId.get(keyId);
+    if (key == null && keyId != null) {
+      key = refreshForUnknownKey(current).byKeyId.get(keyId);
+    }
+    return key;
+  }
+
+  /** Returns all current keys. Can block on a web request if they have expired. */
+  Iterable<PublicKey> getPublicKeys() throws GeneralSecurityException, IOException {
+    return getKeys().byKeyId.values();
+  }
+
+  private Keys getKeys() throws GeneralSecurityException, IOException {
+    Keys current = keys;
+    long now = clock.currentTimeMillis();
+    if (now < current.expirationTimeMillis - REFRESH_SKEW_MILLIS) {
+      return current;
+    }
+    if (refreshExecutor != null && now < current.expirationTimeMillis) {
+      scheduleRefresh();
+      return current;
+    }
+    synchronized (lock) {
+      current = keys;
+      if (clock.currentTimeMillis() >= current.expirationTimeMillis - REFRESH_SKEW_MILLIS) {
+        current = fetchKeys();
+        keys = current;
+      }
+      return current;
+    }
+  }
+
+  private Keys refreshForUnknownKey(Keys stale) throws GeneralSecurityException, IOException {
+    synchronized (lock) {
+      Keys current = keys;
+      if (current == stale && clock.currentTimeMillis() - current.fetchTimeMillis
+          >= UNKNOWN_KEY_REFRESH_INTERVAL_MILLIS) {
+        current = fetchKeys();
+        keys = current;
+      }
+      return current;
+    }
+  }
+
+  private void scheduleRefresh() {
+    if (!refreshing.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      refreshExecutor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            synchronized (lock) {
+              keys = fetchKeys();
+            }
+          } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            // The current keys stay in use until they expire, after which callers fetch them.
+            logger.warn("Failed to refresh public keys", e);
+          } finally {
+            refreshing.set(false);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      refreshing.set(false);
+      logger.warn("Failed to schedule public keys refresh", e);
+    }
+  }
+
+  private Keys fetchKeys() throws GeneralSecurityException, IOException {
+    HttpResponse response = source.getTransport().createRequestFactory()
+        .buildGetRequest(new GenericUrl(source.getPublicCertsEncodedUrl())).execute();
+    long fetchTimeMillis = clock.currentTimeMillis();
+    long expirationTimeMillis = fetchTimeMillis + getCacheTimeInSec(response.getHeaders()) * 1000;
+    ImmutableMap.Builder<String, PublicKey> byKeyId = ImmutableMap.builder();
+    JsonParser parser = source.getJsonFactory().createJsonParser(response.getContent());
+    try {
+      JsonToken currentToken = parser.getCurrentToken();
+      if (currentToken == null) {
+        currentToken = parser.nextToken();
+      }
+      if (currentToken != JsonToken.START_OBJECT) {
+        throw new IOException("Unexpected public keys response");
+      }
+      while (parser.nextToken() != JsonToken.END_OBJECT) {
+        String keyId = parser.getCurrentName();
+        parser.nextToken();
+        X509Certificate certificate = (X509Certificate) SecurityUtils.getX509CertificateFactory()
+            .generateCertificate(
+                new ByteArrayInputStream(StringUtils.getBytesUtf8(parser.getText())));
+        byKeyId.put(keyId, certificate.getPublicKey());
+      }
+    } finally {
+      parser.close();
+    }
+    return new Keys(byKeyId.build(), fetchTimeMillis, expirationTimeMillis);
+  }
+
+  private static long getCacheTimeInSec(HttpHeaders headers) {
+    long cacheTimeInSec = 0;
+    if (headers.getCacheControl() != null) {
+      for (String arg : headers.getCacheControl().split(",")) {
+        Matcher matcher = MAX_AGE_PATTERN.matcher(arg);
+        if (matcher.matches()) {
+          cacheTimeInSec = Long.parseLong(matcher.group(1));
+          break;
+        }
+      }
+    }
+    if (headers.getAge() != null) {
+      cacheTimeInSec -= headers.getAge();
+    }
+    return Math.max(0, cacheTimeInSec);
+  }
+
+  private static final class Keys {
+
+    private final ImmutableMap<String, PublicKey> byKeyId;
+    private final long fetchTimeMillis;
+    private final long expirationTimeMillis;
+
+    private Keys(
+        ImmutableMap<String, PublicKey> byKeyId, long fetchTimeMillis, long expirationTimeMillis) {
+      this.byKeyId = byKeyId;
+      this.fetchTimeMillis = fetchTimeMillis;
+      this.expirationTimeMillis = expirationTimeMillis;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.auth.internal;
+
+import com.google.api.client.auth.openidconnect.IdToken;
+import com.google.api.client.util.Clock;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU set of tokens whose signatures have been verified. Tokens are identified by a
+ * SHA-256 hash over their signed content and signature, and are dropped once they expire.
+ */
+final class VerifiedTokenCache {
+
+  private final int maxSize;
+  private final Clock clock;
+  private final LinkedHashMap<HashCode, Long> expirationTimes;
+
+  VerifiedTokenCache(int maxSize, Clock clock) {
+    this.maxSize = maxSize;
+    this.clock = clock;
+    this.expirationTimes = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /** Returns true if the signature of the given token was verified before and hasn't expired. */
+  boolean contains(IdToken token) {
+    HashCode hash = hash(token);
+    synchronized (expirationTimes) {
+      Long expirationTime = expirationTimes.get(hash);
+      if (expirationTime == null) {
+        return false;
+      } else if (expirationTime <= clock.currentTimeMillis()) {
+        expirationTimes.remove(hash);
+        return false;
+      }
+      return true;
+    }
+  }
+
+  /** Remembers that the signature of the given token is valid. */
+  void add(IdToken token) {
+    Long expirationTimeSeconds = token.getPayload().getExpirationTimeSeconds();
+    if (expirationTimeSeconds == null) {
+      return;
+    }
+    HashCode hash = hash(token);
+    synchronized (expirationTimes) {
+      expirationTimes.put(hash, expirationTimeSeconds * 1000);
+      if (expirationTimes.size() > maxSize) {
+        evict();
+      }
+    }
+  }
+
+  private void evict() {
+    // Expired tokens are never looked up again, so they drift towards the least recently used end
+    // of the map. Drop them from there, and then the least recently used entries until the cache
+    // fits.
+    long now = clock.currentTimeMillis();
+    Iterator<Map.Entry<HashCode, Long>> iterator = expirationTimes.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<HashCode, Long> eldest = iterator.next();
+      if (expirationTimes.size() <= maxSize && eldest.getValue() > now) {
+        break;
+      }
+      iterator.remove();
+    }
+  }
+
+  private static HashCode hash(IdToken token) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    hasher.putBytes(token.getSignedContentBytes());
+    hasher.putBytes(token.getSignatureBytes());
+    return hasher.hash();
+  }
+}
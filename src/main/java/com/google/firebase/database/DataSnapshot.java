@@ -17,6 +17,7 @@
 package com.google.firebase.database;
 
 import com.google.firebase.database.core.Path;
+import com.google.firebase.database.snapshot.ChildrenNode;
 import com.google.firebase.database.snapshot.IndexedNode;
 import com.google.firebase.database.snapshot.NamedNode;
 import com.google.firebase.database.snapshot.Node;
@@ -122,6 +123,25 @@ public class DataSnapshot {
     return node.getNode().getValue();
   }
 
+  /**
+   * Returns the same data as {@link #getValue()}, but without copying the snapshot up front. Maps
+   * and Lists are read-only views of the snapshot, which convert children only as they are read,
+   * and throw UnsupportedOperationException when modified. Use {@link #getValue()} to get a copy
+   * that can be modified.
+   *
+   * <p>This is cheaper than {@link #getValue()} when only a few children of a large snapshot are
+   * read.
+   *
+   * @return The data contained in this snapshot as native types, with read-only Maps and Lists
+   */
+  public Object getValueView() {
+    Node value = node.getNode();
+    if (value instanceof ChildrenNode) {
+      return ((ChildrenNode) value).getValueView();
+    }
+    return value.getValue();
+  }
+
   /**
    * getValue() returns the data contained in this snapshot as native types. The possible types
    * returned are:
@@ -193,8 +213,7 @@ public class DataSnapshot {
    * @return An instance of the class passed in, populated with the data from this snapshot
    */
   public <T> T getValue(Class<T> valueType) {
-    Object value = node.getNode().getValue();
-    return CustomClassMapper.convertToCustomClass(value, valueType);
+    return CustomClassMapper.convertToCustomClass(node.getNode(), valueType);
   }
 
   /**
@@ -219,8 +238,7 @@ public class DataSnapshot {
    * @return A properly typed collection, populated with the data from this snapshot
    */
   public <T> T getValue(GenericTypeIndicator<T> t) {
-    Object value = node.getNode().getValue();
-    return CustomClassMapper.convertToCustomClass(value, t);
+    return CustomClassMapper.convertToCustomClass(node.getNode(), t);
   }
 
   /** 
@@ -38,6 +38,10 @@ import com.google.firebase.tasks.Task;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -143,6 +147,47 @@ public class DatabaseReference extends Query {
     return new DatabaseReference(repo, getPath().child(childKey));
   }
 
+  /**
+   * Add each of the given values under a new auto-generated child of this location. The child keys
+   * are generated as by {@link #push()} and sort in the iteration order of the collection. All the
+   * children are written with a single update, so listeners see them arrive together.
+   *
+   * @param values The values to add, in the order they should sort
+   * @return References to the new children, in the same order as the values
+   */
+  public List<DatabaseReference> pushAll(Collection<?> values) {
+    return pushAll(values, null);
+  }
+
+  /**
+   * Similar to {@link #pushAll(Collection)}, but also reports when the update has been committed to
+   * the Database servers.
+   *
+   * @param values The values to add, in the order they should sort
+   * @param listener A listener that will be triggered with the results of the operation
+   * @return References to the new children, in the same order as the values
+   */
+  public List<DatabaseReference> pushAll(Collection<?> values, CompletionListener listener) {
+    if (values == null) {
+      throw new NullPointerException("Can't pass null for argument 'values' in pushAll()");
+    }
+    List<String> names =
+        PushIdGenerator.generatePushChildNames(repo.getServerTime(), values.size());
+    List<DatabaseReference> refs = new ArrayList<>(names.size());
+    Map<String, Object> update = new LinkedHashMap<>();
+    int i = 0;
+    for (Object value : values) {
+      if (value == null) {
+        throw new NullPointerException("Can't pass null values to pushAll()");
+      }
+      String name = names.get(i++);
+      refs.add(new DatabaseReference(repo, getPath().child(ChildKey.fromString(name))));
+      update.put(name, value);
+    }
+    updateChildrenInternal(update, listener);
+    return refs;
+  }
+
   /**
    * Set the data at this location to the given value. Passing null to setValue() will delete the
    * data at the specified location. The native types accepted by this method for the value
@@ -33,6 +33,7 @@ import com.google.firebase.database.utilities.Validation;
 import com.google.firebase.internal.FirebaseService;
 
 import com.google.firebase.internal.SdkUtils;
+import java.io.File;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -195,6 +196,16 @@ public class FirebaseDatabase {
     return new DatabaseReference(ensureRepo(), childPath);
   }
 
+  /**
+   * Creates a new {@link WriteBatch}, which writes to multiple locations in this FirebaseDatabase
+   * at once.
+   *
+   * @return A new, empty WriteBatch
+   */
+  public WriteBatch batch() {
+    return new WriteBatch(ensureRepo());
+  }
+
   /**
    * Gets a DatabaseReference for the provided URL. The URL must be a URL to a path within this
    * FirebaseDatabase. To create a DatabaseReference to a different database, create a {@link
@@ -314,6 +325,131 @@ public class FirebaseDatabase {
     }
   }
 
+  /**
+   * By default, data that is no longer listened to is discarded unless persistence is enabled.
+   * Call this method to keep such data in an in-memory cache of up to the given size instead, so
+   * that listening to it again starts from the cached data. When the cache grows beyond this size,
+   * the least recently used data is removed first. Data that is being listened to is never
+   * removed. This method must be called before creating your first Database reference, and has no
+   * effect when persistence is enabled.
+   *
+   * @param cacheSizeInBytes The size of the in-memory cache in bytes, or 0 to disable it
+   */
+  public void setMemoryCacheSizeBytes(long cacheSizeInBytes) {
+    synchronized (lock) {
+      assertUnfrozen("setMemoryCacheSizeBytes");
+      this.config.setMemoryCacheSizeBytes(cacheSizeInBytes);
+    }
+  }
+
+  /**
+   * By default, a transaction is sent to the server as soon as it has run, and is sent again as
+   * soon as the server rejects it. Call this method with true to collect the transactions started
+   * together into one compare-and-set request per location, and to back off between retries. The
+   * backoff grows with each retry of a transaction, and with the share of recent requests that the
+   * server rejected. This reduces the number of retries when many threads or clients update the
+   * same location, such as a counter. Each transaction still reports its own result. This method
+   * must be called before creating your first Database reference.
+   *
+   * @param isEnabled Set to true to coalesce transactions and back off between retries
+   */
+  public void setTransactionCoalescingEnabled(boolean isEnabled) {
+    synchronized (lock) {
+      assertUnfrozen("setTransactionCoalescingEnabled");
+      this.config.setTransactionCoalescingEnabled(isEnabled);
+    }
+  }
+
+  /**
+   * By default, every change to the cached data is applied to the affected queries one after
+   * another. Call this method with true to spread a change that affects many queries across a
+   * pool of threads, one per processor. This shortens the time it takes to apply large changes
+   * when there are hundreds of active listeners. The threads are stopped when the app is
+   * deleted. This method must be called before creating your first Database reference.
+   *
+   * @param isEnabled Set to true to apply large changes on multiple threads
+   */
+  public void setParallelSyncTreeEnabled(boolean isEnabled) {
+    synchronized (lock) {
+      assertUnfrozen("setParallelSyncTreeEnabled");
+      this.config.setParallelSyncTreeEnabled(isEnabled);
+    }
+  }
+
+  /**
+   * When reconnecting, the client sends a hash of the data it has cached for each large query,
+   * split into ranges, and the server only sends back the ranges that changed. By default the
+   * ranges of a large query are about 16KB, and the hash of a range that did not change is reused
+   * on the next reconnect. Call this method to change the size of the ranges, or with 0 to split
+   * the data by its total size and hash all of it on every reconnect. This method must be called
+   * before creating your first Database reference.
+   *
+   * @param rangeSizeInBytes The target size of a range in bytes, or 0 to disable reusing hashes
+   */
+  public void setCompoundHashRangeSizeBytes(long rangeSizeInBytes) {
+    synchronized (lock) {
+      assertUnfrozen("setCompoundHashRangeSizeBytes");
+      this.config.setCompoundHashRangeSizeBytes(rangeSizeInBytes);
+    }
+  }
+
+  /**
+   * Returns the counters this database keeps about its transactions, such as the number of
+   * retries and the rate at which the server rejects them as stale.
+   *
+   * @return A snapshot of the transaction counters
+   */
+  public TransactionStats getTransactionStats() {
+    return ensureRepo().getTransactionStats();
+  }
+
+  /**
+   * By default, persisted data is stored in the <code>.firebase-database</code> directory under
+   * the home directory of the current user. Call this method to use a different directory. Each
+   * app and database gets its own subdirectory, but the directory must not be shared with another
+   * process. This method must be called before creating your first Database reference, and only
+   * has an effect when persistence is enabled.
+   *
+   * @param directory The directory in which to persist data.
+   */
+  public void setPersistenceDirectory(File directory) {
+    synchronized (lock) {
+      assertUnfrozen("setPersistenceDirectory");
+      this.config.setPersistenceDirectory(directory);
+    }
+  }
+
+  /**
+   * By default, all listener and completion callbacks are raised on a single thread. Call this
+   * method to raise them on a pool of threads instead, so that a slow listener doesn't delay the
+   * others. Each listener still receives its events one at a time and in order, but events for
+   * different listeners may be raised concurrently. This method must be called before creating
+   * your first Database reference.
+   *
+   * @param poolSize The number of threads to raise callbacks on.
+   */
+  public void setEventTargetPoolSize(int poolSize) {
+    synchronized (lock) {
+      assertUnfrozen("setEventTargetPoolSize");
+      this.config.setEventTargetPoolSize(poolSize);
+    }
+  }
+
+  /**
+   * By default, each database connection uses two threads of its own for its websocket. Call this
+   * method to multiplex the connections of all apps in the process onto a small, shared set of
+   * selector threads instead. This is useful when running many apps, each with their own
+   * connection. This method must be called before creating your first Database reference.
+   *
+   * @param threads The number of shared selector threads, or 0 to use dedicated threads
+   */
+  public void setWebSocketSelectorThreads(int threads) {
+    synchronized (lock) {
+      assertUnfrozen("setWebSocketSelectorThreads");
+      this.config.setWebSocketSelectorThreads(threads);
+    }
+  }
+
   private void assertUnfrozen(String methodCalled) {
     synchronized (lock) {
       checkNotDestroyed();
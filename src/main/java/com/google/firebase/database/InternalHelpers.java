@@ -52,6 +52,12 @@ public class InternalHelpers {
     return new MutableData(node);
   }
 
+  /** For Repo to report its transaction counters. */
+  public static TransactionStats createTransactionStats(
+      long committed, long aborted, long rounds, long conflicts, long retries) {
+    return new TransactionStats(committed, aborted, rounds, conflicts, retries);
+  }
+
   /**
    * For Repo to check if the database has been destroyed.
    */
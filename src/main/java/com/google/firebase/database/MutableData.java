@@ -206,8 +206,7 @@ public class MutableData {
    * @return A properly typed collection, populated with the data from this instance
    */
   public <T> T getValue(GenericTypeIndicator<T> t) {
-    Object value = getNode().getValue();
-    return CustomClassMapper.convertToCustomClass(value, t);
+    return CustomClassMapper.convertToCustomClass(getNode(), t);
   }
 
   /**
@@ -254,8 +253,7 @@ public class MutableData {
    * @return An instance of the class passed in, populated with the data from this instance
    */
   public <T> T getValue(Class<T> valueType) {
-    Object value = getNode().getValue();
-    return CustomClassMapper.convertToCustomClass(value, valueType);
+    return CustomClassMapper.convertToCustomClass(getNode(), valueType);
   }
 
   /**
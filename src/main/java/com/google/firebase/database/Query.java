@@ -330,7 +330,7 @@ public class Query {
    * @return A Query with the new constraint
    */
   public Query startAt(double value, String key) {
-    return startAt(new DoubleNode(value, PriorityUtilities.NullPriority()), key);
+    return startAt(DoubleNode.valueOf(value, PriorityUtilities.NullPriority()), key);
   }
 
   /**
@@ -344,7 +344,7 @@ public class Query {
    * @since 2.0
    */
   public Query startAt(boolean value, String key) {
-    return startAt(new BooleanNode(value, PriorityUtilities.NullPriority()), key);
+    return startAt(BooleanNode.valueOf(value, PriorityUtilities.NullPriority()), key);
   }
 
   private Query startAt(Node node, String key) {
@@ -422,7 +422,7 @@ public class Query {
    * @return A Query with the new constraint
    */
   public Query endAt(double value, String key) {
-    return endAt(new DoubleNode(value, PriorityUtilities.NullPriority()), key);
+    return endAt(DoubleNode.valueOf(value, PriorityUtilities.NullPriority()), key);
   }
 
   /**
@@ -436,7 +436,7 @@ public class Query {
    * @since 2.0
    */
   public Query endAt(boolean value, String key) {
-    return endAt(new BooleanNode(value, PriorityUtilities.NullPriority()), key);
+    return endAt(BooleanNode.valueOf(value, PriorityUtilities.NullPriority()), key);
   }
 
   private Query endAt(Node node, String key) {
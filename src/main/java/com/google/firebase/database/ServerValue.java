@@ -31,11 +31,48 @@ public class ServerValue {
    * A placeholder value for auto-populating the current timestamp (time since the Unix epoch, in
    * milliseconds) by the Firebase Database servers.
    */
-  public static final Map<String, String> TIMESTAMP = createServerValuePlaceholder("timestamp");
+  public static final Map<String, String> TIMESTAMP =
+      createServerValuePlaceholder(ServerValues.NAME_OP_TIMESTAMP);
+
+  /**
+   * Returns a placeholder value that can be used to atomically increment the current value of a
+   * location by the given delta. The increment is applied by the Firebase Database servers, so
+   * concurrent increments from different clients never conflict and need no transaction. Local
+   * listeners see the incremented value immediately.
+   *
+   * <p>If the current value is not a number, or the location is empty, it is replaced with the
+   * delta.
+   *
+   * @param delta The amount to add to the current value
+   * @return A placeholder value for incrementing the current value
+   */
+  public static Object increment(long delta) {
+    return createComplexServerValuePlaceholder(ServerValues.NAME_OP_INCREMENT, delta);
+  }
+
+  /**
+   * Returns a placeholder value that can be used to atomically increment the current value of a
+   * location by the given delta. See {@link #increment(long)}.
+   *
+   * @param delta The amount to add to the current value
+   * @return A placeholder value for incrementing the current value
+   */
+  public static Object increment(double delta) {
+    return createComplexServerValuePlaceholder(ServerValues.NAME_OP_INCREMENT, delta);
+  }
 
   private static Map<String, String> createServerValuePlaceholder(String key) {
     Map<String, String> result = new HashMap<>();
     result.put(ServerValues.NAME_SUBKEY_SERVERVALUE, key);
     return Collections.unmodifiableMap(result);
   }
+
+  private static Map<String, Object> createComplexServerValuePlaceholder(
+      String key, Object argument) {
+    Map<String, Object> op = new HashMap<>();
+    op.put(key, argument);
+    Map<String, Object> result = new HashMap<>();
+    result.put(ServerValues.NAME_SUBKEY_SERVERVALUE, Collections.unmodifiableMap(op));
+    return Collections.unmodifiableMap(result);
+  }
 }
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database;
+
+/**
+ * A snapshot of the counters a database keeps about the transactions run through {@link
+ * DatabaseReference#runTransaction(Transaction.Handler)}. The counters start at zero when the
+ * database is first used and only ever increase.
+ */
+public final class TransactionStats {
+
+  private final long committed;
+  private final long aborted;
+  private final long rounds;
+  private final long conflicts;
+  private final long retries;
+
+  TransactionStats(long committed, long aborted, long rounds, long conflicts, long retries) {
+    this.committed = committed;
+    this.aborted = aborted;
+    this.rounds = rounds;
+    this.conflicts = conflicts;
+    this.retries = retries;
+  }
+
+  /** Returns the number of transactions that were committed on the server. */
+  public long getCommittedCount() {
+    return committed;
+  }
+
+  /**
+   * Returns the number of transactions that completed without being committed, because the
+   * handler aborted, the transaction was overridden by a set, or it ran out of retries.
+   */
+  public long getAbortedCount() {
+    return aborted;
+  }
+
+  /**
+   * Returns the number of compare-and-set requests sent to the server. All the pending
+   * transactions at a location are sent in one request.
+   */
+  public long getRoundCount() {
+    return rounds;
+  }
+
+  /** Returns the number of compare-and-set requests the server rejected as stale. */
+  public long getConflictCount() {
+    return conflicts;
+  }
+
+  /** Returns the number of times a transaction handler was run again after a conflict. */
+  public long getRetryCount() {
+    return retries;
+  }
+
+  /** Returns the fraction of compare-and-set requests that were rejected as stale. */
+  public double getConflictRate() {
+    return rounds == 0 ? 0 : (double) conflicts / rounds;
+  }
+
+  @Override
+  public String toString() {
+    return "TransactionStats{committed=" + committed + ", aborted=" + aborted + ", rounds="
+        + rounds + ", conflicts=" + conflicts + ", retries=" + retries + "}";
+  }
+}
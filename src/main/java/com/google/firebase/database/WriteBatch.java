@@ -0,0 +1,201 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.api.core.ApiFuture;
+import com.google.firebase.database.DatabaseReference.CompletionListener;
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.Repo;
+import com.google.firebase.database.core.ValidationPath;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.NodeUtilities;
+import com.google.firebase.database.snapshot.PriorityUtilities;
+import com.google.firebase.database.utilities.Pair;
+import com.google.firebase.database.utilities.Utilities;
+import com.google.firebase.database.utilities.Validation;
+import com.google.firebase.database.utilities.encoding.CustomClassMapper;
+import com.google.firebase.internal.TaskToApiFuture;
+import com.google.firebase.tasks.Task;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A WriteBatch collects sets, updates and removes at any number of locations in a Firebase
+ * Database, and writes them all at once. The writes are sent to the server as a single update of
+ * the root, and raise local events as a single change, so the server and listeners either see all
+ * of them or none. <br>
+ * <br>
+ * Writes are applied in the order in which they were added to the batch, so a later write to a
+ * location replaces an earlier write to the same location or below it. Instances of this class are
+ * obtained by calling {@link FirebaseDatabase#batch()}, and can be committed once. They are not
+ * thread-safe.
+ */
+public class WriteBatch {
+
+  private final Repo repo;
+  // Writes by absolute path. No path in the map is an ancestor of another.
+  private final TreeMap<Path, Node> writes = new TreeMap<>();
+  private boolean committed = false;
+
+  WriteBatch(Repo repo) {
+    this.repo = repo;
+  }
+
+  /**
+   * Adds a write of the given value to the location of the reference. This accepts the same values
+   * as {@link DatabaseReference#setValueAsync(Object)}.
+   *
+   * @param ref The location to write to
+   * @param value The value to write, or null to remove the data at the location
+   * @return This batch, for chaining method calls
+   */
+  public WriteBatch set(DatabaseReference ref, Object value) {
+    return setInternal(ref, value, PriorityUtilities.NullPriority());
+  }
+
+  /**
+   * Adds a write of the given value and priority to the location of the reference. This accepts
+   * the same values as {@link DatabaseReference#setValueAsync(Object, Object)}.
+   *
+   * @param ref The location to write to
+   * @param value The value to write, or null to remove the data at the location
+   * @param priority The priority to set at the location
+   * @return This batch, for chaining method calls
+   */
+  public WriteBatch set(DatabaseReference ref, Object value, Object priority) {
+    return setInternal(ref, value, PriorityUtilities.parsePriority(priority));
+  }
+
+  /**
+   * Adds an update of the children of the location of the reference. Like {@link
+   * DatabaseReference#updateChildrenAsync(Map)}, keys may be paths relative to the location, and
+   * null values remove the data at those paths.
+   *
+   * @param ref The location whose children to update
+   * @param update The paths to update and their new values
+   * @return This batch, for chaining method calls
+   */
+  public WriteBatch update(DatabaseReference ref, Map<String, Object> update) {
+    checkNotNull(update, "Can't pass null for argument 'update' in update()");
+    Path path = checkReference(ref);
+    Map<String, Object> bouncedUpdate = CustomClassMapper.convertToPlainJavaTypes(update);
+    Map<Path, Node> parsedUpdate = Validation.parseAndValidateUpdate(path, bouncedUpdate);
+    for (Map.Entry<Path, Node> entry : parsedUpdate.entrySet()) {
+      addWrite(path.child(entry.getKey()), entry.getValue());
+    }
+    return this;
+  }
+
+  /**
+   * Adds a removal of the data at the location of the reference.
+   *
+   * @param ref The location to remove
+   * @return This batch, for chaining method calls
+   */
+  public WriteBatch remove(DatabaseReference ref) {
+    return setInternal(ref, null, PriorityUtilities.NullPriority());
+  }
+
+  /**
+   * Commits all writes in this batch.
+   *
+   * @return The ApiFuture for this operation.
+   */
+  public ApiFuture<Void> commitAsync() {
+    return new TaskToApiFuture<>(commitInternal(null));
+  }
+
+  /**
+   * Commits all writes in this batch.
+   *
+   * @param listener A listener that will be triggered when the server has applied the writes
+   */
+  public void commit(CompletionListener listener) {
+    commitInternal(listener);
+  }
+
+  private WriteBatch setInternal(DatabaseReference ref, Object value, Node priority) {
+    Path path = checkReference(ref);
+    ValidationPath.validateWithObject(path, value);
+    Object bouncedValue = CustomClassMapper.convertToPlainJavaTypes(value);
+    Validation.validateWritableObject(bouncedValue);
+    addWrite(path, NodeUtilities.NodeFromJSON(bouncedValue, priority));
+    return this;
+  }
+
+  private Path checkReference(DatabaseReference ref) {
+    checkState(!committed, "This WriteBatch has already been committed");
+    checkNotNull(ref, "Can't pass null for argument 'ref'");
+    checkArgument(ref.getRepo() == repo,
+        "Reference %s belongs to a different database than this WriteBatch", ref);
+    Validation.validateWritablePath(ref.getPath());
+    return ref.getPath();
+  }
+
+  private void addWrite(Path path, Node node) {
+    // An earlier write above this location already contains it, so this write is folded into it
+    for (Path ancestor = path; ancestor != null; ancestor = ancestor.getParent()) {
+      Node ancestorWrite = writes.get(ancestor);
+      if (ancestorWrite != null) {
+        writes.put(ancestor, ancestorWrite.updateChild(Path.getRelative(ancestor, path), node));
+        return;
+      }
+    }
+    // Otherwise this write replaces the earlier writes below it, which sort right after it
+    Iterator<Path> descendants = writes.tailMap(path, false).keySet().iterator();
+    while (descendants.hasNext() && path.contains(descendants.next())) {
+      descendants.remove();
+    }
+    writes.put(path, node);
+  }
+
+  private Task<Void> commitInternal(CompletionListener optListener) {
+    checkState(!committed, "This WriteBatch has already been committed");
+    committed = true;
+
+    final Node rootWrite = writes.get(Path.getEmptyPath());
+    final Map<String, Object> unparsedWrites = new HashMap<>();
+    for (Map.Entry<Path, Node> write : writes.entrySet()) {
+      unparsedWrites.put(write.getKey().wireFormat(), write.getValue().getValue(true));
+    }
+    final CompoundWrite merge = CompoundWrite.fromPathMerge(writes);
+    final Pair<Task<Void>, CompletionListener> wrapped = Utilities.wrapOnComplete(optListener);
+    repo.scheduleNow(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (rootWrite != null) {
+              // A merge can't replace the root, but this write contains all others
+              repo.setValue(Path.getEmptyPath(), rootWrite, wrapped.getSecond());
+            } else {
+              repo.updateChildren(
+                  Path.getEmptyPath(), merge, wrapped.getSecond(), unparsedWrites);
+            }
+          }
+        });
+    return wrapped.getFirst();
+  }
+}
@@ -16,36 +16,44 @@
 
 package com.google.firebase.database.connection;
 
+import com.google.firebase.database.connection.util.TimerWheel;
 import com.google.firebase.database.logging.Logger;
 import com.google.firebase.database.tubesock.ThreadConfig;
+import com.google.firebase.database.util.JsonStreamParser;
 
 import java.util.concurrent.ScheduledExecutorService;
 
 public class ConnectionContext {
 
   private final ScheduledExecutorService executorService;
+  private final TimerWheel timerWheel;
   private final ConnectionAuthTokenProvider authTokenProvider;
   private final Logger logger;
   private final boolean persistenceEnabled;
   private final String clientSdkVersion;
   private final String userAgent;
   private final ThreadConfig threadConfig;
+  private final JsonStreamParser.ValueFactory dataValueFactory;
 
   public ConnectionContext(
       Logger logger,
       ConnectionAuthTokenProvider authTokenProvider,
       ScheduledExecutorService executorService,
+      TimerWheel timerWheel,
       boolean persistenceEnabled,
       String clientSdkVersion,
       String userAgent,
-      ThreadConfig threadConfig) {
+      ThreadConfig threadConfig,
+      JsonStreamParser.ValueFactory dataValueFactory) {
     this.logger = logger;
     this.authTokenProvider = authTokenProvider;
     this.executorService = executorService;
+    this.timerWheel = timerWheel;
     this.persistenceEnabled = persistenceEnabled;
     this.clientSdkVersion = clientSdkVersion;
     this.userAgent = userAgent;
     this.threadConfig = threadConfig;
+    this.dataValueFactory = dataValueFactory;
   }
 
   public Logger getLogger() {
@@ -60,6 +68,10 @@ public class ConnectionContext {
     return this.executorService;
   }
 
+  public TimerWheel getTimerWheel() {
+    return this.timerWheel;
+  }
+
   public boolean isPersistenceEnabled() {
     return this.persistenceEnabled;
   }
@@ -75,4 +87,12 @@ public class ConnectionContext {
   public ThreadConfig getThreadConfig() {
     return threadConfig;
   }
+
+  /**
+   * Returns the factory used to decode the payloads of data pushes from the server, or null to
+   * decode them into Maps and Lists.
+   */
+  public JsonStreamParser.ValueFactory getDataValueFactory() {
+    return dataValueFactory;
+  }
 }
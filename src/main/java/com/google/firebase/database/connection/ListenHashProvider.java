@@ -23,4 +23,10 @@ public interface ListenHashProvider {
   boolean shouldIncludeCompoundHash();
 
   CompoundHash getCompoundHash();
+
+  /**
+   * Returns true if event listeners depend on this listen, and false if it only keeps data synced.
+   * Listens with event listeners are restored first after a reconnect.
+   */
+  boolean hasEventListeners();
 }
@@ -19,21 +19,23 @@ package com.google.firebase.database.connection;
 import static com.google.firebase.database.connection.ConnectionUtils.hardAssert;
 
 import com.google.firebase.database.connection.util.RetryHelper;
+import com.google.firebase.database.connection.util.TimerWheel;
 import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.util.AndroidSupport;
 import com.google.firebase.database.util.GAuthToken;
+import com.google.firebase.database.util.JsonStreamParser;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 public class PersistentConnectionImpl implements Connection.Delegate, PersistentConnection {
 
@@ -88,6 +90,8 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
   private static final long IDLE_TIMEOUT = 60 * 1000;
   /** If auth fails repeatedly, we'll assume something is wrong and log a warning / back off. */
   private static final long INVALID_AUTH_TOKEN_THRESHOLD = 3;
+  /** Maximum number of restored listens awaiting a response, so that reconnects don't flood. */
+  private static final int MAX_RESTORED_LISTENS_IN_FLIGHT = 100;
 
   private static final String SERVER_KILL_INTERRUPT_REASON = "server_kill";
   private static final String IDLE_INTERRUPT_REASON = "connection_idle";
@@ -97,7 +101,6 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
   private final HostInfo hostInfo;
   private final ConnectionContext context;
   private final ConnectionAuthTokenProvider authTokenProvider;
-  private final ScheduledExecutorService executorService;
   private final LogWrapper logger;
   private final RetryHelper retryHelper;
   private String cachedHost;
@@ -112,6 +115,9 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
   private List<OutstandingDisconnect> onDisconnectRequestQueue;
   private Map<Long, OutstandingPut> outstandingPuts;
   private Map<ListenQuerySpec, OutstandingListen> listens;
+  /** Listens that still have to be restored on the current connection, in restore order. */
+  private final Deque<OutstandingListen> listensToRestore = new ArrayDeque<>();
+  private int restoredListensInFlight = 0;
   private String authToken;
   private boolean forceAuthTokenRefresh;
   private String lastSessionId;
@@ -119,7 +125,7 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
   private long currentGetTokenAttempt = 0;
 
   private int invalidAuthTokenCount = 0;
-  private ScheduledFuture<?> inactivityTimer = null;
+  private final TimerWheel.Timeout inactivityTimer;
   private long lastWriteTimestamp;
   private boolean hasOnDisconnects;
 
@@ -127,7 +133,6 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
       ConnectionContext context, HostInfo info, final Delegate delegate) {
     this.delegate = delegate;
     this.context = context;
-    this.executorService = context.getExecutorService();
     this.authTokenProvider = context.getAuthTokenProvider();
     this.hostInfo = info;
     this.listens = new HashMap<>();
@@ -135,7 +140,7 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     this.outstandingPuts = new HashMap<>();
     this.onDisconnectRequestQueue = new ArrayList<>();
     this.retryHelper =
-        new RetryHelper.Builder(this.executorService, context.getLogger(), RetryHelper.class)
+        new RetryHelper.Builder(context.getTimerWheel(), context.getLogger(), RetryHelper.class)
             .withMinDelayAfterFailure(1000)
             .withRetryExponent(1.3)
             .withMaxDelay(30 * 1000)
@@ -145,6 +150,17 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     long connId = connectionIds++;
     this.logger = new LogWrapper(context.getLogger(), PersistentConnection.class, "pc_" + connId);
     this.lastSessionId = null;
+    this.inactivityTimer = context.getTimerWheel().newTimeout(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (idleHasTimedOut()) {
+              interrupt(IDLE_INTERRUPT_REASON);
+            } else {
+              doIdleCheck();
+            }
+          }
+        });
     doIdleCheck();
   }
 
@@ -194,7 +210,7 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
         new OutstandingListen(listener, query, tag, currentHashFn);
     listens.put(query, outstandingListen);
     if (connected()) {
-      sendListen(outstandingListen);
+      sendListen(outstandingListen, /*restored=*/ false);
     }
     doIdleCheck();
   }
@@ -258,7 +274,9 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
         // jackson gives up Map<String, Object> for json objects
         @SuppressWarnings("unchecked")
         Map<String, Object> response = (Map<String, Object>) message.get(RESPONSE_FOR_REQUEST);
-        responseListener.onResponse(response);
+        if (decodeDeferredData(response, SERVER_RESPONSE_DATA, null)) {
+          responseListener.onResponse(response);
+        }
       }
     } else if (message.containsKey(REQUEST_ERROR)) {
       // TODO: log the error? probably shouldn't throw here...
@@ -267,7 +285,9 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
       // jackson gives up Map<String, Object> for json objects
       @SuppressWarnings("unchecked")
       Map<String, Object> body = (Map<String, Object>) message.get(SERVER_ASYNC_PAYLOAD);
-      onDataPush(action, body);
+      if (decodeDeferredData(body, SERVER_DATA_UPDATE_BODY, action)) {
+        onDataPush(action, body);
+      }
     } else {
       if (logger.logsDebug()) {
         logger.debug("Ignoring unknown message: " + message);
@@ -275,6 +295,35 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     }
   }
 
+  /**
+   * Decodes the data of a response or push in place, if WebsocketConnection deferred decoding it.
+   * The data of overwrites and merges is decoded with the data value factory of the connection
+   * context, so that it can be handed to the delegate without further conversion.
+   *
+   * @return false if the data could not be decoded
+   */
+  private boolean decodeDeferredData(Map<String, Object> body, String key, String action) {
+    Object data = body != null ? body.get(key) : null;
+    if (!(data instanceof JsonStreamParser.DeferredValue)) {
+      return true;
+    }
+    JsonStreamParser.DeferredValue deferred = (JsonStreamParser.DeferredValue) data;
+    JsonStreamParser.ValueFactory dataFactory = context.getDataValueFactory();
+    try {
+      if (dataFactory != null && SERVER_ASYNC_DATA_UPDATE.equals(action)) {
+        body.put(key, deferred.decode(dataFactory));
+      } else if (dataFactory != null && SERVER_ASYNC_DATA_MERGE.equals(action)) {
+        body.put(key, deferred.decodeEntries(dataFactory));
+      } else {
+        body.put(key, deferred.decode(JsonStreamParser.DEFAULT_FACTORY));
+      }
+      return true;
+    } catch (IOException e) {
+      logger.error("Failed to decode data of server message: " + deferred, e);
+      return false;
+    }
+  }
+
   @Override
   public void onDisconnect(Connection.DisconnectReason reason) {
     if (logger.logsDebug()) {
@@ -283,11 +332,10 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     this.connectionState = ConnectionState.Disconnected;
     this.realtime = null;
     this.hasOnDisconnects = false;
-    if (inactivityTimer != null) {
-      logger.debug("cancelling idle time checker");
-      inactivityTimer.cancel(false);
-      inactivityTimer = null;
-    }
+    this.listensToRestore.clear();
+    this.restoredListensInFlight = 0;
+    logger.debug("cancelling idle time checker");
+    inactivityTimer.cancel();
     cancelSentTransactions();
     if (shouldReconnect()) {
       long timeSinceLastConnectSucceeded =
@@ -330,7 +378,8 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     //Utilities.hardAssert(query.isDefault() || !query.loadsAllData(),
     //    "unlisten() called for non-default but complete query");
     OutstandingListen listen = removeListen(query);
-    if (listen != null && connected()) {
+    // A listen that hasn't been restored yet was never sent on this connection
+    if (listen != null && connected() && !listensToRestore.remove(listen)) {
       sendUnlisten(listen);
     }
     doIdleCheck();
@@ -836,16 +885,21 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
         "Should be connected if we're restoring state, but we are: %s",
         this.connectionState);
 
-    // Restore listens
+    // Restore listens, starting with those that event listeners are waiting on. Only a bounded
+    // number is sent at once, and the rest follow as responses come in.
     if (logger.logsDebug()) {
       logger.debug("Restoring outstanding listens");
     }
+    List<OutstandingListen> keptSynced = new ArrayList<>();
     for (OutstandingListen listen : listens.values()) {
-      if (logger.logsDebug()) {
-        logger.debug("Restoring listen " + listen.getQuery());
+      if (listen.getHashFunction().hasEventListeners()) {
+        listensToRestore.add(listen);
+      } else {
+        keptSynced.add(listen);
       }
-      sendListen(listen);
     }
+    listensToRestore.addAll(keptSynced);
+    sendRestoredListens();
 
     if (logger.logsDebug()) {
       logger.debug("Restoring writes.");
@@ -869,6 +923,22 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
     onDisconnectRequestQueue.clear();
   }
 
+  private void sendRestoredListens() {
+    while (restoredListensInFlight < MAX_RESTORED_LISTENS_IN_FLIGHT
+        && !listensToRestore.isEmpty()) {
+      OutstandingListen listen = listensToRestore.poll();
+      if (listens.get(listen.getQuery()) != listen) {
+        // Removed since restore started
+        continue;
+      }
+      if (logger.logsDebug()) {
+        logger.debug("Restoring listen " + listen.getQuery());
+      }
+      restoredListensInFlight++;
+      sendListen(listen, /*restored=*/ true);
+    }
+  }
+
   private void handleTimestamp(long timestamp) {
     if (logger.logsDebug()) {
       logger.debug("handling timestamp");
@@ -950,7 +1020,7 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
         });
   }
 
-  private void sendListen(final OutstandingListen listen) {
+  private void sendListen(final OutstandingListen listen, final boolean restored) {
     Map<String, Object> request = new HashMap<>();
     request.put(REQUEST_PATH, ConnectionUtils.pathToString(listen.getQuery().path));
     Long tag = listen.getTag();
@@ -1007,6 +1077,11 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
                 listen.resultCallback.onRequestResult(null, null);
               }
             }
+
+            if (restored) {
+              restoredListensInFlight--;
+              sendRestoredListens();
+            }
           }
         });
   }
@@ -1095,25 +1170,7 @@ public class PersistentConnectionImpl implements Connection.Delegate, Persistent
 
   private void doIdleCheck() {
     if (isIdle()) {
-      if (this.inactivityTimer != null) {
-        this.inactivityTimer.cancel(false);
-      }
-
-      this.inactivityTimer =
-          this.executorService.schedule(
-              new Runnable() {
-                @Override
-                public void run() {
-                  inactivityTimer = null;
-                  if (idleHasTimedOut()) {
-                    interrupt(IDLE_INTERRUPT_REASON);
-                  } else {
-                    doIdleCheck();
-                  }
-                }
-              },
-              IDLE_TIMEOUT,
-              TimeUnit.MILLISECONDS);
+      this.inactivityTimer.reset(IDLE_TIMEOUT);
     } else if (isInterrupted(IDLE_INTERRUPT_REASON)) {
       hardAssert(!isIdle());
       this.resume(IDLE_INTERRUPT_REASON);
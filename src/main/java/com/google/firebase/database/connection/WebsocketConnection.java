@@ -16,29 +16,38 @@
 
 package com.google.firebase.database.connection;
 
-import com.google.firebase.database.connection.util.StringListReader;
+import com.google.firebase.database.connection.util.JsonFrameSerializer;
+import com.google.firebase.database.connection.util.TimerWheel;
 import com.google.firebase.database.logging.LogWrapper;
+import com.google.firebase.database.tubesock.FrameBufferPool;
+import com.google.firebase.database.tubesock.NioWebSocket;
+import com.google.firebase.database.tubesock.ThreadConfig;
 import com.google.firebase.database.tubesock.WebSocket;
 import com.google.firebase.database.tubesock.WebSocketEventHandler;
 import com.google.firebase.database.tubesock.WebSocketException;
 import com.google.firebase.database.tubesock.WebSocketMessage;
-import com.google.firebase.database.util.JsonMapper;
+import com.google.firebase.database.util.JsonStreamParser;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 class WebsocketConnection {
 
   private static final long KEEP_ALIVE_TIMEOUT_MS = 45 * 1000; // 45 seconds
   private static final long CONNECT_TIMEOUT_MS = 30 * 1000; // 30 seconds
   private static final int MAX_FRAME_SIZE = 16384;
+  // Frame buffers are shared by all connections; a few large writes shouldn't pin their memory.
+  private static final FrameBufferPool FRAME_POOL = new FrameBufferPool(MAX_FRAME_SIZE, 32);
+  // Payload of data messages and pushes, which is decoded by PersistentConnectionImpl
+  private static final List<String> DEFERRED_DATA_PATH = Arrays.asList("d", "b", "d");
   private static long connectionId = 0;
   private final ConnectionContext connectionContext;
   private final ScheduledExecutorService executorService;
@@ -47,10 +56,10 @@ class WebsocketConnection {
   private boolean everConnected = false;
   private boolean isClosed = false;
   private long totalFrames = 0;
-  private StringListReader frameReader;
+  private List<String> frames;
   private Delegate delegate;
-  private ScheduledFuture<?> keepAlive;
-  private ScheduledFuture<?> connectTimeout;
+  private final TimerWheel.Timeout keepAlive;
+  private final TimerWheel.Timeout connectTimeout;
 
   public WebsocketConnection(
       ConnectionContext connectionContext,
@@ -65,20 +74,15 @@ class WebsocketConnection {
     logger = new LogWrapper(connectionContext.getLogger(), WebsocketConnection.class,
         "ws_" + connId);
     conn = createConnection(hostInfo, optCachedHost, optLastSessionId);
-  }
-
-  private static String[] splitIntoFrames(String src, int maxFrameSize) {
-    if (src.length() <= maxFrameSize) {
-      return new String[] {src};
-    } else {
-      ArrayList<String> segs = new ArrayList<>();
-      for (int i = 0; i < src.length(); i += maxFrameSize) {
-        int end = Math.min(i + maxFrameSize, src.length());
-        String seg = src.substring(i, end);
-        segs.add(seg);
-      }
-      return segs.toArray(new String[segs.size()]);
-    }
+    TimerWheel timerWheel = connectionContext.getTimerWheel();
+    keepAlive = timerWheel.newTimeout(nop());
+    connectTimeout = timerWheel.newTimeout(
+        new Runnable() {
+          @Override
+          public void run() {
+            closeIfNeverConnected();
+          }
+        });
   }
 
   private WSClient createConnection(
@@ -89,23 +93,19 @@ class WebsocketConnection {
             host, hostInfo.isSecure(), hostInfo.getNamespace(), optLastSessionId);
     Map<String, String> extraHeaders = new HashMap<>();
     extraHeaders.put("User-Agent", this.connectionContext.getUserAgent());
-    WebSocket ws = new WebSocket(uri, /*protocol=*/ null, extraHeaders,
-        connectionContext.getThreadConfig());
-    return new WSClientTubesock(ws);
+    ThreadConfig threadConfig = connectionContext.getThreadConfig();
+    if (threadConfig.getSelectorPool() != null) {
+      NioWebSocket ws = new NioWebSocket(uri, /*protocol=*/ null, extraHeaders,
+          threadConfig.getSelectorPool());
+      return new WSClientNio(ws);
+    }
+    WebSocket ws = new WebSocket(uri, /*protocol=*/ null, extraHeaders, threadConfig);
+    return new WSClientThreads(ws);
   }
 
   void open() {
     conn.connect();
-    connectTimeout =
-        executorService.schedule(
-            new Runnable() {
-              @Override
-              public void run() {
-                closeIfNeverConnected();
-              }
-            },
-            CONNECT_TIMEOUT_MS,
-            TimeUnit.MILLISECONDS);
+    connectTimeout.reset(CONNECT_TIMEOUT_MS);
   }
 
   public void start() {
@@ -121,63 +121,66 @@ class WebsocketConnection {
     // they will
     // never be running.
     conn.close();
-    if (connectTimeout != null) {
-      connectTimeout.cancel(true);
-    }
-    if (keepAlive != null) {
-      keepAlive.cancel(true);
-      keepAlive = null;
-    }
+    connectTimeout.cancel();
+    keepAlive.cancel();
   }
 
   public void send(Map<String, Object> message) {
     resetKeepAlive();
 
+    List<ByteBuffer> frames;
     try {
-      String toSend = JsonMapper.serializeJson(message);
-      String[] segs = splitIntoFrames(toSend, MAX_FRAME_SIZE);
-      if (segs.length > 1) {
-        conn.send("" + segs.length);
-      }
-
-      for (String seg : segs) {
-        conn.send(seg);
-      }
+      frames = JsonFrameSerializer.serialize(message, FRAME_POOL);
     } catch (IOException e) {
       logger.error("Failed to serialize message: " + message.toString(), e);
       shutdown();
+      return;
+    }
+
+    if (frames.size() > 1) {
+      conn.send("" + frames.size());
+    }
+    for (ByteBuffer frame : frames) {
+      conn.send(frame);
     }
   }
 
   private void appendFrame(String message) {
-    frameReader.addString(message);
+    frames.add(message);
     totalFrames -= 1;
     if (totalFrames == 0) {
       // Decode JSON
       try {
-        frameReader.freeze();
-        Map<String, Object> decoded = JsonMapper.parseJson(frameReader.toString());
+        Map<String, Object> decoded = JsonStreamParser.parseJson(frames, DEFERRED_DATA_PATH);
         if (logger.logsDebug()) {
           logger.debug("handleIncomingFrame complete frame: " + decoded);
         }
         delegate.onMessage(decoded);
       } catch (IOException e) {
-        logger.error("Error parsing frame: " + frameReader.toString(), e);
+        logger.error("Error parsing frame: " + joinFrames(), e);
         close();
         shutdown();
       } catch (ClassCastException e) {
-        logger.error("Error parsing frame (cast error): " + frameReader.toString(), e);
+        logger.error("Error parsing frame (cast error): " + joinFrames(), e);
         close();
         shutdown();
       } finally {
-        frameReader = null;
+        frames = null;
       }
     }
   }
 
+  private String joinFrames() {
+    StringBuilder builder = new StringBuilder();
+    for (String frame : frames) {
+      builder.append(frame);
+    }
+    return builder.toString();
+  }
+
   private void handleNewFrameCount(int numFrames) {
     totalFrames = numFrames;
-    frameReader = new StringListReader();
+    frames = new ArrayList<>(numFrames);
     if (logger.logsDebug()) {
       logger.debug("HandleNewFrameCount: " + totalFrames);
     }
@@ -218,15 +221,10 @@ class WebsocketConnection {
 
   private void resetKeepAlive() {
     if (!isClosed) {
-      if (keepAlive != null) {
-        keepAlive.cancel(false);
-        if (logger.logsDebug()) {
-          logger.debug("Reset keepAlive. Remaining: " + keepAlive.getDelay(TimeUnit.MILLISECONDS));
-        }
-      } else if (logger.logsDebug()) {
-        logger.debug("Reset keepAlive");
+      if (logger.logsDebug()) {
+        logger.debug("Reset keepAlive. Remaining: " + keepAlive.getRemainingMillis());
       }
-      keepAlive = executorService.schedule(nop(), KEEP_ALIVE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      keepAlive.reset(KEEP_ALIVE_TIMEOUT_MS);
     }
   }
 
@@ -243,7 +241,7 @@ class WebsocketConnection {
   }
 
   private boolean isBuffering() {
-    return frameReader != null;
+    return frames != null;
   }
 
   private void onClosed() {
@@ -254,10 +252,7 @@ class WebsocketConnection {
       shutdown();
     }
     conn = null;
-    if (keepAlive != null) {
-      keepAlive.cancel(false);
-      keepAlive = null;
-    }
+    keepAlive.cancel();
   }
 
   private void shutdown() {
@@ -290,16 +285,13 @@ class WebsocketConnection {
     void close();
 
     void send(String msg);
-  }
-
-  private class WSClientTubesock implements WSClient, WebSocketEventHandler {
 
-    private WebSocket ws;
+    /** Sends a frame from the shared frame pool, handing the buffer over to the client. */
+    void send(ByteBuffer frame);
+  }
 
-    private WSClientTubesock(WebSocket ws) {
-      this.ws = ws;
-      this.ws.setEventHandler(this);
-    }
+  /** Handles the events of a tubesock websocket, whichever way it does its I/O. */
+  private abstract class WSClientTubesock implements WSClient, WebSocketEventHandler {
 
     @Override
     public void onOpen() {
@@ -307,7 +299,7 @@ class WebsocketConnection {
           new Runnable() {
             @Override
             public void run() {
-              connectTimeout.cancel(false);
+              connectTimeout.cancel();
               everConnected = true;
               if (logger.logsDebug()) {
                 logger.debug("websocket opened");
@@ -370,11 +362,28 @@ class WebsocketConnection {
       }
     }
 
+  }
+
+  /** A client whose websocket reads and writes on threads of its own. */
+  private class WSClientThreads extends WSClientTubesock {
+
+    private final WebSocket ws;
+
+    private WSClientThreads(WebSocket ws) {
+      this.ws = ws;
+      this.ws.setEventHandler(this);
+    }
+
     @Override
     public void send(String msg) {
       ws.send(msg);
     }
 
+    @Override
+    public void send(ByteBuffer frame) {
+      ws.send(frame, FRAME_POOL);
+    }
+
     @Override
     public void close() {
       ws.close();
@@ -401,4 +410,36 @@ class WebsocketConnection {
       }
     }
   }
+
+  /** A client whose websocket is multiplexed onto a shared pool of selector threads. */
+  private class WSClientNio extends WSClientTubesock {
+
+    private final NioWebSocket ws;
+
+    private WSClientNio(NioWebSocket ws) {
+      this.ws = ws;
+      this.ws.setEventHandler(this);
+    }
+
+    @Override
+    public void send(String msg) {
+      ws.send(msg);
+    }
+
+    @Override
+    public void send(ByteBuffer frame) {
+      ws.send(frame, FRAME_POOL);
+    }
+
+    @Override
+    public void close() {
+      ws.close();
+    }
+
+    @Override
+    public void connect() {
+      // Connection errors are reported to onError, since the connection is made asynchronously.
+      ws.connect();
+    }
+  }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.connection.util;
+
+import com.google.firebase.database.tubesock.FrameBufferPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes outgoing messages to UTF-8 encoded JSON, written straight into websocket frame
+ * buffers from a {@link FrameBufferPool}. Frames are split at character boundaries, so that every
+ * frame is valid UTF-8 on its own. The output is equivalent to that of
+ * {@link com.google.firebase.database.util.JsonMapper#serializeJson(Map)}.
+ */
+public class JsonFrameSerializer {
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final FrameBufferPool pool;
+  private final List<ByteBuffer> frames = new ArrayList<>();
+  private ByteBuffer current;
+
+  private JsonFrameSerializer(FrameBufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Serializes a message into one or more frame buffers, each holding at most the pool's payload
+   * capacity. The caller owns the returned buffers.
+   *
+   * @param message The message to serialize
+   * @param pool The pool to take the frame buffers from
+   * @return The frames, in order
+   * @throws IOException If the message contains a value that can't be represented in JSON
+   */
+  public static List<ByteBuffer> serialize(Map<String, Object> message, FrameBufferPool pool)
+      throws IOException {
+    JsonFrameSerializer serializer = new JsonFrameSerializer(pool);
+    try {
+      serializer.current = pool.acquire();
+      serializer.frames.add(serializer.current);
+      serializer.writeValue(message);
+      return serializer.frames;
+    } catch (IOException | RuntimeException e) {
+      for (ByteBuffer frame : serializer.frames) {
+        pool.release(frame);
+      }
+      throw e;
+    }
+  }
+
+  private void ensureRemaining(int bytes) {
+    if (current.remaining() < bytes) {
+      current = pool.acquire();
+      frames.add(current);
+    }
+  }
+
+  private void writeAscii(char c) {
+    ensureRemaining(1);
+    current.put((byte) c);
+  }
+
+  private void writeAscii(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      writeAscii(s.charAt(i));
+    }
+  }
+
+  private void writeValue(Object value) throws IOException {
+    if (value == null) {
+      writeAscii("null");
+    } else if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof Boolean) {
+      writeAscii(((Boolean) value) ? "true" : "false");
+    } else if (value instanceof Number) {
+      writeAscii(numberToString((Number) value));
+    } else if (value instanceof Map) {
+      writeAscii('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (!first) {
+          writeAscii(',');
+        }
+        first = false;
+        writeString(String.valueOf(entry.getKey()));
+        writeAscii(':');
+        writeValue(entry.getValue());
+      }
+      writeAscii('}');
+    } else if (value instanceof Collection) {
+      writeAscii('[');
+      boolean first = true;
+      for (Object entry : (Collection<?>) value) {
+        if (!first) {
+          writeAscii(',');
+        }
+        first = false;
+        writeValue(entry);
+      }
+      writeAscii(']');
+    } else {
+      writeString(value.toString());
+    }
+  }
+
+  private void writeString(String s) {
+    writeAscii('"');
+    int length = s.length();
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        writeAscii('\\');
+        writeAscii(c);
+      } else if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+        writeEscape(c);
+      } else if (c < 0x80) {
+        writeAscii(c);
+      } else if (c < 0x800) {
+        ensureRemaining(2);
+        current.put((byte) (0xc0 | (c >> 6)));
+        current.put((byte) (0x80 | (c & 0x3f)));
+      } else if (Character.isHighSurrogate(c)
+          && i + 1 < length
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        ensureRemaining(4);
+        current.put((byte) (0xf0 | (codePoint >> 18)));
+        current.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+        current.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+        current.put((byte) (0x80 | (codePoint & 0x3f)));
+      } else if (Character.isSurrogate(c)) {
+        // Unpaired surrogates can't be encoded; replace them like String.getBytes() does.
+        writeAscii('?');
+      } else {
+        ensureRemaining(3);
+        current.put((byte) (0xe0 | (c >> 12)));
+        current.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        current.put((byte) (0x80 | (c & 0x3f)));
+      }
+    }
+    writeAscii('"');
+  }
+
+  private void writeEscape(char c) {
+    switch (c) {
+      case '\b':
+        writeAscii("\\b");
+        break;
+      case '\t':
+        writeAscii("\\t");
+        break;
+      case '\n':
+        writeAscii("\\n");
+        break;
+      case '\f':
+        writeAscii("\\f");
+        break;
+      case '\r':
+        writeAscii("\\r");
+        break;
+      default:
+        writeAscii("\\u");
+        writeAscii(HEX_DIGITS[(c >> 12) & 0xf]);
+        writeAscii(HEX_DIGITS[(c >> 8) & 0xf]);
+        writeAscii(HEX_DIGITS[(c >> 4) & 0xf]);
+        writeAscii(HEX_DIGITS[c & 0xf]);
+        break;
+    }
+  }
+
+  /** Formats numbers the same way as org.json, i.e. without trailing fractional zeros. */
+  private static String numberToString(Number number) throws IOException {
+    if ((number instanceof Double
+            && (((Double) number).isInfinite() || ((Double) number).isNaN()))
+        || (number instanceof Float
+            && (((Float) number).isInfinite() || ((Float) number).isNaN()))) {
+      throw new IOException("Could not serialize number " + number);
+    }
+    String string = number.toString();
+    if (string.indexOf('.') > 0 && string.indexOf('e') < 0 && string.indexOf('E') < 0) {
+      int end = string.length();
+      while (string.charAt(end - 1) == '0') {
+        end--;
+      }
+      if (string.charAt(end - 1) == '.') {
+        end--;
+      }
+      string = string.substring(0, end);
+    }
+    return string;
+  }
+}
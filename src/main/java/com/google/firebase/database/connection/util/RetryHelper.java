@@ -20,13 +20,9 @@ import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.logging.Logger;
 
 import java.util.Random;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 
 public class RetryHelper {
 
-  private final ScheduledExecutorService executorService;
   private final LogWrapper logger;
   /** The minimum delay for a retry in ms. */
   private final long minRetryDelayAfterFailure;
@@ -42,32 +38,41 @@ public class RetryHelper {
 
   private final Random random = new Random();
 
-  private ScheduledFuture<?> scheduledRetry;
+  private final TimerWheel.Timeout scheduledRetry;
+  private Runnable pendingRetry;
 
   private long currentRetryDelay;
   private boolean lastWasSuccess = true;
 
   private RetryHelper(
-      ScheduledExecutorService executorService,
+      TimerWheel timerWheel,
       LogWrapper logger,
       long minRetryDelayAfterFailure,
       long maxRetryDelay,
       double retryExponent,
       double jitterFactor) {
-    this.executorService = executorService;
     this.logger = logger;
     this.minRetryDelayAfterFailure = minRetryDelayAfterFailure;
     this.maxRetryDelay = maxRetryDelay;
     this.retryExponent = retryExponent;
     this.jitterFactor = jitterFactor;
+    this.scheduledRetry = timerWheel.newTimeout(
+        new Runnable() {
+          @Override
+          public void run() {
+            Runnable runnable = pendingRetry;
+            pendingRetry = null;
+            runnable.run();
+          }
+        });
   }
 
-  public void retry(final Runnable runnable) {    
+  public void retry(Runnable runnable) {    
     long delay;
-    if (this.scheduledRetry != null) {
+    if (this.pendingRetry != null) {
       logger.debug("Cancelling previous scheduled retry");
-      this.scheduledRetry.cancel(false);
-      this.scheduledRetry = null;
+      this.scheduledRetry.cancel();
+      this.pendingRetry = null;
     }
     if (this.lastWasSuccess) {
       delay = 0;
@@ -85,15 +90,8 @@ public class RetryHelper {
     }
     this.lastWasSuccess = false;
     logger.debug("Scheduling retry in %dms", delay);
-    Runnable wrapped =
-        new Runnable() {
-          @Override
-          public void run() {
-            scheduledRetry = null;
-            runnable.run();
-          }
-        };
-    this.scheduledRetry = this.executorService.schedule(wrapped, delay, TimeUnit.MILLISECONDS);
+    this.pendingRetry = runnable;
+    this.scheduledRetry.reset(delay);
   }
 
   public void signalSuccess() {
@@ -106,10 +104,10 @@ public class RetryHelper {
   }
 
   public void cancel() {
-    if (this.scheduledRetry != null) {
+    if (this.pendingRetry != null) {
       logger.debug("Cancelling existing retry attempt");
-      this.scheduledRetry.cancel(false);
-      this.scheduledRetry = null;
+      this.scheduledRetry.cancel();
+      this.pendingRetry = null;
     } else {
       logger.debug("No existing retry attempt to cancel");
     }
@@ -118,15 +116,15 @@ public class RetryHelper {
 
   public static class Builder {
 
-    private final ScheduledExecutorService service;
+    private final TimerWheel timerWheel;
     private final LogWrapper logger;
     private long minRetryDelayAfterFailure = 1000;
     private double jitterFactor = 0.5;
     private long retryMaxDelay = 30 * 1000;
     private double retryExponent = 1.3;
 
-    public Builder(ScheduledExecutorService service, Logger logger, Class tag) {
-      this.service = service;
+    public Builder(TimerWheel timerWheel, Logger logger, Class tag) {
+      this.timerWheel = timerWheel;
       this.logger = new LogWrapper(logger, tag);
     }
 
@@ -155,7 +153,7 @@ public class RetryHelper {
 
     public RetryHelper build() {
       return new RetryHelper(
-          this.service,
+          this.timerWheel,
           this.logger,
           this.minRetryDelayAfterFailure,
           this.retryMaxDelay,
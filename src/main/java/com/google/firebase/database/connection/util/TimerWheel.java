@@ -0,0 +1,221 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.connection.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timer wheel for connection-level timeouts, shared by all connections of a database
+ * context. Armed timeouts sit in buckets according to their deadline, and while any are armed a
+ * single periodic task on the executor advances the wheel by one bucket per tick.
+ *
+ * <p>Pushing a timeout's deadline back, as connection activity does for keep-alives, only updates
+ * its deadline. The wheel notices the new deadline when the timeout's bucket comes around, and
+ * moves it along instead of firing it. This keeps frequent resets off the executor's delay queue.
+ *
+ * <p>Expired timeouts run on the executor. Their accuracy is bounded by the tick duration.
+ */
+public final class TimerWheel {
+
+  private static final long DEFAULT_TICK_MILLIS = 100;
+  private static final int DEFAULT_BUCKET_COUNT = 512;
+
+  private final ScheduledExecutorService executorService;
+  private final long tickMillis;
+  private final List<List<Timeout>> buckets;
+  private final long startMillis;
+
+  // Guarded by this
+  private long nextTick;
+  private int queuedCount;
+  private ScheduledFuture<?> ticker;
+
+  public TimerWheel(ScheduledExecutorService executorService) {
+    this(executorService, DEFAULT_TICK_MILLIS, DEFAULT_BUCKET_COUNT);
+  }
+
+  TimerWheel(ScheduledExecutorService executorService, long tickMillis, int bucketCount) {
+    this.executorService = executorService;
+    this.tickMillis = tickMillis;
+    this.buckets = new ArrayList<>(bucketCount);
+    for (int i = 0; i < bucketCount; i++) {
+      buckets.add(new ArrayList<Timeout>());
+    }
+    this.startMillis = currentTimeMillis();
+  }
+
+  /** Creates a timeout that runs the given task once it expires. The timeout starts disarmed. */
+  public Timeout newTimeout(Runnable task) {
+    return new Timeout(task);
+  }
+
+  synchronized boolean isTicking() {
+    return ticker != null;
+  }
+
+  private static long currentTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+  }
+
+  /** Returns the first tick at or after the given time. */
+  private long tickAt(long timeMillis) {
+    long elapsed = timeMillis - startMillis;
+    return (elapsed + tickMillis - 1) / tickMillis;
+  }
+
+  private void enqueue(Timeout timeout) {
+    timeout.bucketTick = Math.max(tickAt(timeout.deadline), nextTick);
+    buckets.get((int) (timeout.bucketTick % buckets.size())).add(timeout);
+    timeout.queued = true;
+    if (queuedCount++ == 0 && ticker == null) {
+      // The wheel was idle, so its position can jump to the present.
+      long now = currentTimeMillis();
+      nextTick = Math.min(timeout.bucketTick, tickAt(now));
+      long delay = startMillis + nextTick * tickMillis - now;
+      ticker = executorService.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          tick();
+        }
+      }, Math.max(0, delay), tickMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void dequeue(Timeout timeout) {
+    buckets.get((int) (timeout.bucketTick % buckets.size())).remove(timeout);
+    timeout.queued = false;
+    queuedCount--;
+  }
+
+  private synchronized void tick() {
+    long now = currentTimeMillis();
+    while (startMillis + nextTick * tickMillis <= now) {
+      long tick = nextTick++;
+      List<Timeout> bucket = buckets.get((int) (tick % buckets.size()));
+      if (bucket.isEmpty()) {
+        continue;
+      }
+      List<Timeout> due = new ArrayList<>(bucket);
+      bucket.clear();
+      for (Timeout timeout : due) {
+        if (timeout.bucketTick != tick) {
+          // Due on a later turn of the wheel
+          bucket.add(timeout);
+          continue;
+        }
+        timeout.queued = false;
+        queuedCount--;
+        if (timeout.deadline <= now) {
+          timeout.fire();
+        } else {
+          enqueue(timeout);
+        }
+      }
+    }
+    stopTickingIfIdle();
+  }
+
+  private void stopTickingIfIdle() {
+    if (queuedCount == 0 && ticker != null) {
+      ticker.cancel(false);
+      ticker = null;
+    }
+  }
+
+  /**
+   * A timeout on a {@link TimerWheel}. A timeout can be armed, reset and cancelled any number of
+   * times, and runs its task each time it expires.
+   */
+  public final class Timeout {
+
+    private final Runnable task;
+
+    // Guarded by the wheel
+    private long deadline;
+    private boolean armed;
+    private boolean queued;
+    private long bucketTick;
+    private long generation;
+
+    private Timeout(Runnable task) {
+      this.task = task;
+    }
+
+    /** Arms this timeout to expire after the given delay, replacing any earlier deadline. */
+    public void reset(long delayMillis) {
+      synchronized (TimerWheel.this) {
+        deadline = currentTimeMillis() + delayMillis;
+        armed = true;
+        generation++;
+        if (delayMillis <= 0) {
+          if (queued) {
+            dequeue(this);
+          }
+          fire();
+        } else if (!queued) {
+          enqueue(this);
+        } else if (tickAt(deadline) < bucketTick) {
+          // An earlier deadline needs an earlier bucket. A later one doesn't, since the wheel
+          // checks the deadline before firing.
+          dequeue(this);
+          enqueue(this);
+        }
+      }
+    }
+
+    /** Disarms this timeout, so that its task won't run until it is reset. */
+    public void cancel() {
+      synchronized (TimerWheel.this) {
+        armed = false;
+        generation++;
+        if (queued) {
+          dequeue(this);
+          stopTickingIfIdle();
+        }
+      }
+    }
+
+    /** Returns the time until this timeout expires, or -1 if it isn't armed. */
+    public long getRemainingMillis() {
+      synchronized (TimerWheel.this) {
+        return armed ? Math.max(0, deadline - currentTimeMillis()) : -1;
+      }
+    }
+
+    /** Runs the task on the executor, unless this timeout is reset or cancelled meanwhile. */
+    private void fire() {
+      final long firedGeneration = generation;
+      executorService.execute(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (TimerWheel.this) {
+            if (!armed || queued || generation != firedGeneration) {
+              return;
+            }
+            armed = false;
+          }
+          task.run();
+        }
+      });
+    }
+  }
+}
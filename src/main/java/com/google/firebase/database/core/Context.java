@@ -24,19 +24,33 @@ import com.google.firebase.database.connection.ConnectionAuthTokenProvider;
 import com.google.firebase.database.connection.ConnectionContext;
 import com.google.firebase.database.connection.HostInfo;
 import com.google.firebase.database.connection.PersistentConnection;
+import com.google.firebase.database.connection.util.TimerWheel;
+import com.google.firebase.database.core.persistence.DefaultPersistenceManager;
+import com.google.firebase.database.core.persistence.LRUCachePolicy;
+import com.google.firebase.database.core.persistence.MemoryPersistenceStorageEngine;
 import com.google.firebase.database.core.persistence.NoopPersistenceManager;
 import com.google.firebase.database.core.persistence.PersistenceManager;
 import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.logging.Logger;
+import com.google.firebase.database.snapshot.NodeValueFactory;
+import com.google.firebase.database.tubesock.SelectorPool;
 import com.google.firebase.database.tubesock.ThreadConfig;
 import com.google.firebase.database.utilities.DefaultRunLoop;
 
+import java.io.File;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class Context {
 
   private static final long DEFAULT_CACHE_SIZE = 10 * 1024 * 1024;
+  private static final long DEFAULT_COMPOUND_HASH_RANGE_SIZE = 16 * 1024;
+  private static final String DEFAULT_PERSISTENCE_DIRECTORY = ".firebase-database";
 
   protected Logger logger;
   protected EventTarget eventTarget;
@@ -48,8 +62,19 @@ public class Context {
   protected Logger.Level logLevel = Logger.Level.INFO;
   protected boolean persistenceEnabled;
   protected long cacheSize = DEFAULT_CACHE_SIZE;
+  protected long memoryCacheSize = 0;
+  protected boolean transactionCoalescingEnabled;
+  protected boolean parallelSyncTreeEnabled;
+  protected long compoundHashRangeSize = DEFAULT_COMPOUND_HASH_RANGE_SIZE;
+  protected File persistenceDirectory;
+  protected int eventTargetPoolSize = 1;
+  protected int webSocketSelectorThreads = 0;
   protected FirebaseApp firebaseApp;
   private PersistenceManager forcedPersistenceManager;
+  private TimerWheel timerWheel;
+  private ThreadPoolExecutor syncTreeExecutor;
+  private boolean syncTreeExecutorCreated = false;
+  private SelectorPool selectorPool;
   private boolean frozen = false;
   private boolean stopped = false;
 
@@ -138,6 +163,24 @@ public class Context {
     }
   }
 
+  /**
+   * Stops the services of a context that won't be used again, and releases the resources it shares
+   * with other contexts.
+   */
+  void destroy() {
+    stop();
+    synchronized (this) {
+      if (selectorPool != null) {
+        selectorPool.release();
+        selectorPool = null;
+      }
+      if (syncTreeExecutor != null) {
+        syncTreeExecutor.shutdown();
+        syncTreeExecutor = null;
+      }
+    }
+  }
+
   protected void assertUnfrozen() {
     if (isFrozen()) {
       throw new DatabaseException(
@@ -158,8 +201,15 @@ public class Context {
   }
 
   private ThreadConfig getThreadConfig() {
-    return new ThreadConfig(ImplFirebaseTrampolines.getThreadFactory(firebaseApp),
-        getPlatform().getThreadInitializer());
+    ThreadFactory threadFactory = ImplFirebaseTrampolines.getThreadFactory(firebaseApp);
+    ThreadInitializer threadInitializer = getPlatform().getThreadInitializer();
+    synchronized (this) {
+      if (selectorPool == null && this.webSocketSelectorThreads > 0) {
+        selectorPool = SelectorPool.acquireShared(
+            this.webSocketSelectorThreads, threadFactory, threadInitializer);
+      }
+    }
+    return new ThreadConfig(threadFactory, threadInitializer, selectorPool);
   }
 
   public ConnectionContext getConnectionContext() {
@@ -167,10 +217,12 @@ public class Context {
         this.logger,
         wrapAuthTokenProvider(this.getAuthTokenProvider()),
         this.getExecutorService(),
+        this.getTimerWheel(),
         this.isPersistenceEnabled(),
         FirebaseDatabase.getSdkVersion(),
         this.getUserAgent(),
-        this.getThreadConfig());
+        this.getThreadConfig(),
+        NodeValueFactory.getInstance());
   }
 
   PersistenceManager getPersistenceManager(String firebaseId) {
@@ -186,6 +238,9 @@ public class Context {
                 + "this platform.");
       }
       return cache;
+    } else if (this.memoryCacheSize > 0) {
+      return new DefaultPersistenceManager(this, new MemoryPersistenceStorageEngine(),
+          new LRUCachePolicy(this.memoryCacheSize, 0));
     } else {
       return new NoopPersistenceManager();
     }
@@ -199,6 +254,37 @@ public class Context {
     return this.cacheSize;
   }
 
+  public long getMemoryCacheSizeBytes() {
+    return this.memoryCacheSize;
+  }
+
+  public boolean isTransactionCoalescingEnabled() {
+    return this.transactionCoalescingEnabled;
+  }
+
+  public boolean isParallelSyncTreeEnabled() {
+    return this.parallelSyncTreeEnabled;
+  }
+
+  public long getCompoundHashRangeSizeBytes() {
+    return this.compoundHashRangeSize;
+  }
+
+  public int getEventTargetPoolSize() {
+    return this.eventTargetPoolSize;
+  }
+
+  public int getWebSocketSelectorThreads() {
+    return this.webSocketSelectorThreads;
+  }
+
+  public File getPersistenceDirectory() {
+    if (this.persistenceDirectory != null) {
+      return this.persistenceDirectory;
+    }
+    return new File(System.getProperty("user.home"), DEFAULT_PERSISTENCE_DIRECTORY);
+  }
+
   // For testing
   void forcePersistenceManager(PersistenceManager persistenceManager) {
     this.forcedPersistenceManager = persistenceManager;
@@ -243,6 +329,44 @@ public class Context {
     return ((DefaultRunLoop) loop).getExecutorService();
   }
 
+  /** Returns the timer wheel shared by the timeouts of all connections in this context. */
+  private synchronized TimerWheel getTimerWheel() {
+    if (timerWheel == null) {
+      timerWheel = new TimerWheel(getExecutorService());
+    }
+    return timerWheel;
+  }
+
+  /**
+   * Returns the executor that large sync tree operations are spread across, or null if they are
+   * applied serially, which is the case unless parallel sync tree operations are enabled and there
+   * is more than one processor to run them on.
+   */
+  synchronized Executor getSyncTreeExecutor() {
+    if (!syncTreeExecutorCreated) {
+      syncTreeExecutorCreated = true;
+      int poolSize = Runtime.getRuntime().availableProcessors();
+      if (parallelSyncTreeEnabled && poolSize > 1) {
+        final ThreadFactory threadFactory = ImplFirebaseTrampolines.getThreadFactory(firebaseApp);
+        final ThreadInitializer threadInitializer = getPlatform().getThreadInitializer();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 3,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread thread = threadFactory.newThread(r);
+                threadInitializer.setName(thread, "FirebaseDatabaseSyncTree");
+                threadInitializer.setDaemon(thread, true);
+                return thread;
+              }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        syncTreeExecutor = executor;
+      }
+    }
+    return syncTreeExecutor;
+  }
+
   private void ensureLogger() {
     if (logger == null) {
       logger = getPlatform().newLogger(this, logLevel, loggedComponents);
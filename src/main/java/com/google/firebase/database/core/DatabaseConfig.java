@@ -20,6 +20,7 @@ import com.google.firebase.FirebaseApp;
 import com.google.firebase.database.DatabaseException;
 import com.google.firebase.database.Logger;
 
+import java.io.File;
 import java.util.List;
 
 /**
@@ -174,6 +175,120 @@ public class DatabaseConfig extends Context {
     this.cacheSize = cacheSizeInBytes;
   }
 
+  /**
+   * By default Firebase Database persists data in the <code>.firebase-database</code> directory
+   * under the home directory of the current user. Call this method to store it somewhere else. Each
+   * app and database gets its own subdirectory, but the directory must not be shared with another
+   * process. This method must be called before creating your first Database reference.
+   *
+   * @param directory The directory in which to persist data.
+   */
+  public synchronized void setPersistenceDirectory(File directory) {
+    assertUnfrozen();
+    if (directory == null) {
+      throw new DatabaseException("Persistence directory must not be null");
+    }
+    this.persistenceDirectory = directory;
+  }
+
+  /**
+   * By default, the Firebase Database library raises all callbacks on a single thread, in the
+   * order they occur. Call this method with a larger size to raise callbacks on a pool of threads
+   * instead, so that a slow listener doesn't hold up the callbacks of other listeners. The events
+   * of any single listener are still raised one at a time and in order, as are completion
+   * callbacks. Events of different listeners, and completion callbacks relative to events, may then
+   * be raised in any order. This has no effect if a custom {@link EventTarget} is set.
+   *
+   * @param poolSize The number of threads to raise callbacks on
+   */
+  public synchronized void setEventTargetPoolSize(int poolSize) {
+    assertUnfrozen();
+    if (poolSize < 1) {
+      throw new DatabaseException("Event target pool size must be at least 1");
+    }
+    this.eventTargetPoolSize = poolSize;
+  }
+
+  /**
+   * By default, every database connection reads from and writes to its websocket on two threads
+   * of its own. Call this method with a positive number to multiplex the connections onto that
+   * many selector threads instead, using non-blocking I/O. The selector threads are shared by all
+   * apps in the process that set the same number, which keeps the thread count low when there are
+   * many apps.
+   *
+   * @param threads The number of shared selector threads, or 0 to use dedicated threads
+   */
+  public synchronized void setWebSocketSelectorThreads(int threads) {
+    assertUnfrozen();
+    if (threads < 0) {
+      throw new DatabaseException("Number of websocket selector threads must not be negative");
+    }
+    this.webSocketSelectorThreads = threads;
+  }
+
+  /**
+   * By default, data is only kept in memory while it is being listened to, unless persistence is
+   * enabled. Call this method with a positive size to keep the data of queries that are no longer
+   * listened to in an in-memory cache of up to that many bytes, so that listening to them again
+   * can start from the cached data. When the cache grows beyond this size, the data that was least
+   * recently used is removed first. Data of active queries counts towards the size, but is never
+   * removed. This has no effect when persistence is enabled.
+   *
+   * @param cacheSizeInBytes The size of the in-memory cache in bytes, or 0 to disable it
+   */
+  public synchronized void setMemoryCacheSizeBytes(long cacheSizeInBytes) {
+    assertUnfrozen();
+    if (cacheSizeInBytes < 0) {
+      throw new DatabaseException("The memory cache size must not be negative");
+    }
+    this.memoryCacheSize = cacheSizeInBytes;
+  }
+
+  /**
+   * By default, a transaction is sent to the server as soon as it has run, and is sent again as
+   * soon as the server rejects it. Call this method with true to collect the transactions started
+   * together into one compare-and-set request per location, and to wait a little longer after
+   * each rejection before retrying. This reduces the number of retries when many clients or
+   * threads update the same location.
+   *
+   * @param isEnabled Set to true to coalesce transactions and back off between retries
+   */
+  public synchronized void setTransactionCoalescingEnabled(boolean isEnabled) {
+    assertUnfrozen();
+    this.transactionCoalescingEnabled = isEnabled;
+  }
+
+  /**
+   * By default, every change to the cached data is applied to the affected queries on the run
+   * loop, one query after another. Call this method with true to spread a change that affects
+   * many queries across a pool of threads, one per processor. This shortens the time it takes to
+   * apply large changes when there are hundreds of active queries, at the cost of those threads.
+   *
+   * @param isEnabled Set to true to apply large changes on multiple threads
+   */
+  public synchronized void setParallelSyncTreeEnabled(boolean isEnabled) {
+    assertUnfrozen();
+    this.parallelSyncTreeEnabled = isEnabled;
+  }
+
+  /**
+   * When the client reconnects, it sends a hash of the cached data of each large query in
+   * ranges, and the server only sends back the ranges that changed. The ranges of a large query
+   * are kept about this size, and the hash of a range is reused on the next reconnect if its data
+   * did not change. Smaller ranges mean less data is sent again after a small change, at the cost
+   * of more hashes to send. Call this method with 0 to always split the data by its total size
+   * instead, and hash all of it on every reconnect.
+   *
+   * @param rangeSizeInBytes The target size of a range in bytes, or 0 to disable reusing hashes
+   */
+  public synchronized void setCompoundHashRangeSizeBytes(long rangeSizeInBytes) {
+    assertUnfrozen();
+    if (rangeSizeInBytes < 0) {
+      throw new DatabaseException("The compound hash range size must not be negative");
+    }
+    this.compoundHashRangeSize = rangeSizeInBytes;
+  }
+
   public synchronized void setFirebaseApp(FirebaseApp app) {
     this.firebaseApp = app;
   }
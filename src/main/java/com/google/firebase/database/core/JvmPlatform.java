@@ -23,12 +23,17 @@ import com.google.firebase.database.connection.ConnectionContext;
 import com.google.firebase.database.connection.HostInfo;
 import com.google.firebase.database.connection.PersistentConnection;
 import com.google.firebase.database.connection.PersistentConnectionImpl;
+import com.google.firebase.database.core.persistence.DefaultPersistenceManager;
+import com.google.firebase.database.core.persistence.FilePersistenceStorageEngine;
+import com.google.firebase.database.core.persistence.LRUCachePolicy;
 import com.google.firebase.database.core.persistence.PersistenceManager;
+import com.google.firebase.database.core.persistence.PersistenceStorageEngine;
 import com.google.firebase.database.logging.DefaultLogger;
 import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.logging.Logger;
 import com.google.firebase.database.utilities.DefaultRunLoop;
 
+import java.io.File;
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -51,7 +56,8 @@ class JvmPlatform implements Platform {
   @Override
   public EventTarget newEventTarget(Context ctx) {
     ThreadFactory threadFactory = ImplFirebaseTrampolines.getThreadFactory(firebaseApp);
-    return new ThreadPoolEventTarget(threadFactory, ThreadInitializer.defaultInstance);
+    return new ThreadPoolEventTarget(
+        threadFactory, ThreadInitializer.defaultInstance, ctx.getEventTargetPoolSize());
   }
 
   @Override
@@ -92,7 +98,22 @@ class JvmPlatform implements Platform {
 
   @Override
   public PersistenceManager createPersistenceManager(Context ctx, String namespace) {
-    return null;
+    File directory = new File(
+        new File(ctx.getPersistenceDirectory(), ctx.getSessionPersistenceKey()), namespace);
+    final ThreadFactory threadFactory = ImplFirebaseTrampolines.getThreadFactory(firebaseApp);
+    final ThreadInitializer threadInitializer = getThreadInitializer();
+    PersistenceStorageEngine engine = new FilePersistenceStorageEngine(
+        ctx, directory, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = threadFactory.newThread(r);
+            threadInitializer.setName(thread, "FirebaseDatabasePersistence");
+            threadInitializer.setDaemon(thread, true);
+            return thread;
+          }
+        });
+    return new DefaultPersistenceManager(
+        ctx, engine, new LRUCachePolicy(ctx.getPersistenceCacheSizeBytes()));
   }
 
   @Override
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.core;
+
+/**
+ * An {@link EventTarget} that may run callbacks concurrently. Callbacks posted with equal ordering
+ * keys are still run one at a time, in the order they were posted. Callbacks posted through
+ * {@link #postEvent(Runnable)} are ordered with each other.
+ */
+public interface OrderedEventTarget extends EventTarget {
+
+  /**
+   * Posts a callback that runs after all callbacks previously posted with an equal ordering key.
+   *
+   * @param orderingKey The key to order the callback by, e.g. the listener it is for
+   * @param r The callback to be run
+   */
+  void postEvent(Object orderingKey, Runnable r);
+}
@@ -26,6 +26,7 @@ import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.InternalHelpers;
 import com.google.firebase.database.MutableData;
 import com.google.firebase.database.Transaction;
+import com.google.firebase.database.TransactionStats;
 import com.google.firebase.database.ValueEventListener;
 import com.google.firebase.database.annotations.NotNull;
 import com.google.firebase.database.connection.HostInfo;
@@ -54,6 +55,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Repo implements PersistentConnection.Delegate {
 
@@ -65,6 +70,21 @@ public class Repo implements PersistentConnection.Delegate {
    */
   private static final int TRANSACTION_MAX_RETRIES = 25;
 
+  /**
+   * When transactions are coalesced, a rejected transaction queue waits before it is sent again.
+   * The wait doubles with every rejection, from the minimum up to the maximum.
+   */
+  private static final long TRANSACTION_MIN_BACKOFF_MILLIS = 10;
+  private static final long TRANSACTION_MAX_BACKOFF_MILLIS = 1000;
+
+  /**
+   * The backoff also grows with the share of recent rounds the server rejected as stale, by up to
+   * this many doublings. This is the conflict rate reported by TransactionStats, but weighted
+   * towards recent rounds so that the backoff recovers once the contention is over.
+   */
+  private static final int TRANSACTION_CONFLICT_MAX_EXTRA_DOUBLINGS = 4;
+  private static final double TRANSACTION_CONFLICT_RATE_WEIGHT = 0.2;
+
   private static final String TRANSACTION_TOO_MANY_RETRIES = "maxretries";
   private static final String TRANSACTION_OVERRIDE_BY_SET = "overriddenBySet";
   private final RepoInfo repoInfo;
@@ -72,6 +92,7 @@ public class Repo implements PersistentConnection.Delegate {
   private final PersistentConnection connection;
   private final EventRaiser eventRaiser;
   private final Context ctx;
+  private PersistenceManager persistenceManager;
   private final LogWrapper operationLogger;
   private final LogWrapper transactionLogger;
   private final LogWrapper dataLogger;
@@ -86,6 +107,17 @@ public class Repo implements PersistentConnection.Delegate {
   private final FirebaseDatabase database;
   private boolean loggedTransactionPersistenceWarning = false;
   private long transactionOrder = 0;
+  private ScheduledFuture<?> scheduledTransactionSend;
+  private long scheduledTransactionSendTime;
+  private final Random transactionBackoffRandom = new Random();
+  private long transactionMinBackoffMillis = TRANSACTION_MIN_BACKOFF_MILLIS;
+  private long transactionMaxBackoffMillis = TRANSACTION_MAX_BACKOFF_MILLIS;
+  private double recentTransactionConflictRate = 0;
+  private final AtomicLong transactionsCommitted = new AtomicLong();
+  private final AtomicLong transactionsAborted = new AtomicLong();
+  private final AtomicLong transactionRounds = new AtomicLong();
+  private final AtomicLong transactionConflicts = new AtomicLong();
+  private final AtomicLong transactionRetries = new AtomicLong();
 
   Repo(RepoInfo repoInfo, Context ctx, FirebaseDatabase database) {
     this.repoInfo = repoInfo;
@@ -144,7 +176,7 @@ public class Repo implements PersistentConnection.Delegate {
     // This relies on the fact that all callbacks run on repo's runloop.
     connection.initialize();
 
-    PersistenceManager persistenceManager = ctx.getPersistenceManager(repoInfo.host);
+    persistenceManager = ctx.getPersistenceManager(repoInfo.host);
 
     infoData = new SnapshotHolder();
     onDisconnect = new SparseSnapshotTree();
@@ -241,7 +273,8 @@ public class Repo implements PersistentConnection.Delegate {
         }
         connection.put(write.getPath().asList(), write.getOverwrite().getValue(true), onComplete);
         Node resolved =
-            ServerValues.resolveDeferredValueSnapshot(write.getOverwrite(), serverValues);
+            ServerValues.resolveDeferredValueSnapshot(
+                write.getOverwrite(), serverSyncTree, write.getPath(), serverValues);
         serverSyncTree.applyUserOverwrite(
             write.getPath(),
             write.getOverwrite(),
@@ -255,7 +288,8 @@ public class Repo implements PersistentConnection.Delegate {
         }
         connection.merge(write.getPath().asList(), write.getMerge().getValue(true), onComplete);
         CompoundWrite resolved =
-            ServerValues.resolveDeferredValueMerge(write.getMerge(), serverValues);
+            ServerValues.resolveDeferredValueMerge(
+                write.getMerge(), serverSyncTree, write.getPath(), serverValues);
         serverSyncTree.applyUserMerge(
             write.getPath(), write.getMerge(), resolved, write.getWriteId(), /*persist=*/ false);
       }
@@ -281,6 +315,12 @@ public class Repo implements PersistentConnection.Delegate {
     ctx.getRunLoop().scheduleNow(r);
   }
 
+  public ScheduledFuture<?> schedule(Runnable r, long milliseconds) {
+    InternalHelpers.checkNotDestroyed(this);
+    ctx.requireStarted();
+    return ctx.getRunLoop().schedule(r, milliseconds);
+  }
+
   public void postEvent(Runnable r) {
     InternalHelpers.checkNotDestroyed(this);
     ctx.requireStarted();
@@ -437,7 +477,9 @@ public class Repo implements PersistentConnection.Delegate {
     }
 
     Map<String, Object> serverValues = ServerValues.generateServerValues(serverClock);
-    Node newValue = ServerValues.resolveDeferredValueSnapshot(newValueUnresolved, serverValues);
+    Node newValue =
+        ServerValues.resolveDeferredValueSnapshot(
+            newValueUnresolved, serverSyncTree, path, serverValues);
 
     final long writeId = this.getNextWriteId();
     List<? extends Event> events =
@@ -484,7 +526,8 @@ public class Repo implements PersistentConnection.Delegate {
 
     // Start with our existing data and merge each child into it.
     Map<String, Object> serverValues = ServerValues.generateServerValues(serverClock);
-    CompoundWrite resolved = ServerValues.resolveDeferredValueMerge(updates, serverValues);
+    CompoundWrite resolved =
+        ServerValues.resolveDeferredValueMerge(updates, serverSyncTree, path, serverValues);
 
     final long writeId = this.getNextWriteId();
     List<? extends Event> events =
@@ -625,6 +668,12 @@ public class Repo implements PersistentConnection.Delegate {
     connection.interrupt(INTERRUPT_REASON);
   }
 
+  /** Interrupts the connection and releases the persistence layer, once the app is deleted. */
+  void destroy() {
+    interrupt();
+    persistenceManager.close();
+  }
+
   void resume() {
     InternalHelpers.checkNotDestroyed(this);
     connection.resume(INTERRUPT_REASON);
@@ -676,7 +725,7 @@ public class Repo implements PersistentConnection.Delegate {
   private void runOnDisconnectEvents() {
     Map<String, Object> serverValues = ServerValues.generateServerValues(serverClock);
     SparseSnapshotTree resolvedTree =
-        ServerValues.resolveDeferredValueTree(this.onDisconnect, serverValues);
+        ServerValues.resolveDeferredValueTree(this.onDisconnect, serverSyncTree, serverValues);
     final List<Event> events = new ArrayList<>();
 
     resolvedTree.forEachTree(
@@ -765,6 +814,7 @@ public class Repo implements PersistentConnection.Delegate {
     }
     if (!result.isSuccess()) {
       // Abort the transaction
+      transactionsAborted.incrementAndGet();
       transaction.currentOutputSnapshotRaw = null;
       transaction.currentOutputSnapshotResolved = null;
       final DatabaseError innerClassError = error;
@@ -792,7 +842,9 @@ public class Repo implements PersistentConnection.Delegate {
 
       Map<String, Object> serverValues = ServerValues.generateServerValues(serverClock);
       Node newNodeUnresolved = result.getNode();
-      Node newNode = ServerValues.resolveDeferredValueSnapshot(newNodeUnresolved, serverValues);
+      Node newNode =
+          ServerValues.resolveDeferredValueSnapshot(
+              newNodeUnresolved, transaction.currentInputSnapshot, serverValues);
 
       transaction.currentOutputSnapshotRaw = newNodeUnresolved;
       transaction.currentOutputSnapshotResolved = newNode;
@@ -807,8 +859,73 @@ public class Repo implements PersistentConnection.Delegate {
               applyLocally, /*persist=*/
               false);
       this.postEvents(events);
-      sendAllReadyTransactions();
+      if (ctx.isTransactionCoalescingEnabled()) {
+        // Wait for the operations already on the run loop, so that the transactions they start
+        // are sent in the same request as this one.
+        scheduleTransactionSend(0);
+      } else {
+        sendAllReadyTransactions();
+      }
+    }
+  }
+
+  public TransactionStats getTransactionStats() {
+    return InternalHelpers.createTransactionStats(
+        transactionsCommitted.get(),
+        transactionsAborted.get(),
+        transactionRounds.get(),
+        transactionConflicts.get(),
+        transactionRetries.get());
+  }
+
+  /**
+   * Schedules a call to sendAllReadyTransactions() after the given delay, unless one is already
+   * scheduled to happen sooner.
+   */
+  private void scheduleTransactionSend(long delayMillis) {
+    long sendTime = monotonicMillis() + delayMillis;
+    if (scheduledTransactionSend != null) {
+      if (scheduledTransactionSendTime <= sendTime) {
+        return;
+      }
+      scheduledTransactionSend.cancel(false);
     }
+    scheduledTransactionSendTime = sendTime;
+    Runnable send =
+        new Runnable() {
+          @Override
+          public void run() {
+            scheduledTransactionSend = null;
+            sendAllReadyTransactions();
+          }
+        };
+    scheduledTransactionSend = schedule(send, delayMillis);
+  }
+
+  /** Overrides the range transactions back off in after a conflict. For testing. */
+  public void setTransactionBackoffMillis(long minMillis, long maxMillis) {
+    transactionMinBackoffMillis = minMillis;
+    transactionMaxBackoffMillis = maxMillis;
+  }
+
+  private void recordTransactionRound(boolean conflict) {
+    recentTransactionConflictRate =
+        recentTransactionConflictRate * (1 - TRANSACTION_CONFLICT_RATE_WEIGHT)
+            + (conflict ? TRANSACTION_CONFLICT_RATE_WEIGHT : 0);
+  }
+
+  private long transactionBackoffMillis(int retryCount) {
+    int extraDoublings = (int) Math.round(
+        recentTransactionConflictRate * TRANSACTION_CONFLICT_MAX_EXTRA_DOUBLINGS);
+    int doublings = Math.min(Math.max(retryCount - 1, 0) + extraDoublings, 16);
+    long maxBackoff =
+        Math.min(transactionMaxBackoffMillis, transactionMinBackoffMillis << doublings);
+    // Randomize the upper half so that clients that conflicted don't retry in lockstep.
+    return maxBackoff / 2 + (long) (transactionBackoffRandom.nextDouble() * (maxBackoff / 2));
+  }
+
+  private static long monotonicMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
   }
 
   private Node getLatestState(Path path) {
@@ -849,7 +966,17 @@ public class Repo implements PersistentConnection.Delegate {
       }
       // If they're all run (and not sent), we can send them.  Else, we must wait.
       if (allRun) {
-        sendTransactionQueue(queue, node.getPath());
+        long sendTime = 0;
+        for (TransactionData transaction : queue) {
+          sendTime = Math.max(sendTime, transaction.retryNotBefore);
+        }
+        long delay = sendTime - monotonicMillis();
+        if (delay > 0) {
+          // Still backing off after the last rejection
+          scheduleTransactionSend(delay);
+        } else {
+          sendTransactionQueue(queue, node.getPath());
+        }
       }
     } else if (node.hasChildren()) {
       node.forEachChild(
@@ -889,6 +1016,7 @@ public class Repo implements PersistentConnection.Delegate {
     Object dataToSend = snapToSend.getValue(true);
 
     final Repo repo = this;
+    transactionRounds.incrementAndGet();
 
     // Send the put.
     connection.compareAndPut(
@@ -903,9 +1031,11 @@ public class Repo implements PersistentConnection.Delegate {
             List<Event> events = new ArrayList<>();
 
             if (error == null) {
+              recordTransactionRound(false);
               List<Runnable> callbacks = new ArrayList<>();
               for (final TransactionData txn : queue) {
                 txn.status = TransactionStatus.COMPLETED;
+                transactionsCommitted.incrementAndGet();
                 events.addAll(
                     serverSyncTree.ackUserWrite(
                         txn.currentWriteId, /*revert=*/ false, /*persist=*/ false, serverClock));
@@ -947,12 +1077,19 @@ public class Repo implements PersistentConnection.Delegate {
             } else {
               // transactions are no longer sent. Update their status appropriately
               if (error.getCode() == DatabaseError.DATA_STALE) {
+                transactionConflicts.incrementAndGet();
+                recordTransactionRound(true);
+                long now = monotonicMillis();
                 for (TransactionData transaction : queue) {
                   if (transaction.status == TransactionStatus.SENT_NEEDS_ABORT) {
                     transaction.status = TransactionStatus.NEEDS_ABORT;
                   } else {
                     transaction.status = TransactionStatus.RUN;
                   }
+                  if (ctx.isTransactionCoalescingEnabled()) {
+                    transaction.retryNotBefore =
+                        now + transactionBackoffMillis(transaction.retryCount);
+                  }
                 }
               } else {
                 for (TransactionData transaction : queue) {
@@ -1053,6 +1190,7 @@ public class Repo implements PersistentConnection.Delegate {
                   transaction.currentWriteId, /*revert=*/ true, /*persist=*/ false, serverClock));
         } else {
           // This code reruns a transaction
+          transactionRetries.incrementAndGet();
           Node currentNode = this.getLatestState(transaction.path, setsToIgnore);
           transaction.currentInputSnapshot = currentNode;
           MutableData mutableCurrent = InternalHelpers.createMutableData(currentNode);
@@ -1070,7 +1208,7 @@ public class Repo implements PersistentConnection.Delegate {
 
             Node newDataNode = result.getNode();
             Node newNodeResolved =
-                ServerValues.resolveDeferredValueSnapshot(newDataNode, serverValues);
+                ServerValues.resolveDeferredValueSnapshot(newDataNode, currentNode, serverValues);
 
             transaction.currentOutputSnapshotRaw = newDataNode;
             transaction.currentOutputSnapshotResolved = newNodeResolved;
@@ -1105,6 +1243,7 @@ public class Repo implements PersistentConnection.Delegate {
 
       if (abortTransaction) {
         // Abort
+        transactionsAborted.incrementAndGet();
         transaction.status = TransactionStatus.COMPLETED;
         final DatabaseReference ref = InternalHelpers.createReference(this, transaction.path);
 
@@ -1247,6 +1386,7 @@ public class Repo implements PersistentConnection.Delegate {
           assert transaction.status
           == TransactionStatus.RUN; // Unexpected transaction status in abort
           // We can abort this immediately.
+          transactionsAborted.incrementAndGet();
           removeEventCallback(
               new ValueEventRegistration(
                   Repo.this,
@@ -1341,6 +1481,7 @@ public class Repo implements PersistentConnection.Delegate {
     private Node currentInputSnapshot;
     private Node currentOutputSnapshotRaw;
     private Node currentOutputSnapshotResolved;
+    private long retryNotBefore;
 
     private TransactionData(
         Path path,
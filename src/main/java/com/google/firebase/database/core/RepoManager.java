@@ -53,7 +53,7 @@ public class RepoManager {
     try {
       instance.destroyInternal(ctx);
     } finally {
-      ctx.stop();
+      ctx.destroy();
     }
   }
 
@@ -153,7 +153,7 @@ public class RepoManager {
           synchronized (repos) {
             if (repos.containsKey(ctx)) {
               for (Repo repo : repos.get(ctx).values()) {
-                repo.interrupt();
+                repo.destroy();
               }
             }
           }
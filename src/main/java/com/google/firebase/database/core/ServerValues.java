@@ -16,13 +16,16 @@
 
 package com.google.firebase.database.core;
 
+import com.google.common.math.LongMath;
 import com.google.firebase.database.snapshot.ChildKey;
 import com.google.firebase.database.snapshot.ChildrenNode;
+import com.google.firebase.database.snapshot.EmptyNode;
 import com.google.firebase.database.snapshot.Node;
 import com.google.firebase.database.snapshot.NodeUtilities;
 import com.google.firebase.database.snapshot.PriorityUtilities;
 import com.google.firebase.database.utilities.Clock;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,54 +33,115 @@ import java.util.Map;
 public class ServerValues {
 
   public static final String NAME_SUBKEY_SERVERVALUE = ".sv";
+  public static final String NAME_OP_TIMESTAMP = "timestamp";
+  public static final String NAME_OP_INCREMENT = "increment";
 
   public static Map<String, Object> generateServerValues(Clock clock) {
     Map<String, Object> values = new HashMap<>();
-    values.put("timestamp", clock.millis());
+    values.put(NAME_OP_TIMESTAMP, clock.millis());
     return values;
   }
 
   public static Object resolveDeferredValue(Object value, Map<String, Object> serverValues) {
+    return resolveDeferredLeafValue(
+        value, new ExistingValueProvider(EmptyNode.Empty()), serverValues);
+  }
+
+  private static Object resolveDeferredLeafValue(
+      Object value, ValueProvider existing, Map<String, Object> serverValues) {
     if (value instanceof Map) {
       Map mapValue = (Map) value;
       if (mapValue.containsKey(NAME_SUBKEY_SERVERVALUE)) {
-        String serverValueKey = (String) mapValue.get(NAME_SUBKEY_SERVERVALUE);
-        if (serverValues.containsKey(serverValueKey)) {
-          return serverValues.get(serverValueKey);
+        Object op = mapValue.get(NAME_SUBKEY_SERVERVALUE);
+        if (op instanceof String && serverValues.containsKey(op)) {
+          return serverValues.get(op);
+        } else if (op instanceof Map) {
+          Object resolved = resolveComplexDeferredValue((Map) op, existing);
+          if (resolved != null) {
+            return resolved;
+          }
         }
       }
     }
     return value;
   }
 
+  /**
+   * Resolves an operation that depends on the existing data, such as an increment. Returns null if
+   * the operation is not understood, in which case the placeholder is left as is.
+   */
+  private static Object resolveComplexDeferredValue(Map op, ValueProvider existing) {
+    Object delta = op.get(NAME_OP_INCREMENT);
+    if (op.size() != 1 || !(delta instanceof Number)) {
+      return null;
+    }
+    Node existingNode = existing.node();
+    if (!existingNode.isLeafNode() || !(existingNode.getValue() instanceof Number)) {
+      // Incrementing anything but a number replaces it with the delta, as the server does.
+      return delta;
+    }
+    Number existingValue = (Number) existingNode.getValue();
+    if (isIntegral(existingValue) && isIntegral((Number) delta)) {
+      try {
+        return LongMath.checkedAdd(existingValue.longValue(), ((Number) delta).longValue());
+      } catch (ArithmeticException e) {
+        // Overflowing sums are computed as doubles, as the server does.
+      }
+    }
+    return existingValue.doubleValue() + ((Number) delta).doubleValue();
+  }
+
+  private static boolean isIntegral(Number value) {
+    return value instanceof Long || value instanceof Integer;
+  }
+
   public static SparseSnapshotTree resolveDeferredValueTree(
-      SparseSnapshotTree tree, final Map<String, Object> serverValues) {
+      SparseSnapshotTree tree, final SyncTree syncTree, final Map<String, Object> serverValues) {
     final SparseSnapshotTree resolvedTree = new SparseSnapshotTree();
     tree.forEachTree(
         new Path(""),
         new SparseSnapshotTree.SparseSnapshotTreeVisitor() {
           @Override
           public void visitTree(Path prefixPath, Node tree) {
-            resolvedTree.remember(prefixPath, resolveDeferredValueSnapshot(tree, serverValues));
+            resolvedTree.remember(
+                prefixPath,
+                resolveDeferredValueSnapshot(
+                    tree, new DeferredValueProvider(syncTree, prefixPath), serverValues));
           }
         });
     return resolvedTree;
   }
 
+  /**
+   * Resolves the server values in a write to the given location, using the data in the sync tree
+   * as the existing data for operations such as increments.
+   */
   public static Node resolveDeferredValueSnapshot(
-      Node data, final Map<String, Object> serverValues) {
-    Object priorityVal = data.getPriority().getValue();
-    if (priorityVal instanceof Map) {
-      Map priorityMapValue = (Map) priorityVal;
-      if (priorityMapValue.containsKey(NAME_SUBKEY_SERVERVALUE)) {
-        String serverValueKey = (String) priorityMapValue.get(NAME_SUBKEY_SERVERVALUE);
-        priorityVal = serverValues.get(serverValueKey);
-      }
-    }
+      Node data, SyncTree syncTree, Path path, Map<String, Object> serverValues) {
+    return resolveDeferredValueSnapshot(
+        data, new DeferredValueProvider(syncTree, path), serverValues);
+  }
+
+  /**
+   * Resolves the server values in a node, using the given node as the existing data for
+   * operations such as increments.
+   */
+  public static Node resolveDeferredValueSnapshot(
+      Node data, Node existing, Map<String, Object> serverValues) {
+    return resolveDeferredValueSnapshot(data, new ExistingValueProvider(existing), serverValues);
+  }
+
+  private static Node resolveDeferredValueSnapshot(
+      Node data, final ValueProvider existing, final Map<String, Object> serverValues) {
+    Object priorityVal =
+        resolveDeferredLeafValue(
+            data.getPriority().getValue(),
+            existing.getImmediateChild(ChildKey.getPriorityKey()),
+            serverValues);
     Node priority = PriorityUtilities.parsePriority(priorityVal);
 
     if (data.isLeafNode()) {
-      Object value = resolveDeferredValue(data.getValue(), serverValues);
+      Object value = resolveDeferredLeafValue(data.getValue(), existing, serverValues);
       if (!value.equals(data.getValue()) || !priority.equals(data.getPriority())) {
         return NodeUtilities.NodeFromJSON(value, priority);
       }
@@ -91,7 +155,9 @@ public class ServerValues {
           new ChildrenNode.ChildVisitor() {
             @Override
             public void visitChild(ChildKey name, Node child) {
-              Node newChildNode = resolveDeferredValueSnapshot(child, serverValues);
+              Node newChildNode =
+                  resolveDeferredValueSnapshot(
+                      child, existing.getImmediateChild(name), serverValues);
               if (newChildNode != child) {
                 holder.update(new Path(name.asString()), newChildNode);
               }
@@ -106,13 +172,67 @@ public class ServerValues {
   }
 
   public static CompoundWrite resolveDeferredValueMerge(
-      CompoundWrite merge, final Map<String, Object> serverValues) {
+      CompoundWrite merge, SyncTree syncTree, Path path, Map<String, Object> serverValues) {
     CompoundWrite write = CompoundWrite.emptyWrite();
     for (Map.Entry<Path, Node> entry : merge) {
+      ValueProvider existing = new DeferredValueProvider(syncTree, path.child(entry.getKey()));
       write =
           write.addWrite(
-              entry.getKey(), resolveDeferredValueSnapshot(entry.getValue(), serverValues));
+              entry.getKey(),
+              resolveDeferredValueSnapshot(entry.getValue(), existing, serverValues));
     }
     return write;
   }
+
+  /**
+   * Supplies the existing data at a location to server values that depend on it. Data is only
+   * looked up once an operation asks for it, so writes without such operations cost nothing.
+   */
+  private abstract static class ValueProvider {
+
+    abstract ValueProvider getImmediateChild(ChildKey childKey);
+
+    abstract Node node();
+  }
+
+  private static class ExistingValueProvider extends ValueProvider {
+
+    private final Node node;
+
+    ExistingValueProvider(Node node) {
+      this.node = node;
+    }
+
+    @Override
+    ValueProvider getImmediateChild(ChildKey childKey) {
+      return new ExistingValueProvider(node.getImmediateChild(childKey));
+    }
+
+    @Override
+    Node node() {
+      return node;
+    }
+  }
+
+  private static class DeferredValueProvider extends ValueProvider {
+
+    private final SyncTree syncTree;
+    private final Path path;
+
+    DeferredValueProvider(SyncTree syncTree, Path path) {
+      this.syncTree = syncTree;
+      this.path = path;
+    }
+
+    @Override
+    ValueProvider getImmediateChild(ChildKey childKey) {
+      return new DeferredValueProvider(syncTree, path.child(childKey));
+    }
+
+    @Override
+    Node node() {
+      Node node = syncTree.calcCompleteEventCache(path, new ArrayList<Long>());
+      return node != null ? node : EmptyNode.Empty();
+    }
+  }
 }
@@ -25,11 +25,13 @@ import com.google.firebase.database.core.view.CacheNode;
 import com.google.firebase.database.core.view.Change;
 import com.google.firebase.database.core.view.DataEvent;
 import com.google.firebase.database.core.view.Event;
+import com.google.firebase.database.core.view.IndexRegistry;
 import com.google.firebase.database.core.view.QueryParams;
 import com.google.firebase.database.core.view.QuerySpec;
 import com.google.firebase.database.core.view.View;
 import com.google.firebase.database.core.view.ViewCache;
 import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.Index;
 import com.google.firebase.database.snapshot.IndexedNode;
 import com.google.firebase.database.snapshot.NamedNode;
 import com.google.firebase.database.snapshot.Node;
@@ -65,17 +67,42 @@ public class SyncPoint {
 
   private final PersistenceManager persistenceManager;
 
+  /** Indexed nodes shared by the views at this location that are ordered the same way. */
+  private final IndexRegistry indexes;
+
   public SyncPoint(PersistenceManager persistenceManager) {
     this.views = new HashMap<>();
     this.persistenceManager = persistenceManager;
+    this.indexes = new IndexRegistry();
   }
 
   public boolean isEmpty() {
     return this.views.isEmpty();
   }
 
+  /**
+   * A change to the keys of a tracked query, collected while applying an operation off the run loop
+   * so that it can be passed to the persistence manager afterwards.
+   */
+  static final class TrackedKeyUpdate {
+
+    final QuerySpec query;
+    final Set<ChildKey> added;
+    final Set<ChildKey> removed;
+
+    TrackedKeyUpdate(QuerySpec query, Set<ChildKey> added, Set<ChildKey> removed) {
+      this.query = query;
+      this.added = added;
+      this.removed = removed;
+    }
+  }
+
   private List<DataEvent> applyOperationToView(
-      View view, Operation operation, WriteTreeRef writes, Node optCompleteServerCache) {
+      View view,
+      Operation operation,
+      WriteTreeRef writes,
+      Node optCompleteServerCache,
+      List<TrackedKeyUpdate> trackedKeyUpdates) {
     View.OperationResult result = view.applyOperation(operation, writes, optCompleteServerCache);
     // Not a default query, track active children
     if (!view.getQuery().loadsAllData()) {
@@ -90,7 +117,11 @@ public class SyncPoint {
         }
       }
       if (!added.isEmpty() || !removed.isEmpty()) {
-        this.persistenceManager.updateTrackedQueryKeys(view.getQuery(), added, removed);
+        if (trackedKeyUpdates != null) {
+          trackedKeyUpdates.add(new TrackedKeyUpdate(view.getQuery(), added, removed));
+        } else {
+          this.persistenceManager.updateTrackedQueryKeys(view.getQuery(), added, removed);
+        }
       }
     }
     return result.events;
@@ -98,18 +129,37 @@ public class SyncPoint {
 
   public List<DataEvent> applyOperation(
       Operation operation, WriteTreeRef writesCache, Node optCompleteServerCache) {
+    return applyOperation(operation, writesCache, optCompleteServerCache, null);
+  }
+
+  /**
+   * Applies the operation to the views at this location. If trackedKeyUpdates is not null, changes
+   * to the keys of tracked queries are added to it instead of being passed to the persistence
+   * manager, which is not thread-safe.
+   */
+  List<DataEvent> applyOperation(
+      Operation operation,
+      WriteTreeRef writesCache,
+      Node optCompleteServerCache,
+      List<TrackedKeyUpdate> trackedKeyUpdates) {
     QueryParams queryParams = operation.getSource().getQueryParams();
-    if (queryParams != null) {
-      View view = this.views.get(queryParams);
-      assert view != null;
-      return applyOperationToView(view, operation, writesCache, optCompleteServerCache);
-    } else {
-      List<DataEvent> events = new ArrayList<>();
-      for (Map.Entry<QueryParams, View> entry : this.views.entrySet()) {
-        View view = entry.getValue();
-        events.addAll(applyOperationToView(view, operation, writesCache, optCompleteServerCache));
+    try {
+      if (queryParams != null) {
+        View view = this.views.get(queryParams);
+        assert view != null;
+        return applyOperationToView(
+            view, operation, writesCache, optCompleteServerCache, trackedKeyUpdates);
+      } else {
+        List<DataEvent> events = new ArrayList<>();
+        for (Map.Entry<QueryParams, View> entry : this.views.entrySet()) {
+          View view = entry.getValue();
+          events.addAll(applyOperationToView(
+              view, operation, writesCache, optCompleteServerCache, trackedKeyUpdates));
+        }
+        return events;
       }
-      return events;
+    } finally {
+      this.indexes.operationComplete();
     }
   }
 
@@ -132,10 +182,10 @@ public class SyncPoint {
         eventCache = writesCache.calcCompleteEventChildren(serverCache.getNode());
         eventCacheComplete = false;
       }
-      IndexedNode indexed = IndexedNode.from(eventCache, query.getIndex());
+      IndexedNode indexed = this.indexes.from(eventCache, query.getIndex());
       ViewCache viewCache =
           new ViewCache(new CacheNode(indexed, eventCacheComplete, false), serverCache);
-      view = new View(query, viewCache);
+      view = new View(query, viewCache, this.indexes);
       // If this is a non-default query we need to tell persistence our current view of the
       // data
       if (!query.loadsAllData()) {
@@ -207,6 +257,11 @@ public class SyncPoint {
       // We removed our last complete view.
       removed.add(QuerySpec.defaultQueryAtPath(query.getPath()));
     }
+    Set<Index> remainingIndexes = new HashSet<>();
+    for (View view : this.views.values()) {
+      remainingIndexes.add(view.getQuery().getIndex());
+    }
+    this.indexes.retainIndexes(remainingIndexes);
     return new Pair<>(removed, cancelEvents);
   }
 
@@ -244,6 +299,15 @@ public class SyncPoint {
     return this.viewForQuery(query) != null;
   }
 
+  public boolean hasEventListeners() {
+    for (View view : this.views.values()) {
+      if (view.hasEventListeners()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public boolean hasCompleteView() {
     return this.getCompleteView() != null;
   }
@@ -18,6 +18,7 @@ package com.google.firebase.database.core;
 
 import static com.google.firebase.database.utilities.Utilities.hardAssert;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.annotations.NotNull;
 import com.google.firebase.database.annotations.Nullable;
@@ -31,6 +32,7 @@ import com.google.firebase.database.core.operation.OperationSource;
 import com.google.firebase.database.core.operation.Overwrite;
 import com.google.firebase.database.core.persistence.PersistenceManager;
 import com.google.firebase.database.core.utilities.ImmutableTree;
+import com.google.firebase.database.core.utilities.Predicate;
 import com.google.firebase.database.core.view.CacheNode;
 import com.google.firebase.database.core.view.Change;
 import com.google.firebase.database.core.view.DataEvent;
@@ -57,6 +59,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * SyncTree is the central class for managing event callback registration, data caching, views
@@ -80,6 +86,10 @@ public class SyncTree {
 
   // Size after which we start including the compound hash
   private static final long SIZE_THRESHOLD_FOR_COMPOUND_HASH = 1024;
+  // Number of affected SyncPoints after which an operation is spread across threads, if enabled
+  private static final int PARALLEL_SYNC_POINT_THRESHOLD = 256;
+  // Largest number of SyncPoints that are handed to another thread as a single task
+  private static final int MAX_SYNC_POINTS_PER_TASK = 32;
   /**
    * A tree of all pending user writes (user-initiated set()'s, transaction()'s, update()'s, etc.).
    */
@@ -91,6 +101,10 @@ public class SyncTree {
   private final ListenProvider listenProvider;
   private final PersistenceManager persistenceManager;
   private final LogWrapper logger;
+  /** Target size of the compound hash ranges of large views, or 0 to always split by size. */
+  private final long compoundHashRangeSize;
+  /** Executor for operations on large subtrees, or null to apply all operations serially. */
+  private final Executor operationExecutor;
   /** Tree of SyncPoints. There's a SyncPoint at any location that has 1 or more views. */
   private ImmutableTree<SyncPoint> syncPointTree;
   /** Static tracker for next query tag. */
@@ -98,6 +112,14 @@ public class SyncTree {
 
   public SyncTree(
       Context context, PersistenceManager persistenceManager, ListenProvider listenProvider) {
+    this(context, persistenceManager, listenProvider, context.getSyncTreeExecutor());
+  }
+
+  SyncTree(
+      Context context,
+      PersistenceManager persistenceManager,
+      ListenProvider listenProvider,
+      Executor operationExecutor) {
     this.syncPointTree = ImmutableTree.emptyInstance();
     this.pendingWriteTree = new WriteTree();
     this.tagToQueryMap = new HashMap<>();
@@ -106,6 +128,8 @@ public class SyncTree {
     this.listenProvider = listenProvider;
     this.persistenceManager = persistenceManager;
     this.logger = context.getLogger(SyncTree.class);
+    this.compoundHashRangeSize = context.getCompoundHashRangeSizeBytes();
+    this.operationExecutor = operationExecutor;
   }
 
   public boolean isEmpty() {
@@ -181,11 +205,13 @@ public class SyncTree {
                 Map<String, Object> serverValues = ServerValues.generateServerValues(serverClock);
                 if (write.isOverwrite()) {
                   Node resolvedNode =
-                      ServerValues.resolveDeferredValueSnapshot(write.getOverwrite(), serverValues);
+                      ServerValues.resolveDeferredValueSnapshot(
+                          write.getOverwrite(), SyncTree.this, write.getPath(), serverValues);
                   persistenceManager.applyUserWriteToServerCache(write.getPath(), resolvedNode);
                 } else {
                   CompoundWrite resolvedMerge =
-                      ServerValues.resolveDeferredValueMerge(write.getMerge(), serverValues);
+                      ServerValues.resolveDeferredValueMerge(
+                          write.getMerge(), SyncTree.this, write.getPath(), serverValues);
                   persistenceManager.applyUserWriteToServerCache(write.getPath(), resolvedMerge);
                 }
               }
@@ -778,8 +804,13 @@ public class SyncTree {
       Node serverCache,
       WriteTreeRef writesCache) {
     if (operation.getPath().isEmpty()) {
+      if (operationExecutor != null
+          && countSyncPoints(syncPointTree, PARALLEL_SYNC_POINT_THRESHOLD)
+              >= PARALLEL_SYNC_POINT_THRESHOLD) {
+        return this.applyOperationInParallel(operation, syncPointTree, serverCache, writesCache);
+      }
       return this.applyOperationDescendantsHelper(
-          operation, syncPointTree, serverCache, writesCache);
+          operation, syncPointTree, serverCache, writesCache, null);
     } else {
       SyncPoint syncPoint = syncPointTree.getValue();
 
@@ -809,12 +840,16 @@ public class SyncTree {
     }
   }
 
-  /** Recursive helper for applyOperationToSyncPoints. */
+  /**
+   * Recursive helper for applyOperationToSyncPoints. If trackedKeyUpdates is not null, changes to
+   * the keys of tracked queries are collected in it instead of being persisted.
+   */
   private List<Event> applyOperationDescendantsHelper(
       final Operation operation,
       ImmutableTree<SyncPoint> syncPointTree,
       Node serverCache,
-      final WriteTreeRef writesCache) {
+      final WriteTreeRef writesCache,
+      final List<SyncPoint.TrackedKeyUpdate> trackedKeyUpdates) {
     SyncPoint syncPoint = syncPointTree.getValue();
 
     // If we don't have cached server data, see if we can get it from this SyncPoint.
@@ -841,18 +876,151 @@ public class SyncTree {
                 if (childOperation != null) {
                   events.addAll(
                       applyOperationDescendantsHelper(
-                          childOperation, childTree, childServerCache, childWritesCache));
+                          childOperation, childTree, childServerCache, childWritesCache,
+                          trackedKeyUpdates));
                 }
               }
             });
 
     if (syncPoint != null) {
-      events.addAll(syncPoint.applyOperation(operation, writesCache, resolvedServerCache));
+      events.addAll(syncPoint.applyOperation(
+          operation, writesCache, resolvedServerCache, trackedKeyUpdates));
     }
 
     return events;
   }
 
+  /**
+   * Does the same as applyOperationDescendantsHelper, but hands independent subtrees to the
+   * operation executor. The calling thread applies the operation to the SyncPoints between those
+   * subtrees, and runs any subtree that no other thread has started yet. Events are concatenated in
+   * the same order as the serial traversal produces them. The persistence manager isn't
+   * thread-safe, so changes to tracked query keys are collected per step and persisted on the
+   * calling thread, in the same order.
+   */
+  private List<Event> applyOperationInParallel(
+      Operation operation,
+      ImmutableTree<SyncPoint> syncPointTree,
+      Node serverCache,
+      WriteTreeRef writesCache) {
+    List<FutureTask<List<? extends Event>>> steps = new ArrayList<>();
+    List<List<SyncPoint.TrackedKeyUpdate>> stepKeyUpdates = new ArrayList<>();
+    List<FutureTask<List<? extends Event>>> subtreeTasks = new ArrayList<>();
+    this.planParallelOperation(
+        operation, syncPointTree, serverCache, writesCache, steps, stepKeyUpdates, subtreeTasks);
+
+    try {
+      for (FutureTask<List<? extends Event>> task : subtreeTasks) {
+        operationExecutor.execute(task);
+      }
+    } catch (RejectedExecutionException e) {
+      // The remaining subtrees are run below on this thread
+    }
+
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < steps.size(); i++) {
+      FutureTask<List<? extends Event>> step = steps.get(i);
+      // Does nothing if another thread has already run or started this step
+      step.run();
+      try {
+        events.addAll(Uninterruptibles.getUninterruptibly(step));
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new RuntimeException(cause);
+      }
+      for (SyncPoint.TrackedKeyUpdate update : stepKeyUpdates.get(i)) {
+        persistenceManager.updateTrackedQueryKeys(update.query, update.added, update.removed);
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Splits the operation into steps in the order in which applyOperationDescendantsHelper would
+   * apply them. Subtrees with few enough SyncPoints become a single step, which is also added to
+   * the subtree tasks that may run on other threads. Each step collects its changes to tracked
+   * query keys in the list at the same index in stepKeyUpdates.
+   */
+  private void planParallelOperation(
+      final Operation operation,
+      ImmutableTree<SyncPoint> syncPointTree,
+      Node serverCache,
+      final WriteTreeRef writesCache,
+      List<FutureTask<List<? extends Event>>> steps,
+      List<List<SyncPoint.TrackedKeyUpdate>> stepKeyUpdates,
+      List<FutureTask<List<? extends Event>>> subtreeTasks) {
+    final SyncPoint syncPoint = syncPointTree.getValue();
+
+    // If we don't have cached server data, see if we can get it from this SyncPoint.
+    final Node resolvedServerCache;
+    if (serverCache == null && syncPoint != null) {
+      resolvedServerCache = syncPoint.getCompleteServerCache(Path.getEmptyPath());
+    } else {
+      resolvedServerCache = serverCache;
+    }
+
+    for (Map.Entry<ChildKey, ImmutableTree<SyncPoint>> entry : syncPointTree.getChildren()) {
+      ChildKey key = entry.getKey();
+      final Operation childOperation = operation.operationForChild(key);
+      if (childOperation == null) {
+        continue;
+      }
+      final ImmutableTree<SyncPoint> childTree = entry.getValue();
+      final Node childServerCache =
+          (resolvedServerCache != null) ? resolvedServerCache.getImmediateChild(key) : null;
+      final WriteTreeRef childWritesCache = writesCache.child(key);
+      if (countSyncPoints(childTree, MAX_SYNC_POINTS_PER_TASK + 1) > MAX_SYNC_POINTS_PER_TASK) {
+        this.planParallelOperation(childOperation, childTree, childServerCache, childWritesCache,
+            steps, stepKeyUpdates, subtreeTasks);
+      } else {
+        final List<SyncPoint.TrackedKeyUpdate> keyUpdates = new ArrayList<>();
+        FutureTask<List<? extends Event>> task =
+            new FutureTask<>(
+                new Callable<List<? extends Event>>() {
+                  @Override
+                  public List<? extends Event> call() {
+                    return applyOperationDescendantsHelper(
+                        childOperation, childTree, childServerCache, childWritesCache, keyUpdates);
+                  }
+                });
+        steps.add(task);
+        stepKeyUpdates.add(keyUpdates);
+        subtreeTasks.add(task);
+      }
+    }
+
+    if (syncPoint != null) {
+      final List<SyncPoint.TrackedKeyUpdate> keyUpdates = new ArrayList<>();
+      steps.add(
+          new FutureTask<>(
+              new Callable<List<? extends Event>>() {
+                @Override
+                public List<? extends Event> call() {
+                  return syncPoint.applyOperation(
+                      operation, writesCache, resolvedServerCache, keyUpdates);
+                }
+              }));
+      stepKeyUpdates.add(keyUpdates);
+    }
+  }
+
+  /** Counts the SyncPoints in the given tree, but stops counting once the limit is reached. */
+  private static int countSyncPoints(ImmutableTree<SyncPoint> syncPointTree, int limit) {
+    int count = syncPointTree.getValue() != null ? 1 : 0;
+    for (Map.Entry<ChildKey, ImmutableTree<SyncPoint>> child : syncPointTree.getChildren()) {
+      if (count >= limit) {
+        break;
+      }
+      count += countSyncPoints(child.getValue(), limit - count);
+    }
+    return count;
+  }
+
   // Package private for testing purposes only
   ImmutableTree<SyncPoint> getSyncPointTree() {
     return syncPointTree;
@@ -930,15 +1098,21 @@ public class SyncTree {
 
     private final View view;
     private final Tag tag;
+    // Reuses range hashes between reconnects, or null to hash the whole cache each time
+    private final CompoundHash.RangeCache hashCache;
 
     public ListenContainer(View view) {
       this.view = view;
       this.tag = SyncTree.this.tagForQuery(view.getQuery());
+      this.hashCache =
+          compoundHashRangeSize > 0 ? new CompoundHash.RangeCache(compoundHashRangeSize) : null;
     }
 
     @Override
     public com.google.firebase.database.connection.CompoundHash getCompoundHash() {
-      CompoundHash hash = CompoundHash.fromNode(view.getServerCache());
+      Node serverCache = view.getServerCache();
+      CompoundHash hash =
+          hashCache != null ? hashCache.fromNode(serverCache) : CompoundHash.fromNode(serverCache);
       List<Path> pathPosts = hash.getPosts();
       List<List<String>> posts = new ArrayList<>(pathPosts.size());
       for (Path path : pathPosts) {
@@ -958,6 +1132,23 @@ public class SyncTree {
           > SIZE_THRESHOLD_FOR_COMPOUND_HASH;
     }
 
+    @Override
+    public boolean hasEventListeners() {
+      QuerySpec query = view.getQuery();
+      if (!query.loadsAllData()) {
+        return view.hasEventListeners();
+      }
+      // A complete listen also serves all views at and below its path, which don't listen
+      // themselves.
+      return syncPointTree.subtree(query.getPath()).containsMatchingValue(
+          new Predicate<SyncPoint>() {
+            @Override
+            public boolean evaluate(SyncPoint syncPoint) {
+              return syncPoint.hasEventListeners();
+            }
+          });
+    }
+
     @Override
     public List<? extends Event> onListenComplete(DatabaseError error) {
       if (error == null) {
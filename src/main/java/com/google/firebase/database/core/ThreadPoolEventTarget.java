@@ -16,27 +16,47 @@
 
 package com.google.firebase.database.core;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.ArrayDeque;
+import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
-/** ThreadPoolEventTarget is an event target using a configurable threadpool. */
-class ThreadPoolEventTarget implements EventTarget, UncaughtExceptionHandler {
+/**
+ * ThreadPoolEventTarget is an event target using a configurable threadpool. With a single thread,
+ * callbacks run strictly in the order they are posted. With more threads, callbacks are spread
+ * over striped serial queues by their ordering key, so that callbacks with the same key keep their
+ * order while independent ones run in parallel.
+ */
+class ThreadPoolEventTarget implements OrderedEventTarget, UncaughtExceptionHandler {
+
+  /** Stripes per thread; more stripes make it less likely that two busy keys share a stripe. */
+  private static final int STRIPES_PER_THREAD = 4;
 
   private final ThreadPoolExecutor executor;
+  private final int poolSize;
+  private final SerialQueue[] stripes;
   private UncaughtExceptionHandler exceptionHandler;
 
   public ThreadPoolEventTarget(
       final ThreadFactory wrappedFactory, final ThreadInitializer threadInitializer) {
-    int poolSize = 1;
+    this(wrappedFactory, threadInitializer, 1);
+  }
+
+  public ThreadPoolEventTarget(
+      final ThreadFactory wrappedFactory, final ThreadInitializer threadInitializer,
+      int poolSize) {
+    checkArgument(poolSize > 0, "poolSize must be positive");
     BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
 
-    executor = new ThreadPoolExecutor(poolSize, poolSize, 3, TimeUnit.SECONDS, queue,
+    this.poolSize = poolSize;
+    this.executor = new ThreadPoolExecutor(poolSize, poolSize, 3, TimeUnit.SECONDS, queue,
         new ThreadFactory() {
           @Override
           public Thread newThread(Runnable r) {
@@ -47,15 +67,37 @@ class ThreadPoolEventTarget implements EventTarget, UncaughtExceptionHandler {
             return thread;
           }
         });
+    this.stripes = newStripes(poolSize);
   }
 
   public ThreadPoolEventTarget(final ThreadPoolExecutor executor) {
     this.executor = checkNotNull(executor);
+    this.poolSize = Math.max(1, executor.getCorePoolSize());
+    this.stripes = newStripes(executor.getMaximumPoolSize());
+  }
+
+  private SerialQueue[] newStripes(int threads) {
+    // A single thread must see a single queue, or callbacks with different keys could overtake
+    // each other.
+    int count = threads == 1 ? 1 : threads * STRIPES_PER_THREAD;
+    SerialQueue[] queues = new SerialQueue[count];
+    for (int i = 0; i < count; i++) {
+      queues[i] = new SerialQueue();
+    }
+    return queues;
   }
 
   @Override
   public void postEvent(Runnable r) {
-    executor.execute(r);
+    stripes[0].post(r);
+  }
+
+  @Override
+  public void postEvent(Object orderingKey, Runnable r) {
+    int hash = orderingKey != null ? orderingKey.hashCode() : 0;
+    // Spread the bits, since listener hash codes are often multiples of a power of two.
+    hash ^= (hash >>> 16);
+    stripes[(hash & 0x7fffffff) % stripes.length].post(r);
   }
 
   /**
@@ -69,13 +111,13 @@ class ThreadPoolEventTarget implements EventTarget, UncaughtExceptionHandler {
   }
 
   /**
-   * Rather than launching anything, this method will ensure that our executor has at least one
-   * thread available. This will keep the process alive and launch the thread if it has been reaped.
-   * If the thread already exists, this is a no-op
+   * Rather than launching anything, this method will ensure that our executor has its threads
+   * available. This will keep the process alive and launch the threads if they have been reaped.
+   * If the threads already exist, this is a no-op
    */
   @Override
   public void restart() {
-    executor.setCorePoolSize(1);
+    executor.setCorePoolSize(poolSize);
   }
 
   synchronized UncaughtExceptionHandler getExceptionHandler() {
@@ -96,4 +138,46 @@ class ThreadPoolEventTarget implements EventTarget, UncaughtExceptionHandler {
       delegate.uncaughtException(t, e);
     }
   }
+
+  /** Runs the callbacks posted to it one at a time, on whichever pool thread is available. */
+  private class SerialQueue implements Runnable {
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private boolean scheduled;
+
+    void post(Runnable r) {
+      synchronized (this) {
+        tasks.add(r);
+        if (scheduled) {
+          return;
+        }
+        scheduled = true;
+      }
+      executor.execute(this);
+    }
+
+    @Override
+    public void run() {
+      boolean completed = false;
+      try {
+        while (true) {
+          Runnable task;
+          synchronized (this) {
+            task = tasks.poll();
+            if (task == null) {
+              scheduled = false;
+              completed = true;
+              return;
+            }
+          }
+          task.run();
+        }
+      } finally {
+        if (!completed) {
+          // A callback threw, which ends this thread. Continue with the remaining ones elsewhere.
+          executor.execute(this);
+        }
+      }
+    }
+  }
 }
@@ -17,6 +17,7 @@
 package com.google.firebase.database.core;
 
 import com.google.firebase.database.core.utilities.Predicate;
+import com.google.firebase.database.core.utilities.Tree;
 import com.google.firebase.database.core.view.CacheNode;
 import com.google.firebase.database.snapshot.ChildKey;
 import com.google.firebase.database.snapshot.EmptyNode;
@@ -27,6 +28,8 @@ import com.google.firebase.database.snapshot.Node;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 /**
  * Defines a single user-initiated write operation. May be the result of a set(), transaction(), or
@@ -49,11 +52,18 @@ public class WriteTree {
    */
   private CompoundWrite visibleWrites;
   /**
-   * A list of all pending writes, regardless of visibility and shadowed-ness. Used to calculate
+   * All pending writes by write ID, regardless of visibility and shadowed-ness. Used to calculate
    * arbitrary sets of the changed data, such as hidden writes (from transactions) or changes with
-   * certain writes excluded (also used by transactions).
+   * certain writes excluded (also used by transactions). Writes are added in increasing ID order,
+   * so iterating the map visits them in the order they were made.
    */
-  private List<UserWriteRecord> allWrites;
+  private NavigableMap<Long, UserWriteRecord> allWrites;
+
+  /**
+   * The pending writes indexed by their path, in the order they were made. Only writes at, above or
+   * below a path can affect the data at that path, so this lets us skip all other writes.
+   */
+  private Tree<List<UserWriteRecord>> writesByPath;
 
   private Long lastWriteId;
 
@@ -64,7 +74,8 @@ public class WriteTree {
    */
   public WriteTree() {
     this.visibleWrites = CompoundWrite.emptyWrite();
-    this.allWrites = new ArrayList<>();
+    this.allWrites = new TreeMap<>();
+    this.writesByPath = new Tree<>();
     this.lastWriteId = -1L;
   }
 
@@ -73,7 +84,7 @@ public class WriteTree {
    * construct a merge at that path.
    */
   private static CompoundWrite layerTree(
-      List<UserWriteRecord> writes, Predicate<UserWriteRecord> filter, Path treeRoot) {
+      Iterable<UserWriteRecord> writes, Predicate<UserWriteRecord> filter, Path treeRoot) {
     CompoundWrite compoundWrite = CompoundWrite.emptyWrite();
     for (UserWriteRecord write : writes) {
       // Theory, a later set will either:
@@ -130,7 +141,7 @@ public class WriteTree {
   /** Record a new overwrite from user code. */
   public void addOverwrite(Path path, Node snap, Long writeId, boolean visible) {
     assert writeId > this.lastWriteId; // Stacking an older write on top of newer ones
-    this.allWrites.add(new UserWriteRecord(writeId, path, snap, visible));
+    this.addRecord(new UserWriteRecord(writeId, path, snap, visible));
     if (visible) {
       this.visibleWrites = this.visibleWrites.addWrite(path, snap);
     }
@@ -140,25 +151,21 @@ public class WriteTree {
   /** Record a new merge from user code. */
   public void addMerge(Path path, CompoundWrite changedChildren, Long writeId) {
     assert writeId > this.lastWriteId; // Stacking an older write on top of newer ones
-    this.allWrites.add(new UserWriteRecord(writeId, path, changedChildren));
+    this.addRecord(new UserWriteRecord(writeId, path, changedChildren));
     this.visibleWrites = this.visibleWrites.addWrites(path, changedChildren);
     this.lastWriteId = writeId;
   }
 
   public UserWriteRecord getWrite(long writeId) {
-    for (UserWriteRecord record : this.allWrites) {
-      if (record.getWriteId() == writeId) {
-        return record;
-      }
-    }
-    return null;
+    return this.allWrites.get(writeId);
   }
 
   public List<UserWriteRecord> purgeAllWrites() {
-    List<UserWriteRecord> purgedWrites = new ArrayList<>(this.allWrites);
+    List<UserWriteRecord> purgedWrites = new ArrayList<>(this.allWrites.values());
     // Reset everything
     this.visibleWrites = CompoundWrite.emptyWrite();
-    this.allWrites = new ArrayList<>();
+    this.allWrites = new TreeMap<>();
+    this.writesByPath = new Tree<>();
     return purgedWrites;
   }
 
@@ -180,46 +187,34 @@ public class WriteTree {
     // one in
     //      the queue");
 
-    // TODO: maybe use hashmap
-    UserWriteRecord writeToRemove = null;
-    int idx = 0;
-    for (UserWriteRecord record : this.allWrites) {
-      if (record.getWriteId() == writeId) {
-        writeToRemove = record;
-        break;
-      }
-      idx++;
-    }
+    UserWriteRecord writeToRemove = this.allWrites.remove(writeId);
     assert writeToRemove != null : "removeWrite called with nonexistent writeId";
+    this.removeFromPathIndex(writeToRemove);
 
-    this.allWrites.remove(writeToRemove);
+    if (!writeToRemove.isVisible()) {
+      return false;
+    }
 
-    boolean removedWriteWasVisible = writeToRemove.isVisible();
+    // Only writes at, above or below the removed write can shadow it or overlap with it.
+    Path removedPath = writeToRemove.getPath();
     boolean removedWriteOverlapsWithOtherWrites = false;
-    int i = this.allWrites.size() - 1;
-
-    while (removedWriteWasVisible && i >= 0) {
-      UserWriteRecord currentWrite = this.allWrites.get(i);
+    for (UserWriteRecord currentWrite : this.writesSharingPath(removedPath)) {
       if (currentWrite.isVisible()) {
-        if (i >= idx && this.recordContainsPath(currentWrite, writeToRemove.getPath())) {
+        if (currentWrite.getWriteId() > writeId
+            && this.recordContainsPath(currentWrite, removedPath)) {
           // The removed write was completely shadowed by a subsequent write.
-          removedWriteWasVisible = false;
-        } else if (writeToRemove.getPath().contains(currentWrite.getPath())) {
-          // Either we're covering some writes or they're covering part of us
-          // (depending on which
-          // came first).
+          return false;
+        } else {
+          // Either we're covering some writes or they're covering part of us (depending on which
+          // came first). A write above us may also have been combined with ours into one node.
           removedWriteOverlapsWithOtherWrites = true;
         }
       }
-      i--;
     }
 
-    if (!removedWriteWasVisible) {
-      return false;
-    } else if (removedWriteOverlapsWithOtherWrites) {
-      // There's some shadowing going on. Just rebuild the visible writes from scratch.
-      this.resetTree();
-      return true;
+    if (removedWriteOverlapsWithOtherWrites) {
+      // There's some shadowing going on. Just rebuild the visible writes around the removed one.
+      this.resetTree(removedPath);
     } else {
       // There's no shadowing.  We can safely just remove the write(s) from visibleWrites.
       if (writeToRemove.isOverwrite()) {
@@ -230,8 +225,8 @@ public class WriteTree {
           this.visibleWrites = this.visibleWrites.removeWrite(writeToRemove.getPath().child(path));
         }
       }
-      return true;
     }
+    return true;
   }
 
   /**
@@ -305,7 +300,8 @@ public class WriteTree {
                 }
               };
           Node layeredCache;
-          CompoundWrite mergeAtPath = WriteTree.layerTree(this.allWrites, filter, treePath);
+          CompoundWrite mergeAtPath =
+              WriteTree.layerTree(this.writesSharingPath(treePath), filter, treePath);
           layeredCache = completeServerCache != null ? completeServerCache : EmptyNode.Empty();
           return mergeAtPath.apply(layeredCache);
         }
@@ -467,12 +463,80 @@ public class WriteTree {
     }
   }
 
-  /** Re-layer the writes and merges into a tree so we can efficiently calculate event snapshots */
-  private void resetTree() {
-    this.visibleWrites =
-        WriteTree.layerTree(this.allWrites, WriteTree.DEFAULT_FILTER, Path.getEmptyPath());
+  private void addRecord(UserWriteRecord record) {
+    this.allWrites.put(record.getWriteId(), record);
+    Tree<List<UserWriteRecord>> tree = this.writesByPath.subTree(record.getPath());
+    List<UserWriteRecord> writes = tree.getValue();
+    if (writes == null) {
+      writes = new ArrayList<>();
+      tree.setValue(writes);
+    }
+    writes.add(record);
+  }
+
+  private void removeFromPathIndex(UserWriteRecord record) {
+    Tree<List<UserWriteRecord>> tree = this.writesByPath.subTree(record.getPath());
+    List<UserWriteRecord> writes = tree.getValue();
+    writes.remove(record);
+    if (writes.isEmpty()) {
+      // Prunes the path from the index
+      tree.setValue(null);
+    }
+  }
+
+  /**
+   * Returns the pending writes at the given path, at a parent of it or at a child of it, in the
+   * order they were made.
+   */
+  private Iterable<UserWriteRecord> writesSharingPath(Path path) {
+    final NavigableMap<Long, UserWriteRecord> writes = new TreeMap<>();
+    Tree<List<UserWriteRecord>> tree = this.writesByPath.subTree(path);
+    tree.forEachAncestor(
+        new Tree.TreeFilter<List<UserWriteRecord>>() {
+          @Override
+          public boolean filterTreeNode(Tree<List<UserWriteRecord>> ancestor) {
+            addAll(writes, ancestor.getValue());
+            return false;
+          }
+        },
+        /*includeSelf=*/ true);
+    tree.forEachDescendant(
+        new Tree.TreeVisitor<List<UserWriteRecord>>() {
+          @Override
+          public void visitTree(Tree<List<UserWriteRecord>> descendant) {
+            addAll(writes, descendant.getValue());
+          }
+        });
+    return writes.values();
+  }
+
+  private static void addAll(Map<Long, UserWriteRecord> target, List<UserWriteRecord> writes) {
+    if (writes != null) {
+      for (UserWriteRecord write : writes) {
+        target.put(write.getWriteId(), write);
+      }
+    }
+  }
+
+  /**
+   * Re-layer the writes and merges that can affect the given path into the tree, so we can
+   * efficiently calculate event snapshots. Writes elsewhere in the tree are left as they are.
+   */
+  private void resetTree(Path path) {
+    // A visible write above the path may have been combined with the writes at the path into a
+    // single node, so start from the highest such write.
+    Path root = path;
+    for (UserWriteRecord write : this.writesSharingPath(path)) {
+      if (write.isVisible() && write.getPath().size() < root.size()
+          && write.getPath().contains(path)) {
+        root = write.getPath();
+      }
+    }
+    CompoundWrite layered =
+        WriteTree.layerTree(this.writesSharingPath(root), WriteTree.DEFAULT_FILTER, root);
+    this.visibleWrites = this.visibleWrites.removeWrite(root).addWrites(root, layered);
     if (this.allWrites.size() > 0) {
-      this.lastWriteId = this.allWrites.get(this.allWrites.size() - 1).getWriteId();
+      this.lastWriteId = this.allWrites.lastKey();
     } else {
       this.lastWriteId = -1L;
     }
@@ -250,6 +250,11 @@ public class DefaultPersistenceManager implements PersistenceManager {
     }
   }
 
+  @Override
+  public void close() {
+    this.storageLayer.close();
+  }
+
   private void doPruneCheckAfterServerUpdate() {
     serverCacheUpdatesSinceLastPruneCheck++;
     if (cachePolicy.shouldCheckCacheSize(serverCacheUpdatesSinceLastPruneCheck)) {
@@ -0,0 +1,970 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.core.persistence;
+
+import static com.google.firebase.database.utilities.Utilities.hardAssert;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.firebase.database.DatabaseException;
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Context;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.UserWriteRecord;
+import com.google.firebase.database.core.view.QuerySpec;
+import com.google.firebase.database.logging.LogWrapper;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.NamedNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.NodeUtilities;
+import com.google.firebase.database.util.JsonMapper;
+import com.google.firebase.database.utilities.NodeSizeEstimator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link PersistenceStorageEngine} that keeps its state on the local file system. It is made up
+ * of two files in the persistence directory:
+ *
+ * <ul>
+ *   <li><code>snapshot</code>: a compacted image of all user writes, tracked queries, tracked keys
+ *       and the server cache.
+ *   <li><code>log</code>: an append-only log of the mutations applied since the snapshot was
+ *       written. Each line holds all the mutations of one storage transaction.
+ * </ul>
+ *
+ * <p>Both files are UTF-8 encoded, newline delimited JSON and use the same record format, so that
+ * restoring the engine amounts to replaying the snapshot followed by the log. The complete state is
+ * also kept in memory (the server cache as a single immutable {@link Node}), which means that reads
+ * never touch the disk. When the log grows larger than the snapshot, the two are compacted into a
+ * new snapshot. Pruning the server cache is logged like any other mutation, and only compacts the
+ * files once most of what they hold has been pruned.
+ *
+ * <p>Compaction copies the user writes, tracked queries and tracked keys, and moves the log aside
+ * to <code>log.compacting</code>, which takes time in proportion to those but not to the server
+ * cache. Given a thread factory, the engine then writes the snapshot on a background thread while
+ * new transactions go to a fresh log. In exchange, the old snapshot and log stay on disk until the
+ * new snapshot is in place, so the directory briefly holds up to twice the data. If the process
+ * dies in the meantime, the next open replays the old files and compacts them before it returns.
+ * A storage transaction that fails is undone in memory, from the entries it replaced, rather than
+ * by reading the files again.
+ *
+ * <p>A truncated trailing log line (e.g. from a crash in the middle of a write) is discarded on
+ * load, which makes every storage transaction atomic. A persistence directory must not be shared
+ * by multiple processes.
+ *
+ * <p>This class is not thread-safe. It is only ever accessed from the database run loop.
+ */
+public class FilePersistenceStorageEngine implements PersistenceStorageEngine {
+
+  private static final Charset UTF8_CHARSET = Charset.forName("UTF-8");
+
+  private static final String SNAPSHOT_FILE_NAME = "snapshot";
+  private static final String SNAPSHOT_TEMP_FILE_NAME = "snapshot.tmp";
+  private static final String LOG_FILE_NAME = "log";
+  private static final String COMPACTING_LOG_FILE_NAME = "log.compacting";
+
+  // The log is never compacted while it is smaller than this.
+  private static final long MIN_LOG_SIZE_FOR_COMPACTION = 8 * 1024 * 1024;
+
+  // After a prune, the files are compacted once they are this many times larger than the
+  // estimated size of the remaining server cache.
+  private static final int PRUNED_SIZE_FACTOR_FOR_COMPACTION = 2;
+
+  // Server cache subtrees are split into multiple snapshot records until they are estimated to be
+  // smaller than this. This bounds the size of a single JSON record that needs to be parsed.
+  private static final long SNAPSHOT_RECORD_SPLIT_THRESHOLD = 256 * 1024;
+
+  // Record fields
+  private static final String GENERATION = "gen";
+  private static final String TYPE = "t";
+  private static final String ID = "id";
+  private static final String PATH = "p";
+  private static final String VALUE = "v";
+  private static final String QUERY_PARAMS = "q";
+  private static final String LAST_USE = "lu";
+  private static final String COMPLETE = "c";
+  private static final String ACTIVE = "a";
+  private static final String KEYS = "k";
+  private static final String ADDED_KEYS = "ka";
+  private static final String REMOVED_KEYS = "kr";
+
+  // Record types
+  private static final String USER_OVERWRITE = "uo";
+  private static final String USER_MERGE = "um";
+  private static final String REMOVE_USER_WRITE = "ur";
+  private static final String REMOVE_ALL_USER_WRITES = "ura";
+  private static final String SERVER_OVERWRITE = "so";
+  private static final String SERVER_MERGE = "sm";
+  private static final String TRACKED_QUERY = "tq";
+  private static final String DELETE_TRACKED_QUERY = "tqd";
+  private static final String RESET_ACTIVE_TRACKED_QUERIES = "tqr";
+  private static final String TRACKED_KEYS = "tk";
+  private static final String UPDATE_TRACKED_KEYS = "tku";
+  private static final String PRUNE_SERVER_CACHE = "sp";
+
+  private final File directory;
+  private final LogWrapper logger;
+  private final ThreadPoolExecutor compactionExecutor;
+
+  private final TreeMap<Long, UserWriteRecord> writes = new TreeMap<>();
+  private final TreeMap<Long, TrackedQuery> trackedQueries = new TreeMap<>();
+  private final Map<Long, Set<ChildKey>> trackedQueryKeys = new HashMap<>();
+  private Node serverCache = EmptyNode.Empty();
+  private long serverCacheSize = -1;
+
+  private FileChannel logChannel;
+  private long generation;
+  private long snapshotSize;
+
+  private List<Map<String, Object>> pendingRecords;
+  private boolean insideTransaction = false;
+  private boolean transactionSuccessful = false;
+  private boolean compactionRequired = false;
+  private boolean prunedSinceCommit = false;
+  private boolean replaying = false;
+  private FutureTask<Long> compaction;
+
+  // The entries the current transaction replaced, which are restored if it fails. A null value
+  // stands for an entry that didn't exist.
+  private Node originalServerCache;
+  private final Map<Long, UserWriteRecord> originalWrites = new HashMap<>();
+  private final Map<Long, TrackedQuery> originalTrackedQueries = new HashMap<>();
+  private final Map<Long, Set<ChildKey>> originalTrackedQueryKeys = new HashMap<>();
+
+  public FilePersistenceStorageEngine(Context ctx, File directory) {
+    this(ctx, directory, null);
+  }
+
+  /**
+   * Creates an engine that writes its snapshots on a thread from the given factory, or on the
+   * calling thread if the factory is null.
+   */
+  public FilePersistenceStorageEngine(Context ctx, File directory, ThreadFactory threadFactory) {
+    this.directory = directory;
+    this.logger = ctx.getLogger(FilePersistenceStorageEngine.class);
+    if (threadFactory != null) {
+      compactionExecutor = new ThreadPoolExecutor(
+          1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+      compactionExecutor.allowCoreThreadTimeOut(true);
+    } else {
+      compactionExecutor = null;
+    }
+    try {
+      open();
+    } catch (IOException e) {
+      throw new DatabaseException("Failed to open persistence directory " + directory, e);
+    }
+  }
+
+  @Override
+  public void saveUserOverwrite(Path path, Node node, long writeId) {
+    rememberWrite(writeId);
+    writes.put(writeId, new UserWriteRecord(writeId, path, node, true));
+    if (!replaying) {
+      Map<String, Object> record = newRecord(USER_OVERWRITE);
+      record.put(ID, writeId);
+      record.put(PATH, path.toString());
+      record.put(VALUE, node.getValue(true));
+      log(record);
+    }
+  }
+
+  @Override
+  public void saveUserMerge(Path path, CompoundWrite children, long writeId) {
+    rememberWrite(writeId);
+    writes.put(writeId, new UserWriteRecord(writeId, path, children));
+    if (!replaying) {
+      Map<String, Object> record = newRecord(USER_MERGE);
+      record.put(ID, writeId);
+      record.put(PATH, path.toString());
+      record.put(VALUE, children.getValue(true));
+      log(record);
+    }
+  }
+
+  @Override
+  public void removeUserWrite(long writeId) {
+    hardAssert(writes.containsKey(writeId), "Tried to remove write that doesn't exist.");
+    rememberWrite(writeId);
+    writes.remove(writeId);
+    if (!replaying) {
+      Map<String, Object> record = newRecord(REMOVE_USER_WRITE);
+      record.put(ID, writeId);
+      log(record);
+    }
+  }
+
+  @Override
+  public List<UserWriteRecord> loadUserWrites() {
+    return new ArrayList<>(writes.values());
+  }
+
+  @Override
+  public void removeAllUserWrites() {
+    for (Long writeId : writes.keySet()) {
+      rememberWrite(writeId);
+    }
+    writes.clear();
+    if (!replaying) {
+      log(newRecord(REMOVE_ALL_USER_WRITES));
+    }
+  }
+
+  @Override
+  public Node serverCache(Path path) {
+    return serverCache.getChild(path);
+  }
+
+  @Override
+  public void overwriteServerCache(Path path, Node node) {
+    serverCache = serverCache.updateChild(path, node);
+    serverCacheSize = -1;
+    if (!replaying) {
+      Map<String, Object> record = newRecord(SERVER_OVERWRITE);
+      record.put(PATH, path.toString());
+      record.put(VALUE, node.getValue(true));
+      log(record);
+    }
+  }
+
+  @Override
+  public void mergeIntoServerCache(Path path, Node node) {
+    Map<String, Object> children = new HashMap<>();
+    for (NamedNode child : node) {
+      serverCache = serverCache.updateChild(path.child(child.getName()), child.getNode());
+      children.put(child.getName().asString(), child.getNode().getValue(true));
+    }
+    serverCacheSize = -1;
+    if (!replaying) {
+      Map<String, Object> record = newRecord(SERVER_MERGE);
+      record.put(PATH, path.toString());
+      record.put(VALUE, children);
+      log(record);
+    }
+  }
+
+  @Override
+  public void mergeIntoServerCache(Path path, CompoundWrite children) {
+    for (Map.Entry<Path, Node> write : children) {
+      serverCache = serverCache.updateChild(path.child(write.getKey()), write.getValue());
+    }
+    serverCacheSize = -1;
+    if (!replaying) {
+      Map<String, Object> record = newRecord(SERVER_MERGE);
+      record.put(PATH, path.toString());
+      record.put(VALUE, children.getValue(true));
+      log(record);
+    }
+  }
+
+  @Override
+  public long serverCacheEstimatedSizeInBytes() {
+    if (serverCacheSize < 0) {
+      serverCacheSize = NodeSizeEstimator.estimateSerializedNodeSize(serverCache);
+    }
+    return serverCacheSize;
+  }
+
+  @Override
+  public void saveTrackedQuery(TrackedQuery trackedQuery) {
+    rememberTrackedQuery(trackedQuery.id);
+    trackedQueries.put(trackedQuery.id, trackedQuery);
+    if (!replaying) {
+      log(trackedQueryRecord(trackedQuery));
+    }
+  }
+
+  @Override
+  public void deleteTrackedQuery(long trackedQueryId) {
+    rememberTrackedQuery(trackedQueryId);
+    rememberTrackedQueryKeys(trackedQueryId);
+    trackedQueries.remove(trackedQueryId);
+    trackedQueryKeys.remove(trackedQueryId);
+    if (!replaying) {
+      Map<String, Object> record = newRecord(DELETE_TRACKED_QUERY);
+      record.put(ID, trackedQueryId);
+      log(record);
+    }
+  }
+
+  @Override
+  public List<TrackedQuery> loadTrackedQueries() {
+    return new ArrayList<>(trackedQueries.values());
+  }
+
+  @Override
+  public void resetPreviouslyActiveTrackedQueries(long lastUse) {
+    for (Map.Entry<Long, TrackedQuery> entry : trackedQueries.entrySet()) {
+      TrackedQuery query = entry.getValue();
+      if (query.active) {
+        rememberTrackedQuery(query.id);
+        entry.setValue(query.setActiveState(false).updateLastUse(lastUse));
+      }
+    }
+    if (!replaying) {
+      Map<String, Object> record = newRecord(RESET_ACTIVE_TRACKED_QUERIES);
+      record.put(LAST_USE, lastUse);
+      log(record);
+    }
+  }
+
+  @Override
+  public void saveTrackedQueryKeys(long trackedQueryId, Set<ChildKey> keys) {
+    hardAssert(trackedQueries.containsKey(trackedQueryId),
+        "Can't track keys for an untracked query.");
+    rememberTrackedQueryKeys(trackedQueryId);
+    trackedQueryKeys.put(trackedQueryId, new HashSet<>(keys));
+    if (!replaying) {
+      log(trackedKeysRecord(trackedQueryId, keys));
+    }
+  }
+
+  @Override
+  public void updateTrackedQueryKeys(
+      long trackedQueryId, Set<ChildKey> added, Set<ChildKey> removed) {
+    hardAssert(trackedQueries.containsKey(trackedQueryId),
+        "Can't track keys for an untracked query.");
+    rememberTrackedQueryKeys(trackedQueryId);
+    Set<ChildKey> keys = trackedQueryKeys.get(trackedQueryId);
+    if (keys == null) {
+      keys = new HashSet<>();
+      trackedQueryKeys.put(trackedQueryId, keys);
+    }
+    keys.removeAll(removed);
+    keys.addAll(added);
+    if (!replaying) {
+      Map<String, Object> record = newRecord(UPDATE_TRACKED_KEYS);
+      record.put(ID, trackedQueryId);
+      record.put(ADDED_KEYS, serializeKeys(added));
+      record.put(REMOVED_KEYS, serializeKeys(removed));
+      log(record);
+    }
+  }
+
+  @Override
+  public Set<ChildKey> loadTrackedQueryKeys(long trackedQueryId) {
+    Set<ChildKey> keys = trackedQueryKeys.get(trackedQueryId);
+    return keys != null ? new HashSet<>(keys) : new HashSet<ChildKey>();
+  }
+
+  @Override
+  public Set<ChildKey> loadTrackedQueryKeys(Set<Long> trackedQueryIds) {
+    Set<ChildKey> keys = new HashSet<>();
+    for (Long id : trackedQueryIds) {
+      Set<ChildKey> trackedKeys = trackedQueryKeys.get(id);
+      if (trackedKeys != null) {
+        keys.addAll(trackedKeys);
+      }
+    }
+    return keys;
+  }
+
+  @Override
+  public void pruneCache(Path root, PruneForest pruneForest) {
+    Node pruned = pruneForest.pruneNode(serverCache.getChild(root));
+    serverCache = serverCache.updateChild(root, pruned);
+    serverCacheSize = -1;
+    if (!replaying) {
+      // The forest is logged rather than the removed data, which may be arbitrarily large.
+      Map<String, Object> forest = new HashMap<>();
+      for (Map.Entry<Path, Boolean> entry : pruneForest.getPaths().entrySet()) {
+        forest.put(entry.getKey().toString(), entry.getValue());
+      }
+      Map<String, Object> record = newRecord(PRUNE_SERVER_CACHE);
+      record.put(PATH, root.toString());
+      record.put(VALUE, forest);
+      prunedSinceCommit = true;
+      log(record);
+    }
+  }
+
+  @Override
+  public void beginTransaction() {
+    hardAssert(!insideTransaction,
+        "runInTransaction called when an existing transaction is already in progress.");
+    insideTransaction = true;
+    transactionSuccessful = false;
+    pendingRecords = new ArrayList<>();
+    originalServerCache = serverCache;
+  }
+
+  @Override
+  public void endTransaction() {
+    hardAssert(insideTransaction, "endTransaction called without a transaction in progress.");
+    final List<Map<String, Object>> records = pendingRecords;
+    final boolean successful = transactionSuccessful;
+    insideTransaction = false;
+    transactionSuccessful = false;
+    pendingRecords = null;
+    try {
+      if (successful) {
+        commit(records);
+      } else {
+        // The in-memory state already reflects the failed transaction, which never reached disk
+        rollback();
+      }
+    } catch (IOException e) {
+      throw new DatabaseException("Failed to write to persistence directory " + directory, e);
+    } finally {
+      originalServerCache = null;
+      originalWrites.clear();
+      originalTrackedQueries.clear();
+      originalTrackedQueryKeys.clear();
+    }
+  }
+
+  @Override
+  public void setTransactionSuccessful() {
+    hardAssert(insideTransaction, "setTransactionSuccessful called outside of a transaction.");
+    transactionSuccessful = true;
+  }
+
+  private void rememberWrite(long writeId) {
+    if (insideTransaction && !originalWrites.containsKey(writeId)) {
+      originalWrites.put(writeId, writes.get(writeId));
+    }
+  }
+
+  private void rememberTrackedQuery(long trackedQueryId) {
+    if (insideTransaction && !originalTrackedQueries.containsKey(trackedQueryId)) {
+      originalTrackedQueries.put(trackedQueryId, trackedQueries.get(trackedQueryId));
+    }
+  }
+
+  private void rememberTrackedQueryKeys(long trackedQueryId) {
+    if (insideTransaction && !originalTrackedQueryKeys.containsKey(trackedQueryId)) {
+      Set<ChildKey> keys = trackedQueryKeys.get(trackedQueryId);
+      originalTrackedQueryKeys.put(trackedQueryId, keys != null ? new HashSet<>(keys) : null);
+    }
+  }
+
+  private void rollback() {
+    if (serverCache != originalServerCache) {
+      serverCache = originalServerCache;
+      serverCacheSize = -1;
+    }
+    restore(writes, originalWrites);
+    restore(trackedQueries, originalTrackedQueries);
+    restore(trackedQueryKeys, originalTrackedQueryKeys);
+    prunedSinceCommit = false;
+  }
+
+  private static <V> void restore(Map<Long, V> current, Map<Long, V> originals) {
+    for (Map.Entry<Long, V> entry : originals.entrySet()) {
+      if (entry.getValue() != null) {
+        current.put(entry.getKey(), entry.getValue());
+      } else {
+        current.remove(entry.getKey());
+      }
+    }
+  }
+
+  private static Map<String, Object> newRecord(String type) {
+    Map<String, Object> record = new LinkedHashMap<>();
+    record.put(TYPE, type);
+    return record;
+  }
+
+  private static List<String> serializeKeys(Collection<ChildKey> keys) {
+    List<String> result = new ArrayList<>(keys.size());
+    for (ChildKey key : keys) {
+      result.add(key.asString());
+    }
+    return result;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Set<ChildKey> deserializeKeys(Object keys) {
+    Set<ChildKey> result = new HashSet<>();
+    for (String key : (List<String>) keys) {
+      result.add(ChildKey.fromString(key));
+    }
+    return result;
+  }
+
+  private static long asLong(Object value) {
+    return ((Number) value).longValue();
+  }
+
+  private static Map<String, Object> trackedQueryRecord(TrackedQuery query) {
+    Map<String, Object> record = newRecord(TRACKED_QUERY);
+    record.put(ID, query.id);
+    record.put(PATH, query.querySpec.getPath().toString());
+    record.put(QUERY_PARAMS, query.querySpec.getParams().getWireProtocolParams());
+    record.put(LAST_USE, query.lastUse);
+    record.put(COMPLETE, query.complete);
+    record.put(ACTIVE, query.active);
+    return record;
+  }
+
+  private static Map<String, Object> trackedKeysRecord(long trackedQueryId, Set<ChildKey> keys) {
+    Map<String, Object> record = newRecord(TRACKED_KEYS);
+    record.put(ID, trackedQueryId);
+    record.put(KEYS, serializeKeys(keys));
+    return record;
+  }
+
+  private void log(Map<String, Object> record) {
+    if (insideTransaction) {
+      pendingRecords.add(record);
+    } else {
+      List<Map<String, Object>> records = new ArrayList<>(1);
+      records.add(record);
+      try {
+        commit(records);
+      } catch (IOException e) {
+        throw new DatabaseException("Failed to write to persistence directory " + directory, e);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void replayRecord(Map<String, Object> record) {
+    String type = (String) record.get(TYPE);
+    switch (type) {
+      case USER_OVERWRITE:
+        saveUserOverwrite(new Path((String) record.get(PATH)),
+            NodeUtilities.NodeFromJSON(record.get(VALUE)), asLong(record.get(ID)));
+        break;
+      case USER_MERGE:
+        saveUserMerge(new Path((String) record.get(PATH)),
+            CompoundWrite.fromValue((Map<String, Object>) record.get(VALUE)),
+            asLong(record.get(ID)));
+        break;
+      case REMOVE_USER_WRITE:
+        removeUserWrite(asLong(record.get(ID)));
+        break;
+      case REMOVE_ALL_USER_WRITES:
+        removeAllUserWrites();
+        break;
+      case SERVER_OVERWRITE:
+        overwriteServerCache(new Path((String) record.get(PATH)),
+            NodeUtilities.NodeFromJSON(record.get(VALUE)));
+        break;
+      case SERVER_MERGE:
+        mergeIntoServerCache(new Path((String) record.get(PATH)),
+            CompoundWrite.fromValue((Map<String, Object>) record.get(VALUE)));
+        break;
+      case TRACKED_QUERY: {
+        long id = asLong(record.get(ID));
+        QuerySpec querySpec = QuerySpec.fromPathAndQueryObject(
+            new Path((String) record.get(PATH)), (Map<String, Object>) record.get(QUERY_PARAMS));
+        saveTrackedQuery(new TrackedQuery(id, querySpec, asLong(record.get(LAST_USE)),
+            (Boolean) record.get(COMPLETE), (Boolean) record.get(ACTIVE)));
+        break;
+      }
+      case DELETE_TRACKED_QUERY:
+        deleteTrackedQuery(asLong(record.get(ID)));
+        break;
+      case RESET_ACTIVE_TRACKED_QUERIES:
+        resetPreviouslyActiveTrackedQueries(asLong(record.get(LAST_USE)));
+        break;
+      case TRACKED_KEYS:
+        saveTrackedQueryKeys(asLong(record.get(ID)), deserializeKeys(record.get(KEYS)));
+        break;
+      case UPDATE_TRACKED_KEYS:
+        updateTrackedQueryKeys(asLong(record.get(ID)), deserializeKeys(record.get(ADDED_KEYS)),
+            deserializeKeys(record.get(REMOVED_KEYS)));
+        break;
+      case PRUNE_SERVER_CACHE: {
+        Map<Path, Boolean> forest = new HashMap<>();
+        for (Map.Entry<String, Object> entry
+            : ((Map<String, Object>) record.get(VALUE)).entrySet()) {
+          forest.put(new Path(entry.getKey()), (Boolean) entry.getValue());
+        }
+        pruneCache(new Path((String) record.get(PATH)), PruneForest.fromPaths(forest));
+        break;
+      }
+      default:
+        throw new DatabaseException("Unknown persistence record type: " + type);
+    }
+  }
+
+  private void open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create directory " + directory);
+    }
+    File snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+    File logFile = new File(directory, LOG_FILE_NAME);
+    File compactingLogFile = new File(directory, COMPACTING_LOG_FILE_NAME);
+
+    generation = 0;
+    snapshotSize = 0;
+    if (snapshotFile.exists()) {
+      generation = Math.max(replay(snapshotFile, -1), 0);
+      snapshotSize = snapshotFile.length();
+    }
+
+    // A compaction that didn't move its snapshot into place leaves the log it moved aside, which
+    // holds the transactions that precede the current log.
+    boolean compactionInterrupted = false;
+    if (compactingLogFile.exists()) {
+      if (replay(compactingLogFile, generation) == generation) {
+        generation++;
+        compactionInterrupted = true;
+      } else {
+        Files.delete(compactingLogFile.toPath());
+      }
+    }
+
+    long logGeneration = -1;
+    if (logFile.exists()) {
+      logGeneration = replay(logFile, generation);
+    }
+
+    logChannel = new FileOutputStream(logFile, true).getChannel();
+    if (compactionInterrupted) {
+      compactNow();
+    } else if (logGeneration != generation) {
+      // Either there is no log yet, or it predates the snapshot (we crashed during compaction), in
+      // which case its contents are already part of the snapshot.
+      resetLog();
+    }
+    if (logger.logsDebug()) {
+      logger.debug("Loaded persistence directory " + directory + " with " + writes.size()
+          + " writes and " + trackedQueries.size() + " tracked queries.");
+    }
+  }
+
+  /**
+   * Replays all records in the given file.
+   *
+   * @param file The snapshot or log file to replay
+   * @param expectedGeneration The generation the file must have to be replayed, or -1 to replay
+   *     any generation.
+   * @return The generation read from the file header, or -1 if the file has no valid header.
+   */
+  @SuppressWarnings("unchecked")
+  private long replay(File file, long expectedGeneration) throws IOException {
+    long fileGeneration = -1;
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), UTF8_CHARSET))) {
+      String line = reader.readLine();
+      if (line == null) {
+        return -1;
+      }
+      fileGeneration = asLong(JsonMapper.parseJson(line).get(GENERATION));
+      if (expectedGeneration != -1 && fileGeneration != expectedGeneration) {
+        return fileGeneration;
+      }
+      replaying = true;
+      while ((line = reader.readLine()) != null) {
+        List<Object> records;
+        try {
+          records = (List<Object>) JsonMapper.parseJsonValue(line);
+        } catch (IOException e) {
+          // A partially written transaction. Everything after it is discarded when the log is
+          // compacted next.
+          logger.warn("Ignoring corrupt record in " + file + ": " + e.getMessage());
+          compactionRequired = true;
+          break;
+        }
+        for (Object record : records) {
+          replayRecord((Map<String, Object>) record);
+        }
+      }
+    } catch (IOException e) {
+      if (fileGeneration == -1) {
+        logger.warn("Ignoring unreadable persistence file " + file, e);
+        return -1;
+      }
+      throw e;
+    } finally {
+      replaying = false;
+    }
+    return fileGeneration;
+  }
+
+  private void commit(List<Map<String, Object>> records) throws IOException {
+    if (logChannel == null) {
+      // Connections may still deliver data while the repo that closed the engine shuts down
+      logger.debug("Ignoring persistence write after the storage engine was closed.");
+      return;
+    }
+    finishCompaction(false);
+    boolean pruned = prunedSinceCommit;
+    prunedSinceCommit = false;
+    if (compactionRequired && compaction == null) {
+      // Moves the corrupt log aside. The records still go to the new log, since the snapshot that
+      // holds them may not make it to disk; replaying them twice is harmless.
+      startCompaction();
+    }
+    if (records.isEmpty()) {
+      return;
+    }
+    writeLine(logChannel, JsonMapper.serializeJsonValue(records));
+    if (compaction != null) {
+      return;
+    }
+    long logSize = logChannel.size();
+    if (logSize > MIN_LOG_SIZE_FOR_COMPACTION && logSize > snapshotSize) {
+      startCompaction();
+    } else if (pruned) {
+      long diskSize = snapshotSize + logSize;
+      if (diskSize > MIN_LOG_SIZE_FOR_COMPACTION
+          && diskSize > PRUNED_SIZE_FACTOR_FOR_COMPACTION * serverCacheEstimatedSizeInBytes()) {
+        startCompaction();
+      }
+    }
+  }
+
+  /**
+   * Starts writing the current in-memory state to a new snapshot. The log is moved aside first,
+   * and a new log is started for the generation of the new snapshot, so that the transactions
+   * committed while the snapshot is written are kept apart from the ones it holds.
+   */
+  private void startCompaction() throws IOException {
+    final SnapshotImage image = captureImage();
+    File logFile = new File(directory, LOG_FILE_NAME);
+    logChannel.close();
+    try {
+      Files.move(logFile.toPath(), new File(directory, COMPACTING_LOG_FILE_NAME).toPath(),
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      logChannel = new FileOutputStream(logFile, true).getChannel();
+    }
+    generation = image.generation;
+    resetLog();
+
+    compaction = new FutureTask<>(new Callable<Long>() {
+      @Override
+      public Long call() throws IOException {
+        return image.write();
+      }
+    });
+    if (compactionExecutor != null) {
+      compactionExecutor.execute(compaction);
+    } else {
+      compaction.run();
+    }
+    finishCompaction(false);
+  }
+
+  /**
+   * Records the outcome of the running compaction once it is done, or waits for it to be done. A
+   * compaction that failed is retried on the calling thread, since the files it leaves behind can't
+   * be moved aside again.
+   */
+  private void finishCompaction(boolean wait) throws IOException {
+    if (compaction == null || (!wait && !compaction.isDone())) {
+      return;
+    }
+    FutureTask<Long> task = compaction;
+    compaction = null;
+    try {
+      snapshotSize = Uninterruptibles.getUninterruptibly(task);
+      if (logger.logsDebug()) {
+        logger.debug("Compacted persistence log into a snapshot of " + snapshotSize + " bytes.");
+      }
+    } catch (ExecutionException e) {
+      logger.warn("Failed to compact persistence directory " + directory, e.getCause());
+      compactNow();
+    }
+  }
+
+  /** Writes the current in-memory state to a new snapshot on the calling thread. */
+  private void compactNow() throws IOException {
+    SnapshotImage image = captureImage();
+    snapshotSize = image.write();
+    generation = image.generation;
+    resetLog();
+  }
+
+  private SnapshotImage captureImage() {
+    compactionRequired = false;
+    Map<Long, Set<ChildKey>> keys = new HashMap<>();
+    for (Map.Entry<Long, Set<ChildKey>> entry : trackedQueryKeys.entrySet()) {
+      keys.put(entry.getKey(), new HashSet<>(entry.getValue()));
+    }
+    return new SnapshotImage(directory, generation + 1, new ArrayList<>(writes.values()),
+        new ArrayList<>(trackedQueries.values()), keys, serverCache);
+  }
+
+  @Override
+  public void close() {
+    if (logChannel == null) {
+      return;
+    }
+    try {
+      // Let a running compaction move its snapshot into place, so the next open needn't redo it
+      finishCompaction(true);
+    } catch (IOException e) {
+      logger.warn("Failed to compact persistence directory " + directory, e);
+    }
+    if (compactionExecutor != null) {
+      compactionExecutor.shutdown();
+    }
+    try {
+      logChannel.close();
+    } catch (IOException e) {
+      logger.warn("Failed to close persistence log in " + directory, e);
+    } finally {
+      logChannel = null;
+    }
+  }
+
+  private void resetLog() throws IOException {
+    logChannel.truncate(0);
+    writeLine(logChannel, header(generation));
+  }
+
+  private static String header(long generation) throws IOException {
+    Map<String, Object> header = new HashMap<>();
+    header.put(GENERATION, generation);
+    return JsonMapper.serializeJson(header);
+  }
+
+  private static void writeRecord(Writer writer, Map<String, Object> record) throws IOException {
+    List<Object> records = new ArrayList<>(1);
+    records.add(record);
+    writer.write(JsonMapper.serializeJsonValue(records));
+    writer.write('\n');
+  }
+
+  private static void writeLine(FileChannel channel, String line) throws IOException {
+    ByteBuffer buffer = UTF8_CHARSET.encode(line + "\n");
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * The state of the engine when a compaction starts. Everything it holds is immutable or copied,
+   * so that it can be written to a new snapshot on another thread.
+   */
+  private static final class SnapshotImage {
+
+    private final File directory;
+    private final long generation;
+    private final List<UserWriteRecord> writes;
+    private final List<TrackedQuery> trackedQueries;
+    private final Map<Long, Set<ChildKey>> trackedQueryKeys;
+    private final Node serverCache;
+
+    private SnapshotImage(File directory, long generation, List<UserWriteRecord> writes,
+        List<TrackedQuery> trackedQueries, Map<Long, Set<ChildKey>> trackedQueryKeys,
+        Node serverCache) {
+      this.directory = directory;
+      this.generation = generation;
+      this.writes = writes;
+      this.trackedQueries = trackedQueries;
+      this.trackedQueryKeys = trackedQueryKeys;
+      this.serverCache = serverCache;
+    }
+
+    /**
+     * Writes a new snapshot and atomically moves it into place. The snapshot carries a new
+     * generation, so that the logs it replaces are recognized as stale.
+     *
+     * @return The size of the new snapshot
+     */
+    private long write() throws IOException {
+      File tempFile = new File(directory, SNAPSHOT_TEMP_FILE_NAME);
+      try (FileOutputStream stream = new FileOutputStream(tempFile)) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(stream, UTF8_CHARSET));
+        writer.write(header(generation));
+        writer.write('\n');
+        for (UserWriteRecord write : writes) {
+          Map<String, Object> record;
+          if (write.isOverwrite()) {
+            record = newRecord(USER_OVERWRITE);
+            record.put(VALUE, write.getOverwrite().getValue(true));
+          } else {
+            record = newRecord(USER_MERGE);
+            record.put(VALUE, write.getMerge().getValue(true));
+          }
+          record.put(ID, write.getWriteId());
+          record.put(PATH, write.getPath().toString());
+          writeRecord(writer, record);
+        }
+        for (TrackedQuery query : trackedQueries) {
+          writeRecord(writer, trackedQueryRecord(query));
+          Set<ChildKey> keys = trackedQueryKeys.get(query.id);
+          if (keys != null) {
+            writeRecord(writer, trackedKeysRecord(query.id, keys));
+          }
+        }
+        // Sizes are estimated in one pass, rather than again for every subtree that is split
+        Set<Node> largerNodes = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        NodeSizeEstimator.estimateSerializedNodeSize(
+            serverCache, SNAPSHOT_RECORD_SPLIT_THRESHOLD, largerNodes);
+        writeServerCache(writer, Path.getEmptyPath(), serverCache, largerNodes);
+        writer.flush();
+        stream.getChannel().force(true);
+      }
+      File snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+      Files.move(tempFile.toPath(), snapshotFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      Files.deleteIfExists(new File(directory, COMPACTING_LOG_FILE_NAME).toPath());
+      return snapshotFile.length();
+    }
+
+    private static void writeServerCache(Writer writer, Path path, Node node,
+        Set<Node> largerNodes) throws IOException {
+      if (node.isEmpty()) {
+        return;
+      }
+      if (!largerNodes.contains(node)) {
+        Map<String, Object> record = newRecord(SERVER_OVERWRITE);
+        record.put(PATH, path.toString());
+        record.put(VALUE, node.getValue(true));
+        writeRecord(writer, record);
+      } else {
+        for (NamedNode child : node) {
+          writeServerCache(writer, path.child(child.getName()), child.getNode(), largerNodes);
+        }
+        // The priority is written last, since it can only be set on a non-empty node.
+        if (!node.getPriority().isEmpty()) {
+          writeServerCache(
+              writer, path.child(ChildKey.getPriorityKey()), node.getPriority(), largerNodes);
+        }
+      }
+    }
+  }
+}
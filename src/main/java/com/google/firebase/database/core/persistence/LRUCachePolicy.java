@@ -24,9 +24,19 @@ public class LRUCachePolicy implements CachePolicy {
       0.2f; // 20% at a time until we're below our max.
 
   public final long maxSizeBytes;
+  private final long serverUpdatesBetweenCacheSizeChecks;
 
   public LRUCachePolicy(long maxSizeBytes) {
+    this(maxSizeBytes, SERVER_UPDATES_BETWEEN_CACHE_SIZE_CHECKS);
+  }
+
+  /**
+   * Creates a policy that checks the cache size after the given number of server updates. Storage
+   * engines that keep their size estimate up to date can pass 0 to check after every update.
+   */
+  public LRUCachePolicy(long maxSizeBytes, long serverUpdatesBetweenCacheSizeChecks) {
     this.maxSizeBytes = maxSizeBytes;
+    this.serverUpdatesBetweenCacheSizeChecks = serverUpdatesBetweenCacheSizeChecks;
   }
 
   @Override
@@ -37,7 +47,7 @@ public class LRUCachePolicy implements CachePolicy {
 
   @Override
   public boolean shouldCheckCacheSize(long serverUpdatesSinceLastCheck) {
-    return serverUpdatesSinceLastCheck > SERVER_UPDATES_BETWEEN_CACHE_SIZE_CHECKS;
+    return serverUpdatesSinceLastCheck > serverUpdatesBetweenCacheSizeChecks;
   }
 
   @Override
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.core.persistence;
+
+import static com.google.firebase.database.utilities.Utilities.hardAssert;
+
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.UserWriteRecord;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.NamedNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.utilities.NodeSizeEstimator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A {@link PersistenceStorageEngine} that only keeps the server cache and the tracked queries in
+ * memory, so that data of queries that are no longer listened to stays available for as long as
+ * the process runs. User writes are not stored, since the repo already holds on to them until they
+ * are acknowledged and there is no later session that could restore them.
+ *
+ * <p>The estimated size of the server cache is updated with every change, by only looking at the
+ * data that changed. This makes size checks cheap enough to run after every server update, which
+ * is what keeps the cache within its budget.
+ *
+ * <p>Storage transactions are not rolled back when they fail. This class is not thread-safe. It is
+ * only ever accessed from the database run loop.
+ */
+public class MemoryPersistenceStorageEngine implements PersistenceStorageEngine {
+
+  private final TreeMap<Long, TrackedQuery> trackedQueries = new TreeMap<>();
+  private final Map<Long, Set<ChildKey>> trackedQueryKeys = new HashMap<>();
+  private Node serverCache = EmptyNode.Empty();
+  private long serverCacheSize = NodeSizeEstimator.estimateSerializedNodeSize(serverCache);
+  private boolean insideTransaction = false;
+
+  @Override
+  public void saveUserOverwrite(Path path, Node node, long writeId) {
+    // User writes only need to be stored when they have to survive a restart
+  }
+
+  @Override
+  public void saveUserMerge(Path path, CompoundWrite children, long writeId) {
+    // User writes only need to be stored when they have to survive a restart
+  }
+
+  @Override
+  public void removeUserWrite(long writeId) {
+    // User writes are never stored
+  }
+
+  @Override
+  public List<UserWriteRecord> loadUserWrites() {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public void removeAllUserWrites() {
+    // User writes are never stored
+  }
+
+  @Override
+  public Node serverCache(Path path) {
+    return serverCache.getChild(path);
+  }
+
+  @Override
+  public void overwriteServerCache(Path path, Node node) {
+    updateServerCache(path, node);
+  }
+
+  @Override
+  public void mergeIntoServerCache(Path path, Node node) {
+    for (NamedNode child : node) {
+      updateServerCache(path.child(child.getName()), child.getNode());
+    }
+  }
+
+  @Override
+  public void mergeIntoServerCache(Path path, CompoundWrite children) {
+    for (Map.Entry<Path, Node> write : children) {
+      updateServerCache(path.child(write.getKey()), write.getValue());
+    }
+  }
+
+  @Override
+  public long serverCacheEstimatedSizeInBytes() {
+    return serverCacheSize;
+  }
+
+  @Override
+  public void saveTrackedQuery(TrackedQuery trackedQuery) {
+    trackedQueries.put(trackedQuery.id, trackedQuery);
+  }
+
+  @Override
+  public void deleteTrackedQuery(long trackedQueryId) {
+    trackedQueries.remove(trackedQueryId);
+    trackedQueryKeys.remove(trackedQueryId);
+  }
+
+  @Override
+  public List<TrackedQuery> loadTrackedQueries() {
+    return new ArrayList<>(trackedQueries.values());
+  }
+
+  @Override
+  public void resetPreviouslyActiveTrackedQueries(long lastUse) {
+    for (Map.Entry<Long, TrackedQuery> entry : trackedQueries.entrySet()) {
+      TrackedQuery query = entry.getValue();
+      if (query.active) {
+        entry.setValue(query.setActiveState(false).updateLastUse(lastUse));
+      }
+    }
+  }
+
+  @Override
+  public void saveTrackedQueryKeys(long trackedQueryId, Set<ChildKey> keys) {
+    hardAssert(trackedQueries.containsKey(trackedQueryId),
+        "Can't track keys for an untracked query.");
+    trackedQueryKeys.put(trackedQueryId, new HashSet<>(keys));
+  }
+
+  @Override
+  public void updateTrackedQueryKeys(
+      long trackedQueryId, Set<ChildKey> added, Set<ChildKey> removed) {
+    hardAssert(trackedQueries.containsKey(trackedQueryId),
+        "Can't track keys for an untracked query.");
+    Set<ChildKey> keys = trackedQueryKeys.get(trackedQueryId);
+    if (keys == null) {
+      keys = new HashSet<>();
+      trackedQueryKeys.put(trackedQueryId, keys);
+    }
+    keys.removeAll(removed);
+    keys.addAll(added);
+  }
+
+  @Override
+  public Set<ChildKey> loadTrackedQueryKeys(long trackedQueryId) {
+    Set<ChildKey> keys = trackedQueryKeys.get(trackedQueryId);
+    return keys != null ? new HashSet<>(keys) : new HashSet<ChildKey>();
+  }
+
+  @Override
+  public Set<ChildKey> loadTrackedQueryKeys(Set<Long> trackedQueryIds) {
+    Set<ChildKey> keys = new HashSet<>();
+    for (Long id : trackedQueryIds) {
+      Set<ChildKey> trackedKeys = trackedQueryKeys.get(id);
+      if (trackedKeys != null) {
+        keys.addAll(trackedKeys);
+      }
+    }
+    return keys;
+  }
+
+  @Override
+  public void pruneCache(Path root, PruneForest pruneForest) {
+    Node pruned = pruneForest.pruneNode(serverCache.getChild(root));
+    serverCache = serverCache.updateChild(root, pruned);
+    serverCacheSize = NodeSizeEstimator.estimateSerializedNodeSize(serverCache);
+  }
+
+  @Override
+  public void beginTransaction() {
+    hardAssert(!insideTransaction,
+        "runInTransaction called when an existing transaction is already in progress.");
+    insideTransaction = true;
+  }
+
+  @Override
+  public void endTransaction() {
+    hardAssert(insideTransaction, "endTransaction called without a transaction in progress.");
+    insideTransaction = false;
+  }
+
+  @Override
+  public void setTransactionSuccessful() {
+    hardAssert(insideTransaction, "setTransactionSuccessful called outside of a transaction.");
+  }
+
+  @Override
+  public void close() {
+    // No-op.
+  }
+
+  private void updateServerCache(Path path, Node node) {
+    serverCacheSize += sizeDelta(serverCache, path, node);
+    serverCache = serverCache.updateChild(path, node);
+  }
+
+  /**
+   * Returns by how much the estimated size of the given node changes when the data at the path is
+   * replaced with the new node. Only the changed child and the keys leading to it are estimated,
+   * unless the change empties a node or touches a priority.
+   */
+  private static long sizeDelta(Node node, Path path, Node newNode) {
+    ChildKey front = path.getFront();
+    if (front == null || front.isPriorityChildName() || node.isLeafNode() || node.isEmpty()) {
+      return NodeSizeEstimator.estimateSerializedNodeSize(node.updateChild(path, newNode))
+          - NodeSizeEstimator.estimateSerializedNodeSize(node);
+    }
+    Path rest = path.popFront();
+    Node child = node.getImmediateChild(front);
+    Node newChild = child.updateChild(rest, newNode);
+    // Matches the overhead of a child key in NodeSizeEstimator
+    long keySize = front.asString().length() + 4;
+    if (child.isEmpty()) {
+      return newChild.isEmpty()
+          ? 0 : keySize + NodeSizeEstimator.estimateSerializedNodeSize(newChild);
+    } else if (!newChild.isEmpty()) {
+      return sizeDelta(child, rest, newNode);
+    } else if (node.getChildCount() > 1) {
+      return -(keySize + NodeSizeEstimator.estimateSerializedNodeSize(child));
+    } else {
+      // Removing the last child empties the node, which also drops its priority
+      return NodeSizeEstimator.estimateSerializedNodeSize(EmptyNode.Empty())
+          - NodeSizeEstimator.estimateSerializedNodeSize(node);
+    }
+  }
+}
@@ -131,6 +131,11 @@ public class NoopPersistenceManager implements PersistenceManager {
     }
   }
 
+  @Override
+  public void close() {
+    // No-op.
+  }
+
   private void verifyInsideTransaction() {
     hardAssert(this.insideTransaction, "Transaction expected to already be in progress.");
   }
@@ -117,4 +117,7 @@ public interface PersistenceManager {
   void updateTrackedQueryKeys(QuerySpec query, Set<ChildKey> added, Set<ChildKey> removed);
 
   <T> T runInTransaction(Callable<T> callable);
+
+  /** Releases any resources held by the persistence layer, once the repo is destroyed. */
+  void close();
 }
@@ -126,4 +126,7 @@ public interface PersistenceStorageEngine {
   void endTransaction();
 
   void setTransactionSuccessful();
+
+  /** Releases any resources held by the engine. The engine must not be used afterwards. */
+  void close();
 }
@@ -21,7 +21,12 @@ import com.google.firebase.database.core.Path;
 import com.google.firebase.database.core.utilities.ImmutableTree;
 import com.google.firebase.database.core.utilities.Predicate;
 import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.NamedNode;
+import com.google.firebase.database.snapshot.Node;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -124,6 +129,52 @@ public class PruneForest {
         });
   }
 
+  /**
+   * Returns the paths, relative to the root of this forest, that are marked for pruning (true) or
+   * keeping (false). {@link #fromPaths(Map)} turns them back into an equivalent forest.
+   */
+  Map<Path, Boolean> getPaths() {
+    Map<Path, Boolean> paths = new HashMap<>();
+    for (Map.Entry<Path, Boolean> entry : this.pruneForest) {
+      paths.put(entry.getKey(), entry.getValue());
+    }
+    return paths;
+  }
+
+  static PruneForest fromPaths(Map<Path, Boolean> paths) {
+    ImmutableTree<Boolean> tree = ImmutableTree.emptyInstance();
+    for (Map.Entry<Path, Boolean> entry : paths.entrySet()) {
+      tree = tree.set(entry.getKey(), entry.getValue());
+    }
+    return new PruneForest(tree);
+  }
+
+  /** Returns the given node, with the data that this forest prunes removed. */
+  Node pruneNode(final Node node) {
+    if (node.isEmpty() || this.shouldKeep(Path.getEmptyPath())) {
+      return node;
+    } else if (this.shouldPruneUnkeptDescendants(Path.getEmptyPath())) {
+      return this.foldKeptNodes(
+          EmptyNode.Empty(),
+          new ImmutableTree.TreeVisitor<Void, Node>() {
+            @Override
+            public Node onNodeValue(Path keepPath, Void value, Node accum) {
+              return accum.updateChild(keepPath, node.getChild(keepPath));
+            }
+          });
+    } else {
+      Node result = node;
+      for (NamedNode child : node) {
+        Path childPath = new Path(child.getName());
+        if (this.affectsPath(childPath)) {
+          result = result.updateImmediateChild(child.getName(),
+              this.child(child.getName()).pruneNode(child.getNode()));
+        }
+      }
+      return result;
+    }
+  }
+
   public PruneForest prune(Path path) {
     if (this.pruneForest.rootMostValueMatching(path, KEEP_PREDICATE) != null) {
       throw new IllegalArgumentException("Can't prune path that was kept previously!");
@@ -37,6 +37,10 @@ public class CancelEvent implements Event {
     return this.path;
   }
 
+  public EventRegistration getEventRegistration() {
+    return this.eventRegistration;
+  }
+
   @Override
   public void fire() {
     this.eventRegistration.fireCancelEvent(this.error);
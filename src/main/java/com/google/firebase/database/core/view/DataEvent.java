@@ -60,6 +60,10 @@ public class DataEvent implements Event {
     return this.eventType;
   }
 
+  public EventRegistration getEventRegistration() {
+    return this.eventRegistration;
+  }
+
   @Override
   public void fire() {
     this.eventRegistration.fireEvent(this);
@@ -17,11 +17,15 @@
 package com.google.firebase.database.core.view;
 
 import com.google.firebase.database.core.Context;
+import com.google.firebase.database.core.EventRegistration;
 import com.google.firebase.database.core.EventTarget;
+import com.google.firebase.database.core.OrderedEventTarget;
 import com.google.firebase.database.logging.LogWrapper;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Each view owns an instance of this class, and it is used to send events to the event target
@@ -45,19 +49,48 @@ public class EventRaiser {
     if (logger.logsDebug()) {
       logger.debug("Raising " + events.size() + " event(s)");
     }
-    // TODO: Use an immutable data structure for events so we don't have to clone to be safe.
-    final ArrayList<Event> eventsClone = new ArrayList<>(events);
-    eventTarget.postEvent(
-        new Runnable() {
-          @Override
-          public void run() {
-            for (Event event : eventsClone) {
-              if (logger.logsDebug()) {
-                logger.debug("Raising " + event.toString());
-              }
-              event.fire();
-            }
+    if (eventTarget instanceof OrderedEventTarget) {
+      // Post the events of each listener separately, so that listeners can run in parallel.
+      Map<EventRegistration, List<Event>> eventsByRegistration = new LinkedHashMap<>();
+      for (Event event : events) {
+        EventRegistration registration = getEventRegistration(event);
+        List<Event> registrationEvents = eventsByRegistration.get(registration);
+        if (registrationEvents == null) {
+          registrationEvents = new ArrayList<>();
+          eventsByRegistration.put(registration, registrationEvents);
+        }
+        registrationEvents.add(event);
+      }
+      OrderedEventTarget orderedEventTarget = (OrderedEventTarget) eventTarget;
+      for (Map.Entry<EventRegistration, List<Event>> entry : eventsByRegistration.entrySet()) {
+        orderedEventTarget.postEvent(entry.getKey(), newEventsRunnable(entry.getValue()));
+      }
+    } else {
+      // TODO: Use an immutable data structure for events so we don't have to clone to be safe.
+      eventTarget.postEvent(newEventsRunnable(new ArrayList<Event>(events)));
+    }
+  }
+
+  private static EventRegistration getEventRegistration(Event event) {
+    if (event instanceof DataEvent) {
+      return ((DataEvent) event).getEventRegistration();
+    } else if (event instanceof CancelEvent) {
+      return ((CancelEvent) event).getEventRegistration();
+    }
+    return null;
+  }
+
+  private Runnable newEventsRunnable(final List<Event> events) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        for (Event event : events) {
+          if (logger.logsDebug()) {
+            logger.debug("Raising " + event.toString());
           }
-        });
+          event.fire();
+        }
+      }
+    };
   }
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.core.view;
+
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.view.filter.NodeFilter;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.Index;
+import com.google.firebase.database.snapshot.IndexedNode;
+import com.google.firebase.database.snapshot.KeyIndex;
+import com.google.firebase.database.snapshot.Node;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Shares indexed nodes between the views at a single location. Views ordered by the same index are
+ * handed the same IndexedNode for the same data, so its children are only sorted once. New data is
+ * indexed by updating the most recent index for that ordering instead of sorting from scratch, and
+ * a child update applied by one view to a shared server cache is reused by the others.
+ *
+ * <p>An IndexRegistry is owned by a SyncPoint and is not thread safe.
+ */
+public class IndexRegistry {
+
+  private final Map<Index, IndexedNode> latest = new HashMap<>();
+
+  /**
+   * Child updates applied during the current operation, keyed by the node they were applied to.
+   * Cleared when the operation completes so that intermediate nodes are not retained.
+   */
+  private final Map<IndexedNode, ChildUpdate> childUpdates = new IdentityHashMap<>();
+
+  public IndexedNode from(Node node, Index index) {
+    if (index.equals(KeyIndex.getInstance())) {
+      // Key ordered nodes are never sorted, so there is nothing to share.
+      return IndexedNode.from(node, index);
+    }
+    IndexedNode previous = latest.get(index);
+    IndexedNode indexed =
+        previous != null ? previous.updateNode(node) : IndexedNode.from(node, index);
+    latest.put(index, indexed);
+    return indexed;
+  }
+
+  /**
+   * Applies a child update through a filter that does not filter nodes, reusing the result if
+   * another view already applied the same update to the same node during this operation.
+   */
+  public IndexedNode updateChild(
+      NodeFilter filter,
+      IndexedNode indexedNode,
+      ChildKey key,
+      Node newChild,
+      Path affectedPath,
+      NodeFilter.CompleteChildSource source) {
+    assert !filter.filtersNodes() : "Only unfiltered nodes can be shared between views";
+    ChildUpdate previous = childUpdates.get(indexedNode);
+    if (previous != null && previous.key.equals(key) && previous.child.equals(newChild)) {
+      return previous.result;
+    }
+    IndexedNode result =
+        filter.updateChild(indexedNode, key, newChild, affectedPath, source, null);
+    childUpdates.put(indexedNode, new ChildUpdate(key, newChild, result));
+    if (result != indexedNode && !filter.getIndex().equals(KeyIndex.getInstance())) {
+      latest.put(filter.getIndex(), result);
+    }
+    return result;
+  }
+
+  /** Releases the intermediate nodes recorded while applying an operation to the views. */
+  public void operationComplete() {
+    childUpdates.clear();
+  }
+
+  /** Drops the shared nodes for any index no longer used by a view at this location. */
+  public void retainIndexes(Collection<Index> indexes) {
+    latest.keySet().retainAll(indexes);
+  }
+
+  private static final class ChildUpdate {
+
+    private final ChildKey key;
+    private final Node child;
+    private final IndexedNode result;
+
+    ChildUpdate(ChildKey key, Node child, IndexedNode result) {
+      this.key = key;
+      this.child = child;
+      this.result = result;
+    }
+  }
+}
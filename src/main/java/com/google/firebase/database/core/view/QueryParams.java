@@ -104,7 +104,7 @@ public class QueryParams {
       // We normalize longs to doubles.  This is *ESSENTIAL* to prevent our persistence
       // code from breaking, since integer-valued doubles get turned into longs after being
       // saved to persistence (as JSON) and then read back. (see http://b/30153920/)
-      return new DoubleNode(
+      return DoubleNode.valueOf(
           ((Long) value.getValue()).doubleValue(), PriorityUtilities.NullPriority());
     } else {
       throw new IllegalStateException(
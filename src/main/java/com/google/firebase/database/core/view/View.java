@@ -44,19 +44,29 @@ public class View {
   private ViewCache viewCache;
 
   public View(QuerySpec query, ViewCache initialViewCache) {
+    this(query, initialViewCache, new IndexRegistry());
+  }
+
+  /**
+   * Creates a view that shares indexed nodes through the given registry with the other views at
+   * the same location.
+   */
+  public View(QuerySpec query, ViewCache initialViewCache, IndexRegistry indexes) {
     this.query = query;
     IndexedFilter indexFilter = new IndexedFilter(query.getIndex());
     NodeFilter filter = query.getParams().getNodeFilter();
-    this.processor = new ViewProcessor(filter);
+    this.processor = new ViewProcessor(filter, indexes);
     CacheNode initialServerCache = initialViewCache.getServerCache();
     CacheNode initialEventCache = initialViewCache.getEventCache();
 
     // Don't filter server node with other filter than index, wait for tagged listen
     IndexedNode emptyIndexedNode = IndexedNode.from(EmptyNode.Empty(), query.getIndex());
     IndexedNode serverSnap =
-        indexFilter.updateFullNode(emptyIndexedNode, initialServerCache.getIndexedNode(), null);
+        indexFilter.updateFullNode(
+            emptyIndexedNode, indexes.from(initialServerCache.getNode(), query.getIndex()), null);
     IndexedNode eventSnap =
-        filter.updateFullNode(emptyIndexedNode, initialEventCache.getIndexedNode(), null);
+        filter.updateFullNode(
+            emptyIndexedNode, indexes.from(initialEventCache.getNode(), query.getIndex()), null);
     CacheNode newServerCache =
         new CacheNode(
             serverSnap, initialServerCache.isFullyInitialized(), indexFilter.filtersNodes());
@@ -103,6 +113,21 @@ public class View {
     return this.eventRegistrations.isEmpty();
   }
 
+  /**
+   * Returns true if any registration on this view raises events, as opposed to registrations that
+   * only keep the data synced.
+   */
+  public boolean hasEventListeners() {
+    for (EventRegistration registration : this.eventRegistrations) {
+      for (Event.EventType eventType : Event.EventType.values()) {
+        if (registration.respondsTo(eventType)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   public void addEventRegistration(@NotNull EventRegistration registration) {
     this.eventRegistrations.add(registration);
   }
@@ -56,9 +56,15 @@ public class ViewProcessor {
   };
 
   private final NodeFilter filter;
+  private final IndexRegistry indexes;
 
   public ViewProcessor(NodeFilter filter) {
+    this(filter, new IndexRegistry());
+  }
+
+  public ViewProcessor(NodeFilter filter, IndexRegistry indexes) {
     this.filter = filter;
+    this.indexes = indexes;
   }
 
   private static boolean cacheHasChild(ViewCache viewCache, ChildKey childKey) {
@@ -225,7 +231,7 @@ public class ViewProcessor {
           nodeWithLocalWrites =
               writesCache.calcCompleteEventCache(viewCache.getCompleteServerSnap());
         }
-        IndexedNode indexedNode = IndexedNode.from(nodeWithLocalWrites, this.filter.getIndex());
+        IndexedNode indexedNode = indexes.from(nodeWithLocalWrites, this.filter.getIndex());
         newEventCache =
             this.filter.updateFullNode(
                 viewCache.getEventCache().getIndexedNode(), indexedNode, accumulator);
@@ -304,7 +310,7 @@ public class ViewProcessor {
       newServerCache =
           serverFilter.updateFullNode(
               oldServerSnap.getIndexedNode(),
-              IndexedNode.from(changedSnap, serverFilter.getIndex()),
+              indexes.from(changedSnap, serverFilter.getIndex()),
               null);
     } else if (serverFilter.filtersNodes() && !oldServerSnap.isFiltered()) {
       // we want to filter the server node, but we didn't filter the server node yet, so
@@ -329,6 +335,16 @@ public class ViewProcessor {
       Node newChildNode = childNode.updateChild(childChangePath, changedSnap);
       if (childKey.isPriorityChildName()) {
         newServerCache = serverFilter.updatePriority(oldServerSnap.getIndexedNode(), newChildNode);
+      } else if (!serverFilter.filtersNodes()) {
+        // Unfiltered server caches are shared between views, so is the work of updating them
+        newServerCache =
+            indexes.updateChild(
+                serverFilter,
+                oldServerSnap.getIndexedNode(),
+                childKey,
+                newChildNode,
+                childChangePath,
+                NO_COMPLETE_SOURCE);
       } else {
         newServerCache =
             serverFilter.updateChild(
@@ -363,7 +379,7 @@ public class ViewProcessor {
     NodeFilter.CompleteChildSource source =
         new WriteTreeCompleteChildSource(writesCache, oldViewCache, optCompleteCache);
     if (changePath.isEmpty()) {
-      IndexedNode newIndexed = IndexedNode.from(changedSnap, this.filter.getIndex());
+      IndexedNode newIndexed = indexes.from(changedSnap, this.filter.getIndex());
       IndexedNode newEventCache =
           this.filter.updateFullNode(
               oldViewCache.getEventCache().getIndexedNode(), newIndexed, accumulator);
@@ -629,7 +645,7 @@ public class ViewProcessor {
         } else {
           newNode = writesCache.calcCompleteEventChildren(viewCache.getServerCache().getNode());
         }
-        IndexedNode indexedNode = IndexedNode.from(newNode, this.filter.getIndex());
+        IndexedNode indexedNode = indexes.from(newNode, this.filter.getIndex());
         newEventCache = this.filter.updateFullNode(oldEventCache, indexedNode, accumulator);
       } else {
         ChildKey childKey = path.getFront();
@@ -653,7 +669,7 @@ public class ViewProcessor {
           // We might have reverted all child writes. Maybe the old event was a leaf node
           Node complete = writesCache.calcCompleteEventCache(viewCache.getCompleteServerSnap());
           if (complete.isLeafNode()) {
-            IndexedNode indexedNode = IndexedNode.from(complete, this.filter.getIndex());
+            IndexedNode indexedNode = indexes.from(complete, this.filter.getIndex());
             newEventCache = this.filter.updateFullNode(newEventCache, indexedNode, accumulator);
           }
         }
@@ -21,13 +21,14 @@ import java.math.BigDecimal;
 public class BigDecimalNode extends LeafNode<BigDecimalNode> {
 
   private final String value;
+  private final Node priority;
 
   public BigDecimalNode(BigDecimal value, Node priority) {
     this(value == null ? null : value.toString(), priority);
   }
 
   BigDecimalNode(String value, Node priority) {
-    super(priority);
+    this.priority = priority;
     this.value = value;
   }
 
@@ -41,6 +42,11 @@ public class BigDecimalNode extends LeafNode<BigDecimalNode> {
     return new BigDecimal(this.value);
   }
 
+  @Override
+  public Node getPriority() {
+    return priority;
+  }
+
   @Override
   public String getHashRepresentation(HashVersion version) {
     return getPriorityHash(version) + "bigdecimal:" + this.value;
@@ -21,13 +21,14 @@ import java.math.BigInteger;
 public class BigIntegerNode extends LeafNode<BigIntegerNode> {
 
   private final String value;
+  private final Node priority;
 
   public BigIntegerNode(BigInteger value, Node priority) {
     this(value == null ? null : value.toString(), priority);
   }
 
   BigIntegerNode(String value, Node priority) {
-    super(priority);
+    this.priority = priority;
     this.value = value;
   }
 
@@ -41,6 +42,11 @@ public class BigIntegerNode extends LeafNode<BigIntegerNode> {
     return new BigInteger(this.value);
   }
 
+  @Override
+  public Node getPriority() {
+    return priority;
+  }
+
   @Override
   public String getHashRepresentation(HashVersion version) {
     return getPriorityHash(version) + "bigdecimal:" + this.value;
@@ -16,20 +16,38 @@
 
 package com.google.firebase.database.snapshot;
 
+/**
+ * A leaf node holding a boolean. The two values without a priority are shared instances; use
+ * {@link #valueOf(boolean, Node)} to get one.
+ */
 public class BooleanNode extends LeafNode<BooleanNode> {
 
+  private static final BooleanNode TRUE = new BooleanNode(true);
+  private static final BooleanNode FALSE = new BooleanNode(false);
+
   private final boolean value;
 
-  public BooleanNode(Boolean value, Node priority) {
-    super(priority);
+  private BooleanNode(boolean value) {
     this.value = value;
   }
 
+  public static BooleanNode valueOf(boolean value, Node priority) {
+    if (priority.isEmpty()) {
+      return value ? TRUE : FALSE;
+    }
+    return new PrioritizedBooleanNode(value, priority);
+  }
+
   @Override
   public Object getValue() {
     return value;
   }
 
+  @Override
+  public Node getPriority() {
+    return PriorityUtilities.NullPriority();
+  }
+
   @Override
   public String getHashRepresentation(HashVersion version) {
     return getPriorityHash(version) + "boolean:" + value;
@@ -37,7 +55,7 @@ public class BooleanNode extends LeafNode<BooleanNode> {
 
   @Override
   public BooleanNode updatePriority(Node priority) {
-    return new BooleanNode(value, priority);
+    return valueOf(value, priority);
   }
 
   @Override
@@ -56,11 +74,27 @@ public class BooleanNode extends LeafNode<BooleanNode> {
       return false;
     }
     BooleanNode otherBooleanNode = (BooleanNode) other;
-    return value == otherBooleanNode.value && priority.equals(otherBooleanNode.priority);
+    return value == otherBooleanNode.value
+        && getPriority().equals(otherBooleanNode.getPriority());
   }
 
   @Override
   public int hashCode() {
-    return (this.value ? 1 : 0) + this.priority.hashCode();
+    return (this.value ? 1 : 0) + getPriority().hashCode();
+  }
+
+  private static final class PrioritizedBooleanNode extends BooleanNode {
+
+    private final Node priority;
+
+    PrioritizedBooleanNode(boolean value, Node priority) {
+      super(value);
+      this.priority = priority;
+    }
+
+    @Override
+    public Node getPriority() {
+      return priority;
+    }
   }
 }
@@ -16,10 +16,38 @@
 
 package com.google.firebase.database.snapshot;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.firebase.database.utilities.Utilities;
 
+import java.util.concurrent.ConcurrentMap;
+
 public class ChildKey implements Comparable<ChildKey> {
 
+  /**
+   * Keys longer than this are not interned. Long keys are rarely field names that repeat across a
+   * tree, and keeping them in the pool would pin large strings.
+   */
+  private static final int MAX_INTERNED_KEY_LENGTH = 64;
+
+  /** Upper bound on the number of keys in the pool. Least recently used keys are evicted first. */
+  private static final int MAX_INTERNED_KEYS = 100000;
+
+  /**
+   * Keys created by {@link #fromString(String)}, so that repeated names share one instance and
+   * usually compare equal by identity. Values are weakly referenced, so keys no tree refers to
+   * anymore are dropped from the pool.
+   */
+  private static final ConcurrentMap<String, ChildKey> INTERNED_KEYS;
+
+  static {
+    Cache<String, ChildKey> cache = CacheBuilder.newBuilder()
+        .maximumSize(MAX_INTERNED_KEYS)
+        .weakValues()
+        .build();
+    INTERNED_KEYS = cache.asMap();
+  }
+
   private static final ChildKey MIN_KEY = new ChildKey("[MIN_KEY]");
   private static final ChildKey MAX_KEY = new ChildKey("[MAX_KEY]");
   // Singleton for priority child keys
@@ -48,6 +76,21 @@ public class ChildKey implements Comparable<ChildKey> {
   }
 
   public static ChildKey fromString(String key) {
+    if (key.length() > MAX_INTERNED_KEY_LENGTH) {
+      return newKey(key);
+    }
+    ChildKey childKey = INTERNED_KEYS.get(key);
+    if (childKey == null) {
+      childKey = newKey(key);
+      ChildKey existing = INTERNED_KEYS.putIfAbsent(key, childKey);
+      if (existing != null) {
+        childKey = existing;
+      }
+    }
+    return childKey;
+  }
+
+  private static ChildKey newKey(String key) {
     Integer intValue = Utilities.tryParseInt(key);
     if (intValue != null) {
       return new IntegerChildKey(key, intValue);
@@ -109,12 +152,12 @@ public class ChildKey implements Comparable<ChildKey> {
 
   @Override
   public boolean equals(Object obj) {
-    if (!(obj instanceof ChildKey)) {
-      return false;
-    }
     if (this == obj) {
       return true;
     }
+    if (!(obj instanceof ChildKey)) {
+      return false;
+    }
     ChildKey other = (ChildKey) obj;
     return this.key.equals(other.key);
   }
@@ -19,6 +19,7 @@ package com.google.firebase.database.snapshot;
 import com.google.firebase.database.collection.ImmutableSortedMap;
 import com.google.firebase.database.collection.LLRBNode;
 import com.google.firebase.database.core.Path;
+import com.google.firebase.database.utilities.HashBuilder;
 import com.google.firebase.database.utilities.Utilities;
 
 import java.util.ArrayList;
@@ -132,6 +133,43 @@ public class ChildrenNode implements Node {
     }
   }
 
+  /**
+   * Returns the same data as {@link #getValue()}, but as read-only views over this node rather than
+   * as copies. Children are only converted when they are read from the returned Map or List.
+   */
+  public Object getValueView() {
+    return LazyNodeValues.of(this);
+  }
+
+  ImmutableSortedMap<ChildKey, Node> getChildren() {
+    return children;
+  }
+
+  /**
+   * Returns the size of the list that {@link #getValue()} converts this node to, or -1 if it
+   * converts to a map instead.
+   */
+  public int getArrayLength() {
+    if (isEmpty()) {
+      return -1;
+    }
+    int numKeys = 0;
+    int maxKey = 0;
+    for (Map.Entry<ChildKey, Node> entry : children) {
+      String key = entry.getKey().asString();
+      if (key.length() > 1 && key.charAt(0) == '0') {
+        return -1;
+      }
+      Integer keyAsInt = Utilities.tryParseInt(key);
+      if (keyAsInt == null || keyAsInt < 0) {
+        return -1;
+      }
+      maxKey = Math.max(maxKey, keyAsInt);
+      numKeys++;
+    }
+    return maxKey < 2 * numKeys ? maxKey + 1 : -1;
+  }
+
   @Override
   public ChildKey getPredecessorChildKey(ChildKey childKey) {
     return this.children.getPredecessorKey(childKey);
@@ -177,12 +215,67 @@ public class ChildrenNode implements Node {
   @Override
   public String getHash() {
     if (this.lazyHash == null) {
-      String hashString = getHashRepresentation(HashVersion.V1);
-      this.lazyHash = hashString.isEmpty() ? "" : Utilities.sha1HexDigest(hashString);
+      // Hash the same characters as getHashRepresentation(HashVersion.V1), without building them
+      // into a string. The hashes of the children are computed up front and kept, so that they
+      // don't use the hash builder while this node's hash is being built.
+      String[] childHashes = new String[children.size()];
+      boolean sawPriority = false;
+      boolean hasChildHash = false;
+      int index = 0;
+      for (Map.Entry<ChildKey, Node> entry : children) {
+        Node child = entry.getValue();
+        String childHash = child.getHash();
+        childHashes[index++] = childHash;
+        hasChildHash = hasChildHash || !childHash.isEmpty();
+        sawPriority = sawPriority || !child.getPriority().isEmpty();
+      }
+      if (priority.isEmpty() && !hasChildHash) {
+        this.lazyHash = "";
+        return this.lazyHash;
+      }
+
+      HashBuilder builder = HashBuilder.newBuilder();
+      try {
+        if (!priority.isEmpty()) {
+          builder.append("priority:");
+          builder.append(priority.getHashRepresentation(HashVersion.V1));
+          builder.append(':');
+        }
+        if (sawPriority) {
+          Map<ChildKey, String> hashesByKey = new HashMap<>(children.size());
+          List<NamedNode> nodes = new ArrayList<>(children.size());
+          index = 0;
+          for (Map.Entry<ChildKey, Node> entry : children) {
+            hashesByKey.put(entry.getKey(), childHashes[index++]);
+            nodes.add(new NamedNode(entry.getKey(), entry.getValue()));
+          }
+          Collections.sort(nodes, PriorityIndex.getInstance());
+          for (NamedNode node : nodes) {
+            appendChildHash(builder, node.getName(), hashesByKey.get(node.getName()));
+          }
+        } else {
+          index = 0;
+          for (Map.Entry<ChildKey, Node> entry : children) {
+            appendChildHash(builder, entry.getKey(), childHashes[index++]);
+          }
+        }
+        this.lazyHash = builder.build();
+      } finally {
+        builder.release();
+      }
     }
     return this.lazyHash;
   }
 
+  private static void appendChildHash(HashBuilder builder, ChildKey name, String hashString) {
+    if (!hashString.isEmpty()) {
+      builder.append(':');
+      builder.append(name.asString());
+      builder.append(':');
+      builder.append(hashString);
+    }
+  }
+
   @Override
   public boolean isLeafNode() {
     return false;
@@ -19,16 +19,27 @@ package com.google.firebase.database.snapshot;
 import static com.google.firebase.database.utilities.Utilities.hardAssert;
 
 import com.google.firebase.database.core.Path;
+import com.google.firebase.database.utilities.HashBuilder;
 import com.google.firebase.database.utilities.NodeSizeEstimator;
 import com.google.firebase.database.utilities.Utilities;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 public class CompoundHash {
 
+  private static final SplitStrategy NEVER_SPLIT_STRATEGY =
+      new SplitStrategy() {
+        @Override
+        public boolean shouldSplit(CompoundHashBuilder state) {
+          return false;
+        }
+      };
+
   private final List<Path> posts;
   private final List<String> hashes;
 
@@ -50,8 +61,12 @@ public class CompoundHash {
       return new CompoundHash(Collections.<Path>emptyList(), Collections.singletonList(""));
     } else {
       CompoundHashBuilder state = new CompoundHashBuilder(strategy);
-      processNode(node, state);
-      state.finishHashing();
+      try {
+        processNode(node, state);
+        state.finishHashing();
+      } finally {
+        state.release();
+      }
       return new CompoundHash(state.currentPaths, state.currentHashes);
     }
   }
@@ -96,7 +111,10 @@ public class CompoundHash {
     private final long splitThreshold;
 
     public SimpleSizeSplitStrategy(Node node) {
-      long estimatedNodeSize = NodeSizeEstimator.estimateSerializedNodeSize(node);
+      this(NodeSizeEstimator.estimateSerializedNodeSize(node));
+    }
+
+    public SimpleSizeSplitStrategy(long estimatedNodeSize) {
       // Splits for
       // 1k -> 512 (2 parts)
       // 5k -> 715 (7 parts)
@@ -115,6 +133,192 @@ public class CompoundHash {
     }
   }
 
+  /**
+   * Computes the compound hashes of successive versions of a large node, reusing the range hashes
+   * of the previous version where they still apply.
+   *
+   * <p>Ranges are made of whole children of the node, and a range ends after a child whose key
+   * hashes to a multiple of the number of children per range. The boundaries only depend on the
+   * keys, so changing, adding or removing a child only changes the hash of its own range. As nodes
+   * are immutable and share unchanged children between versions, a range whose children are the
+   * same instances as last time reuses its hash without hashing them again. The number of children
+   * per range is chosen so that ranges are about the target size, which bounds the size of the
+   * data the server sends back for a range that differs. Nodes that are too small to be split, or
+   * whose children are larger than a range, are split by size as in {@link #fromNode(Node)}.
+   *
+   * <p>Instances are not thread-safe.
+   */
+  public static final class RangeCache {
+
+    // Largest range, as a multiple of the number of children per range, so that a run of keys
+    // that don't end a range can't make one arbitrarily large.
+    private static final int MAX_RANGE_FACTOR = 4;
+
+    private final long targetRangeSize;
+    private int childrenPerRange;
+    // Hashed size per child when the ranges were chosen, or 0 if they were chosen just now
+    private long sizePerChild;
+    private Map<ChildKey, Range> ranges = new HashMap<>();
+
+    public RangeCache(long targetRangeSize) {
+      if (targetRangeSize <= 0) {
+        throw new IllegalArgumentException("Target range size must be positive");
+      }
+      this.targetRangeSize = targetRangeSize;
+    }
+
+    public CompoundHash fromNode(Node node) {
+      if (node.isLeafNode() || node.isEmpty()) {
+        clear();
+        return CompoundHash.fromNode(node);
+      }
+      if (childrenPerRange == 0) {
+        // Only estimate the size when the ranges are chosen; afterwards the size of the ranges
+        // that were hashed tells whether they still fit.
+        long estimatedSize = NodeSizeEstimator.estimateSerializedNodeSize(node);
+        int perRange = childrenPerRange(estimatedSize, node.getChildCount());
+        if (perRange == 0) {
+          return CompoundHash.fromNode(node, new SimpleSizeSplitStrategy(estimatedSize));
+        }
+        childrenPerRange = perRange;
+      }
+
+      final List<Range> newRanges = new ArrayList<>();
+      final List<ChildKey> keys = new ArrayList<>();
+      final List<Node> children = new ArrayList<>();
+      ((ChildrenNode) node).forEachChild(
+          new ChildrenNode.ChildVisitor() {
+            @Override
+            public void visitChild(ChildKey name, Node child) {
+              keys.add(name);
+              children.add(child);
+              // Never end a range on a priority, like the size based split
+              if (!name.isPriorityChildName()
+                  && (endsRange(name) || keys.size() >= MAX_RANGE_FACTOR * childrenPerRange)) {
+                addRange(newRanges, keys, children);
+              }
+            }
+          },
+          /*includePriority=*/ true);
+      if (!keys.isEmpty()) {
+        addRange(newRanges, keys, children);
+      }
+
+      List<Path> posts = new ArrayList<>(newRanges.size());
+      List<String> hashes = new ArrayList<>(newRanges.size() + 1);
+      Map<ChildKey, Range> rangesByFirstKey = new HashMap<>();
+      long totalSize = 0;
+      for (Range range : newRanges) {
+        posts.add(range.lastLeafPath);
+        hashes.add(range.hash);
+        rangesByFirstKey.put(range.keys[0], range);
+        totalSize += range.size;
+      }
+      hashes.add("");
+      ranges = rangesByFirstKey;
+
+      // Choose the ranges again next time if the data grew or shrank too much for them
+      int childCount = node.getChildCount();
+      long currentSizePerChild = Math.max(1, totalSize / childCount);
+      if (sizePerChild == 0) {
+        sizePerChild = currentSizePerChild;
+      }
+      if (childrenPerRange(totalSize, childCount) == 0
+          || currentSizePerChild > 2 * sizePerChild
+          || 2 * currentSizePerChild < sizePerChild) {
+        clear();
+      }
+      return new CompoundHash(posts, hashes);
+    }
+
+    /**
+     * Returns the number of children per range for a node of the given size, or 0 if the node
+     * should not be split into ranges of whole children.
+     */
+    private int childrenPerRange(long size, int childCount) {
+      if (size < 2 * targetRangeSize || size / childCount > targetRangeSize) {
+        return 0;
+      }
+      return (int) Math.max(1, Math.min(childCount, targetRangeSize * childCount / size));
+    }
+
+    private boolean endsRange(ChildKey key) {
+      int hash = key.asString().hashCode();
+      hash ^= hash >>> 16;
+      hash *= 0x85ebca6b;
+      hash ^= hash >>> 13;
+      return (hash & Integer.MAX_VALUE) % childrenPerRange == 0;
+    }
+
+    private void addRange(List<Range> newRanges, List<ChildKey> keys, List<Node> children) {
+      Range range = ranges.get(keys.get(0));
+      if (range == null || !range.matches(keys, children)) {
+        range = Range.hash(keys, children);
+      }
+      newRanges.add(range);
+      keys.clear();
+      children.clear();
+    }
+
+    private void clear() {
+      childrenPerRange = 0;
+      sizePerChild = 0;
+      ranges = new HashMap<>();
+    }
+  }
+
+  private static final class Range {
+
+    private final ChildKey[] keys;
+    private final Node[] children;
+    private final Path lastLeafPath;
+    private final String hash;
+    private final long size;
+
+    private Range(ChildKey[] keys, Node[] children, Path lastLeafPath, String hash, long size) {
+      this.keys = keys;
+      this.children = children;
+      this.lastLeafPath = lastLeafPath;
+      this.hash = hash;
+      this.size = size;
+    }
+
+    private static Range hash(List<ChildKey> keys, List<Node> children) {
+      CompoundHashBuilder state = new CompoundHashBuilder(NEVER_SPLIT_STRATEGY);
+      long size;
+      try {
+        for (int i = 0; i < keys.size(); i++) {
+          state.startChild(keys.get(i));
+          processNode(children.get(i), state);
+          state.endChild();
+        }
+        size = state.currentHashLength();
+        state.finishHashing();
+      } finally {
+        state.release();
+      }
+      return new Range(
+          keys.toArray(new ChildKey[keys.size()]),
+          children.toArray(new Node[children.size()]),
+          state.currentPaths.get(0),
+          state.currentHashes.get(0),
+          size);
+    }
+
+    private boolean matches(List<ChildKey> otherKeys, List<Node> otherChildren) {
+      if (keys.length != otherKeys.size()) {
+        return false;
+      }
+      for (int i = 0; i < keys.length; i++) {
+        // Children are compared by identity, unchanged subtrees are shared between versions
+        if (children[i] != otherChildren.get(i) || !keys[i].equals(otherKeys.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
   static class CompoundHashBuilder {
 
     private final List<Path> currentPaths = new ArrayList<>();
@@ -122,7 +326,7 @@ public class CompoundHash {
     private final SplitStrategy splitStrategy;
     // NOTE: We use the existence of this to know if we've started building a range (i.e.
     // encountered a leaf node).
-    private StringBuilder optHashValueBuilder = null;
+    private HashBuilder optHashValueBuilder = null;
     // The current path as a stack. This is used in combination with currentPathDepth to
     // simultaneously store the last leaf node path. The depth is changed when descending and
     // ascending, at the same time the current key is set for the current depth. Because the
@@ -161,8 +365,8 @@ public class CompoundHash {
 
     private void ensureRange() {
       if (!buildingRange()) {
-        optHashValueBuilder = new StringBuilder();
-        optHashValueBuilder.append("(");
+        optHashValueBuilder = HashBuilder.newBuilder();
+        optHashValueBuilder.append('(');
         for (ChildKey key : currentPath(currentPathDepth)) {
           appendKey(optHashValueBuilder, key);
           optHashValueBuilder.append(":(");
@@ -171,7 +375,7 @@ public class CompoundHash {
       }
     }
 
-    private void appendKey(StringBuilder builder, ChildKey key) {
+    private void appendKey(HashBuilder builder, ChildKey key) {
       builder.append(Utilities.stringHashV2Representation(key.asString()));
     }
 
@@ -179,7 +383,7 @@ public class CompoundHash {
       ensureRange();
 
       lastLeafDepth = currentPathDepth;
-      optHashValueBuilder.append(node.getHashRepresentation(Node.HashVersion.V2));
+      node.appendHashRepresentation(Node.HashVersion.V2, optHashValueBuilder);
       needsComma = true;
       if (splitStrategy.shouldSplit(this)) {
         endRange();
@@ -190,7 +394,7 @@ public class CompoundHash {
       ensureRange();
 
       if (needsComma) {
-        optHashValueBuilder.append(",");
+        optHashValueBuilder.append(',');
       }
       appendKey(optHashValueBuilder, key);
       optHashValueBuilder.append(":(");
@@ -207,7 +411,7 @@ public class CompoundHash {
     private void endChild() {
       currentPathDepth--;
       if (buildingRange()) {
-        optHashValueBuilder.append(")");
+        optHashValueBuilder.append(')');
       }
       needsComma = true;
     }
@@ -225,16 +429,24 @@ public class CompoundHash {
       hardAssert(buildingRange(), "Can't end range without starting a range!");
       // Add closing parenthesis for current depth
       for (int i = 0; i < currentPathDepth; i++) {
-        optHashValueBuilder.append(")");
+        optHashValueBuilder.append(')');
       }
-      optHashValueBuilder.append(")");
+      optHashValueBuilder.append(')');
 
       Path lastLeafPath = currentPath(lastLeafDepth);
-      String hash = Utilities.sha1HexDigest(optHashValueBuilder.toString());
+      String hash = optHashValueBuilder.build();
       currentHashes.add(hash);
       currentPaths.add(lastLeafPath);
 
       optHashValueBuilder = null;
     }
+
+    /** Releases the hash builder of a range that was abandoned because of an exception. */
+    void release() {
+      if (optHashValueBuilder != null) {
+        optHashValueBuilder.release();
+        optHashValueBuilder = null;
+      }
+    }
   }
 }
@@ -21,9 +21,10 @@ import java.util.Map;
 public class DeferredValueNode extends LeafNode<DeferredValueNode> {
 
   private Map<Object, Object> value;
+  private final Node priority;
 
   public DeferredValueNode(Map<Object, Object> value, Node priority) {
-    super(priority);
+    this.priority = priority;
     this.value = value;
   }
 
@@ -32,6 +33,11 @@ public class DeferredValueNode extends LeafNode<DeferredValueNode> {
     return value;
   }
 
+  @Override
+  public Node getPriority() {
+    return priority;
+  }
+
   @Override
   public String getHashRepresentation(HashVersion version) {
     return getPriorityHash(version) + "deferredValue:" + value;
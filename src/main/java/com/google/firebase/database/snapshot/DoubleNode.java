@@ -18,21 +18,38 @@ package com.google.firebase.database.snapshot;
 
 import com.google.firebase.database.utilities.Utilities;
 
-/** User: greg Date: 5/17/13 Time: 2:51 PM */
+/**
+ * A leaf node holding a double. Instances without a priority don't store one; use
+ * {@link #valueOf(double, Node)} to get an instance of the right kind.
+ *
+ * <p>User: greg Date: 5/17/13 Time: 2:51 PM
+ */
 public class DoubleNode extends LeafNode<DoubleNode> {
 
-  private final Double value;
+  private final double value;
 
-  public DoubleNode(Double value, Node priority) {
-    super(priority);
+  private DoubleNode(double value) {
     this.value = value;
   }
 
+  public static DoubleNode valueOf(double value, Node priority) {
+    return priority.isEmpty() ? new DoubleNode(value) : new PrioritizedDoubleNode(value, priority);
+  }
+
+  double doubleValue() {
+    return value;
+  }
+
   @Override
   public Object getValue() {
     return value;
   }
 
+  @Override
+  public Node getPriority() {
+    return PriorityUtilities.NullPriority();
+  }
+
   @Override
   public String getHashRepresentation(HashVersion version) {
     String toHash = getPriorityHash(version);
@@ -44,7 +61,7 @@ public class DoubleNode extends LeafNode<DoubleNode> {
   @Override
   public DoubleNode updatePriority(Node priority) {
     assert PriorityUtilities.isValidPriority(priority);
-    return new DoubleNode(value, priority);
+    return valueOf(value, priority);
   }
 
   @Override
@@ -55,7 +72,7 @@ public class DoubleNode extends LeafNode<DoubleNode> {
   @Override
   protected int compareLeafValues(DoubleNode other) {
     // TODO: unify number nodes
-    return this.value.compareTo(other.value);
+    return Double.compare(this.value, other.value);
   }
 
   @Override
@@ -64,11 +81,29 @@ public class DoubleNode extends LeafNode<DoubleNode> {
       return false;
     }
     DoubleNode otherDoubleNode = (DoubleNode) other;
-    return value.equals(otherDoubleNode.value) && priority.equals(otherDoubleNode.priority);
+    // Same as comparing boxed values with Double.equals()
+    return Double.doubleToLongBits(value) == Double.doubleToLongBits(otherDoubleNode.value)
+        && getPriority().equals(otherDoubleNode.getPriority());
   }
 
   @Override
   public int hashCode() {
-    return this.value.hashCode() + this.priority.hashCode();
+    long bits = Double.doubleToLongBits(value);
+    return (int) (bits ^ (bits >>> 32)) + getPriority().hashCode();
+  }
+
+  private static final class PrioritizedDoubleNode extends DoubleNode {
+
+    private final Node priority;
+
+    PrioritizedDoubleNode(double value, Node priority) {
+      super(value);
+      this.priority = priority;
+    }
+
+    @Override
+    public Node getPriority() {
+      return priority;
+    }
   }
 }
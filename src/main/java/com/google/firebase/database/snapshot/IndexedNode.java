@@ -134,6 +134,59 @@ public class IndexedNode implements Iterable<NamedNode> {
     }
   }
 
+  /**
+   * Returns an IndexedNode for the given node with the same index as this one. If this node has
+   * already been indexed, the children that differ between the two nodes are removed from and
+   * inserted into the existing index rather than sorting all children again. Children are compared
+   * by identity, so nodes derived from each other through updates share most of their work.
+   */
+  public IndexedNode updateNode(Node newNode) {
+    if (newNode == this.node) {
+      return this;
+    }
+    if (this.indexed == null
+        || this.indexed == FALLBACK_INDEX
+        || !(this.node instanceof ChildrenNode)
+        || !(newNode instanceof ChildrenNode)) {
+      return new IndexedNode(newNode, this.index);
+    }
+    // Past this many changes, sorting from scratch is cheaper than updating the index.
+    int maxChanges = Math.max(this.node.getChildCount(), newNode.getChildCount()) / 2;
+    int changes = 0;
+    ImmutableSortedSet<NamedNode> newIndexed = this.indexed;
+    Iterator<NamedNode> oldChildren = this.node.iterator();
+    Iterator<NamedNode> newChildren = newNode.iterator();
+    NamedNode oldChild = oldChildren.hasNext() ? oldChildren.next() : null;
+    NamedNode newChild = newChildren.hasNext() ? newChildren.next() : null;
+    while (oldChild != null || newChild != null) {
+      int cmp;
+      if (oldChild == null) {
+        cmp = 1;
+      } else if (newChild == null) {
+        cmp = -1;
+      } else {
+        cmp = oldChild.getName().compareTo(newChild.getName());
+      }
+      if (cmp == 0 && oldChild.getNode() == newChild.getNode()) {
+        oldChild = oldChildren.hasNext() ? oldChildren.next() : null;
+        newChild = newChildren.hasNext() ? newChildren.next() : null;
+        continue;
+      }
+      if (++changes > maxChanges) {
+        return new IndexedNode(newNode, this.index);
+      }
+      if (cmp <= 0) {
+        newIndexed = newIndexed.remove(oldChild);
+        oldChild = oldChildren.hasNext() ? oldChildren.next() : null;
+      }
+      if (cmp >= 0) {
+        newIndexed = newIndexed.insert(newChild);
+        newChild = newChildren.hasNext() ? newChildren.next() : null;
+      }
+    }
+    return new IndexedNode(newNode, this.index, newIndexed);
+  }
+
   public IndexedNode updatePriority(Node priority) {
     return new IndexedNode(node.updatePriority(priority), this.index, this.indexed);
   }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.snapshot;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Read-only {@link Map} and {@link List} views of a {@link ChildrenNode}, holding the same values
+ * that {@link Node#getValue()} would copy out of it. Children are converted only when they are
+ * read, and since nodes are immutable the views can be shared freely between threads. Views of
+ * nested nodes are kept once created, so reading the same child again doesn't convert it again.
+ */
+final class LazyNodeValues {
+
+  private LazyNodeValues() {}
+
+  /** Returns the value of the given node, using views for any node that has children. */
+  static Object of(Node node) {
+    if (node.isEmpty()) {
+      return null;
+    } else if (node.isLeafNode()) {
+      return node.getValue();
+    }
+    ChildrenNode childrenNode = (ChildrenNode) node;
+    int arrayLength = childrenNode.getArrayLength();
+    if (arrayLength >= 0) {
+      return new ListView(new ChildValues(childrenNode.getChildren()), arrayLength);
+    } else {
+      return new MapView(new ChildValues(childrenNode.getChildren()));
+    }
+  }
+
+  /** Converts the children of a node, reusing the views created for children with children. */
+  private static final class ChildValues {
+
+    private final ImmutableSortedMap<ChildKey, Node> children;
+    private final ConcurrentMap<ChildKey, Object> views = new ConcurrentHashMap<>();
+
+    ChildValues(ImmutableSortedMap<ChildKey, Node> children) {
+      this.children = children;
+    }
+
+    Object get(ChildKey key) {
+      Node child = children.get(key);
+      return child != null ? valueOf(key, child) : null;
+    }
+
+    Object valueOf(ChildKey key, Node child) {
+      if (!(child instanceof ChildrenNode)) {
+        return of(child);
+      }
+      Object view = views.get(key);
+      if (view == null) {
+        Object created = of(child);
+        view = views.putIfAbsent(key, created);
+        if (view == null) {
+          view = created;
+        }
+      }
+      return view;
+    }
+  }
+
+  private static final class MapView extends AbstractMap<String, Object> {
+
+    private final ChildValues values;
+    private final ImmutableSortedMap<ChildKey, Node> children;
+
+    MapView(ChildValues values) {
+      this.values = values;
+      this.children = values.children;
+    }
+
+    @Override
+    public int size() {
+      return children.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return children.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key instanceof String && children.containsKey(ChildKey.fromString((String) key));
+    }
+
+    @Override
+    public Object get(Object key) {
+      if (!(key instanceof String)) {
+        return null;
+      }
+      return values.get(ChildKey.fromString((String) key));
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+      return new AbstractSet<Map.Entry<String, Object>>() {
+        @Override
+        public int size() {
+          return children.size();
+        }
+
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+          final Iterator<Map.Entry<ChildKey, Node>> iterator = children.iterator();
+          return new Iterator<Map.Entry<String, Object>>() {
+            @Override
+            public boolean hasNext() {
+              return iterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, Object> next() {
+              Map.Entry<ChildKey, Node> entry = iterator.next();
+              return new AbstractMap.SimpleImmutableEntry<>(
+                  entry.getKey().asString(), values.valueOf(entry.getKey(), entry.getValue()));
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException("remove");
+            }
+          };
+        }
+      };
+    }
+  }
+
+  private static final class ListView extends AbstractList<Object> implements RandomAccess {
+
+    private final ChildValues values;
+    private final int size;
+
+    ListView(ChildValues values, int size) {
+      this.values = values;
+      this.size = size;
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Object get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      return values.get(ChildKey.fromString(Integer.toString(index)));
+    }
+  }
+}
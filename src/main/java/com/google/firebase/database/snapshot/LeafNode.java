@@ -17,26 +17,27 @@
 package com.google.firebase.database.snapshot;
 
 import com.google.firebase.database.core.Path;
-import com.google.firebase.database.utilities.Utilities;
+import com.google.firebase.database.utilities.HashBuilder;
 
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
-/** User: greg Date: 5/16/13 Time: 4:42 PM */
+/**
+ * Base class of all leaf nodes. Leaf nodes don't hold any state themselves, so that subclasses can
+ * store their value unboxed, and only store a priority if they have one. Subclasses provide
+ * {@link #getPriority()}.
+ *
+ * <p>User: greg Date: 5/16/13 Time: 4:42 PM
+ */
 public abstract class LeafNode<T extends LeafNode> implements Node {
 
-  protected final Node priority;
-  private String lazyHash;
-
-  LeafNode(Node priority) {
-    this.priority = priority;
+  LeafNode() {
   }
 
   private static int compareLongDoubleNodes(LongNode longNode, DoubleNode doubleNode) {
-    Double longDoubleValue = Double.valueOf((Long) longNode.getValue());
-    return (longDoubleValue).compareTo((Double) doubleNode.getValue());
+    return Double.compare((double) longNode.longValue(), doubleNode.doubleValue());
   }
 
   @Override
@@ -49,17 +50,12 @@ public abstract class LeafNode<T extends LeafNode> implements Node {
     return true;
   }
 
-  @Override
-  public Node getPriority() {
-    return priority;
-  }
-
   @Override
   public Node getChild(Path path) {
     if (path.isEmpty()) {
       return this;
     } else if (path.getFront().isPriorityChildName()) {
-      return this.priority;
+      return getPriority();
     } else {
       return EmptyNode.Empty();
     }
@@ -101,7 +97,7 @@ public abstract class LeafNode<T extends LeafNode> implements Node {
   @Override
   public Node getImmediateChild(ChildKey name) {
     if (name.isPriorityChildName()) {
-      return this.priority;
+      return getPriority();
     } else {
       return EmptyNode.Empty();
     }
@@ -109,6 +105,7 @@ public abstract class LeafNode<T extends LeafNode> implements Node {
 
   @Override
   public Object getValue(boolean useExportFormat) {
+    Node priority = getPriority();
     if (!useExportFormat || priority.isEmpty()) {
       return getValue();
     } else {
@@ -126,22 +123,51 @@ public abstract class LeafNode<T extends LeafNode> implements Node {
     } else if (node.isEmpty()) {
       return this;
     } else {
-      return EmptyNode.Empty().updateImmediateChild(name, node).updatePriority(this.priority);
+      return EmptyNode.Empty().updateImmediateChild(name, node).updatePriority(getPriority());
     }
   }
 
+  /**
+   * Computes the hash of this node. The hash isn't cached, since most leaves are small enough to
+   * hash quickly, and a cached hash would grow every leaf by another field. Subclasses with large
+   * values should cache it themselves.
+   */
   @Override
   public String getHash() {
-    if (this.lazyHash == null) {
-      this.lazyHash = Utilities.sha1HexDigest(getHashRepresentation(HashVersion.V1));
+    HashBuilder builder = HashBuilder.newBuilder();
+    try {
+      appendHashRepresentation(HashVersion.V1, builder);
+      return builder.build();
+    } finally {
+      builder.release();
+    }
+  }
+
+  /**
+   * Appends the same characters as {@link #getHashRepresentation(HashVersion)} to a builder.
+   * Subclasses whose representation can be large override this to avoid building it as a string.
+   */
+  void appendHashRepresentation(HashVersion version, HashBuilder builder) {
+    builder.append(getHashRepresentation(version));
+  }
+
+  void appendPriorityHash(HashVersion version, HashBuilder builder) {
+    if (version != HashVersion.V1 && version != HashVersion.V2) {
+      throw new IllegalArgumentException("Unknown hash version: " + version);
+    }
+    Node priority = getPriority();
+    if (!priority.isEmpty()) {
+      builder.append("priority:");
+      builder.append(priority.getHashRepresentation(version));
+      builder.append(':');
     }
-    return this.lazyHash;
   }
 
   protected String getPriorityHash(HashVersion version) {
     switch (version) {
       case V1:
       case V2:
+        Node priority = getPriority();
         if (priority.isEmpty()) {
           return "";
         } else {
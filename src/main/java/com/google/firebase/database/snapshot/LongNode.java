@@ -18,21 +18,38 @@ package com.google.firebase.database.snapshot;
 
 import com.google.firebase.database.utilities.Utilities;
 
-/** User: greg Date: 5/17/13 Time: 2:47 PM */
+/**
+ * A leaf node holding a long. Instances without a priority don't store one; use
+ * {@link #valueOf(long, Node)} to get an instance of the right kind.
+ *
+ * <p>User: greg Date: 5/17/13 Time: 2:47 PM
+ */
 public class LongNode extends LeafNode<LongNode> {
 
   private final long value;
 
-  public LongNode(Long value, Node priority) {
-    super(priority);
+  private LongNode(long value) {
     this.value = value;
   }
 
+  public static LongNode valueOf(long value, Node priority) {
+    return priority.isEmpty() ? new LongNode(value) : new PrioritizedLongNode(value, priority);
+  }
+
+  long longValue() {
+    return value;
+  }
+
   @Override
   public Object getValue() {
     return value;
   }
 
+  @Override
+  public Node getPriority() {
+    return PriorityUtilities.NullPriority();
+  }
+
   @Override
   public String getHashRepresentation(HashVersion version) {
     String toHash = getPriorityHash(version);
@@ -43,7 +60,7 @@ public class LongNode extends LeafNode<LongNode> {
 
   @Override
   public LongNode updatePriority(Node priority) {
-    return new LongNode(value, priority);
+    return valueOf(value, priority);
   }
 
   @Override
@@ -63,11 +80,26 @@ public class LongNode extends LeafNode<LongNode> {
       return false;
     }
     LongNode otherLongNode = (LongNode) other;
-    return value == otherLongNode.value && priority.equals(otherLongNode.priority);
+    return value == otherLongNode.value && getPriority().equals(otherLongNode.getPriority());
   }
 
   @Override
   public int hashCode() {
-    return (int) (value ^ (value >>> 32)) + priority.hashCode();
+    return (int) (value ^ (value >>> 32)) + getPriority().hashCode();
+  }
+
+  private static final class PrioritizedLongNode extends LongNode {
+
+    private final Node priority;
+
+    PrioritizedLongNode(long value, Node priority) {
+      super(value);
+      this.priority = priority;
+    }
+
+    @Override
+    public Node getPriority() {
+      return priority;
+    }
   }
 }
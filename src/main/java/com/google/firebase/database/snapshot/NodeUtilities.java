@@ -32,6 +32,10 @@ public class NodeUtilities {
 
   // CSOFF: MethodName
   public static Node NodeFromJSON(Object value) throws DatabaseException {
+    if (value instanceof Node) {
+      // Already decoded, e.g. by NodeValueFactory
+      return (Node) value;
+    }
     return NodeFromJSON(value, PriorityUtilities.NullPriority());
   }
 
@@ -53,13 +57,13 @@ public class NodeUtilities {
       } else if (value instanceof String) {
         return new StringNode((String) value, priority);
       } else if (value instanceof Long) {
-        return new LongNode((Long) value, priority);
+        return LongNode.valueOf((Long) value, priority);
       } else if (value instanceof Integer) {
-        return new LongNode((long) (Integer) value, priority);
+        return LongNode.valueOf((long) (Integer) value, priority);
       } else if (value instanceof Double) {
-        return new DoubleNode((Double) value, priority);
+        return DoubleNode.valueOf((Double) value, priority);
       } else if (value instanceof Boolean) {
-        return new BooleanNode((Boolean) value, priority);
+        return BooleanNode.valueOf((Boolean) value, priority);
       } else if (value instanceof BigDecimal) {
         return new BigDecimalNode(((BigDecimal) value), priority);
       } else if (value instanceof BigInteger) {
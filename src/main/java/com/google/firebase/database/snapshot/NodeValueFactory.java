@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.snapshot;
+
+import com.google.firebase.database.collection.ImmutableSortedMap;
+import com.google.firebase.database.core.ServerValues;
+import com.google.firebase.database.util.JsonStreamParser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds Nodes directly from a {@link JsonStreamParser}, without materializing the intermediate
+ * Maps and Lists that {@link NodeUtilities#NodeFromJSON(Object)} consumes. The resulting Nodes are
+ * equal to the ones NodeFromJSON would create for the same JSON, except that long strings are kept
+ * in their raw form until they are read.
+ */
+public class NodeValueFactory implements JsonStreamParser.RawStringFactory {
+
+  private static final NodeValueFactory INSTANCE = new NodeValueFactory();
+
+  // Strings of at least this many characters in JSON are only decoded when they are read
+  private static final int RAW_STRING_THRESHOLD = 1024;
+
+  private NodeValueFactory() {
+    // prevent instantiation
+  }
+
+  public static NodeValueFactory getInstance() {
+    return INSTANCE;
+  }
+
+  @Override
+  public JsonStreamParser.ObjectBuilder newObject() {
+    return new ObjectBuilder();
+  }
+
+  @Override
+  public JsonStreamParser.ArrayBuilder newArray() {
+    return new ArrayBuilder();
+  }
+
+  @Override
+  public Object newPrimitive(Object value) {
+    return NodeUtilities.NodeFromJSON(value);
+  }
+
+  @Override
+  public int getRawStringThreshold() {
+    return RAW_STRING_THRESHOLD;
+  }
+
+  @Override
+  public Object newRawString(byte[] utf8, boolean hasEscapes) {
+    return StringNode.fromRawJson(utf8, hasEscapes, PriorityUtilities.NullPriority());
+  }
+
+  private static Node fromChildren(Map<ChildKey, Node> children, Node priority) {
+    if (children.isEmpty()) {
+      return EmptyNode.Empty();
+    }
+    ImmutableSortedMap<ChildKey, Node> childSet =
+        ImmutableSortedMap.Builder.fromMap(children, ChildrenNode.NAME_ONLY_COMPARATOR);
+    return new ChildrenNode(childSet, priority);
+  }
+
+  private static class ObjectBuilder implements JsonStreamParser.ObjectBuilder {
+
+    private final Map<ChildKey, Node> children = new HashMap<>();
+    private Node priority;
+    private Node value;
+    private boolean hasServerValue;
+
+    @Override
+    public void put(String key, Object node) {
+      Node child = (Node) node;
+      if (key.startsWith(".")) {
+        if (key.equals(".priority")) {
+          priority = child;
+        } else if (key.equals(".value")) {
+          value = child;
+        } else if (key.equals(ServerValues.NAME_SUBKEY_SERVERVALUE)) {
+          hasServerValue = true;
+          children.put(ChildKey.fromString(key), child);
+        }
+      } else if (!child.isEmpty()) {
+        children.put(ChildKey.fromString(key), child);
+      }
+    }
+
+    @Override
+    public Object build() {
+      if (hasServerValue) {
+        // Server values are rare enough to take the Map based path.
+        Map<String, Object> raw = new HashMap<>();
+        for (Map.Entry<ChildKey, Node> entry : children.entrySet()) {
+          raw.put(entry.getKey().asString(), entry.getValue().getValue(true));
+        }
+        if (priority != null) {
+          raw.put(".priority", priority.getValue());
+        }
+        return NodeUtilities.NodeFromJSON(raw);
+      }
+
+      Node parsedPriority = priority != null
+          ? PriorityUtilities.parsePriority(priority.getValue())
+          : PriorityUtilities.NullPriority();
+      if (value != null) {
+        return value.isEmpty() ? value : value.updatePriority(parsedPriority);
+      }
+      return fromChildren(children, parsedPriority);
+    }
+  }
+
+  private static class ArrayBuilder implements JsonStreamParser.ArrayBuilder {
+
+    private final Map<ChildKey, Node> children = new HashMap<>();
+    private int index;
+
+    @Override
+    public void add(Object node) {
+      Node child = (Node) node;
+      if (!child.isEmpty()) {
+        children.put(ChildKey.fromString("" + index), child);
+      }
+      index++;
+    }
+
+    @Override
+    public Object build() {
+      return fromChildren(children, PriorityUtilities.NullPriority());
+    }
+  }
+}
@@ -37,9 +37,8 @@ public class PriorityUtilities {
   public static Node parsePriority(Object value) {
     Node priority = NodeUtilities.NodeFromJSON(value);
     if (priority instanceof LongNode) {
-      priority =
-          new DoubleNode(
-              Double.valueOf((Long) priority.getValue()), PriorityUtilities.NullPriority());
+      priority = DoubleNode.valueOf(
+          (double) ((LongNode) priority).longValue(), PriorityUtilities.NullPriority());
     }
     if (!isValidPriority(priority)) {
       throw new DatabaseException(
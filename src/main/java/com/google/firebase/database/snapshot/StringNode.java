@@ -16,37 +16,225 @@
 
 package com.google.firebase.database.snapshot;
 
+import com.google.firebase.database.utilities.HashBuilder;
 import com.google.firebase.database.utilities.Utilities;
 
-/** User: greg Date: 5/17/13 Time: 2:40 PM */
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A leaf node holding a string. Long strings received from the server are kept in their raw JSON
+ * form, and are only decoded when the value is read. Their hash and size estimate are computed from
+ * the raw form.
+ *
+ * <p>User: greg Date: 5/17/13 Time: 2:40 PM
+ */
 public class StringNode extends LeafNode<StringNode> {
 
-  private final String value;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  // The value is null while the node holds the raw form. Once it is decoded, the raw form is
+  // cleared after the value is set, so a reader that sees no raw form always sees the value.
+  private volatile String value;
+  // The UTF-8 encoded JSON form of the value, without quotes and with escape sequences as is
+  private volatile byte[] rawJson;
+  private final boolean rawHasEscapes;
+  private final Node priority;
+  private String lazyHash;
 
   public StringNode(String value, Node priority) {
-    super(priority);
+    this(value, null, false, priority);
+  }
+
+  private StringNode(String value, byte[] rawJson, boolean rawHasEscapes, Node priority) {
+    this.priority = priority;
     this.value = value;
+    this.rawJson = rawJson;
+    this.rawHasEscapes = rawHasEscapes;
+  }
+
+  /**
+   * Creates a node from the raw JSON form of a string, as passed to {@link
+   * com.google.firebase.database.util.JsonStreamParser.RawStringFactory#newRawString}.
+   */
+  static StringNode fromRawJson(byte[] utf8, boolean hasEscapes, Node priority) {
+    return new StringNode(null, utf8, hasEscapes, priority);
+  }
+
+  private String value() {
+    byte[] raw = rawJson;
+    if (raw == null) {
+      return value;
+    }
+    String decoded = decode(raw, rawHasEscapes);
+    value = decoded;
+    rawJson = null;
+    return decoded;
   }
 
   @Override
   public Object getValue() {
-    return value;
+    return value();
+  }
+
+  @Override
+  public Node getPriority() {
+    return priority;
+  }
+
+  /**
+   * Returns the length of the value in JSON, or an estimate of it, without decoding a value that
+   * is still in its raw form.
+   */
+  public int estimateLength() {
+    byte[] raw = rawJson;
+    return raw != null ? raw.length : value.length();
+  }
+
+  @Override
+  public String getHash() {
+    // Strings can be large, so unlike most leaves their hash is cached.
+    if (this.lazyHash == null) {
+      this.lazyHash = super.getHash();
+    }
+    return this.lazyHash;
   }
 
   @Override
   public String getHashRepresentation(HashVersion version) {
     switch (version) {
       case V1:
-        return getPriorityHash(version) + "string:" + value;
+        return getPriorityHash(version) + "string:" + value();
+      case V2:
+        return getPriorityHash(version) + "string:" + Utilities.stringHashV2Representation(value());
+      default:
+        throw new IllegalArgumentException("Invalid hash version for string node: " + version);
+    }
+  }
+
+  @Override
+  void appendHashRepresentation(HashVersion version, HashBuilder builder) {
+    byte[] raw = rawJson;
+    switch (version) {
+      case V1:
+        appendPriorityHash(version, builder);
+        builder.append("string:");
+        if (raw != null) {
+          appendRaw(raw, /*escapeForV2=*/ false, builder);
+        } else {
+          builder.append(value);
+        }
+        break;
       case V2:
-        return getPriorityHash(version) + "string:" + Utilities.stringHashV2Representation(value);
+        appendPriorityHash(version, builder);
+        builder.append("string:");
+        builder.append('"');
+        if (raw != null) {
+          appendRaw(raw, /*escapeForV2=*/ true, builder);
+        } else {
+          // Same as Utilities.stringHashV2Representation, without copying the value.
+          for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+              builder.append('\\');
+            }
+            builder.append(c);
+          }
+        }
+        builder.append('"');
+        break;
       default:
         throw new IllegalArgumentException("Invalid hash version for string node: " + version);
     }
   }
 
+  /**
+   * Appends the decoded value to a builder, copying the raw form as is between escape sequences.
+   * The V2 representation escapes backslashes and quotes the same way JSON does, so those escape
+   * sequences are copied as well.
+   */
+  private static void appendRaw(byte[] raw, boolean escapeForV2, HashBuilder builder) {
+    int runStart = 0;
+    int i = 0;
+    while (i < raw.length) {
+      // A backslash can't be part of a multi-byte UTF-8 sequence
+      if (raw[i] != '\\') {
+        i++;
+        continue;
+      }
+      char c = unescape(raw, i);
+      int escapeLength = escapeLength(raw, i);
+      if (escapeForV2 && escapeLength == 2 && (c == '\\' || c == '"')) {
+        i += escapeLength;
+        continue;
+      }
+      builder.appendUtf8(raw, runStart, i - runStart);
+      if (escapeForV2 && (c == '\\' || c == '"')) {
+        builder.append('\\');
+      }
+      builder.append(c);
+      i += escapeLength;
+      runStart = i;
+    }
+    builder.appendUtf8(raw, runStart, raw.length - runStart);
+  }
+
+  private static String decode(byte[] raw, boolean hasEscapes) {
+    if (!hasEscapes) {
+      return new String(raw, UTF8);
+    }
+    StringBuilder builder = new StringBuilder(raw.length);
+    int runStart = 0;
+    int i = 0;
+    while (i < raw.length) {
+      if (raw[i] != '\\') {
+        i++;
+        continue;
+      }
+      builder.append(new String(raw, runStart, i - runStart, UTF8));
+      builder.append(unescape(raw, i));
+      i += escapeLength(raw, i);
+      runStart = i;
+    }
+    builder.append(new String(raw, runStart, raw.length - runStart, UTF8));
+    return builder.toString();
+  }
+
+  private static int escapeLength(byte[] raw, int index) {
+    return raw[index + 1] == 'u' ? 6 : 2;
+  }
+
+  /** Decodes the escape sequence at the given index, which the parser already validated. */
+  private static char unescape(byte[] raw, int index) {
+    char c = (char) raw[index + 1];
+    switch (c) {
+      case 'b':
+        return '\b';
+      case 't':
+        return '\t';
+      case 'n':
+        return '\n';
+      case 'f':
+        return '\f';
+      case 'r':
+        return '\r';
+      case 'u':
+        int codePoint = 0;
+        for (int i = index + 2; i < index + 6; i++) {
+          codePoint = (codePoint << 4) | Character.digit((char) raw[i], 16);
+        }
+        return (char) codePoint;
+      default:
+        return c;
+    }
+  }
+
   @Override
   public StringNode updatePriority(Node priority) {
+    byte[] raw = rawJson;
+    if (raw != null) {
+      return new StringNode(null, raw, rawHasEscapes, priority);
+    }
     return new StringNode(value, priority);
   }
 
@@ -57,7 +245,7 @@ public class StringNode extends LeafNode<StringNode> {
 
   @Override
   protected int compareLeafValues(StringNode other) {
-    return this.value.compareTo(other.value);
+    return this.value().compareTo(other.value());
   }
 
   @Override
@@ -66,11 +254,25 @@ public class StringNode extends LeafNode<StringNode> {
       return false;
     }
     StringNode otherStringNode = (StringNode) other;
-    return value.equals(otherStringNode.value) && priority.equals(otherStringNode.priority);
+    if (!priority.equals(otherStringNode.priority)) {
+      return false;
+    }
+    // Compare raw forms without decoding them where possible. Without escape sequences, the
+    // UTF-8 encoding of a value is unique.
+    byte[] raw = rawJson;
+    byte[] otherRaw = otherStringNode.rawJson;
+    if (raw != null && otherRaw != null) {
+      if (Arrays.equals(raw, otherRaw)) {
+        return true;
+      } else if (!rawHasEscapes && !otherStringNode.rawHasEscapes) {
+        return false;
+      }
+    }
+    return value().equals(otherStringNode.value());
   }
 
   @Override
   public int hashCode() {
-    return this.value.hashCode() + this.priority.hashCode();
+    return this.value().hashCode() + this.priority.hashCode();
   }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.tubesock;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of ByteBuffers for outgoing websocket frames. Every buffer reserves room for the
+ * frame header in front of its payload, so that the frame can be assembled and masked in place
+ * when it is sent with {@link WebSocket#send(ByteBuffer, FrameBufferPool)}.
+ *
+ * <p>The buffers are heap buffers. Frames end up in an OutputStream or go through an SSLEngine
+ * before they reach the socket, so direct buffers would be copied anyway, and buffers allocated
+ * past the size of the pool are simply collected.
+ */
+public class FrameBufferPool {
+
+  /** The largest possible header of a masked frame. */
+  static final int HEADER_RESERVE = 14;
+
+  private final int payloadCapacity;
+  private final BlockingQueue<ByteBuffer> buffers;
+
+  public FrameBufferPool(int payloadCapacity, int maxPooledBuffers) {
+    this.payloadCapacity = payloadCapacity;
+    this.buffers = new ArrayBlockingQueue<>(maxPooledBuffers);
+  }
+
+  public int getPayloadCapacity() {
+    return payloadCapacity;
+  }
+
+  /**
+   * Returns an empty buffer, positioned at the start of its payload. Payload can be written up to
+   * the buffer's limit.
+   */
+  public ByteBuffer acquire() {
+    ByteBuffer buffer = buffers.poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(HEADER_RESERVE + payloadCapacity);
+    }
+    buffer.clear();
+    buffer.position(HEADER_RESERVE);
+    return buffer;
+  }
+
+  /** Hands a buffer back to the pool. Buffers that don't fit in the pool are left to the GC. */
+  public void release(ByteBuffer buffer) {
+    if (buffer.hasArray() && buffer.capacity() == HEADER_RESERVE + payloadCapacity) {
+      buffers.offer(buffer);
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.tubesock;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Frames outgoing websocket messages. Used by both the blocking {@link WebSocketWriter} and the
+ * non-blocking {@link NioWebSocket}. Once permessage-deflate has been negotiated, the payloads of
+ * large data messages are compressed. Messages must be framed in the order they are sent.
+ */
+class FrameEncoder {
+
+  private final Random random = new Random();
+  private PerMessageDeflate deflate;
+
+  /** Sets the permessage-deflate extension negotiated for the connection, if any. */
+  void setDeflate(PerMessageDeflate deflate) {
+    this.deflate = deflate;
+  }
+
+  private boolean shouldCompress(byte opcode, int length) {
+    return (opcode == WebSocket.OPCODE_TEXT || opcode == WebSocket.OPCODE_BINARY)
+        && PerMessageDeflate.shouldCompress(deflate, length);
+  }
+
+  private static int headerLength(boolean masking, int length) {
+    int headerLength = 2;
+    if (masking) {
+      headerLength += 4;
+    }
+    if (length < 126) {
+      // nothing add to header length
+    } else if (length <= 65535) {
+      headerLength += 2;
+    } else {
+      headerLength += 8;
+    }
+    return headerLength;
+  }
+
+  /** Writes the frame header and returns the mask, or null if the frame isn't masked. */
+  private byte[] putHeader(
+      ByteBuffer frame, byte opcode, boolean compressed, boolean masking, int length) {
+    byte fin = (byte) 0x80;
+    byte startByte = (byte) (fin | opcode);
+    if (compressed) {
+      // RSV1
+      startByte |= 0x40;
+    }
+    frame.put(startByte);
+
+    int lengthField;
+
+    if (length < 126) {
+      if (masking) {
+        length = 0x80 | length;
+      }
+      frame.put((byte) length);
+    } else if (length <= 65535) {
+      lengthField = 126;
+      if (masking) {
+        lengthField = 0x80 | lengthField;
+      }
+      frame.put((byte) lengthField);
+      // We check the size above, so we know we aren't losing anything with the cast
+      frame.putShort((short) length);
+    } else {
+      lengthField = 127;
+      if (masking) {
+        lengthField = 0x80 | lengthField;
+      }
+      frame.put((byte) lengthField);
+      // Since an integer occupies just 4 bytes we fill the 4 leading length bytes with zero
+      frame.putInt(0);
+      frame.putInt(length);
+    }
+
+    if (!masking) {
+      return null;
+    }
+    byte[] mask = generateMask();
+    frame.put(mask);
+    return mask;
+  }
+
+  ByteBuffer frameInBuffer(byte opcode, boolean masking, byte[] data) {
+    boolean compressed = shouldCompress(opcode, data.length);
+    if (compressed) {
+      data = deflate.compress(data);
+    }
+    ByteBuffer frame = ByteBuffer.allocate(data.length + headerLength(masking, data.length));
+    byte[] mask = putHeader(frame, opcode, compressed, masking, data.length);
+    if (mask != null) {
+      for (int i = 0; i < data.length; i++) {
+        frame.put((byte) (data[i] ^ mask[i % 4]));
+      }
+    } else {
+      frame.put(data);
+    }
+
+    frame.flip();
+    return frame;
+  }
+
+  /**
+   * Frames the payload of a pooled buffer in place. The header is written into the space the pool
+   * reserves in front of the payload, and the payload is masked without copying it. If the payload
+   * gets compressed, it is framed in a new buffer instead, and the pooled buffer can be released
+   * right away.
+   */
+  ByteBuffer frameInPlace(byte opcode, boolean masking, ByteBuffer buffer) {
+    int end = buffer.position();
+    int length = end - FrameBufferPool.HEADER_RESERVE;
+    if (shouldCompress(opcode, length)) {
+      byte[] payload = new byte[length];
+      buffer.position(FrameBufferPool.HEADER_RESERVE);
+      buffer.get(payload);
+      return frameInBuffer(opcode, masking, payload);
+    }
+    int start = FrameBufferPool.HEADER_RESERVE - headerLength(masking, length);
+    buffer.limit(end);
+    buffer.position(start);
+    byte[] mask = putHeader(buffer, opcode, false, masking, length);
+    if (mask != null) {
+      int intMask = ByteBuffer.wrap(mask).getInt();
+      int i = FrameBufferPool.HEADER_RESERVE;
+      for (; i + 4 <= end; i += 4) {
+        buffer.putInt(i, buffer.getInt(i) ^ intMask);
+      }
+      for (; i < end; i++) {
+        buffer.put(i, (byte) (buffer.get(i) ^ mask[(i - FrameBufferPool.HEADER_RESERVE) % 4]));
+      }
+    }
+    buffer.position(start);
+    return buffer;
+  }
+
+  private byte[] generateMask() {
+    final byte[] mask = new byte[4];
+    random.nextBytes(mask);
+    return mask;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.tubesock;
+
+import java.util.Arrays;
+
+/**
+ * Assembles the payloads of data frames into messages. Messages can be fragmented across several
+ * frames, in which case the continuation frames carry {@link WebSocket#OPCODE_NONE}. Control frames
+ * are not passed to the assembler. If permessage-deflate was negotiated, compressed messages are
+ * collected whole and then decompressed.
+ */
+class MessageAssembler {
+
+  private MessageBuilderFactory.Builder pendingBuilder;
+  private PerMessageDeflate deflate;
+  // The compressed payload of the pending message, with room for the tail the inflater needs.
+  private byte[] compressedPayload;
+  private int compressedLength;
+
+  /** Sets the permessage-deflate extension negotiated for the connection, if any. */
+  void setDeflate(PerMessageDeflate deflate) {
+    this.deflate = deflate;
+  }
+
+  /**
+   * Appends the payload of a data frame, and returns the message it completes, or null if more
+   * frames are expected. Compressed must be set if the frame had the RSV1 bit set.
+   */
+  WebSocketMessage appendBytes(boolean fin, byte opcode, boolean compressed, byte[] data) {
+    if (pendingBuilder != null && opcode != WebSocket.OPCODE_NONE) {
+      throw new WebSocketException("Failed to continue outstanding frame");
+    } else if (pendingBuilder == null && opcode == WebSocket.OPCODE_NONE) {
+      // Trying to continue something, but there's nothing to continue
+      throw new WebSocketException(
+          "Received continuing frame, but there's nothing to " + "continue");
+    } else if (compressed && (deflate == null || opcode == WebSocket.OPCODE_NONE)) {
+      // Only the first frame of a message can be marked as compressed
+      throw new WebSocketException("Invalid frame received");
+    }
+    if (pendingBuilder == null) {
+      // We aren't continuing another message
+      pendingBuilder = MessageBuilderFactory.builder(opcode);
+      if (compressed) {
+        compressedPayload = new byte[data.length + 4];
+        compressedLength = 0;
+      }
+    }
+    if (compressedPayload != null) {
+      appendCompressed(data);
+      if (!fin) {
+        return null;
+      }
+      data = deflate.decompress(compressedPayload, compressedLength);
+      compressedPayload = null;
+    }
+    if (!pendingBuilder.appendBytes(data)) {
+      throw new WebSocketException("Failed to decode frame");
+    } else if (!fin) {
+      return null;
+    }
+    WebSocketMessage message = pendingBuilder.toMessage();
+    pendingBuilder = null;
+    // The message assembly could still fail
+    if (message == null) {
+      throw new WebSocketException("Failed to decode whole message");
+    }
+    return message;
+  }
+
+  private void appendCompressed(byte[] data) {
+    int required = compressedLength + data.length + 4;
+    if (required > compressedPayload.length) {
+      compressedPayload = Arrays.copyOf(
+          compressedPayload, Math.max(required, compressedPayload.length * 2));
+    }
+    System.arraycopy(data, 0, compressedPayload, compressedLength, data.length);
+    compressedLength += data.length;
+  }
+}
@@ -0,0 +1,728 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.tubesock;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * A websocket connection that is multiplexed onto the threads of a {@link SelectorPool}, instead
+ * of running a reader and a writer thread of its own. It is used the same way as {@link
+ * WebSocket}: create a new instance, set an event handler, and then call connect(). Once the event
+ * handler's onOpen method has been called, call send() to transmit data.
+ *
+ * <p>All socket I/O, TLS processing and frame decoding happens on the connection's selector thread,
+ * and the event handler is called on that thread too. Handlers must therefore return quickly, and
+ * must not block on other connections.
+ */
+public class NioWebSocket {
+
+  private static final int BUFFER_SIZE = 16384;
+  /** The maximum number of queued frames written to the socket at once. */
+  private static final int MAX_GATHERED = 64;
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final URI url;
+  private final SelectorPool pool;
+  private final SelectorLoop loop;
+  private final WebSocketHandshake handshake;
+  private final FrameEncoder encoder = new FrameEncoder();
+  private final MessageAssembler assembler = new MessageAssembler();
+  private final Queue<PendingFrame> pendingFrames = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+  private final CountDownLatch closed = new CountDownLatch(1);
+  private volatile State state = State.NONE;
+  private WebSocketEventHandler eventHandler = null;
+  private PerMessageDeflate deflate = null;
+
+  // Everything below is only accessed on the selector thread, once the host has been resolved.
+  private String host;
+  private int port;
+  private boolean secure;
+  private SocketChannel channel;
+  private SelectionKey key;
+  private SSLEngine sslEngine;
+  // Encrypted bytes received from and pending for the socket. netIn is kept ready for writing
+  // into, netOut for reading from.
+  private ByteBuffer netIn;
+  private ByteBuffer netOut;
+  // Decrypted bytes received from the socket, kept ready for writing into.
+  private ByteBuffer appIn;
+  private int requiredInputCapacity;
+  private boolean upgraded;
+
+  /**
+   * Create a websocket to connect to a given server. Include the given protocol in the handshake,
+   * as well as any extra HTTP headers specified.
+   *
+   * @param url The URL of a websocket server
+   * @param protocol The protocol to include in the handshake. If null, it will be omitted
+   * @param extraHeaders Any extra HTTP headers to be included with the initial request. Pass null
+   *     if not extra headers are requested
+   * @param pool The non-null SelectorPool to run the connection on
+   */
+  public NioWebSocket(URI url, String protocol, Map<String, String> extraHeaders,
+                      SelectorPool pool) {
+    this.url = url;
+    this.pool = checkNotNull(pool);
+    this.loop = pool.nextLoop();
+    this.handshake = new WebSocketHandshake(url, protocol, extraHeaders);
+  }
+
+  /**
+   * Must be called before connect(). Set the handler for all websocket-related events.
+   *
+   * @param eventHandler The handler to be triggered with relevant events
+   */
+  public void setEventHandler(WebSocketEventHandler eventHandler) {
+    this.eventHandler = eventHandler;
+  }
+
+  /**
+   * Start connecting. This is non-blocking, the onOpen handler is triggered once the connection is
+   * established.
+   */
+  public synchronized void connect() {
+    if (state != State.NONE) {
+      eventHandler.onError(new WebSocketException("connect() already called"));
+      close();
+      return;
+    }
+    state = State.CONNECTING;
+    pool.getResolver().execute(new Runnable() {
+      @Override
+      public void run() {
+        resolve();
+      }
+    });
+  }
+
+  /**
+   * Send a TEXT message over the socket
+   *
+   * @param data The text payload to be sent
+   */
+  public synchronized void send(String data) {
+    send(WebSocket.OPCODE_TEXT, data.getBytes(UTF8));
+  }
+
+  /**
+   * Send a TEXT message over the socket, without copying its payload. The buffer must have been
+   * acquired from the given pool, and the UTF-8 encoded payload must span from the start of its
+   * payload area to its position. The buffer is owned by the websocket afterwards, and returned to
+   * the pool once it has been written.
+   *
+   * @param buffer The buffer containing the text payload
+   * @param pool The pool the buffer was acquired from
+   */
+  public synchronized void send(ByteBuffer buffer, FrameBufferPool pool) {
+    if (state != State.CONNECTED) {
+      pool.release(buffer);
+      // We might have been disconnected on another thread, just report an error
+      eventHandler.onError(new WebSocketException("error while sending data: not connected"));
+    } else {
+      ByteBuffer frame = encoder.frameInPlace(WebSocket.OPCODE_TEXT, true, buffer);
+      if (frame != buffer) {
+        // The payload was compressed into a new buffer
+        pool.release(buffer);
+        pool = null;
+      }
+      queueFrame(new PendingFrame(frame, pool));
+    }
+  }
+
+  /**
+   * Send a BINARY message over the socket
+   *
+   * @param data The binary payload to be sent
+   */
+  public synchronized void send(byte[] data) {
+    send(WebSocket.OPCODE_BINARY, data);
+  }
+
+  private synchronized void send(byte opcode, byte[] data) {
+    if (state != State.CONNECTED) {
+      // We might have been disconnected on another thread, just report an error
+      eventHandler.onError(new WebSocketException("error while sending data: not connected"));
+    } else {
+      queueFrame(new PendingFrame(encoder.frameInBuffer(opcode, true, data), null));
+    }
+  }
+
+  /**
+   * Close down the socket. Will trigger the onClose handler if the socket has not been previously
+   * closed.
+   */
+  public synchronized void close() {
+    // CSOFF: MissingSwitchDefaultCheck
+    switch (state) {
+      case NONE:
+        state = State.DISCONNECTED;
+        closed.countDown();
+        return;
+      case CONNECTING:
+        // don't wait for an established connection, just close the tcp socket
+        closeSocket();
+        return;
+      case CONNECTED:
+        // the socket will be closed once the ack for the close was received
+        state = State.DISCONNECTING;
+        queueFrame(new PendingFrame(
+            encoder.frameInBuffer(WebSocket.OPCODE_CLOSE, true, new byte[0]), null));
+        return;
+      case DISCONNECTING:
+        return; // no-op;
+      case DISCONNECTED:
+        return; // No-op
+    }
+    // CSON: MissingSwitchDefaultCheck
+  }
+
+  /**
+   * Blocks until the socket has been closed. The actual close must be triggered separately. Must
+   * not be called from an event handler.
+   */
+  public void blockClose() throws InterruptedException {
+    if (state != State.NONE) {
+      closed.await();
+    }
+  }
+
+  private synchronized void closeSocket() {
+    if (state == State.DISCONNECTED) {
+      return;
+    }
+    state = State.DISCONNECTED;
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        closeChannel();
+      }
+    });
+    eventHandler.onClose();
+  }
+
+  private void closeChannel() {
+    try {
+      if (key != null) {
+        key.cancel();
+      }
+      if (channel != null) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      // The connection is gone either way
+      eventHandler.onLogMessage("Failed to close socket: " + e.getMessage());
+    } finally {
+      PendingFrame frame;
+      while ((frame = pendingFrames.poll()) != null) {
+        frame.release();
+      }
+      synchronized (this) {
+        if (deflate != null) {
+          deflate.release();
+        }
+      }
+      closed.countDown();
+    }
+  }
+
+  private void fail(WebSocketException e) {
+    eventHandler.onError(e);
+    closeSocket();
+  }
+
+  private void queueFrame(PendingFrame frame) {
+    pendingFrames.add(frame);
+    if (flushScheduled.compareAndSet(false, true)) {
+      loop.execute(new Runnable() {
+        @Override
+        public void run() {
+          flushScheduled.set(false);
+          try {
+            flush();
+          } catch (IOException e) {
+            fail(new WebSocketException("IO Exception", e));
+          } catch (WebSocketException e) {
+            fail(e);
+          } catch (RuntimeException e) {
+            fail(new WebSocketException("Unexpected error", e));
+          }
+        }
+      });
+    }
+  }
+
+  /** Resolves the host of the URL on the resolver thread, and then connects to it. */
+  private void resolve() {
+    final InetSocketAddress address;
+    try {
+      String scheme = url.getScheme();
+      host = url.getHost();
+      port = url.getPort();
+      if ("ws".equals(scheme)) {
+        port = port == -1 ? 80 : port;
+      } else if ("wss".equals(scheme)) {
+        port = port == -1 ? 443 : port;
+        secure = true;
+      } else {
+        throw new WebSocketException("unsupported protocol: " + scheme);
+      }
+      address = new InetSocketAddress(InetAddress.getByName(host), port);
+    } catch (UnknownHostException e) {
+      fail(new WebSocketException("unknown host: " + host, e));
+      return;
+    } catch (WebSocketException e) {
+      fail(e);
+      return;
+    }
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        open(address);
+      }
+    });
+  }
+
+  private void open(InetSocketAddress address) {
+    if (state != State.CONNECTING) {
+      // Closed while resolving
+      return;
+    }
+    try {
+      channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+      if (channel.connect(address)) {
+        onConnected();
+      }
+    } catch (IOException e) {
+      fail(new WebSocketException("error while creating socket to " + url, e));
+    } catch (WebSocketException e) {
+      fail(e);
+    }
+  }
+
+  /** Called by the selector thread when the channel of this connection is ready. */
+  void onReady(SelectionKey key) {
+    try {
+      if (key.isValid() && key.isConnectable() && channel.finishConnect()) {
+        onConnected();
+      }
+      if (key.isValid() && key.isReadable()) {
+        read();
+      }
+      if (key.isValid() && key.isWritable()) {
+        flush();
+      }
+    } catch (IOException e) {
+      if (state == State.CONNECTING) {
+        fail(new WebSocketException("error while connecting: " + e.getMessage(), e));
+      } else {
+        fail(new WebSocketException("IO Error", e));
+      }
+    } catch (WebSocketException e) {
+      fail(e);
+    } catch (RuntimeException e) {
+      // For instance from the SSLEngine, which must not take down the shared selector thread
+      fail(new WebSocketException("Unexpected error", e));
+    }
+  }
+
+  /** Called by the selector thread when its selector failed, and can't serve the channel. */
+  void onLoopFailed(IOException e) {
+    fail(new WebSocketException("Selector failed", e));
+  }
+
+  private void onConnected() throws IOException {
+    key.interestOps(SelectionKey.OP_READ);
+    appIn = ByteBuffer.allocate(BUFFER_SIZE);
+    if (secure) {
+      sslEngine = createSslEngine();
+      sslEngine.beginHandshake();
+      int packetSize = sslEngine.getSession().getPacketBufferSize();
+      netIn = ByteBuffer.allocate(packetSize);
+      netOut = ByteBuffer.allocate(packetSize);
+      netOut.flip();
+    }
+    // Nothing else can be sent before the connection is upgraded, so the request goes out first.
+    pendingFrames.add(new PendingFrame(ByteBuffer.wrap(handshake.getHandshake()), null));
+    flush();
+  }
+
+  private SSLEngine createSslEngine() {
+    SSLEngine engine;
+    try {
+      engine = SSLContext.getDefault().createSSLEngine(host, port);
+    } catch (NoSuchAlgorithmException e) {
+      throw new WebSocketException("error while creating secure socket to " + url, e);
+    }
+    engine.setUseClientMode(true);
+    // Ensure proper hostname verification, like WebSocket does for its SSLSocket
+    SSLParameters sslParams = engine.getSSLParameters();
+    sslParams.setEndpointIdentificationAlgorithm("HTTPS");
+    engine.setSSLParameters(sslParams);
+    return engine;
+  }
+
+  /**
+   * Writes pending frames until they are all written, or the socket can't take any more. Frames
+   * queued back to back are gathered into a single write, or a single TLS record, so that bursts of
+   * small messages don't each cost a system call and a packet.
+   */
+  private void flush() throws IOException {
+    if (channel == null || !channel.isOpen() || !channel.isConnected()) {
+      return;
+    }
+    while (true) {
+      if (sslEngine != null && netOut.hasRemaining()) {
+        channel.write(netOut);
+        if (netOut.hasRemaining()) {
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+      }
+      ByteBuffer[] buffers = peekBuffers();
+      if (sslEngine == null) {
+        if (buffers.length == 0) {
+          break;
+        }
+        channel.write(buffers);
+        releaseWrittenFrames();
+        if (buffers[buffers.length - 1].hasRemaining()) {
+          key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+          return;
+        }
+        continue;
+      }
+
+      HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+      if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+        runDelegatedTasks();
+        continue;
+      } else if (handshakeStatus == HandshakeStatus.NEED_UNWRAP) {
+        // Waiting for the server
+        break;
+      } else if (handshakeStatus == HandshakeStatus.NOT_HANDSHAKING && buffers.length == 0) {
+        break;
+      }
+      // Application data isn't consumed until the TLS handshake is done.
+      ByteBuffer[] sources = buffers.length != 0 ? buffers : new ByteBuffer[] {EMPTY};
+      netOut.clear();
+      SSLEngineResult result = sslEngine.wrap(sources, netOut);
+      netOut.flip();
+      if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+        netOut = ByteBuffer.allocate(
+            Math.max(sslEngine.getSession().getPacketBufferSize(), netOut.capacity() * 2));
+        netOut.flip();
+        continue;
+      } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+        throw new EOFException("Secure connection closed");
+      }
+      if (releaseWrittenFrames() == 0
+          && result.bytesProduced() == 0 && result.bytesConsumed() == 0) {
+        break;
+      }
+    }
+    key.interestOps(SelectionKey.OP_READ);
+  }
+
+  /** Returns the buffers of up to MAX_GATHERED frames at the head of the queue. */
+  private ByteBuffer[] peekBuffers() {
+    List<ByteBuffer> buffers = new ArrayList<>();
+    for (PendingFrame frame : pendingFrames) {
+      buffers.add(frame.buffer);
+      if (buffers.size() == MAX_GATHERED) {
+        break;
+      }
+    }
+    return buffers.toArray(new ByteBuffer[buffers.size()]);
+  }
+
+  /** Removes the frames that have been fully written from the queue, and returns their count. */
+  private int releaseWrittenFrames() {
+    int released = 0;
+    PendingFrame frame;
+    while ((frame = pendingFrames.peek()) != null && !frame.buffer.hasRemaining()) {
+      pendingFrames.poll().release();
+      released++;
+    }
+    return released;
+  }
+
+  private void read() throws IOException {
+    int bytesRead;
+    if (sslEngine == null) {
+      bytesRead = channel.read(appIn);
+    } else {
+      bytesRead = channel.read(netIn);
+      unwrap();
+    }
+    processInput();
+    if (bytesRead == -1) {
+      throw new EOFException();
+    }
+    if (sslEngine != null && state != State.DISCONNECTED) {
+      // The TLS handshake may have just completed, with the upgrade request still pending.
+      flush();
+    }
+  }
+
+  private void unwrap() throws IOException {
+    netIn.flip();
+    try {
+      while (true) {
+        HandshakeStatus handshakeStatus = sslEngine.getHandshakeStatus();
+        if (handshakeStatus == HandshakeStatus.NEED_TASK) {
+          runDelegatedTasks();
+          continue;
+        } else if (handshakeStatus == HandshakeStatus.NEED_WRAP) {
+          flush();
+          if (sslEngine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+            // The socket can't take any more, continue once it has been written to.
+            return;
+          }
+          continue;
+        }
+        if (!netIn.hasRemaining()) {
+          return;
+        }
+        SSLEngineResult result = sslEngine.unwrap(netIn, appIn);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+          int packetSize = sslEngine.getSession().getPacketBufferSize();
+          if (netIn.capacity() < packetSize) {
+            ByteBuffer larger = ByteBuffer.allocate(packetSize);
+            larger.put(netIn);
+            larger.flip();
+            netIn = larger;
+          }
+          return;
+        } else if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+          appIn = enlarge(appIn, sslEngine.getSession().getApplicationBufferSize());
+        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+          throw new EOFException("Secure connection closed");
+        }
+      }
+    } finally {
+      netIn.compact();
+    }
+  }
+
+  private void runDelegatedTasks() {
+    // These are mostly certificate checks, which are quick enough to run on the selector thread.
+    Runnable task;
+    while ((task = sslEngine.getDelegatedTask()) != null) {
+      task.run();
+    }
+  }
+
+  private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+    ByteBuffer larger = ByteBuffer.allocate(Math.max(minCapacity, buffer.capacity() * 2));
+    buffer.flip();
+    larger.put(buffer);
+    return larger;
+  }
+
+  private void processInput() {
+    appIn.flip();
+    try {
+      if (!upgraded && !readHandshakeResponse()) {
+        return;
+      }
+      while (state != State.DISCONNECTED && readFrame()) {
+        // Keep decoding frames
+      }
+    } finally {
+      appIn.compact();
+    }
+    if (appIn.capacity() < requiredInputCapacity) {
+      appIn = enlarge(appIn, requiredInputCapacity);
+    }
+  }
+
+  private boolean readHandshakeResponse() {
+    int end = -1;
+    for (int i = appIn.position(); i + 3 < appIn.limit(); i++) {
+      if (appIn.get(i) == '\r' && appIn.get(i + 1) == '\n'
+          && appIn.get(i + 2) == '\r' && appIn.get(i + 3) == '\n') {
+        end = i;
+        break;
+      }
+    }
+    if (end == -1) {
+      if (appIn.remaining() == appIn.capacity()) {
+        // This really shouldn't happen, handshakes are short, but just to be safe...
+        throw new WebSocketException("Unexpected long handshake response");
+      }
+      return false;
+    }
+    byte[] response = new byte[end - appIn.position()];
+    appIn.get(response);
+    appIn.position(end + 4);
+
+    String[] lines = new String(response, UTF8).split("\r\n");
+    handshake.verifyServerStatusLine(lines[0]);
+    HashMap<String, String> headers = new HashMap<>();
+    for (int i = 1; i < lines.length; i++) {
+      String[] keyValue = lines[i].trim().split(": ", 2);
+      if (keyValue.length == 2) {
+        headers.put(keyValue[0], keyValue[1]);
+      }
+    }
+    handshake.verifyServerHandshakeHeaders(headers);
+    PerMessageDeflate deflate = PerMessageDeflate.negotiate(headers);
+
+    upgraded = true;
+    synchronized (this) {
+      if (state != State.CONNECTING) {
+        if (deflate != null) {
+          deflate.release();
+        }
+        return false;
+      }
+      this.deflate = deflate;
+      encoder.setDeflate(deflate);
+      assembler.setDeflate(deflate);
+      state = State.CONNECTED;
+    }
+    eventHandler.onOpen();
+    return true;
+  }
+
+  /** Decodes and handles the next frame, or returns false if it hasn't been received fully yet. */
+  private boolean readFrame() {
+    int start = appIn.position();
+    if (appIn.remaining() < 2) {
+      return false;
+    }
+    byte first = appIn.get(start);
+    boolean fin = (first & 0x80) != 0;
+    // RSV1 marks compressed messages, the other reserved bits must not be set.
+    boolean compressed = (first & 0x40) != 0;
+    byte opcode = (byte) (first & 0xf);
+    if ((first & 0x30) != 0 || (compressed && opcode >= WebSocket.OPCODE_CLOSE)) {
+      throw new WebSocketException("Invalid frame received");
+    }
+    int length = appIn.get(start + 1) & 0x7f;
+    int headerLength = 2;
+    long payloadLength = length;
+    if (length == 126) {
+      headerLength = 4;
+      if (appIn.remaining() < headerLength) {
+        return false;
+      }
+      payloadLength = appIn.getShort(start + 2) & 0xffff;
+    } else if (length == 127) {
+      headerLength = 10;
+      if (appIn.remaining() < headerLength) {
+        return false;
+      }
+      payloadLength = appIn.getLong(start + 2);
+    }
+    if (payloadLength < 0 || payloadLength > Integer.MAX_VALUE - headerLength) {
+      throw new WebSocketException("Frame too large: " + payloadLength);
+    }
+    int frameLength = headerLength + (int) payloadLength;
+    if (appIn.remaining() < frameLength) {
+      requiredInputCapacity = frameLength;
+      return false;
+    }
+
+    byte[] payload = new byte[(int) payloadLength];
+    appIn.position(start + headerLength);
+    appIn.get(payload);
+    handleFrame(fin, opcode, compressed, payload);
+    return true;
+  }
+
+  private void handleFrame(boolean fin, byte opcode, boolean compressed, byte[] payload) {
+    if (opcode == WebSocket.OPCODE_CLOSE) {
+      closeSocket();
+    } else if (opcode == WebSocket.OPCODE_PONG) {
+      // NOTE: as a client, we don't expect PONGs. No-op
+    } else if (opcode == WebSocket.OPCODE_PING) {
+      if (!fin) {
+        throw new WebSocketException("PING must not fragment across frames");
+      } else if (payload.length > 125) {
+        throw new WebSocketException("PING frame too long");
+      }
+      send(WebSocket.OPCODE_PONG, payload);
+    } else if (opcode == WebSocket.OPCODE_TEXT
+        || opcode == WebSocket.OPCODE_BINARY
+        || opcode == WebSocket.OPCODE_NONE) {
+      WebSocketMessage message = assembler.appendBytes(fin, opcode, compressed, payload);
+      if (message != null) {
+        eventHandler.onMessage(message);
+      }
+    } else {
+      // Unsupported opcode
+      throw new WebSocketException("Unsupported opcode: " + opcode);
+    }
+  }
+
+  private enum State {
+    NONE,
+    CONNECTING,
+    CONNECTED,
+    DISCONNECTING,
+    DISCONNECTED
+  }
+
+  private static class PendingFrame {
+
+    private final ByteBuffer buffer;
+    private final FrameBufferPool pool;
+
+    private PendingFrame(ByteBuffer buffer, FrameBufferPool pool) {
+      this.buffer = buffer;
+      this.pool = pool;
+    }
+
+    private void release() {
+      if (pool != null) {
+        pool.release(buffer);
+      }
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.tubesock;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The permessage-deflate extension (RFC 7692) as negotiated for one connection. Compressed
+ * messages are marked with the RSV1 bit on their first frame. Unless the server disables context
+ * takeover, the compression context is kept across the messages of the connection, so that
+ * repeated keys and paths compress well.
+ *
+ * <p>Inflaters and Deflaters hold native memory, so they are pooled across connections and
+ * returned to the pool by {@link #release()} when the connection closes. Messages are compressed
+ * and decompressed in the order they are sent and received, which the callers guarantee.
+ */
+class PerMessageDeflate {
+
+  static final String EXTENSION_NAME = "permessage-deflate";
+  // Java's Deflater always uses a 15 bit window, so client_max_window_bits is not offered.
+  static final String OFFER = EXTENSION_NAME;
+
+  /** Smaller messages are sent uncompressed, since compressing them saves little or nothing. */
+  private static final int MIN_COMPRESSED_LENGTH = 128;
+  private static final int MAX_POOLED = 16;
+  private static final byte[] TAIL = {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+  private static final BlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+  private static final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+
+  private final boolean serverNoContextTakeover;
+  private final boolean clientNoContextTakeover;
+  private final byte[] chunk = new byte[8192];
+  private Inflater inflater;
+  private Deflater deflater;
+
+  private PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover) {
+    this.serverNoContextTakeover = serverNoContextTakeover;
+    this.clientNoContextTakeover = clientNoContextTakeover;
+    Inflater inflater = inflaters.poll();
+    this.inflater = inflater != null ? inflater : new Inflater(true);
+    Deflater deflater = deflaters.poll();
+    this.deflater = deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+  }
+
+  /**
+   * Returns the extension accepted by the server in its handshake response, or null if the server
+   * declined it. Fails the connection if the server responds with anything that wasn't offered.
+   */
+  static PerMessageDeflate negotiate(Map<String, String> headers) {
+    String extensions = null;
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      if (header.getKey().equalsIgnoreCase("Sec-WebSocket-Extensions")) {
+        extensions = header.getValue();
+      }
+    }
+    if (extensions == null || extensions.trim().isEmpty()) {
+      return null;
+    }
+    if (extensions.contains(",")) {
+      throw new WebSocketException("connection failed: more extensions than offered");
+    }
+    String[] params = extensions.split(";");
+    if (!params[0].trim().equalsIgnoreCase(EXTENSION_NAME)) {
+      throw new WebSocketException("connection failed: unsupported extension: " + params[0]);
+    }
+    Set<String> seen = new HashSet<>();
+    boolean serverNoContextTakeover = false;
+    boolean clientNoContextTakeover = false;
+    for (int i = 1; i < params.length; i++) {
+      String[] nameValue = params[i].split("=", 2);
+      String name = nameValue[0].trim().toLowerCase(Locale.US);
+      String value = nameValue.length > 1 ? nameValue[1].trim().replace("\"", "") : null;
+      if (!seen.add(name)) {
+        throw new WebSocketException("connection failed: duplicate extension parameter: " + name);
+      } else if (name.equals("server_no_context_takeover") && value == null) {
+        serverNoContextTakeover = true;
+      } else if (name.equals("client_no_context_takeover") && value == null) {
+        clientNoContextTakeover = true;
+      } else if (name.equals("server_max_window_bits") && isWindowBits(value)) {
+        // Inflaters accept any window size
+      } else {
+        throw new WebSocketException(
+            "connection failed: unsupported extension parameter: " + params[i].trim());
+      }
+    }
+    return new PerMessageDeflate(serverNoContextTakeover, clientNoContextTakeover);
+  }
+
+  private static boolean isWindowBits(String value) {
+    if (value == null || !value.matches("[0-9]{1,2}")) {
+      return false;
+    }
+    int bits = Integer.parseInt(value);
+    return bits >= 8 && bits <= 15;
+  }
+
+  /** Returns whether a data message with a payload of the given length should be compressed. */
+  static boolean shouldCompress(PerMessageDeflate deflate, int length) {
+    return deflate != null && length >= MIN_COMPRESSED_LENGTH;
+  }
+
+  /** Compresses the payload of an outgoing message. */
+  synchronized byte[] compress(byte[] payload) {
+    if (deflater == null) {
+      throw new WebSocketException("Connection closed");
+    }
+    deflater.setInput(payload);
+    ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length / 2 + TAIL.length);
+    int length;
+    do {
+      length = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+      output.write(chunk, 0, length);
+    } while (length == chunk.length);
+    if (clientNoContextTakeover) {
+      deflater.reset();
+    }
+    // A sync flush always ends with an empty stored block, which the receiver adds back.
+    byte[] compressed = output.toByteArray();
+    return Arrays.copyOf(compressed, compressed.length - TAIL.length);
+  }
+
+  /**
+   * Decompresses the payload of an incoming message. The payload is read up to the given length,
+   * and must have room for 4 more bytes after that.
+   */
+  synchronized byte[] decompress(byte[] payload, int length) {
+    if (inflater == null) {
+      throw new WebSocketException("Connection closed");
+    }
+    System.arraycopy(TAIL, 0, payload, length, TAIL.length);
+    inflater.setInput(payload, 0, length + TAIL.length);
+    ByteArrayOutputStream output = new ByteArrayOutputStream(length * 4);
+    try {
+      while (true) {
+        int inflated = inflater.inflate(chunk);
+        if (inflated > 0) {
+          output.write(chunk, 0, inflated);
+        } else if (inflater.needsInput() || inflater.finished() || inflater.needsDictionary()) {
+          break;
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new WebSocketException("Failed to inflate message", e);
+    }
+    if (serverNoContextTakeover || inflater.finished()) {
+      inflater.reset();
+    }
+    return output.toByteArray();
+  }
+
+  /** Returns the Inflater and Deflater of the connection to the pool. */
+  synchronized void release() {
+    if (inflater != null) {
+      inflater.reset();
+      if (!inflaters.offer(inflater)) {
+        inflater.end();
+      }
+      inflater = null;
+    }
+    if (deflater != null) {
+      deflater.reset();
+      if (!deflaters.offer(deflater)) {
+        deflater.end();
+      }
+      deflater = null;
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.tubesock;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The run loop of a single selector thread. Connections register their channels with the loop's
+ * selector, and are called back on the loop's thread whenever their channel is ready. Any other
+ * work on a connection is handed to the loop with {@link #execute(Runnable)}, so that each
+ * connection is only ever touched by its own loop.
+ */
+class SelectorLoop implements Runnable {
+
+  private static final Logger logger = LoggerFactory.getLogger(SelectorLoop.class);
+
+  private static final long SHUTDOWN_POLL_MILLIS = 100;
+  private static final long SELECT_FAILURE_BACKOFF_MILLIS = 1000;
+
+  private final Selector selector;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private volatile boolean stopping;
+
+  SelectorLoop() {
+    try {
+      this.selector = Selector.open();
+    } catch (IOException e) {
+      throw new WebSocketException("Failed to open selector", e);
+    }
+  }
+
+  /** Runs the given task on the loop's thread. */
+  void execute(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  /** Registers a channel with the loop. Must be called on the loop's thread. */
+  SelectionKey register(SelectableChannel channel, int interestOps, NioWebSocket websocket)
+      throws ClosedChannelException {
+    return channel.register(selector, interestOps, websocket);
+  }
+
+  /**
+   * Stops the loop once all of its connections have closed. Tasks that are queued until then still
+   * run, so that connections that are closing concurrently can finish.
+   */
+  void shutdown() {
+    stopping = true;
+    selector.wakeup();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!stopping || !isIdle()) {
+        try {
+          // While stopping, wake up regularly to notice channels that have been closed
+          selector.select(stopping ? SHUTDOWN_POLL_MILLIS : 0);
+        } catch (IOException e) {
+          logger.error("Selector failed", e);
+          failConnections(e);
+          Thread.sleep(SELECT_FAILURE_BACKOFF_MILLIS);
+          continue;
+        }
+        runTasks();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          ((NioWebSocket) key.attachment()).onReady(key);
+        }
+      }
+    } catch (InterruptedException e) {
+      // The thread is being torn down; its connections are lost either way
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        selector.close();
+      } catch (IOException e) {
+        logger.warn("Failed to close selector", e);
+      }
+    }
+  }
+
+  private boolean isIdle() {
+    return tasks.isEmpty() && selector.keys().isEmpty();
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        logger.error("Uncaught exception in websocket task", e);
+      }
+    }
+  }
+
+  /**
+   * Closes all connections of the loop after its selector failed, so that they can reconnect
+   * instead of waiting for events that will never be selected.
+   */
+  private void failConnections(IOException e) {
+    for (SelectionKey key : selector.keys()) {
+      ((NioWebSocket) key.attachment()).onLoopFailed(e);
+    }
+    runTasks();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.tubesock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.firebase.database.core.ThreadInitializer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of selector threads that {@link NioWebSocket} connections are multiplexed onto. Each
+ * connection is assigned to one of the threads for its whole lifetime, which performs all of its
+ * socket I/O, TLS processing and framing. Host names are resolved on a separate thread, since
+ * resolution blocks.
+ *
+ * <p>Pools are meant to be shared by all database connections of the process. Shared pools are
+ * reference counted: every {@link #acquireShared(int, ThreadFactory, ThreadInitializer)} must be
+ * paired with a {@link #release()}, and the pool is shut down once its last user released it. The
+ * threads are daemons that are started when the pool is created.
+ */
+public final class SelectorPool {
+
+  private static final String THREAD_BASE_NAME = "TubeSockSelector";
+  private static final long RESOLVER_KEEP_ALIVE_SECONDS = 60;
+
+  private static final Map<Integer, SelectorPool> sharedPools = new HashMap<>();
+
+  private final SelectorLoop[] loops;
+  private final AtomicInteger nextLoop = new AtomicInteger(0);
+  private final ThreadPoolExecutor resolver;
+  // Guarded by the class lock, like sharedPools
+  private int references;
+
+  private SelectorPool(
+      int threadCount, ThreadFactory threadFactory, ThreadInitializer threadInitializer) {
+    checkArgument(threadCount > 0, "Selector pool needs at least one thread");
+    loops = new SelectorLoop[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      loops[i] = new SelectorLoop();
+      Thread thread = threadFactory.newThread(loops[i]);
+      threadInitializer.setName(thread, THREAD_BASE_NAME + "-" + i);
+      threadInitializer.setDaemon(thread, true);
+      thread.start();
+    }
+    resolver = new ThreadPoolExecutor(1, 1, RESOLVER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), newResolverThreadFactory(threadFactory,
+            threadInitializer));
+    resolver.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Returns the pool with the given number of selector threads that is shared by the whole
+   * process, and adds a reference to it. If there is no such pool yet, it is created with threads
+   * from the given factory. The caller must {@link #release()} the pool when it no longer needs it.
+   *
+   * @param threadCount The number of selector threads
+   * @param threadFactory The factory used to create the threads of a new pool
+   * @param threadInitializer The initializer used to name the threads of a new pool
+   * @return A non-null shared SelectorPool
+   */
+  public static synchronized SelectorPool acquireShared(
+      int threadCount, ThreadFactory threadFactory, ThreadInitializer threadInitializer) {
+    SelectorPool pool = sharedPools.get(threadCount);
+    if (pool == null) {
+      pool = new SelectorPool(threadCount, threadFactory, threadInitializer);
+      sharedPools.put(threadCount, pool);
+    }
+    pool.references++;
+    return pool;
+  }
+
+  /**
+   * Drops a reference obtained from {@link #acquireShared(int, ThreadFactory, ThreadInitializer)}.
+   * When the last reference is dropped, the pool is no longer handed out, and its threads stop
+   * once their remaining connections have closed.
+   */
+  public void release() {
+    synchronized (SelectorPool.class) {
+      checkState(references > 0, "Selector pool is not acquired");
+      if (--references > 0) {
+        return;
+      }
+      sharedPools.remove(loops.length);
+    }
+    shutdown();
+  }
+
+  /** Returns a pool that is not shared, for tests. */
+  static SelectorPool newPool(
+      int threadCount, ThreadFactory threadFactory, ThreadInitializer threadInitializer) {
+    return new SelectorPool(threadCount, threadFactory, threadInitializer);
+  }
+
+  /** Stops the selector threads once they are idle, and the resolver thread. */
+  void shutdown() {
+    for (SelectorLoop loop : loops) {
+      loop.shutdown();
+    }
+    resolver.shutdown();
+  }
+
+  /** Picks the selector thread of a new connection. Connections are spread round robin. */
+  SelectorLoop nextLoop() {
+    int index = (nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+    return loops[index];
+  }
+
+  Executor getResolver() {
+    return resolver;
+  }
+
+  private static ThreadFactory newResolverThreadFactory(
+      final ThreadFactory threadFactory, final ThreadInitializer threadInitializer) {
+    return new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = threadFactory.newThread(runnable);
+        threadInitializer.setName(thread, THREAD_BASE_NAME + "Resolver");
+        threadInitializer.setDaemon(thread, true);
+        return thread;
+      }
+    };
+  }
+}
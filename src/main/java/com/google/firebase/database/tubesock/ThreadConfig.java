@@ -21,20 +21,29 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.firebase.database.core.ThreadInitializer;
 
 import com.google.firebase.internal.NonNull;
+import com.google.firebase.internal.Nullable;
 import java.util.concurrent.ThreadFactory;
 
 /**
  * Configuration that governs how the websocket connections spawn and initialize threads
- * for reading and writing data.
+ * for reading and writing data. If a {@link SelectorPool} is set, connections are multiplexed
+ * onto its threads instead of spawning threads of their own.
  */
 public final class ThreadConfig {
 
   private final ThreadFactory threadFactory;
   private final ThreadInitializer threadInitializer;
+  private final SelectorPool selectorPool;
 
   public ThreadConfig(ThreadFactory threadFactory, ThreadInitializer threadInitializer) {
+    this(threadFactory, threadInitializer, null);
+  }
+
+  public ThreadConfig(ThreadFactory threadFactory, ThreadInitializer threadInitializer,
+      SelectorPool selectorPool) {
     this.threadFactory = checkNotNull(threadFactory);
     this.threadInitializer = checkNotNull(threadInitializer);
+    this.selectorPool = selectorPool;
   }
 
   /**
@@ -59,4 +68,16 @@ public final class ThreadConfig {
   ThreadInitializer getInitializer() {
     return threadInitializer;
   }
+
+  /**
+   * The {@link SelectorPool} that connections should be multiplexed onto, using {@link
+   * NioWebSocket}.
+   *
+   * @return a <code>SelectorPool</code> instance, or null if each connection should use {@link
+   *     WebSocket} with threads of its own.
+   */
+  @Nullable
+  public SelectorPool getSelectorPool() {
+    return selectorPool;
+  }
 }
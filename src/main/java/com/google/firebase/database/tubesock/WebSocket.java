@@ -27,6 +27,7 @@ import java.io.OutputStream;
 import java.net.Socket;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -68,6 +69,7 @@ public class WebSocket {
   private Thread innerThread;
   private volatile State state = State.NONE;
   private volatile Socket socket = null;
+  private PerMessageDeflate deflate = null;
   private WebSocketEventHandler eventHandler = null;
 
   /**
@@ -151,6 +153,30 @@ public class WebSocket {
     send(OPCODE_TEXT, data.getBytes(UTF8));
   }
 
+  /**
+   * Send a TEXT message over the socket, without copying its payload. The buffer must have been
+   * acquired from the given pool, and the UTF-8 encoded payload must span from the start of its
+   * payload area to its position. The buffer is owned by the websocket afterwards, and returned to
+   * the pool once it has been written.
+   *
+   * @param buffer The buffer containing the text payload
+   * @param pool The pool the buffer was acquired from
+   */
+  public synchronized void send(ByteBuffer buffer, FrameBufferPool pool) {
+    if (state != State.CONNECTED) {
+      pool.release(buffer);
+      // We might have been disconnected on another thread, just report an error
+      eventHandler.onError(new WebSocketException("error while sending data: not connected"));
+    } else {
+      try {
+        writer.send(OPCODE_TEXT, true, buffer, pool);
+      } catch (IOException e) {
+        eventHandler.onError(new WebSocketException("Failed to send frame", e));
+        close();
+      }
+    }
+  }
+
   /**
    * Send a BINARY message over the socket
    *
@@ -223,6 +249,9 @@ public class WebSocket {
     }
     receiver.stopit();
     writer.stopIt();
+    if (deflate != null) {
+      deflate.release();
+    }
     if (socket != null) {
       try {
         socket.close();
@@ -374,9 +403,13 @@ public class WebSocket {
         headers.put(keyValue[0], keyValue[1]);
       }
       handshake.verifyServerHandshakeHeaders(headers);
+      PerMessageDeflate deflate = PerMessageDeflate.negotiate(headers);
+      synchronized (this) {
+        this.deflate = deflate;
+      }
 
-      writer.setOutput(output);
-      receiver.setInput(input);
+      writer.setOutput(output, deflate);
+      receiver.setInput(input, deflate);
       state = WebSocket.State.CONNECTED;
       writer.start();
       eventHandler.onOpen();
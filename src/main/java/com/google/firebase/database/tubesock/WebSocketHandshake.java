@@ -57,6 +57,7 @@ class WebSocketHandshake {
     header.put("Connection", "Upgrade");
     header.put("Sec-WebSocket-Version", WEBSOCKET_VERSION);
     header.put("Sec-WebSocket-Key", this.nonce);
+    header.put("Sec-WebSocket-Extensions", PerMessageDeflate.OFFER);
 
     if (this.protocol != null) {
       header.put("Sec-WebSocket-Protocol", this.protocol);
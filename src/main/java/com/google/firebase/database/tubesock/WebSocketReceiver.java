@@ -31,7 +31,7 @@ class WebSocketReceiver {
   private WebSocket websocket = null;
   private WebSocketEventHandler eventHandler = null;
   private byte[] inputHeader = new byte[112];
-  private MessageBuilderFactory.Builder pendingBuilder;
+  private final MessageAssembler assembler = new MessageAssembler();
 
   private volatile boolean stop = false;
 
@@ -39,8 +39,9 @@ class WebSocketReceiver {
     this.websocket = websocket;
   }
 
-  void setInput(DataInputStream input) {
+  void setInput(DataInputStream input, PerMessageDeflate deflate) {
     this.input = input;
+    assembler.setDeflate(deflate);
   }
 
   void run() {
@@ -53,11 +54,17 @@ class WebSocketReceiver {
         int offset = 0;
         offset += read(inputHeader, offset, 1);
         boolean fin = (inputHeader[0] & 0x80) != 0;
-        boolean rsv = (inputHeader[0] & 0x70) != 0;
+        // RSV1 marks compressed messages, the other reserved bits must not be set.
+        boolean rsv = (inputHeader[0] & 0x30) != 0;
+        boolean compressed = (inputHeader[0] & 0x40) != 0;
         if (rsv) {
           throw new WebSocketException("Invalid frame received");
         } else {
           final byte opcode = (byte) (inputHeader[0] & 0xf);
+          if (compressed && opcode >= WebSocket.OPCODE_CLOSE) {
+            // Control frames are never compressed
+            throw new WebSocketException("Invalid frame received");
+          }
           offset += read(inputHeader, offset, 1);
           byte length = inputHeader[1];
           long payloadLength = 0;
@@ -87,7 +94,7 @@ class WebSocketReceiver {
               || opcode == WebSocket.OPCODE_PING
               || opcode == WebSocket.OPCODE_NONE) {
             // It's some form of application data. Decode the payload
-            appendBytes(fin, opcode, payload);
+            appendBytes(fin, opcode, compressed, payload);
           } else {
             // Unsupported opcode
             throw new WebSocketException("Unsupported opcode: " + opcode);
@@ -105,7 +112,7 @@ class WebSocketReceiver {
     }
   }
 
-  private void appendBytes(boolean fin, byte opcode, byte[] data) {
+  private void appendBytes(boolean fin, byte opcode, boolean compressed, byte[] data) {
     // A ping can show up in the middle of another fragmented message
     if (opcode == WebSocket.OPCODE_PING) {
       if (fin) {
@@ -114,29 +121,9 @@ class WebSocketReceiver {
         throw new WebSocketException("PING must not fragment across frames");
       }
     } else {
-      if (pendingBuilder != null && opcode != WebSocket.OPCODE_NONE) {
-        throw new WebSocketException("Failed to continue outstanding frame");
-      } else if (pendingBuilder == null && opcode == WebSocket.OPCODE_NONE) {
-        // Trying to continue something, but there's nothing to continue
-        throw new WebSocketException(
-            "Received continuing frame, but there's nothing to " + "continue");
-      } else {
-        if (pendingBuilder == null) {
-          // We aren't continuing another message
-          pendingBuilder = MessageBuilderFactory.builder(opcode);
-        }
-        if (!pendingBuilder.appendBytes(data)) {
-          throw new WebSocketException("Failed to decode frame");
-        } else if (fin) {
-          WebSocketMessage message = pendingBuilder.toMessage();
-          pendingBuilder = null;
-          // The message assembly could still fail
-          if (message == null) {
-            throw new WebSocketException("Failed to decode whole message");
-          } else {
-            eventHandler.onMessage(message);
-          }
-        }
+      WebSocketMessage message = assembler.appendBytes(fin, opcode, compressed, data);
+      if (message != null) {
+        eventHandler.onMessage(message);
       }
     }
   }
@@ -18,12 +18,10 @@ package com.google.firebase.database.tubesock;
 
 import static com.google.common.base.Preconditions.checkState;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channels;
-import java.nio.channels.WritableByteChannel;
-import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -33,109 +31,84 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 class WebSocketWriter {
 
+  private static final int OUTPUT_BUFFER_SIZE = 16384;
+
   private final WebSocket websocket;
   private final ThreadConfig threadConfig;
-  private final Random random = new Random();
+  private final FrameEncoder encoder = new FrameEncoder();
   private final String threadName;
 
   private Thread innerThread;
-  private BlockingQueue<ByteBuffer> pendingBuffers;
+  private BlockingQueue<PendingFrame> pendingFrames;
   private volatile boolean stop = false;
   private boolean closeSent = false;
-  private WritableByteChannel channel;
+  private OutputStream output;
 
   WebSocketWriter(WebSocket websocket, ThreadConfig threadConfig, String threadBaseName,
                   int clientId) {
     this.websocket = websocket;
     this.threadConfig = threadConfig;
     this.threadName = threadBaseName + "Writer-" + clientId;
-    pendingBuffers = new LinkedBlockingQueue<>();
-  }
-
-  void setOutput(OutputStream output) {
-    channel = Channels.newChannel(output);
+    pendingFrames = new LinkedBlockingQueue<>();
   }
 
-  private ByteBuffer frameInBuffer(byte opcode, boolean masking, byte[] data) throws IOException {
-    int headerLength = 2; // This is just an assumed headerLength, as we use a
-    // ByteArrayOutputStream
-    if (masking) {
-      headerLength += 4;
-    }
-    int length = data.length;
-    if (length < 126) {
-      // nothing add to header length
-    } else if (length <= 65535) {
-      headerLength += 2;
-    } else {
-      headerLength += 8;
-    }
-    ByteBuffer frame = ByteBuffer.allocate(data.length + headerLength);
-
-    byte fin = (byte) 0x80;
-    byte startByte = (byte) (fin | opcode);
-    frame.put(startByte);
-
-    int lengthField;
-
-    if (length < 126) {
-      if (masking) {
-        length = 0x80 | length;
-      }
-      frame.put((byte) length);
-    } else if (length <= 65535) {
-      lengthField = 126;
-      if (masking) {
-        lengthField = 0x80 | lengthField;
-      }
-      frame.put((byte) lengthField);
-      // We check the size above, so we know we aren't losing anything with the cast
-      frame.putShort((short) length);
-    } else {
-      lengthField = 127;
-      if (masking) {
-        lengthField = 0x80 | lengthField;
-      }
-      frame.put((byte) lengthField);
-      // Since an integer occupies just 4 bytes we fill the 4 leading length bytes with zero
-      frame.putInt(0);
-      frame.putInt(length);
-    }
-
-    byte[] mask;
-    if (masking) {
-      mask = generateMask();
-      frame.put(mask);
-
-      for (int i = 0; i < data.length; i++) {
-        frame.put((byte) (data[i] ^ mask[i % 4]));
-      }
-    }
-
-    frame.flip();
-    return frame;
-  }
-
-  private byte[] generateMask() {
-    final byte[] mask = new byte[4];
-    random.nextBytes(mask);
-    return mask;
+  void setOutput(OutputStream output, PerMessageDeflate deflate) {
+    this.output = new BufferedOutputStream(output, OUTPUT_BUFFER_SIZE);
+    encoder.setDeflate(deflate);
   }
 
   synchronized void send(byte opcode, boolean masking, byte[] data) throws IOException {
-    ByteBuffer frame = frameInBuffer(opcode, masking, data);
+    ByteBuffer frame = encoder.frameInBuffer(opcode, masking, data);
     if (stop && (closeSent || opcode != WebSocket.OPCODE_CLOSE)) {
       throw new WebSocketException("Shouldn't be sending");
     }
     if (opcode == WebSocket.OPCODE_CLOSE) {
       closeSent = true;
     }
-    pendingBuffers.add(frame);
+    pendingFrames.add(new PendingFrame(frame, null));
+  }
+
+  /**
+   * Queues a frame whose payload was written to a buffer from the given pool. The buffer is
+   * returned to the pool once it has been written to the socket.
+   */
+  synchronized void send(byte opcode, boolean masking, ByteBuffer buffer, FrameBufferPool pool)
+      throws IOException {
+    if (stop) {
+      pool.release(buffer);
+      throw new WebSocketException("Shouldn't be sending");
+    }
+    ByteBuffer frame = encoder.frameInPlace(opcode, masking, buffer);
+    if (frame != buffer) {
+      // The payload was compressed into a new buffer
+      pool.release(buffer);
+      pool = null;
+    }
+    pendingFrames.add(new PendingFrame(frame, pool));
   }
 
   private void writeMessage() throws InterruptedException, IOException {
-    ByteBuffer msg = pendingBuffers.take();
-    channel.write(msg);
+    PendingFrame msg = pendingFrames.take();
+    try {
+      // Frames are heap buffers, which are written straight from their backing array
+      ByteBuffer buffer = msg.buffer;
+      if (buffer.hasArray()) {
+        output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        buffer.position(buffer.limit());
+      } else {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        output.write(bytes);
+      }
+    } finally {
+      if (msg.pool != null) {
+        msg.pool.release(msg.buffer);
+      }
+    }
+    // Frames queued back to back go out together, rather than one packet each
+    if (pendingFrames.isEmpty()) {
+      output.flush();
+    }
   }
 
   void stopIt() {
@@ -148,12 +121,17 @@ class WebSocketWriter {
 
   private void runWriter() {
     try {
-      while (!stop && !Thread.interrupted()) {
-        writeMessage();
-      }
-      // We're stopping, clear any remaining messages
-      for (int i = 0; i < pendingBuffers.size(); ++i) {
-        writeMessage();
+      try {
+        while (!stop && !Thread.interrupted()) {
+          writeMessage();
+        }
+        // We're stopping, clear any remaining messages
+        while (!pendingFrames.isEmpty()) {
+          writeMessage();
+        }
+      } finally {
+        // Frames are only flushed once the queue drains, which a failed write may never see
+        output.flush();
       }
     } catch (IOException e) {
       handleError(new WebSocketException("IO Exception", e));
@@ -190,4 +168,15 @@ class WebSocketWriter {
     }
     thread.join();
   }
+
+  private static class PendingFrame {
+
+    private final ByteBuffer buffer;
+    private final FrameBufferPool pool;
+
+    private PendingFrame(ByteBuffer buffer, FrameBufferPool pool) {
+      this.buffer = buffer;
+      this.pool = pool;
+    }
+  }
 }
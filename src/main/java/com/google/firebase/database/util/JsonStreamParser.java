@@ -0,0 +1,704 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A streaming JSON parser that reads a document straight from the list of segments (e.g. websocket
+ * frames) it was received in, without joining them into a single String first. Values are built
+ * through a {@link ValueFactory}, which lets callers materialize them in their final
+ * representation instead of going through intermediate Maps and Lists.
+ *
+ * <p>Decoding of the value at a given key path can be deferred. The parser then only validates the
+ * value and returns a {@link DeferredValue}, which can be decoded later with a factory chosen once
+ * the rest of the document is known.
+ *
+ * <p>Factories that implement {@link RawStringFactory} receive long strings in their raw form, so
+ * that they can defer decoding them.
+ *
+ * <p>Numbers are decoded the same way as {@link JsonMapper} does: integral values become an Integer
+ * if they fit and a Long otherwise, all other numbers become a Double.
+ */
+public class JsonStreamParser {
+
+  /** Builds the in-memory representation of parsed JSON values. */
+  public interface ValueFactory {
+
+    ObjectBuilder newObject();
+
+    ArrayBuilder newArray();
+
+    /**
+     * Creates the representation of a JSON primitive.
+     *
+     * @param value A String, Integer, Long, Double, Boolean or null
+     * @return The value to store in the enclosing object or array
+     */
+    Object newPrimitive(Object value);
+  }
+
+  /**
+   * A factory that keeps long strings in their raw JSON form, UTF-8 encoded and with escape
+   * sequences as is, so that they are only decoded when they are read.
+   */
+  public interface RawStringFactory extends ValueFactory {
+
+    /** Returns the length from which strings are passed to {@link #newRawString}. */
+    int getRawStringThreshold();
+
+    /**
+     * Creates the representation of a string from its raw JSON form.
+     *
+     * @param utf8 The UTF-8 encoded characters between the quotes, with escape sequences as is
+     * @param hasEscapes Whether the characters contain any escape sequence
+     * @return The value to store in the enclosing object or array
+     */
+    Object newRawString(byte[] utf8, boolean hasEscapes);
+  }
+
+  public interface ObjectBuilder {
+
+    void put(String key, Object value);
+
+    Object build();
+  }
+
+  public interface ArrayBuilder {
+
+    void add(Object value);
+
+    Object build();
+  }
+
+  /** Decodes JSON into HashMaps, ArrayLists and boxed primitives. */
+  public static final ValueFactory DEFAULT_FACTORY =
+      new ValueFactory() {
+        @Override
+        public ObjectBuilder newObject() {
+          return new ObjectBuilder() {
+            private final Map<String, Object> map = new HashMap<>();
+
+            @Override
+            public void put(String key, Object value) {
+              map.put(key, value);
+            }
+
+            @Override
+            public Object build() {
+              return map;
+            }
+          };
+        }
+
+        @Override
+        public ArrayBuilder newArray() {
+          return new ArrayBuilder() {
+            private final List<Object> list = new ArrayList<>();
+
+            @Override
+            public void add(Object value) {
+              list.add(value);
+            }
+
+            @Override
+            public Object build() {
+              return list;
+            }
+          };
+        }
+
+        @Override
+        public Object newPrimitive(Object value) {
+          return value;
+        }
+      };
+
+  /** A JSON value that was validated, but not decoded yet. */
+  public static class DeferredValue {
+
+    private final List<String> segments;
+    private final int segment;
+    private final int offset;
+
+    private DeferredValue(List<String> segments, int segment, int offset) {
+      this.segments = segments;
+      this.segment = segment;
+      this.offset = offset;
+    }
+
+    public Object decode(ValueFactory factory) throws IOException {
+      return newParser().parseValue(factory, null);
+    }
+
+    /**
+     * Decodes a JSON object into a Map, using the given factory for its values only. This is
+     * useful when the keys of the object are not part of the decoded representation (e.g. the
+     * paths of a merge).
+     *
+     * @param factory The factory to decode the object's values with
+     * @return The decoded entries of the object
+     * @throws IOException If the value is not an object
+     */
+    public Map<String, Object> decodeEntries(ValueFactory factory) throws IOException {
+      JsonStreamParser parser = newParser();
+      if (parser.peek() != '{') {
+        throw parser.syntaxError("Expected an object");
+      }
+      parser.next();
+      Map<String, Object> entries = new HashMap<>();
+      if (parser.peek() == '}') {
+        parser.next();
+        return entries;
+      }
+      while (true) {
+        String key = parser.parseKey();
+        entries.put(key, parser.parseValue(factory, null));
+        if (parser.endOfContainer('}')) {
+          return entries;
+        }
+      }
+    }
+
+    private JsonStreamParser newParser() {
+      JsonStreamParser parser = new JsonStreamParser(segments);
+      parser.seek(segment, offset);
+      return parser;
+    }
+
+    @Override
+    public String toString() {
+      JsonStreamParser parser = newParser();
+      try {
+        parser.skipValue();
+      } catch (IOException e) {
+        return "<invalid JSON>";
+      }
+      String first = segments.get(segment);
+      if (parser.segment == segment) {
+        return first.substring(offset, parser.position);
+      }
+      StringBuilder builder = new StringBuilder();
+      builder.append(first, offset, first.length());
+      for (int i = segment + 1; i < parser.segment; i++) {
+        builder.append(segments.get(i));
+      }
+      builder.append(parser.current, 0, parser.position);
+      return builder.toString();
+    }
+  }
+
+  private static final char EOF = (char) -1;
+
+  private final List<String> segments;
+  private int segment;
+  private String current;
+  private int position;
+
+  private List<String> path;
+  private List<String> deferredPath;
+
+  private JsonStreamParser(List<String> segments) {
+    this.segments = segments;
+    this.segment = 0;
+    this.current = segments.isEmpty() ? "" : segments.get(0);
+    this.position = 0;
+  }
+
+  public static Map<String, Object> parseJson(List<String> segments) throws IOException {
+    return parseJson(segments, Collections.<String>emptyList());
+  }
+
+  /**
+   * Parses a JSON object into HashMaps, ArrayLists and boxed primitives.
+   *
+   * @param segments The segments that make up the JSON document
+   * @param deferredPath The key path at which decoding is deferred, or an empty list to decode
+   *     everything eagerly. The value at this path, if any, is returned as a {@link DeferredValue}.
+   * @return The parsed object
+   * @throws IOException If the document is not a valid JSON object
+   */
+  @SuppressWarnings("unchecked")
+  public static Map<String, Object> parseJson(List<String> segments, List<String> deferredPath)
+      throws IOException {
+    JsonStreamParser parser = new JsonStreamParser(segments);
+    if (!deferredPath.isEmpty()) {
+      parser.path = new ArrayList<>(deferredPath.size());
+      parser.deferredPath = deferredPath;
+    }
+    if (parser.peek() != '{') {
+      throw parser.syntaxError("Expected an object");
+    }
+    Map<String, Object> result = (Map<String, Object>) parser.parseValue(DEFAULT_FACTORY, null);
+    if (parser.peek() != EOF) {
+      throw parser.syntaxError("Unexpected trailing characters");
+    }
+    return result;
+  }
+
+  public static Object parseJsonValue(List<String> segments, ValueFactory factory)
+      throws IOException {
+    JsonStreamParser parser = new JsonStreamParser(segments);
+    Object result = parser.parseValue(factory, null);
+    if (parser.peek() != EOF) {
+      throw parser.syntaxError("Unexpected trailing characters");
+    }
+    return result;
+  }
+
+  private void seek(int segment, int offset) {
+    this.segment = segment;
+    this.current = segments.get(segment);
+    this.position = offset;
+  }
+
+  /** Returns the next non-whitespace character without consuming it. */
+  private char peek() {
+    while (true) {
+      while (position < current.length()) {
+        char c = current.charAt(position);
+        if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+          return c;
+        }
+        position++;
+      }
+      if (!nextSegment()) {
+        return EOF;
+      }
+    }
+  }
+
+  /** Consumes and returns the next character, which may be whitespace. */
+  private char next() {
+    if (!hasRemaining()) {
+      return EOF;
+    }
+    return current.charAt(position++);
+  }
+
+  /** Moves past exhausted segments and returns whether there is any input left. */
+  private boolean hasRemaining() {
+    while (position >= current.length()) {
+      if (!nextSegment()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean nextSegment() {
+    if (segment + 1 >= segments.size()) {
+      return false;
+    }
+    segment++;
+    current = segments.get(segment);
+    position = 0;
+    return true;
+  }
+
+  private IOException syntaxError(String message) {
+    return new IOException(message + " at segment " + segment + ", offset " + position);
+  }
+
+  private boolean isDeferred() {
+    if (path == null || path.size() != deferredPath.size()) {
+      return false;
+    }
+    return path.equals(deferredPath);
+  }
+
+  private Object parseValue(ValueFactory factory, String key) throws IOException {
+    char c = peek();
+    if (key != null && isDeferred()) {
+      DeferredValue deferred = new DeferredValue(segments, segment, position);
+      skipValue();
+      return deferred;
+    }
+    switch (c) {
+      case '{':
+        next();
+        return parseObject(factory);
+      case '[':
+        next();
+        return parseArray(factory);
+      case '"':
+        next();
+        if (factory instanceof RawStringFactory) {
+          Object raw = parseRawString((RawStringFactory) factory);
+          if (raw != null) {
+            return raw;
+          }
+        }
+        return factory.newPrimitive(parseString());
+      case 't':
+        expectLiteral("true");
+        return factory.newPrimitive(Boolean.TRUE);
+      case 'f':
+        expectLiteral("false");
+        return factory.newPrimitive(Boolean.FALSE);
+      case 'n':
+        expectLiteral("null");
+        return factory.newPrimitive(null);
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return factory.newPrimitive(parseNumber());
+        }
+        throw syntaxError("Unexpected character '" + c + "'");
+    }
+  }
+
+  private Object parseObject(ValueFactory factory) throws IOException {
+    ObjectBuilder builder = factory.newObject();
+    if (peek() == '}') {
+      next();
+      return builder.build();
+    }
+    while (true) {
+      String key = parseKey();
+      boolean tracked = path != null && path.size() < deferredPath.size();
+      if (tracked) {
+        path.add(key);
+      }
+      builder.put(key, parseValue(factory, key));
+      if (tracked) {
+        path.remove(path.size() - 1);
+      }
+      if (endOfContainer('}')) {
+        return builder.build();
+      }
+    }
+  }
+
+  private Object parseArray(ValueFactory factory) throws IOException {
+    ArrayBuilder builder = factory.newArray();
+    if (peek() == ']') {
+      next();
+      return builder.build();
+    }
+    // Arrays don't contribute to the deferred key path, so suspend tracking while inside them.
+    List<String> savedPath = path;
+    path = null;
+    try {
+      while (true) {
+        builder.add(parseValue(factory, null));
+        if (endOfContainer(']')) {
+          return builder.build();
+        }
+      }
+    } finally {
+      path = savedPath;
+    }
+  }
+
+  private String parseKey() throws IOException {
+    if (peek() != '"') {
+      throw syntaxError("Expected a key");
+    }
+    next();
+    String key = parseString();
+    if (peek() != ':') {
+      throw syntaxError("Expected ':'");
+    }
+    next();
+    return key;
+  }
+
+  /** Consumes the separator after a container element and returns true at the container end. */
+  private boolean endOfContainer(char closing) throws IOException {
+    char c = peek();
+    next();
+    if (c == closing) {
+      return true;
+    } else if (c != ',') {
+      throw syntaxError("Expected ',' or '" + closing + "'");
+    }
+    return false;
+  }
+
+  private void expectLiteral(String literal) throws IOException {
+    for (int i = 0; i < literal.length(); i++) {
+      if (next() != literal.charAt(i)) {
+        throw syntaxError("Expected '" + literal + "'");
+      }
+    }
+  }
+
+  /** Parses a string whose opening quote was already consumed. */
+  private String parseString() throws IOException {
+    // Fast path: the string doesn't contain escapes and doesn't span multiple segments.
+    for (int i = position; i < current.length(); i++) {
+      char c = current.charAt(i);
+      if (c == '"') {
+        String result = current.substring(position, i);
+        position = i + 1;
+        return result;
+      } else if (c == '\\') {
+        break;
+      }
+    }
+
+    StringBuilder builder = new StringBuilder();
+    while (true) {
+      char c = next();
+      if (c == '"') {
+        return builder.toString();
+      } else if (c == '\\') {
+        c = next();
+        switch (c) {
+          case 'b':
+            builder.append('\b');
+            break;
+          case 't':
+            builder.append('\t');
+            break;
+          case 'n':
+            builder.append('\n');
+            break;
+          case 'f':
+            builder.append('\f');
+            break;
+          case 'r':
+            builder.append('\r');
+            break;
+          case 'u':
+            int codePoint = 0;
+            for (int i = 0; i < 4; i++) {
+              int digit = Character.digit(next(), 16);
+              if (digit < 0) {
+                throw syntaxError("Invalid unicode escape");
+              }
+              codePoint = (codePoint << 4) | digit;
+            }
+            builder.append((char) codePoint);
+            break;
+          case '"':
+          case '\\':
+          case '/':
+            builder.append(c);
+            break;
+          default:
+            throw syntaxError("Invalid escape sequence");
+        }
+      } else if (c == EOF && !hasRemaining()) {
+        throw syntaxError("Unterminated string");
+      } else {
+        builder.append(c);
+      }
+    }
+  }
+
+  /**
+   * Parses a string whose opening quote was already consumed into its raw form. Returns null
+   * without consuming anything if the string is shorter than the factory's threshold, or if it
+   * contains unpaired surrogates, which can't be encoded in UTF-8.
+   */
+  private Object parseRawString(RawStringFactory factory) throws IOException {
+    // Most strings are short and end within the current segment, so look for the closing quote
+    // before scanning the whole string.
+    int threshold = factory.getRawStringThreshold();
+    int limit = Math.min(current.length(), position + threshold);
+    for (int i = position; i < limit; i++) {
+      char c = current.charAt(i);
+      if (c == '"') {
+        return null;
+      } else if (c == '\\') {
+        i++;
+      }
+    }
+
+    int startSegment = segment;
+    int startPosition = position;
+    int length = 0;
+    int byteCount = 0;
+    boolean hasEscapes = false;
+    while (true) {
+      char c = next();
+      if (c == '"') {
+        break;
+      } else if (c == EOF && !hasRemaining()) {
+        throw syntaxError("Unterminated string");
+      } else if (c == '\\') {
+        hasEscapes = true;
+        char escaped = next();
+        if (escaped == 'u') {
+          for (int i = 0; i < 4; i++) {
+            if (Character.digit(next(), 16) < 0) {
+              throw syntaxError("Invalid unicode escape");
+            }
+          }
+          length += 6;
+          byteCount += 6;
+        } else if ("btnfr\"\\/".indexOf(escaped) >= 0) {
+          length += 2;
+          byteCount += 2;
+        } else {
+          throw syntaxError("Invalid escape sequence");
+        }
+      } else if (Character.isHighSurrogate(c)) {
+        if (!hasRemaining() || !Character.isLowSurrogate(current.charAt(position))) {
+          seek(startSegment, startPosition);
+          return null;
+        }
+        next();
+        length += 2;
+        byteCount += 4;
+      } else if (Character.isLowSurrogate(c)) {
+        seek(startSegment, startPosition);
+        return null;
+      } else {
+        length++;
+        byteCount += c < 0x80 ? 1 : (c < 0x800 ? 2 : 3);
+      }
+    }
+    if (length < threshold) {
+      seek(startSegment, startPosition);
+      return null;
+    }
+
+    // The string is valid, so encode it without checking again
+    seek(startSegment, startPosition);
+    byte[] utf8 = new byte[byteCount];
+    int index = 0;
+    while (index < byteCount) {
+      char c = next();
+      if (c == '\\') {
+        utf8[index++] = '\\';
+        char escaped = next();
+        utf8[index++] = (byte) escaped;
+        if (escaped == 'u') {
+          for (int i = 0; i < 4; i++) {
+            utf8[index++] = (byte) next();
+          }
+        }
+      } else if (c < 0x80) {
+        utf8[index++] = (byte) c;
+      } else if (c < 0x800) {
+        utf8[index++] = (byte) (0xc0 | (c >> 6));
+        utf8[index++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c)) {
+        int codePoint = Character.toCodePoint(c, next());
+        utf8[index++] = (byte) (0xf0 | (codePoint >> 18));
+        utf8[index++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        utf8[index++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        utf8[index++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else {
+        utf8[index++] = (byte) (0xe0 | (c >> 12));
+        utf8[index++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        utf8[index++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    // Consume the closing quote
+    next();
+    return factory.newRawString(utf8, hasEscapes);
+  }
+
+  private Object parseNumber() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    boolean integral = true;
+    while (hasRemaining()) {
+      char c = current.charAt(position);
+      if ((c >= '0' && c <= '9') || c == '-') {
+        builder.append(c);
+      } else if (c == '.' || c == 'e' || c == 'E' || c == '+') {
+        integral = false;
+        builder.append(c);
+      } else {
+        break;
+      }
+      position++;
+    }
+    String number = builder.toString();
+    try {
+      if (integral) {
+        try {
+          long longValue = Long.parseLong(number);
+          if (longValue >= Integer.MIN_VALUE && longValue <= Integer.MAX_VALUE) {
+            return (int) longValue;
+          }
+          return longValue;
+        } catch (NumberFormatException e) {
+          // Too large for a long
+        }
+      }
+      return Double.parseDouble(number);
+    } catch (NumberFormatException e) {
+      throw syntaxError("Invalid number '" + number + "'");
+    }
+  }
+
+  /** Validates the next value and moves past it without decoding it. */
+  private void skipValue() throws IOException {
+    char c = peek();
+    switch (c) {
+      case '{':
+        next();
+        if (peek() == '}') {
+          next();
+          return;
+        }
+        do {
+          if (peek() != '"') {
+            throw syntaxError("Expected a key");
+          }
+          next();
+          skipString();
+          if (peek() != ':') {
+            throw syntaxError("Expected ':'");
+          }
+          next();
+          skipValue();
+        } while (!endOfContainer('}'));
+        break;
+      case '[':
+        next();
+        if (peek() == ']') {
+          next();
+          return;
+        }
+        do {
+          skipValue();
+        } while (!endOfContainer(']'));
+        break;
+      case '"':
+        next();
+        skipString();
+        break;
+      default:
+        // Other primitives are short, so they are simply parsed.
+        parseValue(DEFAULT_FACTORY, null);
+        break;
+    }
+  }
+
+  private void skipString() throws IOException {
+    while (true) {
+      char c = next();
+      if (c == '"') {
+        return;
+      } else if (c == '\\') {
+        next();
+      } else if (c == EOF && !hasRemaining()) {
+        throw syntaxError("Unterminated string");
+      }
+    }
+  }
+}
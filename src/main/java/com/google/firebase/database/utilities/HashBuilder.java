@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.utilities;
+
+import com.google.common.io.BaseEncoding;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the base64 encoded SHA-1 digest of a string that is appended piece by piece, without
+ * ever materializing the whole string. Characters are encoded as UTF-8 into a small buffer that is
+ * fed to the digest whenever it fills up. The result is identical to
+ * {@link Utilities#sha1HexDigest(String)} over the concatenation of all appended pieces.
+ *
+ * <p>Each thread reuses one builder, along with its MessageDigest. A builder that is requested
+ * while the thread's builder is still in use (i.e. when hashes are computed re-entrantly) is
+ * allocated fresh. Builders must not be shared between threads.
+ */
+public final class HashBuilder {
+
+  private static final int BUFFER_SIZE = 512;
+
+  private static final ThreadLocal<HashBuilder> threadBuilder =
+      new ThreadLocal<HashBuilder>() {
+        @Override
+        protected HashBuilder initialValue() {
+          return new HashBuilder();
+        }
+      };
+
+  private final MessageDigest digest;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int position;
+  private int length;
+  private char pendingHighSurrogate;
+  private boolean inUse;
+
+  private HashBuilder() {
+    try {
+      this.digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Missing SHA-1 MessageDigest provider.", e);
+    }
+  }
+
+  /**
+   * Returns an empty builder. {@link #build()} or {@link #release()} must be called to make it
+   * reusable again; callers release it in a finally block, so that an exception doesn't leave the
+   * thread's builder marked as in use.
+   */
+  public static HashBuilder newBuilder() {
+    HashBuilder builder = threadBuilder.get();
+    if (builder.inUse) {
+      builder = new HashBuilder();
+    }
+    builder.inUse = true;
+    return builder;
+  }
+
+  public HashBuilder append(String value) {
+    int valueLength = value.length();
+    for (int i = 0; i < valueLength; i++) {
+      append(value.charAt(i));
+    }
+    return this;
+  }
+
+  public HashBuilder append(char c) {
+    length++;
+    if (pendingHighSurrogate != 0) {
+      char high = pendingHighSurrogate;
+      pendingHighSurrogate = 0;
+      if (Character.isLowSurrogate(c)) {
+        writeCodePoint(Character.toCodePoint(high, c));
+        return this;
+      }
+      // Unpaired surrogates can't be encoded; String.getBytes() replaces them with '?'.
+      writeByte('?');
+    }
+    if (c < 0x80) {
+      writeByte(c);
+    } else if (c < 0x800) {
+      ensureCapacity(2);
+      buffer[position++] = (byte) (0xc0 | (c >> 6));
+      buffer[position++] = (byte) (0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c)) {
+      pendingHighSurrogate = c;
+    } else if (Character.isLowSurrogate(c)) {
+      writeByte('?');
+    } else {
+      ensureCapacity(3);
+      buffer[position++] = (byte) (0xe0 | (c >> 12));
+      buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      buffer[position++] = (byte) (0x80 | (c & 0x3f));
+    }
+    return this;
+  }
+
+  /**
+   * Appends characters that are already UTF-8 encoded. Each byte counts as one character towards
+   * {@link #length()}.
+   */
+  public HashBuilder appendUtf8(byte[] bytes, int offset, int count) {
+    if (count == 0) {
+      return this;
+    }
+    if (pendingHighSurrogate != 0) {
+      pendingHighSurrogate = 0;
+      writeByte('?');
+    }
+    length += count;
+    if (position + count > BUFFER_SIZE) {
+      digest.update(buffer, 0, position);
+      position = 0;
+      digest.update(bytes, offset, count);
+    } else {
+      System.arraycopy(bytes, offset, buffer, position, count);
+      position += count;
+    }
+    return this;
+  }
+
+  /** Returns the number of characters appended so far. */
+  public int length() {
+    return length;
+  }
+
+  /** Returns the base64 encoded SHA-1 digest of everything appended, and resets the builder. */
+  public String build() {
+    if (pendingHighSurrogate != 0) {
+      pendingHighSurrogate = 0;
+      writeByte('?');
+    }
+    digest.update(buffer, 0, position);
+    String hash = BaseEncoding.base64().encode(digest.digest());
+    position = 0;
+    length = 0;
+    inUse = false;
+    return hash;
+  }
+
+  /**
+   * Discards everything appended so far, and makes the builder reusable. Does nothing if the
+   * builder has already been built.
+   */
+  public void release() {
+    if (inUse) {
+      digest.reset();
+      position = 0;
+      length = 0;
+      pendingHighSurrogate = 0;
+      inUse = false;
+    }
+  }
+
+  private void writeCodePoint(int codePoint) {
+    ensureCapacity(4);
+    buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+    buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+  }
+
+  private void writeByte(int b) {
+    ensureCapacity(1);
+    buffer[position++] = (byte) b;
+  }
+
+  private void ensureCapacity(int bytes) {
+    if (position + bytes > BUFFER_SIZE) {
+      digest.update(buffer, 0, position);
+      position = 0;
+    }
+  }
+}
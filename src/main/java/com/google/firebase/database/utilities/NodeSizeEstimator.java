@@ -16,6 +16,8 @@
 
 package com.google.firebase.database.utilities;
 
+import com.google.firebase.database.snapshot.BigDecimalNode;
+import com.google.firebase.database.snapshot.BigIntegerNode;
 import com.google.firebase.database.snapshot.BooleanNode;
 import com.google.firebase.database.snapshot.ChildrenNode;
 import com.google.firebase.database.snapshot.DoubleNode;
@@ -25,6 +27,8 @@ import com.google.firebase.database.snapshot.NamedNode;
 import com.google.firebase.database.snapshot.Node;
 import com.google.firebase.database.snapshot.StringNode;
 
+import java.util.Set;
+
 public class NodeSizeEstimator {
 
   /**
@@ -45,7 +49,10 @@ public class NodeSizeEstimator {
     } else if (node instanceof BooleanNode) {
       valueSize = 4; // true or false need roughly 4 bytes
     } else if (node instanceof StringNode) {
-      valueSize = 2 + ((String) node.getValue()).length(); // add 2 for quotes
+      // add 2 for quotes, and don't decode strings that are still raw
+      valueSize = 2 + ((StringNode) node).estimateLength();
+    } else if (node instanceof BigDecimalNode || node instanceof BigIntegerNode) {
+      valueSize = node.getValue().toString().length();
     } else {
       throw new IllegalArgumentException("Unknown leaf node type: " + node.getClass());
     }
@@ -59,6 +66,15 @@ public class NodeSizeEstimator {
   }
 
   public static long estimateSerializedNodeSize(Node node) {
+    return estimateSerializedNodeSize(node, Long.MAX_VALUE, null);
+  }
+
+  /**
+   * Estimates the size of the given node like {@link #estimateSerializedNodeSize(Node)}, and adds
+   * every node with children whose estimated size exceeds the threshold to the given set. The tree
+   * is only walked once.
+   */
+  public static long estimateSerializedNodeSize(Node node, long threshold, Set<Node> largerNodes) {
     if (node.isEmpty()) {
       return 4; // null keyword
     } else if (node.isLeafNode()) {
@@ -69,12 +85,15 @@ public class NodeSizeEstimator {
       for (NamedNode entry : node) {
         sum += entry.getName().asString().length(); // key
         sum += 4; // quotes around key and colon and (comma or closing bracket)
-        sum += estimateSerializedNodeSize(entry.getNode());
+        sum += estimateSerializedNodeSize(entry.getNode(), threshold, largerNodes);
       }
       if (!node.getPriority().isEmpty()) {
         sum += 12; // "overhead for ".priority", key and colon and comma
         sum += estimateLeafNodeSize((LeafNode<?>) node.getPriority());
       }
+      if (sum > threshold && largerNodes != null) {
+        largerNodes.add(node);
+      }
       return sum;
     }
   }
@@ -16,53 +16,115 @@
 
 package com.google.firebase.database.utilities;
 
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 
-/** User: greg Date: 5/23/13 Time: 1:27 PM */
+/**
+ * Generates push ids: an 8 character timestamp followed by 12 random characters. Ids generated in
+ * the same millisecond increment the random suffix of the previous one, so ids created in this
+ * process always sort in creation order, whichever thread created them.
+ *
+ * <p>The last timestamp and suffix are kept in a single immutable state, which is advanced with a
+ * compare-and-set rather than behind a lock. Random suffixes are drawn from {@link
+ * ThreadLocalRandom}, so threads don't contend on a shared random generator either.
+ */
 public class PushIdGenerator {
 
   private static final String PUSH_CHARS =
       "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
 
-  private static final Random randGen = new Random();
-  private static final int[] lastRandChars = new int[12];
-  private static long lastPushTime = 0L;
+  private static final AtomicReference<State> lastState =
+      new AtomicReference<>(new State(0L, new int[12]));
 
-  public static synchronized String generatePushChildName(long now) {
-    final boolean duplicateTime = (now == lastPushTime);
-    lastPushTime = now;
+  public static String generatePushChildName(long now) {
+    State current;
+    State next;
+    do {
+      current = lastState.get();
+      next = current.next(now);
+    } while (!lastState.compareAndSet(current, next));
+    return next.toName();
+  }
 
-    char[] timeStampChars = new char[8];
-    StringBuilder result = new StringBuilder(20);
-    for (int i = 7; i >= 0; i--) {
-      timeStampChars[i] = PUSH_CHARS.charAt((int) (now % 64));
-      now = now / 64;
+  /**
+   * Generates {@code count} push ids for the given time, in ascending order. The ids are reserved
+   * together, so they sort after any id previously generated for the same time and before any id
+   * generated afterwards.
+   */
+  public static List<String> generatePushChildNames(long now, int count) {
+    if (count == 0) {
+      return Collections.emptyList();
     }
-    assert (now == 0);
+    State[] states = new State[count];
+    State current;
+    do {
+      current = lastState.get();
+      State next = current;
+      for (int i = 0; i < count; i++) {
+        next = next.next(now);
+        states[i] = next;
+      }
+    } while (!lastState.compareAndSet(current, states[count - 1]));
 
-    result.append(timeStampChars);
+    List<String> names = new ArrayList<>(count);
+    for (State state : states) {
+      names.add(state.toName());
+    }
+    return names;
+  }
 
-    if (!duplicateTime) {
-      for (int i = 0; i < 12; i++) {
-        lastRandChars[i] = randGen.nextInt(64);
+  /** The timestamp and random suffix of the last generated id. Never modified once created. */
+  private static final class State {
+
+    private final long pushTime;
+    private final int[] randChars;
+
+    private State(long pushTime, int[] randChars) {
+      this.pushTime = pushTime;
+      this.randChars = randChars;
+    }
+
+    State next(long now) {
+      int[] nextRandChars;
+      if (now == pushTime) {
+        nextRandChars = randChars.clone();
+        incrementArray(nextRandChars);
+      } else {
+        nextRandChars = new int[12];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < 12; i++) {
+          nextRandChars[i] = random.nextInt(64);
+        }
       }
-    } else {
-      incrementArray();
+      return new State(now, nextRandChars);
     }
-    for (int i = 0; i < 12; i++) {
-      result.append(PUSH_CHARS.charAt(lastRandChars[i]));
+
+    String toName() {
+      char[] result = new char[20];
+      long time = pushTime;
+      for (int i = 7; i >= 0; i--) {
+        result[i] = PUSH_CHARS.charAt((int) (time % 64));
+        time = time / 64;
+      }
+      assert (time == 0);
+
+      for (int i = 0; i < 12; i++) {
+        result[8 + i] = PUSH_CHARS.charAt(randChars[i]);
+      }
+      return new String(result);
     }
-    assert (result.length() == 20);
-    return result.toString();
-  }
 
-  private static void incrementArray() {
-    for (int i = 11; i >= 0; i--) {
-      if (lastRandChars[i] != 63) {
-        lastRandChars[i] = lastRandChars[i] + 1;
-        return;
+    private static void incrementArray(int[] chars) {
+      for (int i = 11; i >= 0; i--) {
+        if (chars[i] != 63) {
+          chars[i] = chars[i] + 1;
+          return;
+        }
+        chars[i] = 0;
       }
-      lastRandChars[i] = 0;
     }
   }
 }
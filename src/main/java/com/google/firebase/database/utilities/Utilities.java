@@ -16,7 +16,6 @@
 
 package com.google.firebase.database.utilities;
 
-import com.google.common.io.BaseEncoding;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseException;
 import com.google.firebase.database.DatabaseReference;
@@ -29,8 +28,6 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Map;
 
@@ -107,16 +104,7 @@ public class Utilities {
   }
 
   public static String sha1HexDigest(String input) {
-    try {
-      MessageDigest md = MessageDigest.getInstance("SHA-1");
-      md.update(input.getBytes("UTF-8"));
-      byte[] bytes = md.digest();
-      return BaseEncoding.base64().encode(bytes);
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException("Missing SHA-1 MessageDigest provider.", e);
-    } catch (UnsupportedEncodingException e) {
-      throw new RuntimeException("UTF-8 encoding is required for Firebase Database to run!");
-    }
+    return HashBuilder.newBuilder().append(input).build();
   }
 
   public static String stringHashV2Representation(String value) {
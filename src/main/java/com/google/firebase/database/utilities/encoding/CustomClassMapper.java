@@ -24,12 +24,17 @@ import com.google.firebase.database.GenericTypeIndicator;
 import com.google.firebase.database.IgnoreExtraProperties;
 import com.google.firebase.database.PropertyName;
 import com.google.firebase.database.ThrowOnExtraProperties;
+import com.google.firebase.database.snapshot.ChildrenNode;
+import com.google.firebase.database.snapshot.NamedNode;
+import com.google.firebase.database.snapshot.Node;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.GenericArrayType;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
@@ -57,6 +62,8 @@ public class CustomClassMapper {
 
   private static final ConcurrentMap<Class<?>, BeanMapper<?>> mappers = new ConcurrentHashMap<>();
 
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
   /**
    * Converts a Java representation of JSON data to standard library Java data types: Map, Array,
    * String, Double, Integer and Boolean. POJOs are converted to Java Maps.
@@ -77,7 +84,8 @@ public class CustomClassMapper {
 
   /**
    * Converts a standard library Java representation of JSON data to an object of the provided
-   * class.
+   * class. The data can also be given as a {@link Node}, which is then read directly rather than
+   * being converted to standard library types first.
    *
    * @param object The representation of the JSON data
    * @param clazz The class of the object to convert to
@@ -88,8 +96,8 @@ public class CustomClassMapper {
   }
 
   /**
-   * Converts a standard library Java representation of JSON data to an object of the class provided
-   * through the GenericTypeIndicator
+   * Converts a standard library Java representation of JSON data, or a {@link Node}, to an object
+   * of the class provided through the GenericTypeIndicator
    *
    * @param object The representation of the JSON data
    * @param typeIndicator The indicator providing class of the object to convert to
@@ -172,6 +180,7 @@ public class CustomClassMapper {
 
   @SuppressWarnings({"unchecked", "TypeParameterUnusedInFormals"})
   private static <T> T deserializeToType(Object obj, Type type) {
+    obj = unwrapLeaf(obj);
     if (obj == null) {
       return null;
     } else if (type instanceof ParameterizedType) {
@@ -190,8 +199,12 @@ public class CustomClassMapper {
 
   @SuppressWarnings("unchecked")
   private static <T> T deserializeToClass(Object obj, Class<T> clazz) {
+    obj = unwrapLeaf(obj);
     if (obj == null) {
       return null;
+    } else if (obj instanceof ChildrenNode && !isBean(clazz)) {
+      // Only beans read nodes with children directly, everything else expects a Map or List
+      return deserializeToClass(((Node) obj).getValue(), clazz);
     } else if (clazz.isPrimitive()
         || isPrimitiveNumeric(clazz)
         || Boolean.class.isAssignableFrom(clazz)
@@ -217,6 +230,53 @@ public class CustomClassMapper {
     }
   }
   
+  /** Returns whether deserializeToClass maps to the given class with a BeanMapper. */
+  private static boolean isBean(Class<?> clazz) {
+    return !clazz.isPrimitive()
+        && !isPrimitiveNumeric(clazz)
+        && !Boolean.class.isAssignableFrom(clazz)
+        && !Character.class.isAssignableFrom(clazz)
+        && !String.class.isAssignableFrom(clazz)
+        && !clazz.isArray()
+        && clazz.getTypeParameters().length == 0
+        && !clazz.equals(Object.class)
+        && !clazz.isEnum();
+  }
+
+  /**
+   * Returns the value of a leaf node, or null for an empty node. Nodes with children are returned
+   * as they are, and so is any other data.
+   */
+  private static Object unwrapLeaf(Object obj) {
+    if (obj instanceof Node) {
+      Node node = (Node) obj;
+      if (node.isEmpty()) {
+        return null;
+      } else if (node.isLeafNode()) {
+        return node.getValue();
+      }
+    }
+    return obj;
+  }
+
+  /** Returns the class of the standard library representation of the given data. */
+  private static Class<?> plainClass(Object obj) {
+    return obj instanceof Node ? ((Node) obj).getValue().getClass() : obj.getClass();
+  }
+
+  /**
+   * Rethrows an unchecked exception thrown by a bean's constructor or accessor as it is, so that
+   * callers see the bean's own exception. Checked exceptions are returned wrapped.
+   */
+  private static RuntimeException propagate(Throwable e) {
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    } else if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return new RuntimeException(e);
+  }
+
   private static <T> boolean isPrimitiveNumeric(Class<T> clazz) {
     return Number.class.isAssignableFrom(clazz) 
           && !BigDecimal.class.isAssignableFrom(clazz) 
@@ -236,9 +296,19 @@ public class CustomClassMapper {
           result.add(deserializeToType(object, genericType));
         }
         return (T) result;
+      }
+      int length = obj instanceof ChildrenNode ? ((ChildrenNode) obj).getArrayLength() : -1;
+      if (length >= 0) {
+        List<Object> result = new ArrayList<>(Collections.nCopies(length, null));
+        for (NamedNode child : (Node) obj) {
+          result.set(
+              Integer.parseInt(child.getName().asString()),
+              deserializeToType(child.getNode(), genericType));
+        }
+        return (T) result;
       } else {
         throw new DatabaseException(
-            "Expected a List while deserializing, but got a " + obj.getClass());
+            "Expected a List while deserializing, but got a " + plainClass(obj));
       }
     } else if (Map.class.isAssignableFrom(rawType)) {
       Type keyType = type.getActualTypeArguments()[0];
@@ -249,8 +319,14 @@ public class CustomClassMapper {
                 + "but found Map with key type "
                 + keyType);
       }
-      Map<String, Object> map = expectMap(obj);
       HashMap<String, Object> result = new HashMap<>();
+      if (isMapNode(obj)) {
+        for (NamedNode child : (Node) obj) {
+          result.put(child.getName().asString(), deserializeToType(child.getNode(), valueType));
+        }
+        return (T) result;
+      }
+      Map<String, Object> map = expectMap(obj);
       for (Map.Entry<String, Object> entry : map.entrySet()) {
         result.put(entry.getKey(), deserializeToType(entry.getValue(), valueType));
       }
@@ -258,7 +334,9 @@ public class CustomClassMapper {
     } else if (Collection.class.isAssignableFrom(rawType)) {
       throw new DatabaseException("Collections are not supported, please use Lists instead");
     } else {
-      Map<String, Object> map = expectMap(obj);
+      if (!isMapNode(obj)) {
+        expectMap(obj);
+      }
       BeanMapper<T> mapper = (BeanMapper<T>) loadOrCreateBeanMapperForClass(rawType);
       HashMap<TypeVariable<Class<T>>, Type> typeMapping = new HashMap<>();
       TypeVariable<Class<T>>[] typeVariables = mapper.clazz.getTypeParameters();
@@ -269,7 +347,7 @@ public class CustomClassMapper {
       for (int i = 0; i < typeVariables.length; i++) {
         typeMapping.put(typeVariables[i], types[i]);
       }
-      return mapper.deserialize(map, typeMapping);
+      return mapper.deserialize(obj, typeMapping);
     }
   }
 
@@ -336,10 +414,15 @@ public class CustomClassMapper {
       return (Map<String, Object>) object;
     } else {
       throw new DatabaseException(
-          "Expected a Map while deserializing, but got a " + object.getClass());
+          "Expected a Map while deserializing, but got a " + plainClass(object));
     }
   }
 
+  /** Returns whether the given data is a node whose standard library representation is a Map. */
+  private static boolean isMapNode(Object object) {
+    return object instanceof ChildrenNode && ((ChildrenNode) object).getArrayLength() < 0;
+  }
+
   private static Integer convertInteger(Object obj) {
     if (obj instanceof Integer) {
       return (Integer) obj;
@@ -423,12 +506,12 @@ public class CustomClassMapper {
 
   private static <T> T convertBean(Object obj, Class<T> clazz) {
     BeanMapper<T> mapper = loadOrCreateBeanMapperForClass(clazz);
-    if (obj instanceof Map) {
-      return mapper.deserialize(expectMap(obj));
+    if (obj instanceof Map || isMapNode(obj)) {
+      return mapper.deserialize(obj);
     } else {
       throw new DatabaseException(
           "Can't convert object of type "
-              + obj.getClass().getName()
+              + plainClass(obj).getName()
               + " to type "
               + clazz.getName());
     }
@@ -436,8 +519,14 @@ public class CustomClassMapper {
 
   private static class BeanMapper<T> {
 
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+    private static final MethodType GETTER_TYPE =
+        MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE =
+        MethodType.methodType(void.class, Object.class, Object.class);
+
     private final Class<T> clazz;
-    private final Constructor<T> constructor;
+    private final MethodHandle constructor;
     private final boolean throwOnUnknownProperties;
     private final boolean warnOnUnknownProperties;
     // Case insensitive mapping of properties to their case sensitive versions
@@ -447,6 +536,10 @@ public class CustomClassMapper {
     private final Map<String, Method> setters;
     private final Map<String, Field> fields;
 
+    // Accessors for the properties above, preferring getters and setters over fields
+    private final List<PropertyAccessor> readers;
+    private final Map<String, PropertyAccessor> writers;
+
     public BeanMapper(Class<T> clazz) {
       this.clazz = clazz;
       this.throwOnUnknownProperties = clazz.isAnnotationPresent(ThrowOnExtraProperties.class);
@@ -457,13 +550,16 @@ public class CustomClassMapper {
       this.getters = new HashMap<>();
       this.fields = new HashMap<>();
 
-      Constructor<T> constructor = null;
+      MethodHandle constructor;
       try {
-        constructor = clazz.getDeclaredConstructor();
-        constructor.setAccessible(true);
+        Constructor<T> declaredConstructor = clazz.getDeclaredConstructor();
+        declaredConstructor.setAccessible(true);
+        constructor = LOOKUP.unreflectConstructor(declaredConstructor).asType(CONSTRUCTOR_TYPE);
       } catch (NoSuchMethodException e) {
         // We will only fail at deserialization time if no constructor is present
         constructor = null;
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
       }
       this.constructor = constructor;
       // Add any public getters to properties (including isXyz())
@@ -546,6 +642,41 @@ public class CustomClassMapper {
       if (properties.isEmpty()) {
         throw new DatabaseException("No properties to serialize found on class " + clazz.getName());
       }
+
+      this.readers = new ArrayList<>(properties.size());
+      this.writers = new HashMap<>();
+      try {
+        for (String property : properties.values()) {
+          Method getter = getters.get(property);
+          Field field = fields.get(property);
+          if (getter != null) {
+            readers.add(new PropertyAccessor(property, getter.getGenericReturnType(),
+                LOOKUP.unreflect(getter).asType(GETTER_TYPE)));
+          } else if (field != null) {
+            readers.add(new PropertyAccessor(property, field.getGenericType(),
+                LOOKUP.unreflectGetter(field).asType(GETTER_TYPE)));
+          } else {
+            throw new IllegalStateException("Bean property without field or getter:" + property);
+          }
+        }
+        for (Map.Entry<String, Method> setter : setters.entrySet()) {
+          Type[] params = setter.getValue().getGenericParameterTypes();
+          if (params.length != 1) {
+            throw new IllegalStateException("Setter does not have exactly one " + "parameter");
+          }
+          writers.put(setter.getKey(), new PropertyAccessor(setter.getKey(), params[0],
+              LOOKUP.unreflect(setter.getValue()).asType(SETTER_TYPE)));
+        }
+        for (Map.Entry<String, Field> field : fields.entrySet()) {
+          if (!writers.containsKey(field.getKey())) {
+            writers.put(field.getKey(), new PropertyAccessor(field.getKey(),
+                field.getValue().getGenericType(),
+                LOOKUP.unreflectSetter(field.getValue()).asType(SETTER_TYPE)));
+          }
+        }
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
     }
 
     private static boolean shouldIncludeGetter(Method method) {
@@ -699,65 +830,64 @@ public class CustomClassMapper {
       }
     }
 
-    public T deserialize(Map<String, Object> values) {
+    /** Creates an instance from data that is either a Map or a {@link ChildrenNode}. */
+    public T deserialize(Object values) {
       return deserialize(values, Collections.<TypeVariable<Class<T>>, Type>emptyMap());
     }
 
-    public T deserialize(Map<String, Object> values, Map<TypeVariable<Class<T>>, Type> types) {
+    @SuppressWarnings("unchecked")
+    public T deserialize(Object values, Map<TypeVariable<Class<T>>, Type> types) {
       if (this.constructor == null) {
         throw new DatabaseException(
             "Class " + this.clazz.getName() + " is missing a constructor with no arguments");
       }
       T instance;
       try {
-        instance = this.constructor.newInstance();
-      } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
-        throw new RuntimeException(e);
+        instance = (T) (Object) this.constructor.invokeExact();
+      } catch (Throwable e) {
+        throw propagate(e);
       }
-      for (Map.Entry<String, Object> entry : values.entrySet()) {
-        String propertyName = entry.getKey();
-        if (this.setters.containsKey(propertyName)) {
-          Method setter = this.setters.get(propertyName);
-          Type[] params = setter.getGenericParameterTypes();
-          if (params.length != 1) {
-            throw new IllegalStateException("Setter does not have exactly one " + "parameter");
-          }
-          Type resolvedType = resolveType(params[0], types);
-          Object value = CustomClassMapper.deserializeToType(entry.getValue(), resolvedType);
-          try {
-            setter.invoke(instance, value);
-          } catch (IllegalAccessException | InvocationTargetException e) {
-            throw new RuntimeException(e);
-          }
-        } else if (this.fields.containsKey(propertyName)) {
-          Field field = this.fields.get(propertyName);
-          Type resolvedType = resolveType(field.getGenericType(), types);
-          Object value = CustomClassMapper.deserializeToType(entry.getValue(), resolvedType);
-          try {
-            field.set(instance, value);
-          } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-          }
-        } else {
-          String message =
-              "No setter/field for "
-                  + propertyName
-                  + " found "
-                  + "on class "
-                  + this.clazz.getName();
-          if (this.properties.containsKey(propertyName.toLowerCase())) {
-            message += " (fields/setters are case sensitive!)";
-          }
-          if (this.throwOnUnknownProperties) {
-            throw new DatabaseException(message);
-          } else if (this.warnOnUnknownProperties) {
-            logger.warn(message);
-          }
+      if (values instanceof Node) {
+        for (NamedNode child : (Node) values) {
+          setProperty(instance, child.getName().asString(), child.getNode(), types);
+        }
+      } else {
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) values).entrySet()) {
+          setProperty(instance, entry.getKey(), entry.getValue(), types);
         }
       }
       return instance;
     }
 
+    private void setProperty(
+        T instance, String propertyName, Object data, Map<TypeVariable<Class<T>>, Type> types) {
+      PropertyAccessor writer = this.writers.get(propertyName);
+      if (writer != null) {
+        Type resolvedType = resolveType(writer.type, types);
+        Object value = CustomClassMapper.deserializeToType(data, resolvedType);
+        try {
+          writer.handle.invokeExact((Object) instance, value);
+        } catch (Throwable e) {
+          throw propagate(e);
+        }
+      } else {
+        String message =
+            "No setter/field for "
+                + propertyName
+                + " found "
+                + "on class "
+                + this.clazz.getName();
+        if (this.properties.containsKey(propertyName.toLowerCase())) {
+          message += " (fields/setters are case sensitive!)";
+        }
+        if (this.throwOnUnknownProperties) {
+          throw new DatabaseException(message);
+        } else if (this.warnOnUnknownProperties) {
+          logger.warn(message);
+        }
+      }
+    }
+
     private Type resolveType(Type type, Map<TypeVariable<Class<T>>, Type> types) {
       if (type instanceof TypeVariable) {
         Type resolvedType = types.get(type);
@@ -780,33 +910,34 @@ public class CustomClassMapper {
                 + clazz);
       }
       Map<String, Object> result = new HashMap<>();
-      for (String property : this.properties.values()) {
+      for (PropertyAccessor reader : this.readers) {
         Object propertyValue;
-        if (this.getters.containsKey(property)) {
-          Method getter = this.getters.get(property);
-          try {
-            propertyValue = getter.invoke(object);
-          } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-          } catch (InvocationTargetException e) {
-            throw new RuntimeException(e);
-          }
-        } else {
-          // Must be a field
-          Field field = this.fields.get(property);
-          if (field == null) {
-            throw new IllegalStateException("Bean property without field or getter:" + property);
-          }
-          try {
-            propertyValue = field.get(object);
-          } catch (IllegalAccessException e) {
-            throw new RuntimeException(e);
-          }
+        try {
+          propertyValue = reader.handle.invokeExact((Object) object);
+        } catch (Throwable e) {
+          throw propagate(e);
         }
         Object serializedValue = CustomClassMapper.serialize(propertyValue);
-        result.put(property, serializedValue);
+        result.put(reader.name, serializedValue);
       }
       return result;
     }
   }
+
+  /**
+   * A bean property, with the method handle that reads or writes it. Getter handles take the bean
+   * and return the value, and setter handles take the bean and the value, all typed as Object.
+   */
+  private static final class PropertyAccessor {
+
+    private final String name;
+    private final Type type;
+    private final MethodHandle handle;
+
+    private PropertyAccessor(String name, Type type, MethodHandle handle) {
+      this.name = name;
+      this.type = type;
+      this.handle = handle;
+    }
+  }
 }
@@ -25,18 +25,34 @@ import static org.junit.Assert.fail;
 import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.GenericJson;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
 import com.google.api.client.testing.http.MockLowLevelHttpResponse;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.common.collect.ImmutableList;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.ThreadManager;
 import com.google.firebase.auth.UserRecord.CreateRequest;
+import com.google.firebase.auth.UserRecord.ImportRequest;
 import com.google.firebase.auth.UserRecord.UpdateRequest;
 import com.google.firebase.internal.SdkUtils;
 import com.google.firebase.testing.TestUtils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Test;
 
 public class FirebaseUserManagerTest {
@@ -468,6 +484,205 @@ public class FirebaseUserManagerTest {
     }
   }
 
+  @Test
+  public void testGetUsersInBatches() throws Exception {
+    MultiResponseTransport transport = new MultiResponseTransport(
+        TestUtils.loadResource("getUser.json"), TestUtils.loadResource("getUserError.json"));
+    FirebaseUserManager userManager = new FirebaseUserManager(gson, transport, credentials);
+    List<String> uids = new ArrayList<>();
+    for (int i = 0; i < 150; i++) {
+      uids.add("user" + i);
+    }
+    List<UserRecord> users = userManager.getUsers(uids);
+    assertEquals(1, users.size());
+    checkUserRecord(users.get(0));
+
+    assertEquals(2, transport.requests.size());
+    assertEquals(100, ((List<?>) transport.requests.get(0).get("localId")).size());
+    assertEquals(50, ((List<?>) transport.requests.get(1).get("localId")).size());
+  }
+
+  @Test
+  public void testImportUsers() throws Exception {
+    MultiResponseTransport transport = new MultiResponseTransport(
+        TestUtils.loadResource("deleteUser.json"),
+        TestUtils.loadResource("importUsersError.json"));
+    FirebaseUserManager userManager = new FirebaseUserManager(gson, transport, credentials);
+    List<ImportRequest> requests = new ArrayList<>();
+    for (int i = 0; i < 1500; i++) {
+      requests.add(new ImportRequest("user" + i).setEmail("user" + i + "@example.com"));
+    }
+    UserImportResult result = userManager.importUsers(requests);
+    assertEquals(1499, result.getSuccessCount());
+    assertEquals(1, result.getFailureCount());
+    assertEquals(1003, result.getErrors().get(0).getIndex());
+    assertEquals("DUPLICATE_LOCAL_ID", result.getErrors().get(0).getReason());
+
+    assertEquals(2, transport.requests.size());
+    List<?> firstBatch = (List<?>) transport.requests.get(0).get("users");
+    assertEquals(1000, firstBatch.size());
+    assertEquals("user0", ((Map<?, ?>) firstBatch.get(0)).get("localId"));
+    assertEquals(500, ((List<?>) transport.requests.get(1).get("users")).size());
+  }
+
+  @Test
+  public void testImportUsersStopsAfterFailedBatch() throws Exception {
+    MultiResponseTransport transport = new MultiResponseTransport(
+        TestUtils.loadResource("deleteUser.json"), "{\"not\" json}",
+        TestUtils.loadResource("deleteUser.json"));
+    FirebaseUserManager userManager = new FirebaseUserManager(gson, transport, credentials);
+    List<ImportRequest> requests = new ArrayList<>();
+    for (int i = 0; i < 2500; i++) {
+      requests.add(new ImportRequest("user" + i));
+    }
+    try {
+      userManager.importUsers(requests);
+      fail("No error thrown for failed batch");
+    } catch (FirebaseAuthException e) {
+      assertEquals(FirebaseUserManager.USER_IMPORT_ERROR, e.getErrorCode());
+      assertTrue(e.getCause() instanceof IOException);
+    }
+    assertEquals(2, transport.requests.size());
+  }
+
+  @Test
+  public void testBulkRequestsAreBounded() throws Exception {
+    MultiResponseTransport transport = new MultiResponseTransport(
+        TestUtils.loadResource("getUserError.json"));
+    transport.delayMillis = 20;
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      FirebaseUserManager userManager = new FirebaseUserManager(
+          gson, transport, credentials, executor, 3);
+      List<String> uids = new ArrayList<>();
+      for (int i = 0; i < 2000; i++) {
+        uids.add("user" + i);
+      }
+      assertTrue(userManager.getUsers(uids).isEmpty());
+      assertEquals(20, transport.requests.size());
+      assertTrue(transport.maxInFlight.get() <= 3);
+      assertTrue(transport.maxInFlight.get() > 1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testListUsers() throws Exception {
+    MultiResponseTransport transport = new MultiResponseTransport(
+        TestUtils.loadResource("listUsers.json"),
+        TestUtils.loadResource("getUser.json"));
+    FirebaseUserManager userManager = new FirebaseUserManager(gson, transport, credentials);
+    ListUsersPage page = userManager.listUsers(null, 2);
+    assertEquals(2, page.getValues().size());
+    assertEquals("user1", page.getValues().get(0).getUid());
+    assertTrue(page.hasNextPage());
+    assertEquals("token", page.getNextPageToken());
+
+    ListUsersPage nextPage = page.getNextPage();
+    assertEquals(1, nextPage.getValues().size());
+    checkUserRecord(nextPage.getValues().get(0));
+    assertFalse(nextPage.hasNextPage());
+    assertNull(nextPage.getNextPage());
+
+    assertEquals(2, transport.requests.size());
+    assertNull(transport.requests.get(0).get("nextPageToken"));
+    assertEquals("token", transport.requests.get(1).get("nextPageToken"));
+  }
+
+  @Test
+  public void testListUsersIterateAll() throws Exception {
+    MultiResponseTransport transport = new MultiResponseTransport(
+        TestUtils.loadResource("listUsers.json"),
+        TestUtils.loadResource("listUsers.json"),
+        TestUtils.loadResource("getUser.json"));
+    FirebaseUserManager userManager = new FirebaseUserManager(gson, transport, credentials);
+    List<String> uids = new ArrayList<>();
+    for (UserRecord user : userManager.listUsers(null, 2).iterateAll()) {
+      uids.add(user.getUid());
+    }
+    assertEquals(ImmutableList.of("user1", "user2", "user1", "user2", "testuser"), uids);
+    assertEquals(3, transport.requests.size());
+  }
+
+  @Test
+  public void testUserImporter() {
+    Map<String, Object> map = new ImportRequest("test")
+        .setDisplayName("Display Name")
+        .setPhotoUrl("http://test.com/example.png")
+        .setEmail("test@example.com")
+        .setPhoneNumber("+1234567890")
+        .setEmailVerified(true)
+        .setDisabled(false)
+        .getProperties();
+    assertEquals(7, map.size());
+    assertEquals("test", map.get("localId"));
+    assertEquals("Display Name", map.get("displayName"));
+    assertEquals("http://test.com/example.png", map.get("photoUrl"));
+    assertEquals("test@example.com", map.get("email"));
+    assertEquals("+1234567890", map.get("phoneNumber"));
+    assertTrue((Boolean) map.get("emailVerified"));
+    assertFalse((Boolean) map.get("disabled"));
+  }
+
+  @Test
+  public void testInvalidImportUid() {
+    try {
+      new ImportRequest(null);
+      fail("No error thrown for null uid");
+    } catch (Exception ignore) {
+      // expected
+    }
+
+    try {
+      new ImportRequest(String.format("%0129d", 0));
+      fail("No error thrown for long uid");
+    } catch (Exception ignore) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testBulkRequestsWithSingleThreadedAppExecutor() throws Exception {
+    MultiResponseTransport transport = new MultiResponseTransport(
+        TestUtils.loadResource("getUserError.json"));
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    FirebaseOptions options = new FirebaseOptions.Builder()
+        .setCredentials(credentials)
+        .setHttpTransport(transport)
+        .setThreadManager(new ThreadManager() {
+          @Override
+          protected ExecutorService getExecutor(FirebaseApp app) {
+            return executor;
+          }
+
+          @Override
+          protected void releaseExecutor(FirebaseApp app, ExecutorService executor) {
+          }
+
+          @Override
+          protected ThreadFactory getThreadFactory() {
+            return Executors.defaultThreadFactory();
+          }
+        })
+        .build();
+    FirebaseApp app = FirebaseApp.initializeApp(options, "testBulkRequests");
+    try {
+      List<String> uids = new ArrayList<>();
+      for (int i = 0; i < 250; i++) {
+        uids.add("user" + i);
+      }
+      // The operation occupies the only app thread while it waits for its batches.
+      List<UserRecord> users =
+          FirebaseAuth.getInstance(app).getUsersAsync(uids).get(10, TimeUnit.SECONDS);
+      assertTrue(users.isEmpty());
+      assertEquals(3, transport.requests.size());
+    } finally {
+      app.delete();
+      executor.shutdownNow();
+    }
+  }
+
   private void checkUserRecord(UserRecord userRecord) {
     assertEquals("testuser", userRecord.getUid());
     assertEquals("testuser@example.com", userRecord.getEmail());
@@ -504,6 +719,50 @@ public class FirebaseUserManagerTest {
     assertEquals(clientVersion, headers.getFirstHeaderStringValue("X-Client-Version"));
   }
 
+  /**
+   * Serves the given responses in order, repeating the last one, and records the JSON payload of
+   * every request.
+   */
+  private static class MultiResponseTransport extends MockHttpTransport {
+
+    private final List<String> responses;
+    private final List<GenericJson> requests =
+        Collections.synchronizedList(new ArrayList<GenericJson>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private volatile long delayMillis;
+
+    MultiResponseTransport(String... responses) {
+      this.responses = ImmutableList.copyOf(responses);
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          int index;
+          synchronized (requests) {
+            requests.add(gson.fromString(getContentAsString(), GenericJson.class));
+            index = Math.min(requests.size(), responses.size()) - 1;
+          }
+          int current = inFlight.incrementAndGet();
+          while (current > maxInFlight.get()) {
+            maxInFlight.compareAndSet(maxInFlight.get(), current);
+          }
+          try {
+            Thread.sleep(delayMillis);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          } finally {
+            inFlight.decrementAndGet();
+          }
+          return new MockLowLevelHttpResponse().setContent(responses.get(index));
+        }
+      };
+    }
+  }
+
   private static class TestResponseInterceptor implements HttpResponseInterceptor {
 
     private HttpResponse response;
@@ -30,7 +30,9 @@ import com.google.api.client.json.webtoken.JsonWebToken;
 import com.google.api.client.json.webtoken.JsonWebToken.Payload;
 import com.google.api.client.testing.http.FixedClock;
 import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
 import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.Clock;
 import com.google.common.io.BaseEncoding;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.FirebaseToken;
@@ -44,6 +46,7 @@ import java.security.PrivateKey;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -70,20 +73,17 @@ public class FirebaseTokenVerifierTest {
           + "U2NH0.ZWEpoHgIPCAz8Q-cNFBS8jiqClTJ3j27yuRkQo-QxyI";
   @Rule public ExpectedException thrown = ExpectedException.none();
   private PrivateKey privateKey;
+  private String serviceAccountCertificates;
   private FirebaseTokenVerifier verifier;
 
   private void initCrypto(String privateKey, String certificate)
       throws NoSuchAlgorithmException, InvalidKeySpecException {
     byte[] privateBytes = BaseEncoding.base64().decode(privateKey);
     KeySpec spec = new PKCS8EncodedKeySpec(privateBytes);
-    String serviceAccountCertificates =
+    this.serviceAccountCertificates =
         String.format("{\"%s\" : \"%s\"}", PRIVATE_KEY_ID, certificate);
 
-    MockHttpTransport mockTransport =
-        new MockHttpTransport.Builder()
-            .setLowLevelHttpResponse(
-                new MockLowLevelHttpResponse().setContent(serviceAccountCertificates))
-            .build();
+    MockHttpTransport mockTransport = newCountingTransport(null, new AtomicInteger());
     this.privateKey = KeyFactory.getInstance("RSA").generatePrivate(spec);
     this.verifier =
         new FirebaseTokenVerifier.Builder()
@@ -268,6 +268,148 @@ public class FirebaseTokenVerifierTest {
     verifier.verifyTokenAndSignature(TestOnlyImplFirebaseAuthTrampolines.getToken(token));
   }
 
+  @Test
+  public void verifyTokenFailure_UnknownKeyId() throws Exception {
+    Header header = createHeader();
+    header.setKeyId("unknown-key-id");
+    FirebaseToken token =
+        TestOnlyImplFirebaseAuthTrampolines.parseToken(
+            FACTORY, createToken(header, createPayload()));
+    thrown.expectMessage("Firebase ID token isn't signed by a valid public key.");
+    verifier.verifyTokenAndSignature(TestOnlyImplFirebaseAuthTrampolines.getToken(token));
+  }
+
+  private MockHttpTransport newCountingTransport(
+      final String cacheControl, final AtomicInteger requests) {
+    return new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        requests.incrementAndGet();
+        MockLowLevelHttpResponse response =
+            new MockLowLevelHttpResponse().setContent(serviceAccountCertificates);
+        if (cacheControl != null) {
+          response.addHeader("Cache-Control", cacheControl);
+        }
+        return new MockLowLevelHttpRequest(url).setResponse(response);
+      }
+    };
+  }
+
+  private FirebaseTokenVerifier newVerifier(MockHttpTransport transport, int tokenCacheSize) {
+    return newVerifier(transport, tokenCacheSize, CLOCK);
+  }
+
+  private FirebaseTokenVerifier newVerifier(
+      MockHttpTransport transport, int tokenCacheSize, Clock clock) {
+    return new FirebaseTokenVerifier.Builder()
+        .setClock(clock)
+        .setPublicKeysManager(
+            new GooglePublicKeysManager.Builder(transport, FACTORY)
+                .setClock(clock)
+                .setPublicCertsEncodedUrl(FirebaseTokenVerifier.CLIENT_CERT_URL)
+                .build())
+        .setProjectId(PROJECT_ID)
+        .setVerifiedTokenCacheSize(tokenCacheSize)
+        .build();
+  }
+
+  @Test
+  public void publicKeysAreCachedAsLongAsCacheControlAllows() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    FirebaseTokenVerifier verifier =
+        newVerifier(newCountingTransport("public, max-age=3600", requests), 0);
+    for (int i = 0; i < 3; i++) {
+      Payload payload = createPayload();
+      payload.setSubject(UID + i);
+      FirebaseToken token =
+          TestOnlyImplFirebaseAuthTrampolines.parseToken(
+              FACTORY, createToken(createHeader(), payload));
+      verifier.verifyTokenAndSignature(TestOnlyImplFirebaseAuthTrampolines.getToken(token));
+    }
+    assertEquals(1, requests.get());
+  }
+
+  @Test
+  public void verifiedTokensSkipSignatureVerification() throws Exception {
+    // Without Cache-Control the keys are fetched again for every signature verification.
+    AtomicInteger requests = new AtomicInteger();
+    FirebaseTokenVerifier verifier = newVerifier(newCountingTransport(null, requests), 10);
+    String tokenString = createToken(createHeader(), createPayload());
+    for (int i = 0; i < 3; i++) {
+      FirebaseToken token = TestOnlyImplFirebaseAuthTrampolines.parseToken(FACTORY, tokenString);
+      verifier.verifyTokenAndSignature(TestOnlyImplFirebaseAuthTrampolines.getToken(token));
+    }
+    assertEquals(1, requests.get());
+
+    Payload payload = createPayload();
+    payload.setSubject("otherUid");
+    FirebaseToken otherToken =
+        TestOnlyImplFirebaseAuthTrampolines.parseToken(
+            FACTORY, createToken(createHeader(), payload));
+    verifier.verifyTokenAndSignature(TestOnlyImplFirebaseAuthTrampolines.getToken(otherToken));
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void unknownKeyIdRefreshesPublicKeys() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    MockHttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        // The signing key is only published after the first fetch.
+        String content = requests.getAndIncrement() == 0 ? "{}" : serviceAccountCertificates;
+        MockLowLevelHttpResponse response = new MockLowLevelHttpResponse()
+            .setContent(content)
+            .addHeader("Cache-Control", "public, max-age=3600");
+        return new MockLowLevelHttpRequest(url).setResponse(response);
+      }
+    };
+    FixedClock clock = new FixedClock(CLOCK.currentTimeMillis());
+    FirebaseTokenVerifier verifier = newVerifier(transport, 0, clock);
+    String tokenString = createToken(createHeader(), createPayload());
+    assertUnknownKey(verifier, tokenString);
+    assertEquals(1, requests.get());
+
+    clock.setTime(clock.currentTimeMillis() + 60000);
+    FirebaseToken token = TestOnlyImplFirebaseAuthTrampolines.parseToken(FACTORY, tokenString);
+    assertTrue(
+        verifier.verifyTokenAndSignature(TestOnlyImplFirebaseAuthTrampolines.getToken(token)));
+    assertEquals(2, requests.get());
+  }
+
+  @Test
+  public void unknownKeyIdRefreshIsRateLimited() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    FixedClock clock = new FixedClock(CLOCK.currentTimeMillis());
+    FirebaseTokenVerifier verifier =
+        newVerifier(newCountingTransport("public, max-age=3600", requests), 0, clock);
+    Header header = createHeader();
+    header.setKeyId("unknown-key-id");
+    String tokenString = createToken(header, createPayload());
+
+    for (int i = 0; i < 3; i++) {
+      assertUnknownKey(verifier, tokenString);
+    }
+    assertEquals(1, requests.get());
+
+    clock.setTime(clock.currentTimeMillis() + 60000);
+    for (int i = 0; i < 3; i++) {
+      assertUnknownKey(verifier, tokenString);
+    }
+    assertEquals(2, requests.get());
+  }
+
+  private static void assertUnknownKey(FirebaseTokenVerifier verifier, String tokenString)
+      throws Exception {
+    FirebaseToken token = TestOnlyImplFirebaseAuthTrampolines.parseToken(FACTORY, tokenString);
+    try {
+      verifier.verifyTokenAndSignature(TestOnlyImplFirebaseAuthTrampolines.getToken(token));
+      Assert.fail("No exception thrown");
+    } catch (FirebaseAuthException expected) {
+      assertTrue(expected.getMessage().contains("isn't signed by a valid public key"));
+    }
+  }
+
   @Test
   public void verifyTokenCertificateError() throws Exception {
     FirebaseToken token =
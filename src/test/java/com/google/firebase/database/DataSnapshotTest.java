@@ -17,8 +17,10 @@
 package com.google.firebase.database;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.firebase.FirebaseApp;
@@ -32,6 +34,7 @@ import com.google.firebase.testing.ServiceAccount;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -113,4 +116,29 @@ public class DataSnapshotTest {
     snap = snapFor(MapBuilder.of("x", 5));
     assertTrue(snap.exists());
   }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGetValueReturnsModifiableCopy() {
+    DataSnapshot snap = snapFor(MapBuilder.of("a", 1L, "b", MapBuilder.of("c", 2L)));
+    Map<String, Object> value = (Map<String, Object>) snap.getValue();
+    value.put("d", 3L);
+    ((Map<String, Object>) value.get("b")).remove("c");
+    assertEquals(MapBuilder.of("a", 1L, "b", MapBuilder.of("c", 2L)), snap.getValue());
+  }
+
+  @Test
+  public void testGetValueViewIsReadOnly() {
+    DataSnapshot snap = snapFor(MapBuilder.of("a", 1L, "b", MapBuilder.of("c", 2L)));
+    @SuppressWarnings("unchecked")
+    Map<String, Object> view = (Map<String, Object>) snap.getValueView();
+    assertEquals(snap.getValue(), view);
+    assertEquals(1L, snapFor(1L).getValueView());
+    try {
+      view.put("d", 3L);
+      fail("No error thrown for modified view");
+    } catch (UnsupportedOperationException expected) {
+      // expected
+    }
+  }
 }
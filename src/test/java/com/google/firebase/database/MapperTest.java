@@ -21,6 +21,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import com.google.firebase.database.snapshot.NodeUtilities;
 import com.google.firebase.database.utilities.encoding.CustomClassMapper;
 
 import java.math.BigDecimal;
@@ -50,6 +51,16 @@ public class MapperTest {
     return CustomClassMapper.convertToCustomClass(json, typeIndicator);
   }
 
+  private static <T> T deserializeNode(String jsonString, Class<T> clazz) {
+    Map<String, Object> json = fromSingleQuotedString(jsonString);
+    return CustomClassMapper.convertToCustomClass(NodeUtilities.NodeFromJSON(json), clazz);
+  }
+
+  private static <T> T deserializeNode(String jsonString, GenericTypeIndicator<T> typeIndicator) {
+    Map<String, Object> json = fromSingleQuotedString(jsonString);
+    return CustomClassMapper.convertToCustomClass(NodeUtilities.NodeFromJSON(json), typeIndicator);
+  }
+
   private static Object serialize(Object object) {
     return CustomClassMapper.convertToPlainJavaTypes(object);
   }
@@ -439,6 +450,53 @@ public class MapperTest {
     assertEquals("foo", bean.values.get("key").value);
   }
 
+  @Test
+  public void beansCanBeReadFromNodes() {
+    RecursiveMapBean mapBean =
+        deserializeNode("{'values': {'key': {'value': 'foo'}}}", RecursiveMapBean.class);
+    assertEquals(1, mapBean.values.size());
+    assertEquals("foo", mapBean.values.get("key").value);
+
+    RecursiveListBean listBean =
+        deserializeNode("{'values': {'0': {'value': 'foo'}, '2': {'value': 'bar'}}}",
+            RecursiveListBean.class);
+    assertEquals(3, listBean.values.size());
+    assertEquals("foo", listBean.values.get(0).value);
+    assertNull(listBean.values.get(1));
+    assertEquals("bar", listBean.values.get(2).value);
+
+    LongBean longBean = deserializeNode("{'value': 42}", LongBean.class);
+    assertEquals(42L, longBean.value);
+  }
+
+  @Test
+  public void nodesConvertLikeTheirValues() {
+    Object value = deserializeNode("{'a': {'b': 'c'}, 'd': 'e'}", Object.class);
+    assertEquals(fromSingleQuotedString("{'a': {'b': 'c'}, 'd': 'e'}"), value);
+
+    ObjectBean bean = deserializeNode("{'value': {'0': 'foo', '1': 'bar'}}", ObjectBean.class);
+    assertEquals(Arrays.asList("foo", "bar"), bean.value);
+
+    GenericBean<Map<String, List<String>>> genericBean =
+        deserializeNode("{'value': {'key': {'0': 'foo'}}}",
+            new GenericTypeIndicator<GenericBean<Map<String, List<String>>>>() {});
+    assertEquals(
+        Collections.singletonMap("key", Collections.singletonList("foo")), genericBean.value);
+  }
+
+  @Test
+  public void arrayLikeNodesCantBeReadAsBeans() {
+    try {
+      deserializeNode("{'0': 'foo', '1': 'bar'}", StringBean.class);
+      fail("Should have thrown");
+    } catch (DatabaseException e) {
+      assertEquals(
+          "Can't convert object of type java.util.ArrayList to type "
+              + StringBean.class.getName(),
+          e.getMessage());
+    }
+  }
+
   @Test(expected = DatabaseException.class)
   public void beanMapsMustHaveStringKeys() {
     deserialize("{'values': {'1': 'bar'}}", IllegalKeyMapBean.class);
@@ -641,6 +699,16 @@ public class MapperTest {
     serialize(bean);
   }
 
+  @Test(expected = IllegalStateException.class)
+  public void getterExceptionsArePropagatedUnchanged() {
+    serialize(new ThrowingAccessorsBean());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setterExceptionsArePropagatedUnchanged() {
+    deserialize("{'value': 'foo'}", ThrowingAccessorsBean.class);
+  }
+
   @Test
   public void serializeUpperCase() {
     XMLAndURLBean bean = new XMLAndURLBean();
@@ -1688,6 +1756,17 @@ public class MapperTest {
     }
   }
 
+  private static class ThrowingAccessorsBean {
+
+    public String getValue() {
+      throw new IllegalStateException("getter");
+    }
+
+    public void setValue(String value) {
+      throw new IllegalArgumentException("setter");
+    }
+  }
+
   private static class PublicFieldBean {
 
     public String value;
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.TestOnlyImplFirebaseTrampolines;
+import com.google.firebase.database.connection.HostInfo;
+import com.google.firebase.database.connection.ListenHashProvider;
+import com.google.firebase.database.connection.PersistentConnection;
+import com.google.firebase.database.connection.RequestResultCallback;
+import com.google.firebase.database.core.DatabaseConfig;
+import com.google.firebase.database.core.Repo;
+import com.google.firebase.database.core.RepoManager;
+import com.google.firebase.database.utilities.Utilities;
+import com.google.firebase.testing.ServiceAccount;
+import com.google.firebase.testing.TestUtils;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TransactionCoalescingTest {
+
+  private static FirebaseApp app;
+  private static FirebaseDatabase database;
+
+  @BeforeClass
+  public static void setUpClass() {
+    app = FirebaseApp.initializeApp(
+        new FirebaseOptions.Builder()
+            .setCredentials(TestUtils.getCertCredential(ServiceAccount.EDITOR.asStream()))
+            .setDatabaseUrl("https://firebase-db-test.firebaseio.com")
+            .build(),
+        "TransactionCoalescingTest");
+    database = FirebaseDatabase.getInstance(app);
+    database.setTransactionCoalescingEnabled(true);
+    database.goOffline();
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    TestOnlyImplFirebaseTrampolines.clearInstancesForTest();
+  }
+
+  private static class ResultHandler implements Transaction.Handler {
+
+    private final boolean commit;
+    private final BlockingQueue<DatabaseError> results = new LinkedBlockingQueue<>();
+
+    ResultHandler(boolean commit) {
+      this.commit = commit;
+    }
+
+    @Override
+    public Transaction.Result doTransaction(MutableData currentData) {
+      if (!commit) {
+        return Transaction.abort();
+      }
+      currentData.setValue("transaction");
+      return Transaction.success(currentData);
+    }
+
+    @Override
+    public void onComplete(DatabaseError error, boolean committed, DataSnapshot currentData) {
+      assertFalse(committed);
+      results.add(error != null ? error : DatabaseError.fromCode(DatabaseError.UNKNOWN_ERROR));
+    }
+  }
+
+  @Test
+  public void abortedTransactionsAreCounted() throws InterruptedException {
+    long aborted = database.getTransactionStats().getAbortedCount();
+    ResultHandler handler = new ResultHandler(false);
+    database.getReference("abortedTransactionsAreCounted").runTransaction(handler);
+    assertNotNull(handler.results.poll(10, TimeUnit.SECONDS));
+    assertEquals(aborted + 1, database.getTransactionStats().getAbortedCount());
+  }
+
+  @Test
+  public void transactionsAreSentAfterQueuedOperations() throws InterruptedException {
+    final DatabaseReference ref = database.getReference("transactionsAreSentAfterQueuedOperations");
+    long rounds = database.getTransactionStats().getRoundCount();
+
+    // Hold the run loop so that the transaction and the set are queued together
+    final CountDownLatch release = new CountDownLatch(1);
+    ref.getRepo().scheduleNow(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    ResultHandler handler = new ResultHandler(true);
+    ref.runTransaction(handler);
+    ref.setValueAsync("set");
+    release.countDown();
+
+    // The transaction hadn't been sent yet when the set arrived, so it is aborted right away
+    // rather than waiting for the server to reject it.
+    DatabaseError error = handler.results.poll(10, TimeUnit.SECONDS);
+    assertNotNull(error);
+    assertEquals(DatabaseError.OVERRIDDEN_BY_SET, error.getCode());
+    assertEquals(rounds, database.getTransactionStats().getRoundCount());
+  }
+
+  @Test
+  public void conflictRateIsZeroWithoutRounds() {
+    TransactionStats stats = new TransactionStats(0, 0, 0, 0, 0);
+    assertEquals(0, stats.getConflictRate(), 0);
+    assertEquals(0.25, new TransactionStats(3, 0, 4, 1, 1).getConflictRate(), 0);
+  }
+
+  @Test
+  public void staleRetryWaitsForBackoff() throws InterruptedException {
+    ScriptedConnection connection = new ScriptedConnection();
+    DatabaseConfig config = newConfig(connection);
+    try {
+      DatabaseReference ref = newDatabase(config, "stale-retry").getReference("counter");
+      // After one conflict the backoff has doubled once, to between 100 and 200 ms
+      ref.getRepo().setTransactionBackoffMillis(100, 1000);
+      ref.runTransaction(new CountingHandler());
+
+      SentRound first = connection.nextRound();
+      long rejected = respond(ref.getRepo(), first, "datastale");
+      SentRound second = connection.nextRound();
+      // Allow for the millisecond clock the backoff is scheduled with
+      assertTrue(second.sentNanos - rejected >= TimeUnit.MILLISECONDS.toNanos(99));
+      assertEquals(1L, ref.getDatabase().getTransactionStats().getConflictCount());
+    } finally {
+      RepoManager.destroy(config);
+    }
+  }
+
+  @Test
+  public void queuedTransactionsAreSentInOneRound() throws InterruptedException {
+    ScriptedConnection connection = new ScriptedConnection();
+    DatabaseConfig config = newConfig(connection);
+    try {
+      DatabaseReference ref = newDatabase(config, "one-round").getReference("counter");
+      final CountDownLatch release = new CountDownLatch(1);
+      ref.getRepo().scheduleNow(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      CountingHandler[] handlers = new CountingHandler[3];
+      for (int i = 0; i < handlers.length; i++) {
+        handlers[i] = new CountingHandler();
+        ref.runTransaction(handlers[i]);
+      }
+      release.countDown();
+
+      SentRound round = connection.nextRound();
+      assertEquals(3L, round.data);
+      assertNull(connection.rounds.poll(200, TimeUnit.MILLISECONDS));
+      respond(ref.getRepo(), round, null);
+      for (CountingHandler handler : handlers) {
+        assertEquals(Boolean.TRUE, handler.committed.poll(10, TimeUnit.SECONDS));
+      }
+
+      TransactionStats stats = ref.getDatabase().getTransactionStats();
+      assertEquals(1L, stats.getRoundCount());
+      assertEquals(3L, stats.getCommittedCount());
+    } finally {
+      RepoManager.destroy(config);
+    }
+  }
+
+  @Test
+  public void transactionAbortsAfterMaxRetries() throws InterruptedException {
+    ScriptedConnection connection = new ScriptedConnection();
+    DatabaseConfig config = newConfig(connection);
+    try {
+      DatabaseReference ref = newDatabase(config, "max-retries").getReference("counter");
+      ref.getRepo().setTransactionBackoffMillis(1, 2);
+      CountingHandler handler = new CountingHandler();
+      ref.runTransaction(handler);
+
+      for (int i = 0; i < 25; i++) {
+        respond(ref.getRepo(), connection.nextRound(), "datastale");
+      }
+      assertEquals(Boolean.FALSE, handler.committed.poll(10, TimeUnit.SECONDS));
+      assertEquals(DatabaseError.MAX_RETRIES, handler.error.getCode());
+      assertEquals(25, handler.runs);
+      assertNull(connection.rounds.poll(100, TimeUnit.MILLISECONDS));
+
+      TransactionStats stats = ref.getDatabase().getTransactionStats();
+      assertEquals(25L, stats.getRoundCount());
+      assertEquals(25L, stats.getConflictCount());
+      assertEquals(24L, stats.getRetryCount());
+      assertEquals(1L, stats.getAbortedCount());
+    } finally {
+      RepoManager.destroy(config);
+    }
+  }
+
+  private static DatabaseConfig newConfig(final ScriptedConnection connection) {
+    DatabaseConfig config = new DatabaseConfig() {
+      @Override
+      public PersistentConnection newPersistentConnection(
+          HostInfo info, PersistentConnection.Delegate delegate) {
+        return connection;
+      }
+    };
+    config.setLogLevel(Logger.Level.WARN);
+    config.setFirebaseApp(app);
+    config.setTransactionCoalescingEnabled(true);
+    return config;
+  }
+
+  private static FirebaseDatabase newDatabase(DatabaseConfig config, String namespace) {
+    return FirebaseDatabase.createForTests(
+        app, Utilities.parseUrl("https://" + namespace + ".firebaseio.com").repoInfo, config);
+  }
+
+  /** Delivers the server's answer to a round on the run loop, and returns when it was sent. */
+  private static long respond(Repo repo, final SentRound round, final String errorCode)
+      throws InterruptedException {
+    final BlockingQueue<Long> responded = new LinkedBlockingQueue<>();
+    repo.scheduleNow(new Runnable() {
+      @Override
+      public void run() {
+        responded.add(System.nanoTime());
+        round.callback.onRequestResult(errorCode, null);
+      }
+    });
+    return responded.poll(10, TimeUnit.SECONDS);
+  }
+
+  private static class CountingHandler implements Transaction.Handler {
+
+    private final BlockingQueue<Boolean> committed = new LinkedBlockingQueue<>();
+    private volatile DatabaseError error;
+    private volatile int runs;
+
+    @Override
+    public Transaction.Result doTransaction(MutableData currentData) {
+      runs++;
+      Long value = currentData.getValue(Long.class);
+      currentData.setValue(value == null ? 1L : value + 1);
+      return Transaction.success(currentData);
+    }
+
+    @Override
+    public void onComplete(DatabaseError error, boolean committed, DataSnapshot currentData) {
+      this.error = error;
+      this.committed.add(committed);
+    }
+  }
+
+  private static class SentRound {
+
+    private final Object data;
+    private final RequestResultCallback callback;
+    private final long sentNanos = System.nanoTime();
+
+    SentRound(Object data, RequestResultCallback callback) {
+      this.data = data;
+      this.callback = callback;
+    }
+  }
+
+  /** A connection that records the compare-and-set requests, and ignores everything else. */
+  private static class ScriptedConnection implements PersistentConnection {
+
+    private final BlockingQueue<SentRound> rounds = new LinkedBlockingQueue<>();
+
+    SentRound nextRound() throws InterruptedException {
+      SentRound round = rounds.poll(10, TimeUnit.SECONDS);
+      assertNotNull(round);
+      return round;
+    }
+
+    @Override
+    public void compareAndPut(
+        List<String> path, Object data, String hash, RequestResultCallback onComplete) {
+      rounds.add(new SentRound(data, onComplete));
+    }
+
+    @Override
+    public void initialize() {}
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public void refreshAuthToken() {}
+
+    @Override
+    public void refreshAuthToken(String token) {}
+
+    @Override
+    public void listen(List<String> path, Map<String, Object> queryParams,
+        ListenHashProvider currentHashFn, Long tag, RequestResultCallback onComplete) {}
+
+    @Override
+    public void unlisten(List<String> path, Map<String, Object> queryParams) {}
+
+    @Override
+    public void purgeOutstandingWrites() {}
+
+    @Override
+    public void put(List<String> path, Object data, RequestResultCallback onComplete) {}
+
+    @Override
+    public void merge(List<String> path, Map<String, Object> data,
+        RequestResultCallback onComplete) {}
+
+    @Override
+    public void onDisconnectPut(List<String> path, Object data, RequestResultCallback onComplete) {}
+
+    @Override
+    public void onDisconnectMerge(List<String> path, Map<String, Object> updates,
+        RequestResultCallback onComplete) {}
+
+    @Override
+    public void onDisconnectCancel(List<String> path, RequestResultCallback onComplete) {}
+
+    @Override
+    public void interrupt(String reason) {}
+
+    @Override
+    public void resume(String reason) {}
+
+    @Override
+    public boolean isInterrupted(String reason) {
+      return false;
+    }
+  }
+}
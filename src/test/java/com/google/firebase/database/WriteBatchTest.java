@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.TestOnlyImplFirebaseTrampolines;
+import com.google.firebase.testing.ServiceAccount;
+import com.google.firebase.testing.TestUtils;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class WriteBatchTest {
+
+  private static FirebaseDatabase database;
+
+  @BeforeClass
+  public static void setUpClass() {
+    FirebaseApp app = FirebaseApp.initializeApp(
+        new FirebaseOptions.Builder()
+            .setCredentials(TestUtils.getCertCredential(ServiceAccount.EDITOR.asStream()))
+            .setDatabaseUrl("https://firebase-db-test.firebaseio.com")
+            .build(),
+        "WriteBatchTest");
+    database = FirebaseDatabase.getInstance(app);
+    database.goOffline();
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    TestOnlyImplFirebaseTrampolines.clearInstancesForTest();
+  }
+
+  private static BlockingQueue<Object> valuesAt(DatabaseReference ref) {
+    final BlockingQueue<Object> values = new LinkedBlockingQueue<>();
+    ref.addValueEventListener(new ValueEventListener() {
+      @Override
+      public void onDataChange(DataSnapshot snapshot) {
+        values.add(snapshot.exists() ? snapshot.getValue() : "<null>");
+      }
+
+      @Override
+      public void onCancelled(DatabaseError error) {
+        fail(error.getMessage());
+      }
+    });
+    return values;
+  }
+
+  @Test
+  public void writesAreAppliedInOrder() throws InterruptedException {
+    DatabaseReference root = database.getReference("writesAreAppliedInOrder");
+    BlockingQueue<Object> first = valuesAt(root.child("first"));
+    BlockingQueue<Object> second = valuesAt(root.child("second"));
+    BlockingQueue<Object> third = valuesAt(root.child("third"));
+
+    Map<String, Object> update = ImmutableMap.<String, Object>of("a", 1L, "b/c", "foo");
+    database.batch()
+        .set(root.child("first"), ImmutableMap.of("x", 1L))
+        .set(root.child("first/y"), 2L)
+        .set(root.child("second/z"), true)
+        .set(root.child("second"), "replaced")
+        .set(root.child("third"), ImmutableMap.of("old", 0L))
+        .update(root.child("third"), update)
+        .remove(root.child("third/a"))
+        .set(root.child("third/a"), 3L)
+        .commitAsync();
+
+    assertEquals(ImmutableMap.of("x", 1L, "y", 2L), first.poll(10, TimeUnit.SECONDS));
+    assertEquals("replaced", second.poll(10, TimeUnit.SECONDS));
+    assertEquals(ImmutableMap.of("old", 0L, "a", 3L, "b", ImmutableMap.of("c", "foo")),
+        third.poll(10, TimeUnit.SECONDS));
+
+    // Everything was applied as a single change, so no intermediate values were raised
+    assertNull(first.poll(100, TimeUnit.MILLISECONDS));
+    assertTrue(second.isEmpty());
+    assertTrue(third.isEmpty());
+  }
+
+  @Test
+  public void batchCanOnlyBeCommittedOnce() {
+    WriteBatch batch = database.batch();
+    batch.commitAsync();
+    try {
+      batch.set(database.getReference("foo"), "bar");
+      fail("No error thrown when adding to a committed batch");
+    } catch (IllegalStateException expected) {
+      // ignore
+    }
+    try {
+      batch.commitAsync();
+      fail("No error thrown when committing a batch twice");
+    } catch (IllegalStateException expected) {
+      // ignore
+    }
+  }
+
+  @Test
+  public void invalidWritesAreRejected() {
+    WriteBatch batch = database.batch();
+    try {
+      batch.set(database.getReference(".info/foo"), "bar");
+      fail("No error thrown when writing to .info");
+    } catch (DatabaseException expected) {
+      // ignore
+    }
+    try {
+      batch.update(database.getReference("foo"),
+          ImmutableMap.<String, Object>of("a", 1L, "a/b", 2L));
+      fail("No error thrown for overlapping update paths");
+    } catch (DatabaseException expected) {
+      // ignore
+    }
+
+    FirebaseApp otherApp = FirebaseApp.initializeApp(
+        FirebaseApp.getInstance("WriteBatchTest").getOptions(), "WriteBatchTestOther");
+    DatabaseReference otherRef = FirebaseDatabase.getInstance(otherApp).getReference("foo");
+    try {
+      batch.set(otherRef, "bar");
+      fail("No error thrown for a reference to another database");
+    } catch (IllegalArgumentException expected) {
+      // ignore
+    }
+  }
+}
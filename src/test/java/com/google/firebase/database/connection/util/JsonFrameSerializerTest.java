@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.connection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.database.tubesock.FrameBufferPool;
+import com.google.firebase.database.util.JsonMapper;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class JsonFrameSerializerTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static Map<String, Object> newMessage() {
+    Map<String, Object> data = new HashMap<>();
+    data.put("long", Long.MAX_VALUE);
+    data.put("double", 2.0);
+    data.put("fraction", 0.25);
+    data.put("bool", true);
+    data.put("null", null);
+    data.put("list", Arrays.asList(1, "two", 3.5));
+    data.put("escaped", "quote\" backslash\\ newline\n control\u0001");
+    data.put("unicode", "h\u00e9llo \u4e16\u754c \ud83d\ude00");
+    Map<String, Object> message = new HashMap<>();
+    message.put("a", "p");
+    message.put("b", data);
+    return message;
+  }
+
+  private static String decode(List<ByteBuffer> frames, int payloadCapacity)
+      throws CharacterCodingException {
+    StringBuilder builder = new StringBuilder();
+    for (ByteBuffer frame : frames) {
+      ByteBuffer payload = frame.duplicate();
+      payload.limit(frame.position());
+      payload.position(frame.capacity() - payloadCapacity);
+      assertTrue(payload.remaining() <= payloadCapacity);
+      // Every frame must be valid UTF-8 on its own.
+      CharBuffer chars = UTF8.newDecoder().decode(payload);
+      builder.append(chars);
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void producesSameJsonAsJsonMapper() throws IOException {
+    Map<String, Object> message = newMessage();
+    FrameBufferPool pool = new FrameBufferPool(16384, 1);
+    List<ByteBuffer> frames = JsonFrameSerializer.serialize(message, pool);
+    assertEquals(1, frames.size());
+    assertEquals(
+        JsonMapper.parseJson(JsonMapper.serializeJson(message)),
+        JsonMapper.parseJson(decode(frames, 16384)));
+  }
+
+  @Test
+  public void splitsFramesAtCharacterBoundaries() throws IOException {
+    Map<String, Object> message = newMessage();
+    String expected = decode(JsonFrameSerializer.serialize(message, new FrameBufferPool(1024, 1)),
+        1024);
+    for (int capacity = 4; capacity < 32; capacity++) {
+      FrameBufferPool pool = new FrameBufferPool(capacity, 1);
+      List<ByteBuffer> frames = JsonFrameSerializer.serialize(message, pool);
+      assertTrue(frames.size() > 1);
+      assertEquals(expected, decode(frames, capacity));
+    }
+  }
+
+  @Test
+  public void rejectsNonFiniteNumbers() {
+    try {
+      JsonFrameSerializer.serialize(
+          Collections.<String, Object>singletonMap("d", Double.NaN), new FrameBufferPool(16, 1));
+      fail("Expected an IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.connection.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+  private ScheduledThreadPoolExecutor executor;
+  private TimerWheel wheel;
+
+  @Before
+  public void setUp() {
+    executor = new ScheduledThreadPoolExecutor(1);
+    // Eight buckets of 10ms, so that longer timeouts take several turns of the wheel
+    wheel = new TimerWheel(executor, 10, 8);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static Runnable countDown(final CountDownLatch latch) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    };
+  }
+
+  @Test
+  public void firesAfterDelay() throws InterruptedException {
+    CountDownLatch fired = new CountDownLatch(1);
+    TimerWheel.Timeout timeout = wheel.newTimeout(countDown(fired));
+    long start = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    timeout.reset(200);
+    assertTrue(fired.await(10, TimeUnit.SECONDS));
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) - start >= 200);
+    assertEquals(-1, timeout.getRemainingMillis());
+  }
+
+  @Test
+  public void resetPostponesExpiry() throws InterruptedException {
+    CountDownLatch fired = new CountDownLatch(1);
+    TimerWheel.Timeout timeout = wheel.newTimeout(countDown(fired));
+    long start = TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    for (int i = 0; i < 10; i++) {
+      timeout.reset(100);
+      Thread.sleep(20);
+    }
+    assertTrue(fired.await(10, TimeUnit.SECONDS));
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()) - start >= 280);
+  }
+
+  @Test
+  public void resetToEarlierDeadline() throws InterruptedException {
+    CountDownLatch fired = new CountDownLatch(1);
+    TimerWheel.Timeout timeout = wheel.newTimeout(countDown(fired));
+    timeout.reset(60000);
+    timeout.reset(50);
+    assertTrue(fired.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void zeroDelayRunsImmediately() throws InterruptedException {
+    CountDownLatch fired = new CountDownLatch(1);
+    wheel.newTimeout(countDown(fired)).reset(0);
+    assertTrue(fired.await(10, TimeUnit.SECONDS));
+    assertFalse(wheel.isTicking());
+  }
+
+  @Test
+  public void cancelPreventsExpiry() throws InterruptedException {
+    final AtomicInteger runs = new AtomicInteger();
+    TimerWheel.Timeout timeout = wheel.newTimeout(new Runnable() {
+      @Override
+      public void run() {
+        runs.incrementAndGet();
+      }
+    });
+    timeout.reset(50);
+    timeout.cancel();
+    assertFalse(wheel.isTicking());
+
+    // Cancelling an expired timeout whose task hasn't run yet
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    timeout.reset(0);
+    timeout.cancel();
+    release.countDown();
+    Thread.sleep(200);
+    assertEquals(0, runs.get());
+  }
+
+  @Test
+  public void firesManyTimeoutsAndStopsTicking() throws InterruptedException {
+    CountDownLatch fired = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      // Up to 250ms, so up to three turns of the wheel
+      wheel.newTimeout(countDown(fired)).reset(5 + (i * 37) % 250);
+    }
+    assertTrue(wheel.isTicking());
+    assertTrue(fired.await(10, TimeUnit.SECONDS));
+    Thread.sleep(50);
+    assertFalse(wheel.isTicking());
+  }
+
+  @Test
+  public void timeoutCanBeRearmedFromItsTask() throws InterruptedException {
+    final CountDownLatch fired = new CountDownLatch(3);
+    final TimerWheel.Timeout[] timeout = new TimerWheel.Timeout[1];
+    timeout[0] = wheel.newTimeout(new Runnable() {
+      @Override
+      public void run() {
+        fired.countDown();
+        timeout[0].reset(20);
+      }
+    });
+    timeout[0].reset(20);
+    assertTrue(fired.await(10, TimeUnit.SECONDS));
+    timeout[0].cancel();
+  }
+}
@@ -376,7 +376,7 @@ public class RandomOperationGenerator {
     } else if (random.nextDouble() < 0.5) {
       return new StringNode("prio-" + random.nextInt(MAX_PRIO_VALUES), EmptyNode.Empty());
     } else {
-      return new DoubleNode((double) random.nextInt(MAX_PRIO_VALUES), EmptyNode.Empty());
+      return DoubleNode.valueOf((double) random.nextInt(MAX_PRIO_VALUES), EmptyNode.Empty());
     }
   }
 
@@ -392,13 +392,13 @@ public class RandomOperationGenerator {
     if (randValue < 0.2) {
       return EmptyNode.Empty();
     } else if (randValue < 0.4) {
-      return new BooleanNode(random.nextBoolean(), getRandomPriority());
+      return BooleanNode.valueOf(random.nextBoolean(), getRandomPriority());
     } else if (randValue < 0.6) {
       return new StringNode("string-" + random.nextInt(), getRandomPriority());
     } else if (randValue < 0.8) {
-      return new DoubleNode(random.nextDouble(), getRandomPriority());
+      return DoubleNode.valueOf(random.nextDouble(), getRandomPriority());
     } else {
-      return new LongNode(random.nextLong(), getRandomPriority());
+      return LongNode.valueOf(random.nextLong(), getRandomPriority());
     }
   }
 
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.core;
+
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.database.MapBuilder;
+import com.google.firebase.database.ServerValue;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.Node;
+import java.util.Map;
+import org.junit.Test;
+
+public class ServerValuesTest {
+
+  private static final Map<String, Object> SERVER_VALUES =
+      new MapBuilder().put(ServerValues.NAME_OP_TIMESTAMP, 1234L).build();
+
+  private static Object resolve(Object value, Object existing) {
+    return ServerValues.resolveDeferredValueSnapshot(
+        NodeFromJSON(value), NodeFromJSON(existing), SERVER_VALUES).getValue();
+  }
+
+  @Test
+  public void timestampsAreResolved() {
+    assertEquals(1234L, resolve(ServerValue.TIMESTAMP, null));
+  }
+
+  @Test
+  public void incrementsAddToExistingNumbers() {
+    assertEquals(7L, resolve(ServerValue.increment(2), 5L));
+    assertEquals(3L, resolve(ServerValue.increment(-2), 5L));
+    assertEquals(7.5, resolve(ServerValue.increment(2.5), 5L));
+    assertEquals(7.5, resolve(ServerValue.increment(2), 5.5));
+  }
+
+  @Test
+  public void incrementsReplaceMissingOrNonNumericValues() {
+    assertEquals(2L, resolve(ServerValue.increment(2), null));
+    assertEquals(2L, resolve(ServerValue.increment(2), "foo"));
+    assertEquals(2L, resolve(ServerValue.increment(2), new MapBuilder().put("a", 1L).build()));
+  }
+
+  @Test
+  public void overflowingIncrementsBecomeDoubles() {
+    assertEquals((double) Long.MAX_VALUE + 1, resolve(ServerValue.increment(1), Long.MAX_VALUE));
+  }
+
+  @Test
+  public void nestedIncrementsUseTheExistingChild() {
+    Node resolved =
+        ServerValues.resolveDeferredValueSnapshot(
+            NodeFromJSON(
+                new MapBuilder()
+                    .put("likes", ServerValue.increment(1))
+                    .put("views", ServerValue.increment(10))
+                    .put("updated", ServerValue.TIMESTAMP)
+                    .build()),
+            NodeFromJSON(new MapBuilder().put("likes", 41L).build()),
+            SERVER_VALUES);
+    assertEquals(
+        new MapBuilder().put("likes", 42L).put("views", 10L).put("updated", 1234L).build(),
+        resolved.getValue());
+  }
+
+  @Test
+  public void unknownOperationsAreLeftInPlace() {
+    Map<String, Object> unknown =
+        new MapBuilder()
+            .put(ServerValues.NAME_SUBKEY_SERVERVALUE, new MapBuilder().put("foo", 1L).build())
+            .build();
+    Node node = NodeFromJSON(unknown);
+    assertEquals(
+        node, ServerValues.resolveDeferredValueSnapshot(node, EmptyNode.Empty(), SERVER_VALUES));
+  }
+}
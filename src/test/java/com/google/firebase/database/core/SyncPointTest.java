@@ -31,15 +31,21 @@ import com.google.firebase.database.Query;
 import com.google.firebase.database.TestHelpers;
 import com.google.firebase.database.annotations.NotNull;
 import com.google.firebase.database.connection.ListenHashProvider;
+import com.google.firebase.database.core.persistence.CachePolicy;
+import com.google.firebase.database.core.persistence.DefaultPersistenceManager;
+import com.google.firebase.database.core.persistence.MemoryPersistenceStorageEngine;
 import com.google.firebase.database.core.persistence.NoopPersistenceManager;
+import com.google.firebase.database.core.persistence.TrackedQuery;
 import com.google.firebase.database.core.utilities.TestClock;
 import com.google.firebase.database.core.view.Change;
 import com.google.firebase.database.core.view.DataEvent;
 import com.google.firebase.database.core.view.Event;
+import com.google.firebase.database.core.view.QueryParams;
 import com.google.firebase.database.core.view.QuerySpec;
 import com.google.firebase.database.logging.DefaultLogger;
 import com.google.firebase.database.logging.LogWrapper;
 import com.google.firebase.database.logging.Logger;
+import com.google.firebase.database.snapshot.ChildKey;
 import com.google.firebase.database.snapshot.IndexedNode;
 import com.google.firebase.database.snapshot.Node;
 import com.google.firebase.database.snapshot.NodeUtilities;
@@ -49,15 +55,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -994,6 +1006,180 @@ public class SyncPointTest {
     runOne("Deep update raises all events");
   }
 
+  @Test
+  public void listensReportWhetherEventListenersDependOnThem() {
+    DatabaseConfig config = TestHelpers.newTestConfig(testApp);
+    final Map<QuerySpec, ListenHashProvider> listens = new HashMap<>();
+    SyncTree syncTree = new SyncTree(config, new NoopPersistenceManager(),
+        new SyncTree.ListenProvider() {
+          @Override
+          public void startListening(
+              QuerySpec query,
+              Tag tag,
+              ListenHashProvider hash,
+              SyncTree.CompletionListener onListenComplete) {
+            listens.put(query, hash);
+          }
+
+          @Override
+          public void stopListening(QuerySpec query, Tag tag) {
+            listens.remove(query);
+          }
+        });
+
+    QuerySpec synced = QuerySpec.defaultQueryAtPath(new Path("a"));
+    syncTree.keepSynced(synced, true);
+    Assert.assertFalse(listens.get(synced).hasEventListeners());
+
+    // The complete listen at /a also serves listeners below it
+    EventRegistration registration =
+        getTestEventRegistration(QuerySpec.defaultQueryAtPath(new Path("a/b")));
+    syncTree.addEventRegistration(registration);
+    Assert.assertEquals(1, listens.size());
+    Assert.assertTrue(listens.get(synced).hasEventListeners());
+
+    syncTree.removeEventRegistration(registration);
+    Assert.assertFalse(listens.get(synced).hasEventListeners());
+  }
+
+  @Test
+  public void syncTreeExecutorIsOptInAndStoppedOnDestroy() {
+    DatabaseConfig config = TestHelpers.newFrozenTestConfig(testApp);
+    Assert.assertNull(config.getSyncTreeExecutor());
+
+    config = TestHelpers.newTestConfig(testApp);
+    config.setParallelSyncTreeEnabled(true);
+    CoreTestHelpers.freezeContext(config);
+    Executor executor = config.getSyncTreeExecutor();
+    Assume.assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+    Assert.assertNotNull(executor);
+
+    config.destroy();
+    Assert.assertTrue(((ExecutorService) executor).isShutdown());
+    Assert.assertNull(config.getSyncTreeExecutor());
+  }
+
+  @Test
+  public void parallelOperationsRaiseEventsInSerialOrder() {
+    DatabaseConfig config = TestHelpers.newTestConfig(testApp);
+    LogWrapper logger = config.getLogger("SyncPointTest");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      SyncTree serialTree =
+          new SyncTree(config, new NoopPersistenceManager(), getNewListenProvider(logger), null);
+      SyncTree parallelTree =
+          new SyncTree(config, new NoopPersistenceManager(), getNewListenProvider(logger),
+              executor);
+
+      Map<String, Object> data = new HashMap<>();
+      Map<String, Object> update = new HashMap<>();
+      for (int i = 0; i < 20; i++) {
+        Map<String, Object> group = new HashMap<>();
+        for (int j = 0; j < 20; j++) {
+          group.put("item" + j, Collections.singletonMap("value", (long) (i * j)));
+          update.put("group" + i + "/item" + j + "/value", (long) (i + j));
+        }
+        data.put("group" + i, group);
+      }
+      for (SyncTree syncTree : Arrays.asList(serialTree, parallelTree)) {
+        for (int i = 0; i < 20; i++) {
+          syncTree.addEventRegistration(
+              getTestEventRegistration(QuerySpec.defaultQueryAtPath(new Path("group" + i))));
+          for (int j = 0; j < 20; j++) {
+            syncTree.addEventRegistration(getTestEventRegistration(
+                QuerySpec.defaultQueryAtPath(new Path("group" + i + "/item" + j))));
+          }
+        }
+      }
+
+      List<? extends Event> expected =
+          serialTree.applyServerOverwrite(Path.getEmptyPath(), NodeUtilities.NodeFromJSON(data));
+      List<? extends Event> actual =
+          parallelTree.applyServerOverwrite(Path.getEmptyPath(), NodeUtilities.NodeFromJSON(data));
+      Assert.assertFalse(expected.isEmpty());
+      Assert.assertEquals(expected.toString(), actual.toString());
+
+      Map<Path, Node> merge = new HashMap<>();
+      for (Map.Entry<String, Object> entry : update.entrySet()) {
+        merge.put(new Path(entry.getKey()), NodeUtilities.NodeFromJSON(entry.getValue()));
+      }
+      expected = serialTree.applyServerMerge(Path.getEmptyPath(), merge);
+      actual = parallelTree.applyServerMerge(Path.getEmptyPath(), merge);
+      Assert.assertFalse(expected.isEmpty());
+      Assert.assertEquals(expected.toString(), actual.toString());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void parallelOperationsPersistTrackedKeysOnCallingThread() {
+    DatabaseConfig config = TestHelpers.newTestConfig(testApp);
+    LogWrapper logger = config.getLogger("SyncPointTest");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    final Thread callingThread = Thread.currentThread();
+    try {
+      List<MemoryPersistenceStorageEngine> engines = new ArrayList<>();
+      List<SyncTree> syncTrees = new ArrayList<>();
+      for (ExecutorService operationExecutor : Arrays.asList(null, executor)) {
+        MemoryPersistenceStorageEngine engine = new MemoryPersistenceStorageEngine() {
+          @Override
+          public void updateTrackedQueryKeys(
+              long trackedQueryId, Set<ChildKey> added, Set<ChildKey> removed) {
+            Assert.assertSame(callingThread, Thread.currentThread());
+            super.updateTrackedQueryKeys(trackedQueryId, added, removed);
+          }
+        };
+        DefaultPersistenceManager manager =
+            new DefaultPersistenceManager(config, engine, CachePolicy.NONE);
+        SyncTree syncTree =
+            new SyncTree(config, manager, getNewListenProvider(logger), operationExecutor);
+        engines.add(engine);
+        syncTrees.add(syncTree);
+      }
+
+      Map<String, Object> data = new HashMap<>();
+      for (int i = 0; i < 20; i++) {
+        Map<String, Object> group = new HashMap<>();
+        for (int j = 0; j < 20; j++) {
+          group.put("item" + j, Collections.singletonMap("value", (long) (i * j)));
+        }
+        data.put("group" + i, group);
+      }
+      for (SyncTree syncTree : syncTrees) {
+        for (int i = 0; i < 20; i++) {
+          syncTree.addEventRegistration(getTestEventRegistration(new QuerySpec(
+              new Path("group" + i), QueryParams.DEFAULT_PARAMS.limitToFirst(5))));
+          for (int j = 0; j < 20; j++) {
+            syncTree.addEventRegistration(getTestEventRegistration(
+                QuerySpec.defaultQueryAtPath(new Path("group" + i + "/item" + j))));
+          }
+        }
+      }
+
+      List<? extends Event> expected = syncTrees.get(0).applyServerOverwrite(
+          Path.getEmptyPath(), NodeUtilities.NodeFromJSON(data));
+      List<? extends Event> actual = syncTrees.get(1).applyServerOverwrite(
+          Path.getEmptyPath(), NodeUtilities.NodeFromJSON(data));
+      Assert.assertEquals(expected.toString(), actual.toString());
+
+      List<Map<QuerySpec, Set<ChildKey>>> trackedKeys = new ArrayList<>();
+      for (MemoryPersistenceStorageEngine engine : engines) {
+        Map<QuerySpec, Set<ChildKey>> keys = new HashMap<>();
+        for (TrackedQuery trackedQuery : engine.loadTrackedQueries()) {
+          keys.put(trackedQuery.querySpec, engine.loadTrackedQueryKeys(trackedQuery.id));
+        }
+        trackedKeys.add(keys);
+      }
+      Set<ChildKey> groupKeys = trackedKeys.get(1).get(new QuerySpec(
+          new Path("group3"), QueryParams.DEFAULT_PARAMS.limitToFirst(5)));
+      Assert.assertEquals(5, groupKeys.size());
+      Assert.assertEquals(trackedKeys.get(0), trackedKeys.get(1));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
   private static class TestEvent extends DataEvent {
 
     private final EventType eventType;
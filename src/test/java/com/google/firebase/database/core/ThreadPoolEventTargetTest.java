@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ThreadPoolEventTargetTest {
+
+  private static ThreadPoolEventTarget newEventTarget(int poolSize) {
+    return new ThreadPoolEventTarget(
+        Executors.defaultThreadFactory(), ThreadInitializer.defaultInstance, poolSize);
+  }
+
+  @Test
+  public void singleThreadKeepsPostingOrder() throws InterruptedException {
+    ThreadPoolEventTarget eventTarget = newEventTarget(1);
+    final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      final int value = i;
+      eventTarget.postEvent("key" + (i % 7), new Runnable() {
+        @Override
+        public void run() {
+          order.add(value);
+          done.countDown();
+        }
+      });
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, (int) order.get(i));
+    }
+    eventTarget.shutdown();
+  }
+
+  @Test
+  public void eventsWithSameKeyKeepTheirOrder() throws InterruptedException {
+    ThreadPoolEventTarget eventTarget = newEventTarget(4);
+    final int keys = 10;
+    final List<List<Integer>> orders = new ArrayList<>();
+    for (int i = 0; i < keys; i++) {
+      orders.add(Collections.synchronizedList(new ArrayList<Integer>()));
+    }
+    final CountDownLatch done = new CountDownLatch(keys * 100);
+    for (int i = 0; i < 100; i++) {
+      for (int key = 0; key < keys; key++) {
+        final List<Integer> order = orders.get(key);
+        final int value = i;
+        eventTarget.postEvent("key" + key, new Runnable() {
+          @Override
+          public void run() {
+            order.add(value);
+            done.countDown();
+          }
+        });
+      }
+    }
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    for (List<Integer> order : orders) {
+      for (int i = 0; i < 100; i++) {
+        assertEquals(i, (int) order.get(i));
+      }
+    }
+    eventTarget.shutdown();
+  }
+
+  @Test
+  public void blockedKeyDoesNotBlockOtherKeys() throws InterruptedException {
+    // Two threads give eight stripes, and small Integer keys map to distinct stripes.
+    ThreadPoolEventTarget eventTarget = newEventTarget(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch blockedRan = new CountDownLatch(1);
+    final CountDownLatch othersRan = new CountDownLatch(7);
+    eventTarget.postEvent(0, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    eventTarget.postEvent(0, new Runnable() {
+      @Override
+      public void run() {
+        blockedRan.countDown();
+      }
+    });
+    for (int key = 1; key <= 7; key++) {
+      eventTarget.postEvent(key, new Runnable() {
+        @Override
+        public void run() {
+          othersRan.countDown();
+        }
+      });
+    }
+
+    assertTrue(othersRan.await(10, TimeUnit.SECONDS));
+    assertEquals(1, blockedRan.getCount());
+    release.countDown();
+    assertTrue(blockedRan.await(10, TimeUnit.SECONDS));
+    eventTarget.shutdown();
+  }
+}
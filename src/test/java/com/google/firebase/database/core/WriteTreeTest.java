@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.MapBuilder;
+import com.google.firebase.database.core.operation.Merge;
+import com.google.firebase.database.core.operation.Operation;
+import com.google.firebase.database.core.operation.Overwrite;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.NodeUtilities;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class WriteTreeTest {
+
+  private static final int NUM_TESTS = 50;
+  private static final int WRITES_PER_TEST = 100;
+
+  private static Node node(Object value) {
+    return NodeUtilities.NodeFromJSON(value);
+  }
+
+  @Test
+  public void getWriteFindsPendingWrites() {
+    WriteTree writeTree = new WriteTree();
+    writeTree.addOverwrite(new Path("a"), node("a"), 1L, true);
+    writeTree.addMerge(
+        new Path("b"), CompoundWrite.emptyWrite().addWrite(new Path("c"), node("c")), 2L);
+
+    assertEquals(new Path("a"), writeTree.getWrite(1L).getPath());
+    assertTrue(writeTree.getWrite(2L).isMerge());
+    assertNull(writeTree.getWrite(3L));
+
+    writeTree.removeWrite(1L);
+    assertNull(writeTree.getWrite(1L));
+    assertEquals(2L, writeTree.purgeAllWrites().get(0).getWriteId());
+    assertNull(writeTree.getWrite(2L));
+  }
+
+  @Test
+  public void removingShadowedWriteIsNotVisible() {
+    WriteTree writeTree = new WriteTree();
+    writeTree.addOverwrite(new Path("a/b"), node("old"), 1L, true);
+    writeTree.addOverwrite(new Path("a"), node("new"), 2L, true);
+    writeTree.addOverwrite(new Path("x"), node("x"), 3L, true);
+
+    assertFalse(writeTree.removeWrite(1L));
+    assertEquals(node("new"), writeTree.shadowingWrite(new Path("a")));
+    assertTrue(writeTree.removeWrite(2L));
+    assertNull(writeTree.shadowingWrite(new Path("a")));
+    assertEquals(node("x"), writeTree.shadowingWrite(new Path("x")));
+  }
+
+  @Test
+  public void removingOverlappingWriteRestoresOlderWrites() {
+    WriteTree writeTree = new WriteTree();
+    Node unrelated = node("unrelated");
+    writeTree.addOverwrite(new Path("z"), unrelated, 1L, true);
+    writeTree.addOverwrite(new Path("a"), node(new MapBuilder().put("b", "old").build()), 2L, true);
+    writeTree.addOverwrite(new Path("a/b"), node("new"), 3L, true);
+    assertEquals(node("new"), writeTree.shadowingWrite(new Path("a/b")));
+
+    assertTrue(writeTree.removeWrite(3L));
+    assertEquals(node("old"), writeTree.shadowingWrite(new Path("a/b")));
+    assertSame(unrelated, writeTree.shadowingWrite(new Path("z")));
+  }
+
+  @Test
+  public void randomWritesMatchRelayeredWrites() {
+    for (int i = 0; i < NUM_TESTS; i++) {
+      RandomOperationGenerator generator = new RandomOperationGenerator(i);
+      Random random = new Random(i);
+      WriteTree writeTree = new WriteTree();
+      List<UserWriteRecord> writes = new ArrayList<>();
+      long writeId = 0;
+      while (writes.size() < WRITES_PER_TEST) {
+        Operation operation = generator.nextOperation();
+        if (!operation.getSource().isFromUser()) {
+          continue;
+        }
+        UserWriteRecord write;
+        if (operation instanceof Overwrite) {
+          write = new UserWriteRecord(writeId++, operation.getPath(),
+              ((Overwrite) operation).getSnapshot(), random.nextDouble() > 0.1);
+        } else if (operation instanceof Merge) {
+          write = new UserWriteRecord(
+              writeId++, operation.getPath(), ((Merge) operation).getChildren());
+        } else {
+          continue;
+        }
+        addWrite(writeTree, write);
+        writes.add(write);
+      }
+
+      List<UserWriteRecord> remaining = new ArrayList<>(writes);
+      Collections.shuffle(writes, random);
+      for (UserWriteRecord write : writes) {
+        writeTree.removeWrite(write.getWriteId());
+        remaining.remove(write);
+        WriteTree expected = new WriteTree();
+        for (UserWriteRecord remainingWrite : remaining) {
+          addWrite(expected, remainingWrite);
+        }
+        for (int j = 0; j < 5; j++) {
+          Path path = generator.nextRandomPath(4);
+          String message = "seed " + i + ", path " + path;
+          assertEquals(message,
+              expected.calcCompleteEventCache(path, EmptyNode.Empty()),
+              writeTree.calcCompleteEventCache(path, EmptyNode.Empty()));
+          assertEquals(message, expected.shadowingWrite(path), writeTree.shadowingWrite(path));
+          List<Long> excluded = Collections.singletonList((long) random.nextInt(WRITES_PER_TEST));
+          assertEquals(message,
+              expected.calcCompleteEventCache(path, EmptyNode.Empty(), excluded, true),
+              writeTree.calcCompleteEventCache(path, EmptyNode.Empty(), excluded, true));
+        }
+      }
+    }
+  }
+
+  private static void addWrite(WriteTree writeTree, UserWriteRecord write) {
+    if (write.isOverwrite()) {
+      writeTree.addOverwrite(
+          write.getPath(), write.getOverwrite(), write.getWriteId(), write.isVisible());
+    } else {
+      writeTree.addMerge(write.getPath(), write.getMerge(), write.getWriteId());
+    }
+  }
+}
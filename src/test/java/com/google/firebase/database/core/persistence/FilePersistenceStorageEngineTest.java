@@ -0,0 +1,406 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.core.persistence;
+
+import static com.google.firebase.database.TestHelpers.childKeySet;
+import static com.google.firebase.database.TestHelpers.fromSingleQuotedString;
+import static com.google.firebase.database.TestHelpers.newFrozenTestConfig;
+import static com.google.firebase.database.TestHelpers.path;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.TestOnlyImplFirebaseTrampolines;
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Context;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.UserWriteRecord;
+import com.google.firebase.database.core.view.QueryParams;
+import com.google.firebase.database.core.view.QuerySpec;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.PathIndex;
+import com.google.firebase.testing.ServiceAccount;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class FilePersistenceStorageEngineTest {
+
+  private static FirebaseApp testApp;
+  private static Context context;
+
+  private File directory;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    testApp = FirebaseApp.initializeApp(
+        new FirebaseOptions.Builder()
+            .setCredentials(GoogleCredentials.fromStream(ServiceAccount.EDITOR.asStream()))
+            .setDatabaseUrl("https://admin-java-sdk.firebaseio.com")
+            .build());
+    context = newFrozenTestConfig(testApp);
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    TestOnlyImplFirebaseTrampolines.clearInstancesForTest();
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("persistence").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  private FilePersistenceStorageEngine newEngine() {
+    return new FilePersistenceStorageEngine(context, directory);
+  }
+
+  private static void overwriteInTransaction(
+      final PersistenceStorageEngine engine, final String path, final Object value) {
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.overwriteServerCache(path(path), NodeFromJSON(value));
+      }
+    });
+  }
+
+  // Leaves a partially written transaction behind, which makes the next commit compact the files
+  private void appendTruncatedRecord() throws IOException {
+    try (FileOutputStream stream = new FileOutputStream(new File(directory, "log"), true)) {
+      stream.write("[{\"t\":\"so\",\"p\":\"/foo\",\"v\":".getBytes(Charset.forName("UTF-8")));
+    }
+  }
+
+  private static void runInTransaction(PersistenceStorageEngine engine, Runnable runnable) {
+    engine.beginTransaction();
+    try {
+      runnable.run();
+      engine.setTransactionSuccessful();
+    } finally {
+      engine.endTransaction();
+    }
+  }
+
+  @Test
+  public void userWritesArePersisted() {
+    final FilePersistenceStorageEngine engine = newEngine();
+    final CompoundWrite merge =
+        CompoundWrite.fromValue(fromSingleQuotedString("{'a': 1, 'b/c': 'foo'}"));
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.saveUserOverwrite(path("foo"), NodeFromJSON("bar"), 1);
+        engine.saveUserMerge(path("baz"), merge, 2);
+        engine.saveUserOverwrite(path("qux"), NodeFromJSON(true), 3);
+        engine.removeUserWrite(3);
+      }
+    });
+
+    assertEquals(
+        Arrays.asList(
+            new UserWriteRecord(1, path("foo"), NodeFromJSON("bar"), true),
+            new UserWriteRecord(2, path("baz"), merge)),
+        newEngine().loadUserWrites());
+  }
+
+  @Test
+  public void serverCacheIsPersisted() {
+    final FilePersistenceStorageEngine engine = newEngine();
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.overwriteServerCache(
+            path("foo"), NodeFromJSON(fromSingleQuotedString("{'a': 1, 'b': {'c': 2.5}}")));
+        engine.mergeIntoServerCache(
+            path("foo"), NodeFromJSON(fromSingleQuotedString("{'a': 'x', 'd': false}")));
+        engine.mergeIntoServerCache(
+            path("foo"), CompoundWrite.fromValue(fromSingleQuotedString("{'b/e': 3}")));
+      }
+    });
+
+    assertEquals(
+        NodeFromJSON(fromSingleQuotedString("{'a': 'x', 'b': {'c': 2.5, 'e': 3}, 'd': false}")),
+        newEngine().serverCache(path("foo")));
+  }
+
+  @Test
+  public void trackedQueriesAndKeysArePersisted() {
+    final FilePersistenceStorageEngine engine = newEngine();
+    final QuerySpec query = new QuerySpec(path("foo"),
+        QueryParams.DEFAULT_PARAMS.orderBy(new PathIndex(path("bar"))).limitToFirst(5));
+    final TrackedQuery trackedQuery = new TrackedQuery(1, query, 100, true, false);
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.saveTrackedQuery(trackedQuery);
+        engine.saveTrackedQueryKeys(1, childKeySet("a", "b"));
+        engine.updateTrackedQueryKeys(1, childKeySet("c"), childKeySet("a"));
+      }
+    });
+
+    FilePersistenceStorageEngine reopened = newEngine();
+    assertEquals(Collections.singletonList(trackedQuery), reopened.loadTrackedQueries());
+    assertEquals(childKeySet("b", "c"), reopened.loadTrackedQueryKeys(1));
+  }
+
+  @Test
+  public void failedTransactionIsRolledBack() {
+    final FilePersistenceStorageEngine engine = newEngine();
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.overwriteServerCache(path("foo"), NodeFromJSON("committed"));
+      }
+    });
+
+    engine.beginTransaction();
+    engine.overwriteServerCache(path("foo"), NodeFromJSON("aborted"));
+    engine.endTransaction();
+
+    assertEquals(NodeFromJSON("committed"), engine.serverCache(path("foo")));
+    assertEquals(NodeFromJSON("committed"), newEngine().serverCache(path("foo")));
+  }
+
+  @Test
+  public void pruneIsLoggedWithoutCompaction() {
+    final FilePersistenceStorageEngine engine = newEngine();
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.overwriteServerCache(Path.getEmptyPath(), NodeFromJSON(
+            fromSingleQuotedString("{'a': {'x': 1, 'y': 2}, 'b': 2, 'c': 3}")));
+        engine.pruneCache(Path.getEmptyPath(), new PruneForest()
+            .prune(path("a"))
+            .keep(path("a/y"))
+            .prune(path("b")));
+      }
+    });
+
+    assertFalse(new File(directory, "snapshot").exists());
+    assertEquals(
+        NodeFromJSON(fromSingleQuotedString("{'a': {'y': 2}, 'c': 3}")),
+        newEngine().serverCache(Path.getEmptyPath()));
+  }
+
+  @Test
+  public void closedEngineIgnoresWrites() {
+    final FilePersistenceStorageEngine engine = newEngine();
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.overwriteServerCache(path("foo"), NodeFromJSON("bar"));
+      }
+    });
+    engine.close();
+    engine.close();
+
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.overwriteServerCache(path("baz"), NodeFromJSON("qux"));
+      }
+    });
+
+    FilePersistenceStorageEngine reopened = newEngine();
+    assertEquals(NodeFromJSON("bar"), reopened.serverCache(path("foo")));
+    assertEquals(EmptyNode.Empty(), reopened.serverCache(path("baz")));
+  }
+
+  @Test
+  public void truncatedLogRecordIsIgnored() throws IOException {
+    final FilePersistenceStorageEngine engine = newEngine();
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.overwriteServerCache(path("foo"), NodeFromJSON("bar"));
+      }
+    });
+    try (FileOutputStream stream = new FileOutputStream(new File(directory, "log"), true)) {
+      stream.write("[{\"t\":\"so\",\"p\":\"/foo\",\"v\":".getBytes(Charset.forName("UTF-8")));
+    }
+
+    final FilePersistenceStorageEngine reopened = newEngine();
+    assertEquals(NodeFromJSON("bar"), reopened.serverCache(path("foo")));
+    runInTransaction(reopened, new Runnable() {
+      @Override
+      public void run() {
+        reopened.overwriteServerCache(path("baz"), NodeFromJSON("qux"));
+      }
+    });
+
+    FilePersistenceStorageEngine reopenedAgain = newEngine();
+    assertEquals(NodeFromJSON("bar"), reopenedAgain.serverCache(path("foo")));
+    assertEquals(NodeFromJSON("qux"), reopenedAgain.serverCache(path("baz")));
+    assertEquals(EmptyNode.Empty(), reopenedAgain.serverCache(path("other")));
+  }
+
+  @Test
+  public void failedTransactionRestoresWritesAndQueries() {
+    final FilePersistenceStorageEngine engine = newEngine();
+    final TrackedQuery first = new TrackedQuery(1, QuerySpec.defaultQueryAtPath(path("foo")),
+        100, false, true);
+    final TrackedQuery second = new TrackedQuery(2, QuerySpec.defaultQueryAtPath(path("bar")),
+        200, false, true);
+    runInTransaction(engine, new Runnable() {
+      @Override
+      public void run() {
+        engine.saveUserOverwrite(path("foo"), NodeFromJSON("bar"), 1);
+        engine.saveTrackedQuery(first);
+        engine.saveTrackedQueryKeys(1, childKeySet("a", "b"));
+      }
+    });
+
+    engine.beginTransaction();
+    engine.removeUserWrite(1);
+    engine.saveUserOverwrite(path("baz"), NodeFromJSON("qux"), 2);
+    engine.updateTrackedQueryKeys(1, childKeySet("c"), childKeySet("a"));
+    engine.deleteTrackedQuery(1);
+    engine.saveTrackedQuery(second);
+    engine.saveTrackedQueryKeys(2, childKeySet("d"));
+    engine.resetPreviouslyActiveTrackedQueries(300);
+    engine.endTransaction();
+
+    List<UserWriteRecord> writes = Collections.singletonList(
+        new UserWriteRecord(1, path("foo"), NodeFromJSON("bar"), true));
+    assertEquals(writes, engine.loadUserWrites());
+    assertEquals(Collections.singletonList(first), engine.loadTrackedQueries());
+    assertEquals(childKeySet("a", "b"), engine.loadTrackedQueryKeys(1));
+    assertEquals(Collections.<ChildKey>emptySet(), engine.loadTrackedQueryKeys(2));
+
+    FilePersistenceStorageEngine reopened = newEngine();
+    assertEquals(writes, reopened.loadUserWrites());
+    assertEquals(Collections.singletonList(first), reopened.loadTrackedQueries());
+    assertEquals(childKeySet("a", "b"), reopened.loadTrackedQueryKeys(1));
+  }
+
+  @Test
+  public void largeServerCacheIsSplitInSnapshot() throws IOException {
+    String large = Strings.repeat("x", 100 * 1024);
+    Map<String, Object> children = new HashMap<>();
+    children.put("x", large);
+    children.put("y", large);
+    children.put("z", large);
+    Map<String, Object> value = new HashMap<>();
+    value.put("a", children);
+    value.put("b", 1);
+    value.put(".priority", "p");
+    Node expected = NodeFromJSON(value);
+
+    overwriteInTransaction(newEngine(), "", value);
+    appendTruncatedRecord();
+    overwriteInTransaction(newEngine(), "c", "d");
+
+    // The root and 'a' are larger than a record, while their children are written one by one
+    List<String> lines = Files.readAllLines(
+        new File(directory, "snapshot").toPath(), Charset.forName("UTF-8"));
+    assertEquals(7, lines.size());
+    assertEquals(expected.updateImmediateChild(ChildKey.fromString("c"), NodeFromJSON("d")),
+        newEngine().serverCache(Path.getEmptyPath()));
+  }
+
+  @Test
+  public void compactionRunsOnThreadFromFactory() throws IOException {
+    overwriteInTransaction(newEngine(), "foo", "bar");
+    appendTruncatedRecord();
+
+    final CountDownLatch release = new CountDownLatch(1);
+    FilePersistenceStorageEngine engine = new FilePersistenceStorageEngine(
+        context, directory, new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+              @Override
+              public void run() {
+                Uninterruptibles.awaitUninterruptibly(release);
+                runnable.run();
+              }
+            });
+          }
+        });
+    overwriteInTransaction(engine, "baz", "qux");
+    assertTrue(new File(directory, "log.compacting").exists());
+    assertFalse(new File(directory, "snapshot").exists());
+
+    // Commits go to the new log while the snapshot is written
+    overwriteInTransaction(engine, "later", "value");
+    release.countDown();
+    engine.close();
+
+    assertTrue(new File(directory, "snapshot").exists());
+    assertFalse(new File(directory, "log.compacting").exists());
+    FilePersistenceStorageEngine reopened = newEngine();
+    assertEquals(NodeFromJSON("bar"), reopened.serverCache(path("foo")));
+    assertEquals(NodeFromJSON("qux"), reopened.serverCache(path("baz")));
+    assertEquals(NodeFromJSON("value"), reopened.serverCache(path("later")));
+  }
+
+  @Test
+  public void interruptedCompactionIsRecovered() throws IOException {
+    overwriteInTransaction(newEngine(), "foo", "bar");
+    appendTruncatedRecord();
+
+    // The compaction never runs, as if the process died before the snapshot was written
+    FilePersistenceStorageEngine engine = new FilePersistenceStorageEngine(
+        context, directory, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return new Thread();
+          }
+        });
+    overwriteInTransaction(engine, "baz", "qux");
+    overwriteInTransaction(engine, "later", "value");
+    assertTrue(new File(directory, "log.compacting").exists());
+
+    FilePersistenceStorageEngine reopened = newEngine();
+    assertTrue(new File(directory, "snapshot").exists());
+    assertFalse(new File(directory, "log.compacting").exists());
+    assertEquals(NodeFromJSON("bar"), reopened.serverCache(path("foo")));
+    assertEquals(NodeFromJSON("qux"), reopened.serverCache(path("baz")));
+    assertEquals(NodeFromJSON("value"), reopened.serverCache(path("later")));
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.core.persistence;
+
+import static com.google.firebase.database.TestHelpers.fromSingleQuotedString;
+import static com.google.firebase.database.TestHelpers.newFrozenTestConfig;
+import static com.google.firebase.database.TestHelpers.path;
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseOptions;
+import com.google.firebase.TestOnlyImplFirebaseTrampolines;
+import com.google.firebase.database.core.CompoundWrite;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.view.QuerySpec;
+import com.google.firebase.database.snapshot.EmptyNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.utilities.NodeSizeEstimator;
+import com.google.firebase.testing.ServiceAccount;
+import java.io.IOException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MemoryPersistenceStorageEngineTest {
+
+  private static FirebaseApp testApp;
+
+  @BeforeClass
+  public static void setUpClass() throws IOException {
+    testApp = FirebaseApp.initializeApp(
+        new FirebaseOptions.Builder()
+            .setCredentials(GoogleCredentials.fromStream(ServiceAccount.EDITOR.asStream()))
+            .setDatabaseUrl("https://admin-java-sdk.firebaseio.com")
+            .build());
+  }
+
+  @AfterClass
+  public static void tearDownClass() {
+    TestOnlyImplFirebaseTrampolines.clearInstancesForTest();
+  }
+
+  private static void assertSizeIsExact(PersistenceStorageEngine engine) {
+    Node cache = engine.serverCache(Path.getEmptyPath());
+    assertEquals(
+        NodeSizeEstimator.estimateSerializedNodeSize(cache),
+        engine.serverCacheEstimatedSizeInBytes());
+  }
+
+  @Test
+  public void sizeEstimateFollowsUpdates() {
+    MemoryPersistenceStorageEngine engine = new MemoryPersistenceStorageEngine();
+    assertSizeIsExact(engine);
+    engine.overwriteServerCache(path("a/b"), NodeFromJSON("foo"));
+    assertSizeIsExact(engine);
+    engine.overwriteServerCache(path("a/c"), NodeFromJSON(fromSingleQuotedString(
+        "{'d': 1, 'e': {'.value': true, '.priority': 3}}")));
+    assertSizeIsExact(engine);
+    engine.mergeIntoServerCache(path("a"),
+        CompoundWrite.fromValue(fromSingleQuotedString("{'b': null, 'c/d': 'bar', 'f/g': 2.5}")));
+    assertSizeIsExact(engine);
+    engine.overwriteServerCache(path("a/c/d/deeper"), NodeFromJSON("replaces a leaf"));
+    assertSizeIsExact(engine);
+    engine.overwriteServerCache(path("a/.priority"), NodeFromJSON("prio"));
+    assertSizeIsExact(engine);
+    engine.mergeIntoServerCache(path("a"),
+        CompoundWrite.fromValue(fromSingleQuotedString("{'c': null, 'f': null}")));
+    assertSizeIsExact(engine);
+    assertEquals(EmptyNode.Empty(), engine.serverCache(path("a")));
+  }
+
+  @Test
+  public void userWritesAreNotStored() {
+    MemoryPersistenceStorageEngine engine = new MemoryPersistenceStorageEngine();
+    engine.saveUserOverwrite(path("foo"), NodeFromJSON("bar"), 1);
+    engine.saveUserMerge(path("baz"), CompoundWrite.emptyWrite(), 2);
+    assertTrue(engine.loadUserWrites().isEmpty());
+  }
+
+  @Test
+  public void inactiveQueriesArePrunedToStayWithinBudget() {
+    final long budget = 10 * 1024;
+    MemoryPersistenceStorageEngine engine = new MemoryPersistenceStorageEngine();
+    DefaultPersistenceManager manager = new DefaultPersistenceManager(
+        newFrozenTestConfig(testApp), engine, new LRUCachePolicy(budget, 0));
+
+    StringBuilder value = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      value.append("0123456789");
+    }
+    for (int i = 0; i < 100; i++) {
+      QuerySpec query = QuerySpec.defaultQueryAtPath(path("items/" + i));
+      manager.setQueryActive(query);
+      manager.updateServerCache(query, NodeFromJSON(value.toString()));
+      manager.setQueryComplete(query);
+      manager.setQueryInactive(query);
+      assertTrue(engine.serverCacheEstimatedSizeInBytes() <= budget);
+    }
+
+    // The most recently used data is still cached
+    QuerySpec lastQuery = QuerySpec.defaultQueryAtPath(path("items/99"));
+    assertEquals(value.toString(), manager.serverCache(lastQuery).getNode().getValue());
+    assertSizeIsExact(engine);
+  }
+}
@@ -289,6 +289,9 @@ public class MockPersistenceStorageEngine implements PersistenceStorageEngine {
   @Override
   public void setTransactionSuccessful() {}
 
+  @Override
+  public void close() {}
+
   private void verifyInsideTransaction() {
     hardAssert(
         this.disableTransactionCheck || this.insideTransaction,
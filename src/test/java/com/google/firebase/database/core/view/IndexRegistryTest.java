@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.core.view;
+
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.google.firebase.database.MapBuilder;
+import com.google.firebase.database.core.Path;
+import com.google.firebase.database.core.view.filter.IndexedFilter;
+import com.google.firebase.database.snapshot.ChildKey;
+import com.google.firebase.database.snapshot.Index;
+import com.google.firebase.database.snapshot.IndexedNode;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.PathIndex;
+import java.util.Collections;
+import org.junit.Test;
+
+public class IndexRegistryTest {
+
+  private static final Index SCORE_INDEX = new PathIndex(new Path("score"));
+
+  private static Node scores() {
+    return NodeFromJSON(
+        new MapBuilder()
+            .put("a", new MapBuilder().put("score", 3).build())
+            .put("b", new MapBuilder().put("score", 1).build())
+            .put("c", new MapBuilder().put("score", 2).build())
+            .build());
+  }
+
+  private static String firstKey(IndexedNode node) {
+    return node.getFirstChild().getName().asString();
+  }
+
+  @Test
+  public void nodesAreSharedBetweenViews() {
+    IndexRegistry indexes = new IndexRegistry();
+    Node node = scores();
+    IndexedNode first = indexes.from(node, SCORE_INDEX);
+    assertSame(first, indexes.from(node, SCORE_INDEX));
+    assertEquals("b", firstKey(first));
+
+    Node updated = node.updateChild(new Path("a/score"), NodeFromJSON(0));
+    IndexedNode second = indexes.from(updated, SCORE_INDEX);
+    assertSame(updated, second.getNode());
+    assertEquals("a", firstKey(second));
+  }
+
+  @Test
+  public void childUpdatesAreSharedWithinAnOperation() {
+    IndexRegistry indexes = new IndexRegistry();
+    IndexedFilter filter = new IndexedFilter(SCORE_INDEX);
+    IndexedNode node = indexes.from(scores(), SCORE_INDEX);
+    ChildKey key = ChildKey.fromString("c");
+    Node child = NodeFromJSON(new MapBuilder().put("score", 0).build());
+
+    IndexedNode first = indexes.updateChild(filter, node, key, child, Path.getEmptyPath(), null);
+    IndexedNode second =
+        indexes.updateChild(
+            filter,
+            node,
+            key,
+            NodeFromJSON(new MapBuilder().put("score", 0).build()),
+            Path.getEmptyPath(),
+            null);
+    assertSame(first, second);
+    assertEquals("c", firstKey(first));
+
+    indexes.operationComplete();
+    assertNotSame(first, indexes.updateChild(filter, node, key, child, Path.getEmptyPath(), null));
+  }
+
+  @Test
+  public void unusedIndexesAreDropped() {
+    IndexRegistry indexes = new IndexRegistry();
+    Node node = scores();
+    IndexedNode first = indexes.from(node, SCORE_INDEX);
+    indexes.retainIndexes(Collections.<Index>emptySet());
+    assertNotSame(first, indexes.from(node, SCORE_INDEX));
+  }
+}
@@ -2210,6 +2210,37 @@ public class DataTestIT {
     TestHelpers.assertTimeDelta(Long.parseLong(snap.child("a/b/c").getValue().toString()));
   }
 
+  @Test
+  public void testServerIncrements()
+      throws TestFailure, ExecutionException, TimeoutException, InterruptedException {
+    List<DatabaseReference> refs = IntegrationTestUtils.getRandomNode(masterApp, 2);
+    DatabaseReference writer = refs.get(0);
+    DatabaseReference reader = refs.get(1);
+
+    new WriteFuture(writer.child("count"), 5).timedGet();
+    new WriteFuture(writer.child("count"), ServerValue.increment(2)).timedGet();
+    assertEquals(7L, TestHelpers.getSnap(writer.child("count")).getValue());
+
+    final Semaphore semaphore = new Semaphore(0);
+    writer.updateChildren(
+        new MapBuilder()
+            .put("count", ServerValue.increment(0.5))
+            .put("other", ServerValue.increment(3))
+            .build(),
+        new DatabaseReference.CompletionListener() {
+          @Override
+          public void onComplete(DatabaseError error, DatabaseReference ref) {
+            assertNull(error);
+            semaphore.release();
+          }
+        });
+    TestHelpers.waitFor(semaphore);
+
+    DataSnapshot snap = TestHelpers.getSnap(reader);
+    assertEquals(7.5, snap.child("count").getValue());
+    assertEquals(3L, snap.child("other").getValue());
+  }
+
   @Test
   public void testServerValuesSetWithPriorityLocalEvents()
       throws TestFailure, TimeoutException, InterruptedException {
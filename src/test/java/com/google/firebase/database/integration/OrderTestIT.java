@@ -116,6 +116,30 @@ public class OrderTestIT {
     assertEquals(20L, i);
   }
 
+  @Test
+  public void testPushAllAndEnumerate()
+      throws TestFailure, TimeoutException, InterruptedException {
+    DatabaseReference ref = IntegrationTestUtils.getRandomNode(masterApp);
+
+    List<Long> values = new ArrayList<>(20);
+    for (long i = 0; i < 20; ++i) {
+      values.add(i);
+    }
+    List<DatabaseReference> paths = ref.pushAll(values);
+    assertEquals(20, paths.size());
+
+    DataSnapshot snap = new ReadFuture(ref).timedGet().get(0).getSnapshot();
+
+    long i = 0;
+    for (DataSnapshot child : snap.getChildren()) {
+      assertEquals(paths.get((int) i).getKey(), child.getKey());
+      assertEquals(i, child.getValue());
+      i++;
+    }
+
+    assertEquals(20L, i);
+  }
+
   @Test
   public void testReconnectAndRead()
       throws TestFailure, ExecutionException, TimeoutException, InterruptedException {
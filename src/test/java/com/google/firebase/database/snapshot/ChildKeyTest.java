@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.snapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Strings;
+import com.google.firebase.database.core.Path;
+import org.junit.Test;
+
+public class ChildKeyTest {
+
+  @Test
+  public void repeatedKeysAreInterned() {
+    ChildKey key = ChildKey.fromString("name");
+    assertSame(key, ChildKey.fromString(new String("name")));
+    assertSame(key, new Path("users/alice/name").getBack());
+  }
+
+  @Test
+  public void integerKeysAreInterned() {
+    ChildKey key = ChildKey.fromString("12");
+    assertSame(key, ChildKey.fromString("12"));
+    assertTrue(key.compareTo(ChildKey.fromString("9")) > 0);
+    assertTrue(key.compareTo(ChildKey.fromString("012")) < 0);
+    assertTrue(key.compareTo(ChildKey.fromString("a")) < 0);
+  }
+
+  @Test
+  public void priorityKeyIsSingleton() {
+    assertSame(ChildKey.getPriorityKey(), ChildKey.fromString(".priority"));
+    assertTrue(ChildKey.fromString(".priority").isPriorityChildName());
+  }
+
+  @Test
+  public void longKeysAreNotInterned() {
+    String name = Strings.repeat("k", 65);
+    ChildKey key = ChildKey.fromString(name);
+    ChildKey other = ChildKey.fromString(name);
+    assertNotSame(key, other);
+    assertEquals(key, other);
+    assertEquals(key.hashCode(), other.hashCode());
+    assertEquals(0, key.compareTo(other));
+  }
+
+  @Test
+  public void boundaryKeysAreNotReturnedForTheirNames() {
+    assertNotSame(ChildKey.getMinName(), ChildKey.fromString("[MIN_KEY]"));
+    assertNotSame(ChildKey.getMaxName(), ChildKey.fromString("[MAX_KEY]"));
+    assertTrue(ChildKey.getMinName().compareTo(ChildKey.fromString("[MIN_KEY]")) < 0);
+  }
+}
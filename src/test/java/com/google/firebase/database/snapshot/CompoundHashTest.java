@@ -20,6 +20,8 @@ import static com.google.firebase.database.TestHelpers.fromSingleQuotedString;
 import static com.google.firebase.database.TestHelpers.path;
 import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.firebase.database.MapBuilder;
@@ -203,4 +205,78 @@ public class CompoundHashTest {
     CompoundHash hash = CompoundHash.fromNode(leafNode);
     assertEquals(2, hash.getHashes().size());
   }
+
+  private static Node largeNodeWithPriority() {
+    Node node = EmptyNode.Empty();
+    for (int i = 0; i < 2000; i++) {
+      node = node.updateImmediateChild(ChildKey.fromString("key-" + i),
+          NodeFromJSON(new MapBuilder().put("a", "value-" + i).put("b", i).build()));
+    }
+    return node.updatePriority(NodeFromJSON("prio"));
+  }
+
+  private static void assertSameAsSplitAtPosts(Node node, CompoundHash hash) {
+    String[] posts = new String[hash.getPosts().size()];
+    for (int i = 0; i < posts.length; i++) {
+      posts[i] = hash.getPosts().get(i).toString();
+    }
+    CompoundHash expected = CompoundHash.fromNode(node, splitAtPaths(posts));
+    assertEquals(expected.getPosts(), hash.getPosts());
+    assertEquals(expected.getHashes(), hash.getHashes());
+  }
+
+  @Test
+  public void rangeCacheSplitsBetweenChildren() {
+    Node node = largeNodeWithPriority();
+    CompoundHash hash = new CompoundHash.RangeCache(1024).fromNode(node);
+    assertTrue(hash.getHashes().size() > 20);
+    for (Path post : hash.getPosts()) {
+      assertEquals(ChildKey.fromString("b"), post.getBack());
+    }
+    assertSameAsSplitAtPosts(node, hash);
+  }
+
+  @Test
+  public void rangeCacheReusesHashesOfUnchangedChildren() {
+    Node node = largeNodeWithPriority();
+    CompoundHash.RangeCache cache = new CompoundHash.RangeCache(1024);
+    CompoundHash hash = cache.fromNode(node);
+
+    Node updated = node.updateChild(path("key-500/a"), NodeFromJSON("changed"));
+    CompoundHash updatedHash = cache.fromNode(updated);
+    assertEquals(hash.getPosts(), updatedHash.getPosts());
+    int changed = 0;
+    for (int i = 0; i < hash.getHashes().size(); i++) {
+      if (!hash.getHashes().get(i).equals(updatedHash.getHashes().get(i))) {
+        changed++;
+      } else {
+        assertSame(hash.getHashes().get(i), updatedHash.getHashes().get(i));
+      }
+    }
+    assertEquals(1, changed);
+    assertSameAsSplitAtPosts(updated, updatedHash);
+
+    Node removed = updated.updateImmediateChild(ChildKey.fromString("key-1000"),
+        EmptyNode.Empty());
+    CompoundHash removedHash = cache.fromNode(removed);
+    assertNotEquals(updatedHash.getHashes(), removedHash.getHashes());
+    assertSameAsSplitAtPosts(removed, removedHash);
+  }
+
+  @Test
+  public void rangeCacheSplitsBySizeForSmallOrCoarseNodes() {
+    Node small = NodeFromJSON(fromSingleQuotedString("{'foo': 'bar', 'baz': {'qux': 1}}"));
+    CompoundHash.RangeCache cache = new CompoundHash.RangeCache(1024);
+    assertEquals(CompoundHash.fromNode(small).getHashes(), cache.fromNode(small).getHashes());
+
+    StringBuilder largeString = new StringBuilder();
+    for (int i = 0; i < 10 * 1024; i++) {
+      largeString.append("x");
+    }
+    Node coarse = NodeFromJSON(new MapBuilder()
+        .put("a", largeString.toString()).put("b", largeString.toString()).build());
+    CompoundHash hash = cache.fromNode(coarse);
+    assertEquals(CompoundHash.fromNode(coarse).getHashes(), hash.getHashes());
+    assertTrue(hash.getHashes().size() > 2);
+  }
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.snapshot;
+
+import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import com.google.common.io.BaseEncoding;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+/**
+ * Compares the allocations of hashing a large tree with the streaming hash against hashing it by
+ * building string representations, the way node hashes used to be computed.
+ */
+public class NodeHashAllocationTest {
+
+  private static Map<String, Object> newTree(int size, boolean withPriorities) {
+    Map<String, Object> tree = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      Map<String, Object> child = new HashMap<>();
+      child.put("name", "user " + i);
+      child.put("score", i * 3);
+      child.put("active", i % 2 == 0);
+      if (withPriorities) {
+        child.put(".priority", i % 7);
+      }
+      tree.put("child" + i, child);
+    }
+    return tree;
+  }
+
+  private static String legacyHash(Node node) throws Exception {
+    if (node.isLeafNode()) {
+      return sha1(node.getHashRepresentation(Node.HashVersion.V1));
+    }
+    StringBuilder toHash = new StringBuilder();
+    if (!node.getPriority().isEmpty()) {
+      toHash.append("priority:");
+      toHash.append(node.getPriority().getHashRepresentation(Node.HashVersion.V1));
+      toHash.append(":");
+    }
+    List<NamedNode> nodes = new ArrayList<>();
+    boolean sawPriority = false;
+    for (NamedNode child : node) {
+      nodes.add(child);
+      sawPriority = sawPriority || !child.getNode().getPriority().isEmpty();
+    }
+    if (sawPriority) {
+      Collections.sort(nodes, PriorityIndex.getInstance());
+    }
+    for (NamedNode child : nodes) {
+      String hash = legacyHash(child.getNode());
+      toHash.append(":");
+      toHash.append(child.getName().asString());
+      toHash.append(":");
+      toHash.append(hash);
+    }
+    return sha1(toHash.toString());
+  }
+
+  private static String sha1(String input) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    return BaseEncoding.base64().encode(digest.digest(input.getBytes("UTF-8")));
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static boolean canMeasureAllocations() {
+    try {
+      return ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+          && ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+              .isThreadAllocatedMemoryEnabled();
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  private void checkAllocations(boolean withPriorities) throws Exception {
+    assumeTrue(canMeasureAllocations());
+    Map<String, Object> tree = newTree(5000, withPriorities);
+    // Warm up both paths, and check that they produce the same hash.
+    for (int i = 0; i < 3; i++) {
+      assertEquals(legacyHash(NodeFromJSON(tree)), NodeFromJSON(tree).getHash());
+    }
+
+    Node legacyNode = NodeFromJSON(tree);
+    long start = allocatedBytes();
+    legacyHash(legacyNode);
+    long legacyBytes = allocatedBytes() - start;
+
+    Node node = NodeFromJSON(tree);
+    start = allocatedBytes();
+    node.getHash();
+    long streamingBytes = allocatedBytes() - start;
+
+    assertTrue("streaming: " + streamingBytes + ", legacy: " + legacyBytes,
+        streamingBytes * 2 < legacyBytes);
+  }
+
+  @Test
+  public void streamingHashAllocatesLess() throws Exception {
+    checkAllocations(false);
+  }
+
+  @Test
+  public void streamingHashWithPrioritiesAllocatesLess() throws Exception {
+    checkAllocations(true);
+  }
+}
@@ -18,13 +18,21 @@ package com.google.firebase.database.snapshot;
 
 import static com.google.firebase.database.snapshot.NodeUtilities.NodeFromJSON;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import com.google.firebase.database.MapBuilder;
 import com.google.firebase.database.core.Path;
+import com.google.firebase.database.utilities.Utilities;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
@@ -86,6 +94,33 @@ public class NodeTest {
     assertEquals("Fm6tzN4CVEu5WxFDZUdTtqbTVaA=", hash);
   }
 
+  @Test
+  public void hashMatchesHashRepresentation() {
+    Map<String, Object> data =
+        new MapBuilder()
+            .put("b", new MapBuilder().put(".value", "h\u00e9llo \ud83d\ude00").put(".priority", 2)
+                .build())
+            .put("a", new MapBuilder().put(".value", "quote\" backslash\\").put(".priority", 1)
+                .build())
+            .put("c", new MapBuilder().put("d", 1.5).put("e", false).build())
+            .put(".priority", "root")
+            .build();
+    Node node = NodeFromJSON(data);
+    assertEquals(
+        Utilities.sha1HexDigest(node.getHashRepresentation(Node.HashVersion.V1)), node.getHash());
+
+    for (String key : new String[] {"a", "b"}) {
+      Node child = node.getImmediateChild(ChildKey.fromString(key));
+      assertEquals(
+          Utilities.sha1HexDigest(child.getHashRepresentation(Node.HashVersion.V1)),
+          child.getHash());
+      assertEquals(
+          Utilities.sha1HexDigest(
+              "(" + child.getHashRepresentation(Node.HashVersion.V2) + ")"),
+          CompoundHash.fromNode(child).getHashes().get(0));
+    }
+  }
+
   @Test
   public void leadingZeroesWorkCorrectly() {
     Map<String, Object> data =
@@ -208,4 +243,134 @@ public class NodeTest {
     assertTrue(node instanceof BigIntegerNode);
     assertEquals(0, BigInteger.TEN.compareTo((BigInteger) node.getValue()));
   }
+
+  @Test
+  public void primitiveLeavesKeepTheirPriority() {
+    Node priority = PriorityUtilities.parsePriority("prio");
+    Node[] leaves = {
+        LongNode.valueOf(42L, PriorityUtilities.NullPriority()),
+        DoubleNode.valueOf(4.2, PriorityUtilities.NullPriority()),
+        BooleanNode.valueOf(true, PriorityUtilities.NullPriority())
+    };
+    for (Node leaf : leaves) {
+      assertTrue(leaf.getPriority().isEmpty());
+      Node withPriority = leaf.updatePriority(priority);
+      assertEquals(priority, withPriority.getPriority());
+      assertEquals(priority, withPriority.getImmediateChild(ChildKey.getPriorityKey()));
+      assertEquals(leaf.getValue(), withPriority.getValue());
+      assertNotEquals(leaf, withPriority);
+      assertNotEquals(leaf.getHash(), withPriority.getHash());
+
+      Node withoutPriority = withPriority.updatePriority(PriorityUtilities.NullPriority());
+      assertEquals(leaf, withoutPriority);
+      assertEquals(leaf.hashCode(), withoutPriority.hashCode());
+      assertEquals(leaf.getHash(), withoutPriority.getHash());
+      assertEquals(0, leaf.compareTo(withPriority));
+    }
+  }
+
+  @Test
+  public void booleanLeavesWithoutPriorityAreShared() {
+    assertSame(NodeFromJSON(true), NodeFromJSON(true));
+    assertSame(NodeFromJSON(false), BooleanNode.valueOf(false, PriorityUtilities.NullPriority()));
+  }
+
+  @Test
+  public void doubleLeavesCompareLikeBoxedDoubles() {
+    Node zero = NodeFromJSON(0.0);
+    Node negativeZero = NodeFromJSON(-0.0);
+    assertNotEquals(zero, negativeZero);
+    assertTrue(negativeZero.compareTo(zero) < 0);
+    assertEquals(NodeFromJSON(Double.NaN), NodeFromJSON(Double.NaN));
+    assertTrue(NodeFromJSON(1L).compareTo(NodeFromJSON(1.5)) < 0);
+    assertTrue(NodeFromJSON(2.5).compareTo(NodeFromJSON(2L)) > 0);
+  }
+
+  @Test
+  public void valueViewsMatchCopiedValues() {
+    Map<String, Object> data =
+        new MapBuilder()
+            .put("string", "foo")
+            .put("long", 42L)
+            .put("map", new MapBuilder().put("a", true).put("01", 1.5).build())
+            .put("list", new MapBuilder().put("0", "x").put("2", "z").build())
+            .build();
+
+    ChildrenNode node = (ChildrenNode) NodeFromJSON(data);
+    Map<?, ?> view = (Map<?, ?>) node.getValueView();
+    assertEquals(node.getValue(), view);
+    assertEquals(view, node.getValue());
+    assertEquals(node.getValue().hashCode(), view.hashCode());
+    assertEquals(4, view.size());
+    assertEquals(42L, view.get("long"));
+    assertEquals(Arrays.asList("x", null, "z"), view.get("list"));
+    assertNull(view.get("missing"));
+    assertNull(view.get(".priority"));
+    assertTrue(view.containsKey("map"));
+    assertFalse(view.containsKey("missing"));
+    assertSame(view.get("map"), view.get("map"));
+    assertSame(view.get("list"), view.entrySet().iterator().next().getValue());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void valueViewsAreReadOnly() {
+    Node node = NodeFromJSON(new MapBuilder().put("a", "b").build());
+    @SuppressWarnings("unchecked")
+    Map<String, Object> view = (Map<String, Object>) ((ChildrenNode) node).getValueView();
+    view.put("c", "d");
+  }
+
+  private static List<String> indexedKeys(IndexedNode node) {
+    List<String> keys = new ArrayList<>();
+    for (NamedNode child : node) {
+      keys.add(child.getName().asString());
+    }
+    return keys;
+  }
+
+  @Test
+  public void updateNodeMatchesFreshIndex() {
+    Index index = new PathIndex(new Path("score"));
+    Node node = EmptyNode.Empty();
+    for (int i = 0; i < 100; i++) {
+      node = node.updateChild(new Path("child" + i + "/score"), NodeFromJSON((i * 37) % 100));
+    }
+    IndexedNode indexed = IndexedNode.from(node, index);
+    // Build the index so that the update below is applied incrementally
+    indexed.getFirstChild();
+
+    Node updated =
+        node.updateChild(new Path("child3/score"), NodeFromJSON(1000))
+            .updateImmediateChild(ChildKey.fromString("child5"), EmptyNode.Empty())
+            .updateChild(new Path("new/score"), NodeFromJSON(-1));
+    IndexedNode incremental = indexed.updateNode(updated);
+    assertSame(updated, incremental.getNode());
+    assertEquals(indexedKeys(IndexedNode.from(updated, index)), indexedKeys(incremental));
+    assertSame(indexed, indexed.updateNode(node));
+  }
+
+  @Test
+  public void rawStringNodeMatchesDecodedNode() throws Exception {
+    String value = "quote \" backslash \\ slash / tab \t e\u00e9 \ud83d\ude00";
+    String json = "quote \\\" backslash \\\\ slash \\/ tab \\t e\\u00e9 \ud83d\ude00";
+    byte[] raw = json.getBytes("UTF-8");
+    StringNode rawNode = StringNode.fromRawJson(raw, true, PriorityUtilities.NullPriority());
+    StringNode decoded = new StringNode(value, PriorityUtilities.NullPriority());
+
+    assertEquals(raw.length, rawNode.estimateLength());
+    assertEquals(decoded.getHash(), rawNode.getHash());
+    assertEquals(CompoundHash.fromNode(decoded).getHashes(),
+        CompoundHash.fromNode(rawNode).getHashes());
+    assertEquals(rawNode, StringNode.fromRawJson(raw, true, PriorityUtilities.NullPriority()));
+    assertNotEquals(rawNode, StringNode.fromRawJson(
+        "other".getBytes("UTF-8"), false, PriorityUtilities.NullPriority()));
+
+    Node withPriority = rawNode.updatePriority(NodeFromJSON(1));
+    assertEquals(decoded.updatePriority(NodeFromJSON(1)).getHash(), withPriority.getHash());
+    assertEquals(value, withPriority.getValue());
+    assertEquals(value, rawNode.getValue());
+    assertEquals(decoded, rawNode);
+    assertEquals(decoded.hashCode(), rawNode.hashCode());
+    assertEquals(value.length(), rawNode.estimateLength());
+  }
 }
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.tubesock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Strings;
+import com.google.common.primitives.Bytes;
+import com.google.firebase.database.core.ThreadInitializer;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NioWebSocketTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  private static final SelectorPool POOL =
+      SelectorPool.newPool(1, Executors.defaultThreadFactory(), ThreadInitializer.defaultInstance);
+
+  private ServerSocket serverSocket;
+
+  @Before
+  public void setUp() throws IOException {
+    serverSocket = new ServerSocket(0);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    serverSocket.close();
+  }
+
+  private NioWebSocket newWebSocket(RecordingHandler handler) {
+    NioWebSocket ws = new NioWebSocket(
+        URI.create("ws://localhost:" + serverSocket.getLocalPort() + "/.ws"), null, null, POOL);
+    ws.setEventHandler(handler);
+    return ws;
+  }
+
+  private static void acceptUpgrade(Socket socket, String status) throws IOException {
+    acceptUpgrade(socket, status, "");
+  }
+
+  private static void acceptUpgrade(Socket socket, String status, String extraHeaders)
+      throws IOException {
+    DataInputStream input = new DataInputStream(socket.getInputStream());
+    StringBuilder request = new StringBuilder();
+    while (!request.toString().endsWith("\r\n\r\n")) {
+      request.append((char) input.readByte());
+    }
+    assertTrue(request.toString().startsWith("GET /.ws HTTP/1.1\r\n"));
+    assertTrue(request.toString().contains("\r\nSec-WebSocket-Extensions: permessage-deflate\r\n"));
+    socket.getOutputStream().write(("HTTP/1.1 " + status + "\r\n"
+        + "Upgrade: websocket\r\nConnection: Upgrade\r\n" + extraHeaders + "\r\n")
+        .getBytes(UTF8));
+  }
+
+  private static void writeFrame(OutputStream output, int opcode, byte[] payload)
+      throws IOException {
+    writeRawFrame(output, 0x80 | opcode, payload);
+  }
+
+  /** Writes a frame with the given first byte, which holds the FIN and RSV bits and opcode. */
+  private static void writeRawFrame(OutputStream output, int first, byte[] payload)
+      throws IOException {
+    ByteBuffer frame = ByteBuffer.allocate(payload.length + 10);
+    frame.put((byte) first);
+    if (payload.length < 126) {
+      frame.put((byte) payload.length);
+    } else if (payload.length <= 65535) {
+      frame.put((byte) 126);
+      frame.putShort((short) payload.length);
+    } else {
+      frame.put((byte) 127);
+      frame.putLong(payload.length);
+    }
+    frame.put(payload);
+    output.write(frame.array(), 0, frame.position());
+    output.flush();
+  }
+
+  /**
+   * Reads a masked frame from the client, and returns its first byte, without the FIN bit,
+   * followed by its payload.
+   */
+  private static byte[] readFrame(DataInputStream input) throws IOException {
+    int opcode = input.readByte() & 0x7f;
+    int length = input.readByte() & 0x7f;
+    if (length == 126) {
+      length = input.readShort() & 0xffff;
+    } else if (length == 127) {
+      length = (int) input.readLong();
+    }
+    byte[] mask = new byte[4];
+    input.readFully(mask);
+    byte[] frame = new byte[length + 1];
+    frame[0] = (byte) opcode;
+    input.readFully(frame, 1, length);
+    for (int i = 0; i < length; i++) {
+      frame[i + 1] ^= mask[i % 4];
+    }
+    return frame;
+  }
+
+  private static byte[] frame(int opcode, String payload) {
+    byte[] bytes = payload.getBytes(UTF8);
+    byte[] frame = new byte[bytes.length + 1];
+    frame[0] = (byte) opcode;
+    System.arraycopy(bytes, 0, frame, 1, bytes.length);
+    return frame;
+  }
+
+  @Test
+  public void exchangesMessages() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    NioWebSocket ws = newWebSocket(handler);
+    ws.connect();
+
+    Socket socket = serverSocket.accept();
+    acceptUpgrade(socket, "101 Switching Protocols");
+    assertTrue(handler.opened.await(10, TimeUnit.SECONDS));
+
+    OutputStream output = socket.getOutputStream();
+    DataInputStream input = new DataInputStream(socket.getInputStream());
+    String large = Strings.repeat("0123456789", 10000);
+    writeFrame(output, WebSocket.OPCODE_TEXT, "hello".getBytes(UTF8));
+    writeFrame(output, WebSocket.OPCODE_TEXT, large.getBytes(UTF8));
+    assertEquals("hello", handler.messages.poll(10, TimeUnit.SECONDS));
+    assertEquals(large, handler.messages.poll(10, TimeUnit.SECONDS));
+
+    writeFrame(output, WebSocket.OPCODE_PING, "ping".getBytes(UTF8));
+    assertArrayEquals(frame(WebSocket.OPCODE_PONG, "ping"), readFrame(input));
+
+    ws.send("from client");
+    FrameBufferPool pool = new FrameBufferPool(1024, 1);
+    ByteBuffer buffer = pool.acquire();
+    buffer.put("pooled".getBytes(UTF8));
+    ws.send(buffer, pool);
+    ws.send(large);
+    assertArrayEquals(frame(WebSocket.OPCODE_TEXT, "from client"), readFrame(input));
+    assertArrayEquals(frame(WebSocket.OPCODE_TEXT, "pooled"), readFrame(input));
+    assertArrayEquals(frame(WebSocket.OPCODE_TEXT, large), readFrame(input));
+
+    ws.close();
+    assertArrayEquals(frame(WebSocket.OPCODE_CLOSE, ""), readFrame(input));
+    writeFrame(output, WebSocket.OPCODE_CLOSE, new byte[0]);
+    ws.blockClose();
+    assertTrue(handler.closed.await(10, TimeUnit.SECONDS));
+    assertEquals(0, handler.errors.size());
+    socket.close();
+  }
+
+  @Test
+  public void exchangesCompressedMessages() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    NioWebSocket ws = newWebSocket(handler);
+    ws.connect();
+
+    Socket socket = serverSocket.accept();
+    acceptUpgrade(socket, "101 Switching Protocols",
+        "Sec-WebSocket-Extensions: permessage-deflate\r\n");
+    assertTrue(handler.opened.await(10, TimeUnit.SECONDS));
+
+    OutputStream output = socket.getOutputStream();
+    DataInputStream input = new DataInputStream(socket.getInputStream());
+    String large = Strings.repeat("0123456789", 10000);
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    for (int i = 0; i < 2; i++) {
+      // Compressed with context takeover, and fragmented in two frames
+      byte[] compressed = deflate(deflater, large);
+      int half = compressed.length / 2;
+      writeRawFrame(output, 0x40 | WebSocket.OPCODE_TEXT, Arrays.copyOf(compressed, half));
+      writeRawFrame(output, 0x80 | WebSocket.OPCODE_NONE,
+          Arrays.copyOfRange(compressed, half, compressed.length));
+      assertEquals(large, handler.messages.poll(10, TimeUnit.SECONDS));
+    }
+    writeFrame(output, WebSocket.OPCODE_TEXT, "uncompressed".getBytes(UTF8));
+    assertEquals("uncompressed", handler.messages.poll(10, TimeUnit.SECONDS));
+
+    ws.send("small");
+    ws.send(large);
+    assertArrayEquals(frame(WebSocket.OPCODE_TEXT, "small"), readFrame(input));
+    byte[] compressed = readFrame(input);
+    assertEquals(0x40 | WebSocket.OPCODE_TEXT, compressed[0]);
+    assertTrue(compressed.length < 1000);
+    Inflater inflater = new Inflater(true);
+    inflater.setInput(Bytes.concat(Arrays.copyOfRange(compressed, 1, compressed.length),
+        new byte[] {0, 0, (byte) 0xff, (byte) 0xff}));
+    byte[] inflated = new byte[large.length()];
+    assertEquals(large.length(), inflater.inflate(inflated));
+    assertEquals(large, new String(inflated, UTF8));
+
+    ws.close();
+    assertArrayEquals(frame(WebSocket.OPCODE_CLOSE, ""), readFrame(input));
+    writeFrame(output, WebSocket.OPCODE_CLOSE, new byte[0]);
+    assertTrue(handler.closed.await(10, TimeUnit.SECONDS));
+    assertEquals(0, handler.errors.size());
+    socket.close();
+  }
+
+  private static byte[] deflate(Deflater deflater, String message) {
+    deflater.setInput(message.getBytes(UTF8));
+    byte[] buffer = new byte[message.length() + 64];
+    int length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+    return Arrays.copyOf(buffer, length - 4);
+  }
+
+  @Test
+  public void reportsRejectedUpgrade() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    NioWebSocket ws = newWebSocket(handler);
+    ws.connect();
+
+    Socket socket = serverSocket.accept();
+    acceptUpgrade(socket, "404 Not Found");
+    WebSocketException error = handler.errors.poll(10, TimeUnit.SECONDS);
+    assertEquals("connection failed: 404 not found", error.getMessage());
+    assertTrue(handler.closed.await(10, TimeUnit.SECONDS));
+    assertEquals(1, handler.opened.getCount());
+    socket.close();
+  }
+
+  @Test
+  public void reportsServerDisconnect() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    NioWebSocket ws = newWebSocket(handler);
+    ws.connect();
+
+    Socket socket = serverSocket.accept();
+    acceptUpgrade(socket, "101 Switching Protocols");
+    assertTrue(handler.opened.await(10, TimeUnit.SECONDS));
+    socket.close();
+    WebSocketException error = handler.errors.poll(10, TimeUnit.SECONDS);
+    assertTrue(error.getCause() instanceof IOException);
+    assertTrue(handler.closed.await(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void closeBeforeConnecting() throws Exception {
+    RecordingHandler handler = new RecordingHandler();
+    NioWebSocket ws = newWebSocket(handler);
+    ws.close();
+    ws.blockClose();
+    ws.connect();
+    assertEquals("connect() already called", handler.errors.poll().getMessage());
+    assertEquals(1, handler.closed.getCount());
+  }
+
+  private static class RecordingHandler implements WebSocketEventHandler {
+
+    private final CountDownLatch opened = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private final BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+    private final BlockingQueue<WebSocketException> errors = new LinkedBlockingQueue<>();
+
+    @Override
+    public void onOpen() {
+      opened.countDown();
+    }
+
+    @Override
+    public void onMessage(WebSocketMessage message) {
+      messages.add(message.getText());
+    }
+
+    @Override
+    public void onClose() {
+      closed.countDown();
+    }
+
+    @Override
+    public void onError(WebSocketException e) {
+      errors.add(e);
+    }
+
+    @Override
+    public void onLogMessage(String msg) {
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.google.firebase.database.tubesock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.Inflater;
+import org.junit.Test;
+
+public class PerMessageDeflateTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static PerMessageDeflate negotiate(String extensions) {
+    Map<String, String> headers = ImmutableMap.of(
+        "Upgrade", "websocket", "sec-websocket-extensions", extensions);
+    return PerMessageDeflate.negotiate(headers);
+  }
+
+  private static byte[] bytes(int... values) {
+    byte[] bytes = new byte[values.length + 4];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return bytes;
+  }
+
+  private static String inflate(Inflater inflater, byte[] compressed) throws Exception {
+    byte[] input = Arrays.copyOf(compressed, compressed.length + 4);
+    input[input.length - 2] = (byte) 0xff;
+    input[input.length - 1] = (byte) 0xff;
+    inflater.setInput(input);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int length;
+    while ((length = inflater.inflate(buffer)) > 0) {
+      output.write(buffer, 0, length);
+    }
+    return new String(output.toByteArray(), UTF8);
+  }
+
+  @Test
+  public void serverCanDecline() {
+    assertNull(PerMessageDeflate.negotiate(ImmutableMap.of("Upgrade", "websocket")));
+    assertNull(negotiate(""));
+  }
+
+  @Test
+  public void acceptsServerParameters() {
+    PerMessageDeflate deflate = negotiate(
+        "permessage-deflate; server_no_context_takeover; client_no_context_takeover;"
+            + " server_max_window_bits=\"10\"");
+    assertNotNull(deflate);
+    deflate.release();
+  }
+
+  @Test
+  public void rejectsParametersThatWerentOffered() {
+    String[] responses = {
+        "permessage-deflate; client_max_window_bits=10",
+        "permessage-deflate; server_max_window_bits=7",
+        "permessage-deflate; server_no_context_takeover; server_no_context_takeover",
+        "permessage-deflate; unknown",
+        "permessage-deflate, permessage-deflate",
+        "x-webkit-deflate-frame",
+    };
+    for (String response : responses) {
+      try {
+        negotiate(response);
+        fail("Accepted " + response);
+      } catch (WebSocketException e) {
+        assertTrue(e.getMessage().startsWith("connection failed"));
+      }
+    }
+  }
+
+  @Test
+  public void decompressesWithContextTakeover() {
+    // The examples from RFC 7692, section 7.2.3.2
+    PerMessageDeflate deflate = negotiate("permessage-deflate");
+    assertEquals("Hello", new String(
+        deflate.decompress(bytes(0xf2, 0x48, 0xcd, 0xc9, 0xc9, 0x07, 0x00), 7), UTF8));
+    assertEquals("Hello", new String(
+        deflate.decompress(bytes(0xf2, 0x00, 0x11, 0x00, 0x00), 5), UTF8));
+    deflate.release();
+  }
+
+  @Test
+  public void decompressesWithoutContextTakeover() {
+    PerMessageDeflate deflate = negotiate("permessage-deflate; server_no_context_takeover");
+    for (int i = 0; i < 2; i++) {
+      assertEquals("Hello", new String(
+          deflate.decompress(bytes(0xf2, 0x48, 0xcd, 0xc9, 0xc9, 0x07, 0x00), 7), UTF8));
+    }
+    deflate.release();
+  }
+
+  @Test
+  public void compressesWithContextTakeover() throws Exception {
+    PerMessageDeflate deflate = negotiate("permessage-deflate");
+    String message = "{\"t\":\"d\",\"d\":{\"a\":\"q\",\"b\":{\"p\":\"/users/alice\",\"h\":\"\"}}}";
+    Inflater inflater = new Inflater(true);
+    byte[] first = deflate.compress(message.getBytes(UTF8));
+    assertEquals(message, inflate(inflater, first));
+    byte[] second = deflate.compress(message.getBytes(UTF8));
+    assertEquals(message, inflate(inflater, second));
+    // The second message refers back to the first
+    assertTrue(second.length < first.length);
+    inflater.end();
+    deflate.release();
+  }
+
+  @Test
+  public void compressesWithoutContextTakeover() throws Exception {
+    PerMessageDeflate deflate = negotiate("permessage-deflate; client_no_context_takeover");
+    String message = Strings.repeat("users/alice ", 100);
+    byte[] first = deflate.compress(message.getBytes(UTF8));
+    assertArrayEquals(first, deflate.compress(message.getBytes(UTF8)));
+    Inflater inflater = new Inflater(true);
+    assertEquals(message, inflate(inflater, first));
+    inflater.end();
+    deflate.release();
+  }
+
+  @Test
+  public void compressesOnlyLargeMessages() {
+    PerMessageDeflate deflate = negotiate("permessage-deflate");
+    assertFalse(PerMessageDeflate.shouldCompress(null, 100000));
+    assertFalse(PerMessageDeflate.shouldCompress(deflate, 10));
+    assertTrue(PerMessageDeflate.shouldCompress(deflate, 1000));
+    deflate.release();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.tubesock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.google.firebase.database.core.ThreadInitializer;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class SelectorPoolTest {
+
+  // Larger than the thread count of any pool the other tests share
+  private static final int THREAD_COUNT = 7;
+
+  @Test
+  public void sharedPoolIsShutDownByLastRelease() throws InterruptedException {
+    RecordingThreadFactory threadFactory = new RecordingThreadFactory();
+    SelectorPool pool = SelectorPool.acquireShared(
+        THREAD_COUNT, threadFactory, ThreadInitializer.defaultInstance);
+    assertSame(pool, SelectorPool.acquireShared(
+        THREAD_COUNT, threadFactory, ThreadInitializer.defaultInstance));
+    assertEquals(THREAD_COUNT, threadFactory.threads.size());
+
+    pool.release();
+    Thread selectorThread = threadFactory.threads.get(0);
+    selectorThread.join(500);
+    assertTrue(selectorThread.isAlive());
+
+    pool.release();
+    for (Thread thread : threadFactory.threads) {
+      thread.join(TimeUnit.SECONDS.toMillis(5));
+      assertFalse(thread.isAlive());
+    }
+
+    SelectorPool newPool = SelectorPool.acquireShared(
+        THREAD_COUNT, threadFactory, ThreadInitializer.defaultInstance);
+    try {
+      assertNotSame(pool, newPool);
+      assertEquals(2 * THREAD_COUNT, threadFactory.threads.size());
+    } finally {
+      newPool.release();
+    }
+  }
+
+  @Test
+  public void loopStopsOnceItsChannelsAreClosed() throws Exception {
+    RecordingThreadFactory threadFactory = new RecordingThreadFactory();
+    SelectorPool pool = SelectorPool.newPool(1, threadFactory, ThreadInitializer.defaultInstance);
+    final SelectorLoop loop = pool.nextLoop();
+    final Pipe pipe = Pipe.open();
+    pipe.source().configureBlocking(false);
+    final AtomicReference<SelectionKey> key = new AtomicReference<>();
+    final CountDownLatch registered = new CountDownLatch(1);
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          key.set(loop.register(pipe.source(), 0, null));
+        } catch (ClosedChannelException e) {
+          throw new RuntimeException(e);
+        }
+        registered.countDown();
+      }
+    });
+    assertTrue(registered.await(5, TimeUnit.SECONDS));
+
+    pool.shutdown();
+    Thread selectorThread = threadFactory.threads.get(0);
+    selectorThread.join(500);
+    assertTrue(selectorThread.isAlive());
+
+    loop.execute(new Runnable() {
+      @Override
+      public void run() {
+        key.get().cancel();
+        try {
+          pipe.source().close();
+          pipe.sink().close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    selectorThread.join(TimeUnit.SECONDS.toMillis(5));
+    assertFalse(selectorThread.isAlive());
+  }
+
+  private static class RecordingThreadFactory implements ThreadFactory {
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    @Override
+    public synchronized Thread newThread(Runnable runnable) {
+      Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+      threads.add(thread);
+      return thread;
+    }
+  }
+}
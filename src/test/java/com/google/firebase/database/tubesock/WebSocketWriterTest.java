@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.tubesock;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.firebase.database.core.ThreadInitializer;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+
+public class WebSocketWriterTest {
+
+  private static final ThreadConfig THREAD_CONFIG =
+      new ThreadConfig(Executors.defaultThreadFactory(), ThreadInitializer.defaultInstance);
+
+  @Test
+  public void framesQueuedBeforeCloseAreAllWritten() throws Exception {
+    WebSocket websocket = new WebSocket(URI.create("ws://localhost"), null, null, THREAD_CONFIG);
+    WebSocketWriter writer = new WebSocketWriter(websocket, THREAD_CONFIG, "Test", 0);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    writer.setOutput(output, null);
+
+    int[] payloadSizes = {10, 20, 30};
+    for (int size : payloadSizes) {
+      writer.send(WebSocket.OPCODE_TEXT, true, new byte[size]);
+    }
+    writer.stopIt();
+    writer.send(WebSocket.OPCODE_CLOSE, true, new byte[0]);
+    writer.start();
+    writer.waitForTermination();
+
+    // Each masked frame has a 2 byte header and a 4 byte mask ahead of its payload
+    byte[] written = output.toByteArray();
+    int offset = 0;
+    for (int size : payloadSizes) {
+      assertEquals((byte) (0x80 | WebSocket.OPCODE_TEXT), written[offset]);
+      assertEquals((byte) (0x80 | size), written[offset + 1]);
+      offset += 6 + size;
+    }
+    assertEquals((byte) (0x80 | WebSocket.OPCODE_CLOSE), written[offset]);
+    assertEquals((byte) 0x80, written[offset + 1]);
+    assertEquals(offset + 6, written.length);
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.firebase.database.snapshot.CompoundHash;
+import com.google.firebase.database.snapshot.Node;
+import com.google.firebase.database.snapshot.NodeUtilities;
+import com.google.firebase.database.snapshot.NodeValueFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class JsonStreamParserTest {
+
+  private static final String MESSAGE =
+      "{\"t\":\"d\",\"d\":{\"b\":{\"p\":\"foo/bar\",\"d\":{\"a\":1,\"b\":[true,null,\"x\"],"
+          + "\"c\":{\".priority\":2.5,\"d\":\"esc\\\"aped \\u00e9\"},\"e\":{\".value\":-3}}},"
+          + "\"a\":\"d\"}}";
+
+  private static List<String> split(String json, int segmentSize) {
+    List<String> segments = new ArrayList<>();
+    for (int i = 0; i < json.length(); i += segmentSize) {
+      segments.add(json.substring(i, Math.min(json.length(), i + segmentSize)));
+    }
+    return segments;
+  }
+
+  @Test
+  public void matchesJsonMapper() throws IOException {
+    Map<String, Object> expected = JsonMapper.parseJson(MESSAGE);
+    for (int segmentSize = 1; segmentSize <= MESSAGE.length(); segmentSize++) {
+      assertEquals(expected, JsonStreamParser.parseJson(split(MESSAGE, segmentSize)));
+    }
+  }
+
+  @Test
+  public void numbersAreTypedLikeJsonMapper() throws IOException {
+    Map<String, Object> parsed = JsonStreamParser.parseJson(Collections.singletonList(
+        "{\"i\":2147483647,\"l\":2147483648,\"d\":1.5,\"e\":4.9E-324,\"n\":-1}"));
+    assertEquals(2147483647, parsed.get("i"));
+    assertEquals(2147483648L, parsed.get("l"));
+    assertEquals(1.5, parsed.get("d"));
+    assertEquals(Double.MIN_VALUE, parsed.get("e"));
+    assertEquals(-1, parsed.get("n"));
+  }
+
+  @Test
+  public void deferredValueBuildsNodes() throws IOException {
+    @SuppressWarnings("unchecked")
+    Map<String, Object> expectedBody =
+        (Map<String, Object>) ((Map<String, Object>) JsonMapper.parseJson(MESSAGE).get("d"))
+            .get("b");
+    Node expected = NodeUtilities.NodeFromJSON(expectedBody.get("d"));
+
+    for (int segmentSize = 1; segmentSize <= MESSAGE.length(); segmentSize++) {
+      Map<String, Object> parsed =
+          JsonStreamParser.parseJson(split(MESSAGE, segmentSize), Arrays.asList("d", "b", "d"));
+      @SuppressWarnings("unchecked")
+      Map<String, Object> body =
+          (Map<String, Object>) ((Map<String, Object>) parsed.get("d")).get("b");
+      assertEquals("foo/bar", body.get("p"));
+      JsonStreamParser.DeferredValue deferred = (JsonStreamParser.DeferredValue) body.get("d");
+      assertEquals(expected, deferred.decode(NodeValueFactory.getInstance()));
+      assertEquals(expectedBody.get("d"), JsonMapper.parseJsonValue(deferred.toString()));
+    }
+  }
+
+  @Test
+  public void deferredMergeEntries() throws IOException {
+    Map<String, Object> parsed = JsonStreamParser.parseJson(
+        Collections.singletonList("{\"b\":{\"d\":{\"x/y\":{\"z\":1},\"w\":null}}}"),
+        Arrays.asList("b", "d"));
+    @SuppressWarnings("unchecked")
+    Map<String, Object> body = (Map<String, Object>) parsed.get("b");
+    Map<String, Object> entries = ((JsonStreamParser.DeferredValue) body.get("d"))
+        .decodeEntries(NodeValueFactory.getInstance());
+    assertEquals(2, entries.size());
+    assertEquals(NodeUtilities.NodeFromJSON(Collections.singletonMap("z", 1)),
+        entries.get("x/y"));
+    assertTrue(((Node) entries.get("w")).isEmpty());
+  }
+
+  @Test
+  public void deferredValueMayContainMaxChar() throws IOException {
+    // U+FFFF is a valid character in a JSON string, but equals the parser's EOF marker
+    String json = "{\"b\":{\"d\":{\"x\":\"a\uffffb\"}},\"c\":1}";
+    for (int segmentSize = 1; segmentSize <= json.length(); segmentSize++) {
+      Map<String, Object> parsed =
+          JsonStreamParser.parseJson(split(json, segmentSize), Arrays.asList("b", "d"));
+      assertEquals(1, parsed.get("c"));
+      @SuppressWarnings("unchecked")
+      Map<String, Object> body = (Map<String, Object>) parsed.get("b");
+      JsonStreamParser.DeferredValue deferred = (JsonStreamParser.DeferredValue) body.get("d");
+      assertEquals("{\"x\":\"a\uffffb\"}", deferred.toString());
+      assertEquals(NodeUtilities.NodeFromJSON(Collections.singletonMap("x", "a\uffffb")),
+          deferred.decode(NodeValueFactory.getInstance()));
+    }
+  }
+
+  @Test
+  public void invalidJsonIsRejected() {
+    List<String> invalid = Arrays.asList(
+        "", "[1]", "{\"a\":}", "{\"a\":1,}", "{\"a\":tru}", "{\"a\":\"b}", "{\"a\":1}x",
+        "{\"b\":{\"d\":{\"x\" 1}}}");
+    for (String json : invalid) {
+      try {
+        JsonStreamParser.parseJson(Collections.singletonList(json), Arrays.asList("b", "d"));
+        fail("Expected an IOException for " + json);
+      } catch (IOException expected) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void longStringsAreDecodedLazilyToTheSameNodes() throws IOException {
+    StringBuilder json = new StringBuilder("{\"doc\":\"");
+    for (int i = 0; i < 200; i++) {
+      json.append("{\\\"k\\\":\\\"v\\u00e9\\n\\/\\\\ \u00e9\u4e2d\ud83d\ude00\\\"}");
+    }
+    json.append("\",\"plain\":\"");
+    for (int i = 0; i < 2000; i++) {
+      json.append((char) ('a' + i % 26));
+    }
+    json.append("\",\"odd\":\"");
+    for (int i = 0; i < 2000; i++) {
+      json.append(i == 1000 ? '\ud800' : 'x');
+    }
+    json.append("\",\"short\":\"s\\\"t\"}");
+
+    Node expected = NodeUtilities.NodeFromJSON(JsonMapper.parseJsonValue(json.toString()));
+    for (int segmentSize : new int[] {1, 7, 500, json.length()}) {
+      Node node = (Node) JsonStreamParser.parseJsonValue(
+          split(json.toString(), segmentSize), NodeValueFactory.getInstance());
+      assertEquals(expected.getHash(), node.getHash());
+      assertEquals(
+          CompoundHash.fromNode(expected).getHashes(), CompoundHash.fromNode(node).getHashes());
+      assertEquals(expected, node);
+      assertEquals(expected.getValue(), node.getValue());
+    }
+  }
+
+  @Test
+  public void invalidEscapesInLongStringsAreRejected() {
+    StringBuilder json = new StringBuilder("{\"doc\":\"");
+    for (int i = 0; i < 2000; i++) {
+      json.append('x');
+    }
+    json.append("\\q\"}");
+    try {
+      JsonStreamParser.parseJsonValue(
+          Collections.singletonList(json.toString()), NodeValueFactory.getInstance());
+      fail("Should have failed");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+}
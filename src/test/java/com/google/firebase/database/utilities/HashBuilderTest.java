@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.io.BaseEncoding;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Random;
+import org.junit.Test;
+
+public class HashBuilderTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static String expectedHash(String input) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-1");
+    return BaseEncoding.base64().encode(digest.digest(input.getBytes(UTF8)));
+  }
+
+  private static String randomString(Random random, int length) {
+    StringBuilder builder = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      switch (random.nextInt(5)) {
+        case 0:
+          builder.append((char) random.nextInt(0x80));
+          break;
+        case 1:
+          builder.append((char) (0x80 + random.nextInt(0x780)));
+          break;
+        case 2:
+          builder.append((char) (0x800 + random.nextInt(0xf000)));
+          break;
+        case 3:
+          builder.appendCodePoint(0x10000 + random.nextInt(0x100000));
+          break;
+        default:
+          // Unpaired surrogates
+          builder.append((char) (0xd800 + random.nextInt(0x800)));
+          break;
+      }
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void matchesDigestOfWholeString() throws Exception {
+    Random random = new Random(42);
+    for (int i = 0; i < 200; i++) {
+      String input = randomString(random, random.nextInt(2000));
+      HashBuilder builder = HashBuilder.newBuilder();
+      int start = 0;
+      while (start < input.length()) {
+        int end = Math.min(input.length(), start + random.nextInt(10));
+        builder.append(input.substring(start, end));
+        start = end;
+      }
+      assertEquals(input.length(), builder.length());
+      assertEquals(expectedHash(input), builder.build());
+    }
+  }
+
+  @Test
+  public void matchesSha1HexDigest() throws Exception {
+    assertEquals(expectedHash(""), Utilities.sha1HexDigest(""));
+    assertEquals(expectedHash("string:hey guys"), Utilities.sha1HexDigest("string:hey guys"));
+  }
+
+  @Test
+  public void reusesBuilderOnlyWhenNotInUse() {
+    HashBuilder first = HashBuilder.newBuilder();
+    HashBuilder nested = HashBuilder.newBuilder();
+    assertNotSame(first, nested);
+    nested.append("nested").build();
+    first.append("first").build();
+    HashBuilder reused = HashBuilder.newBuilder();
+    assertSame(first, reused);
+    reused.build();
+  }
+
+  @Test
+  public void releaseDiscardsAbandonedBuilder() throws Exception {
+    HashBuilder abandoned = HashBuilder.newBuilder();
+    abandoned.append("abandoned");
+    abandoned.release();
+    HashBuilder reused = HashBuilder.newBuilder();
+    assertSame(abandoned, reused);
+    assertEquals(expectedHash("fresh"), reused.append("fresh").build());
+    // Releasing a builder that was built leaves it alone
+    reused.release();
+    assertSame(reused, HashBuilder.newBuilder());
+    reused.build();
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.firebase.database.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class PushIdGeneratorTest {
+
+  private static void assertAscending(List<String> names) {
+    for (int i = 1; i < names.size(); i++) {
+      assertTrue(names.get(i - 1).compareTo(names.get(i)) < 0);
+    }
+  }
+
+  @Test
+  public void namesForTheSameTimeAreOrdered() {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      names.add(PushIdGenerator.generatePushChildName(1000L));
+    }
+    names.add(PushIdGenerator.generatePushChildName(1001L));
+    assertAscending(names);
+    for (String name : names) {
+      assertEquals(20, name.length());
+    }
+  }
+
+  @Test
+  public void bulkNamesAreOrdered() {
+    String first = PushIdGenerator.generatePushChildName(2000L);
+    List<String> names = PushIdGenerator.generatePushChildNames(2000L, 500);
+    assertEquals(500, names.size());
+    names.add(0, first);
+    assertAscending(names);
+  }
+
+  @Test
+  public void concurrentThreadsGenerateUniqueNames() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<String>>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        futures.add(executor.submit(new Callable<List<String>>() {
+          @Override
+          public List<String> call() {
+            List<String> names = new ArrayList<>();
+            for (int j = 0; j < 10000; j++) {
+              names.add(PushIdGenerator.generatePushChildName(3000L));
+            }
+            return names;
+          }
+        }));
+      }
+      Set<String> all = new HashSet<>();
+      for (Future<List<String>> future : futures) {
+        List<String> names = future.get();
+        assertAscending(names);
+        all.addAll(names);
+      }
+      assertEquals(40000, all.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void namesAreOrderedAcrossThreads() throws Exception {
+    // The lock only records the order in which ids are created, generation itself doesn't need it
+    final List<String> names = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        final boolean bulk = i % 2 == 0;
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            for (int j = 0; j < 2000; j++) {
+              synchronized (names) {
+                if (bulk) {
+                  names.addAll(PushIdGenerator.generatePushChildNames(4000L, 3));
+                } else {
+                  names.add(PushIdGenerator.generatePushChildName(4000L));
+                }
+              }
+            }
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(16000, names.size());
+    assertAscending(names);
+  }
+}